@@ -0,0 +1,54 @@
+package com.ericgha.docuCloud.converter;
+
+import com.ericgha.docuCloud.configuration.JwtClaim;
+import com.ericgha.docuCloud.dto.CloudUser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.security.authentication.AbstractAuthenticationToken;
+import org.springframework.security.oauth2.jwt.Jwt;
+
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversion of a decoded JWT to the authentication of a request, done for every authenticated request.  Decoding and
+ * signature validation are done by Spring Security and not included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class JwtConverterBenchmark {
+
+    private final JwtToCloudUserConverter cloudUserConverter = new JwtToCloudUserConverter();
+    private final JwtToAuthenticationTokenConverter tokenConverter = new JwtToAuthenticationTokenConverter( cloudUserConverter );
+
+    private final Jwt jwt = Jwt.withTokenValue( "token" )
+            .header( "alg", "RS256" )
+            .issuedAt( Instant.now() )
+            .expiresAt( Instant.now().plusSeconds( 300 ) )
+            .claim( JwtClaim.USER_ID.key(), UUID.randomUUID().toString() )
+            .claim( JwtClaim.USERNAME.key(), "benchmarker" )
+            .claim( JwtClaim.EMAIL.key(), "benchmarker@example.com" )
+            .claim( JwtClaim.EMAIL_VERIFIED.key(), true )
+            .claim( JwtClaim.FULL_NAME.key(), "Bench Marker" )
+            .claim( JwtClaim.FIRST_NAME.key(), "Bench" )
+            .claim( JwtClaim.LAST_NAME.key(), "Marker" )
+            .claim( JwtClaim.REALM.key(), "cloud9" )
+            .claim( JwtClaim.SCOPE.key(), "openid profile email" )
+            .build();
+
+    @Benchmark
+    public CloudUser toCloudUser() {
+        return cloudUserConverter.convert( jwt );
+    }
+
+    @Benchmark
+    public AbstractAuthenticationToken toAuthenticationToken() {
+        return tokenConverter.convert( jwt ).block();
+    }
+}
@@ -0,0 +1,136 @@
+package com.ericgha.docuCloud.converter;
+
+import org.jooq.postgres.extensions.types.Ltree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static com.ericgha.docuCloud.converter.LtreePathCodec.IDENTIFIER;
+import static com.ericgha.docuCloud.converter.LtreePathCodec.SEPARATOR;
+
+/**
+ * {@link LtreePathCodec} against the {@code StringBuilder} based encoding it replaced (kept below as {@code legacy}),
+ * one path at a time and in bulk, e.g. the entries of an archive.  Run with
+ * {@code ./gradlew jmh -PjmhIncludes=LtreePathCodecBenchmark}.  Legacy decoding of the non-Latin path is not correct,
+ * as it only decodes two hex digits, but takes the same steps.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LtreePathCodecBenchmark {
+
+    private static final int BULK_PATHS = 1_000;
+
+    // alphanumeric only, with encoded ASCII characters, with kept and encoded non-ASCII characters
+    @Param({"/dir0/dir1/dir2/file0", "/My Documents/2022 (copy)/notes #1.txt", "/Документы/отчёт 2022/итог €.pdf"})
+    private String path;
+
+    private Ltree ltree;
+    private List<String> paths;
+    private List<Ltree> ltrees;
+
+    @Setup
+    public void setup() throws ParseException {
+        ltree = LtreePathCodec.encode( path );
+        paths = IntStream.range( 0, BULK_PATHS )
+                .mapToObj( i -> path + "/" + i )
+                .toList();
+        ltrees = LtreePathCodec.encodeAll( paths );
+    }
+
+    @Benchmark
+    public Ltree encode() throws ParseException {
+        return LtreePathCodec.encode( path );
+    }
+
+    @Benchmark
+    public Ltree encodeLegacy() {
+        return legacyParse( path );
+    }
+
+    @Benchmark
+    public String decode() {
+        return LtreePathCodec.decode( ltree );
+    }
+
+    @Benchmark
+    public String decodeLegacy() {
+        return legacyPrint( ltree );
+    }
+
+    @Benchmark
+    public List<Ltree> encodeAll() throws ParseException {
+        return LtreePathCodec.encodeAll( paths );
+    }
+
+    @Benchmark
+    public List<Ltree> encodeAllLegacy() {
+        List<Ltree> encoded = new ArrayList<>( paths.size() );
+        for (String p : paths) {
+            encoded.add( legacyParse( p ) );
+        }
+        return encoded;
+    }
+
+    @Benchmark
+    public List<String> decodeAll() {
+        return LtreePathCodec.decodeAll( ltrees );
+    }
+
+    @Benchmark
+    public List<String> decodeAllLegacy() {
+        List<String> decoded = new ArrayList<>( ltrees.size() );
+        for (Ltree l : ltrees) {
+            decoded.add( legacyPrint( l ) );
+        }
+        return decoded;
+    }
+
+    private static Ltree legacyParse(String text) {
+        StringBuilder builder = new StringBuilder( text.length() );
+        for (int i = 1; i < text.length(); i++) {
+            char c = text.charAt( i );
+            if (Character.isLetterOrDigit( c ) || c == '_') {
+                builder.append( c );
+            }
+            else if (c == SEPARATOR) {
+                builder.append( '.' );
+            }
+            else {
+                builder.append( IDENTIFIER );
+                builder.append( Integer.toHexString( c ) );
+            }
+        }
+        return Ltree.valueOf( builder.toString() );
+    }
+
+    private static String legacyPrint(Ltree ltree) {
+        String data = ltree.data();
+        StringBuilder decodeStr = new StringBuilder( data.length() );
+        decodeStr.append( SEPARATOR );
+        for (int i = 0; i < data.length(); i++) {
+            char c = data.charAt( i );
+            switch (c) {
+                case '.' -> decodeStr.append( SEPARATOR );
+                case IDENTIFIER -> {
+                    i++;
+                    decodeStr.append( (char) Integer.parseInt( data.substring( i, i + 2 ), 16 ) );
+                    i++;
+                }
+                default -> decodeStr.append( c );
+            }
+        }
+        return decodeStr.toString();
+    }
+}
@@ -0,0 +1,43 @@
+package com.ericgha.docuCloud.converter;
+
+import com.ericgha.docuCloud.dto.CloudUser;
+import com.ericgha.docuCloud.repository.BenchmarkSupport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * FileStore key generation, once per file of a get or put and per file of a batch delete.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ObjectIdentifierGeneratorBenchmark {
+
+    // max keys of one S3 DeleteObjects request
+    private static final int BATCH_SIZE = 1000;
+
+    private final CloudUser user = BenchmarkSupport.BENCHMARK_USER;
+
+    private final UUID fileId = UUID.randomUUID();
+    private final List<UUID> fileIds = Stream.generate( UUID::randomUUID ).limit( BATCH_SIZE ).toList();
+
+    @Benchmark
+    public ObjectIdentifier generate() {
+        return ObjectIdentifierGenerator.generate( fileId, user );
+    }
+
+    @Benchmark
+    public List<ObjectIdentifier> generateBatch() {
+        return ObjectIdentifierGenerator.generate( fileIds, user );
+    }
+}
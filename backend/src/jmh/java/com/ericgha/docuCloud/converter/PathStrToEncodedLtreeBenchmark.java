@@ -0,0 +1,46 @@
+package com.ericgha.docuCloud.converter;
+
+import org.jooq.postgres.extensions.types.Ltree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.text.ParseException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing and printing of request paths, done for every path in a request or response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PathStrToEncodedLtreeBenchmark {
+
+    // alphanumeric only, and with encoded characters
+    @Param({"/dir0/dir1/dir2/file0", "/My Documents/2022 (copy)/notes #1.txt"})
+    private String path;
+
+    private final PathStrToEncodedLtree converter = new PathStrToEncodedLtree();
+    private Ltree ltree;
+
+    @Setup
+    public void setup() throws ParseException {
+        ltree = converter.parse( path, Locale.US );
+    }
+
+    @Benchmark
+    public Ltree parse() throws ParseException {
+        return converter.parse( path, Locale.US );
+    }
+
+    @Benchmark
+    public String print() {
+        return converter.print( ltree, Locale.US );
+    }
+}
@@ -0,0 +1,50 @@
+package com.ericgha.docuCloud.dto;
+
+import com.ericgha.docuCloud.jooq.tables.records.FileViewRecord;
+import com.ericgha.docuCloud.jooq.tables.records.TreeRecord;
+import org.jooq.postgres.extensions.types.Ltree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.time.OffsetDateTime;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static com.ericgha.docuCloud.jooq.enums.ObjectType.FILE;
+
+/**
+ * Mapping of jOOQ records to DTOs, done for every row returned by the repositories.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RecordMappingBenchmark {
+
+    private final TreeRecord treeRecord = new TreeRecord().setObjectId( UUID.randomUUID() )
+            .setObjectType( FILE )
+            .setPath( Ltree.valueOf( "dir0.dir1.file0" ) )
+            .setUserId( UUID.randomUUID() )
+            .setCreatedAt( OffsetDateTime.now() );
+
+    private final FileViewRecord fileViewRecord = new FileViewRecord().setObjectId( UUID.randomUUID() )
+            .setFileId( UUID.randomUUID() )
+            .setUserId( UUID.randomUUID() )
+            .setUploadedAt( OffsetDateTime.now() )
+            .setLinkedAt( OffsetDateTime.now() )
+            .setChecksum( "2jmj7l5rSw0yVb/vlWAYkK/YBwk=" )
+            .setSize( 1024L );
+
+    @Benchmark
+    public TreeDto treeDtoFromRecord() {
+        return TreeDto.fromRecord( treeRecord );
+    }
+
+    @Benchmark
+    public FileViewDto fileViewDtoFromRecord() {
+        return FileViewDto.fromRecord( fileViewRecord );
+    }
+}
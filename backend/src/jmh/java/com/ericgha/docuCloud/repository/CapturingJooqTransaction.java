@@ -0,0 +1,39 @@
+package com.ericgha.docuCloud.repository;
+
+import com.ericgha.docuCloud.service.JooqTransaction;
+import org.jooq.DSLContext;
+import org.jooq.QueryPart;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.function.Function;
+
+/**
+ * Captures the query built by a repository method instead of executing it.  Queries are built with an unattached
+ * {@link DSLContext}, so no database is needed.
+ */
+class CapturingJooqTransaction extends JooqTransaction {
+
+    private QueryPart captured;
+
+    CapturingJooqTransaction() {
+        super( null, null, null, null );
+    }
+
+    @Override
+    public <T> Mono<T> withConnection(Function<DSLContext, Publisher<T>> monoFunction) {
+        captured = (QueryPart) monoFunction.apply( PreparedQuery.RENDER_DSL );
+        return Mono.empty();
+    }
+
+    @Override
+    public <T> Flux<T> withConnectionMany(Function<DSLContext, Publisher<T>> fluxFunction) {
+        captured = (QueryPart) fluxFunction.apply( PreparedQuery.RENDER_DSL );
+        return Flux.empty();
+    }
+
+    QueryPart captured() {
+        return captured;
+    }
+}
@@ -0,0 +1,105 @@
+package com.ericgha.docuCloud.repository;
+
+import com.ericgha.docuCloud.dto.CloudUser;
+import com.ericgha.docuCloud.dto.FileViewDto;
+import com.ericgha.docuCloud.dto.TreeDto;
+import com.ericgha.docuCloud.repository.TreeRepository.SourceShape;
+import org.jooq.Query;
+import org.jooq.postgres.extensions.types.Ltree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.OffsetDateTime;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static com.ericgha.docuCloud.jooq.enums.ObjectType.DIR;
+import static com.ericgha.docuCloud.repository.PreparedQuery.RENDER_DSL;
+
+/**
+ * Per request client side cost of the prepared repository queries against building, rendering and extracting the bind
+ * values of the jOOQ query on each call.  Executing the statement is common to both and excluded, so no database is
+ * needed.  Run with {@code ./gradlew jmh -PjmhIncludes=PreparedQueryBenchmark}, allocation is reported by the gc
+ * profiler as {@code gc.alloc.rate.norm}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PreparedQueryBenchmark {
+
+    private final CloudUser user = BenchmarkSupport.BENCHMARK_USER;
+
+    private final TreeDto dir = TreeDto.builder()
+            .objectId( UUID.randomUUID() )
+            .objectType( DIR )
+            .path( Ltree.valueOf( "dir0.dir1" ) ).build();
+
+    private final Ltree destination = Ltree.valueOf( "dir2" );
+
+    private final FileViewDto lastFile = new FileViewDto( UUID.randomUUID(), UUID.randomUUID(), user.getUserId(),
+            OffsetDateTime.now(), OffsetDateTime.now(), "checksum", 1L );
+
+    private TreeRepository treeRepository;
+    private FileRepository fileRepository;
+    private Map<SourceShape, PreparedQuery> lsShapes;
+    private Map<SourceShape, PreparedQuery> mvDirShapes;
+    private PreparedQuery lsNextFiles;
+
+    @Setup
+    public void setup() {
+        // query builders only, no connection is used
+        treeRepository = new TreeRepository( null );
+        fileRepository = new FileRepository( null );
+        lsShapes = TreeRepository.prepareShapes( false,
+                (source, destination, cloudUser) -> treeRepository.lsQuery( source, cloudUser, RENDER_DSL ) );
+        mvDirShapes = TreeRepository.prepareShapes( true,
+                (source, destination, cloudUser) -> treeRepository.mvDirQuery( source, destination, cloudUser, RENDER_DSL ) );
+        lsNextFiles = fileRepository.prepareLsNextFiles();
+    }
+
+    @Benchmark
+    public void lsRendered(Blackhole blackhole) {
+        renderAndBind( treeRepository.lsQuery( dir, user, RENDER_DSL ), blackhole );
+    }
+
+    @Benchmark
+    public Object[] lsPrepared() {
+        return lsShapes.get( SourceShape.of( dir ) )
+                .bindValues( TreeRepository.shapeArgs( dir, null, user ) );
+    }
+
+    @Benchmark
+    public void mvDirRendered(Blackhole blackhole) {
+        renderAndBind( treeRepository.mvDirQuery( dir, destination, user, RENDER_DSL ), blackhole );
+    }
+
+    @Benchmark
+    public Object[] mvDirPrepared() {
+        return mvDirShapes.get( SourceShape.of( dir ) )
+                .bindValues( TreeRepository.shapeArgs( dir, destination, user ) );
+    }
+
+    @Benchmark
+    public void lsNextFilesRendered(Blackhole blackhole) {
+        renderAndBind( fileRepository.lsNextFilesQuery( lastFile, 50, user, RENDER_DSL ), blackhole );
+    }
+
+    @Benchmark
+    public Object[] lsNextFilesPrepared() {
+        return lsNextFiles.bindValues( lastFile.getObjectId(), user.getUserId(), lastFile.getLinkedAt(),
+                lastFile.getUploadedAt(), lastFile.getFileId(), 50 );
+    }
+
+    // what jOOQ does per call before creating the statement
+    private static void renderAndBind(Query query, Blackhole blackhole) {
+        blackhole.consume( RENDER_DSL.render( query ) );
+        blackhole.consume( RENDER_DSL.extractBindValues( query ) );
+    }
+}
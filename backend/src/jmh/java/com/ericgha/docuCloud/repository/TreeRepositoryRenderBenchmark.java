@@ -0,0 +1,86 @@
+package com.ericgha.docuCloud.repository;
+
+import com.ericgha.docuCloud.dto.CloudUser;
+import com.ericgha.docuCloud.dto.TreeDto;
+import org.jooq.QueryPart;
+import org.jooq.postgres.extensions.types.Ltree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static com.ericgha.docuCloud.jooq.enums.ObjectType.DIR;
+import static com.ericgha.docuCloud.jooq.enums.ObjectType.FILE;
+import static com.ericgha.docuCloud.repository.PreparedQuery.RENDER_DSL;
+
+/**
+ * Building and rendering of the {@link TreeRepository} queries which are rendered on every call, with the production
+ * render settings.  Prepared queries (ls, mvDir) are covered by {@link PreparedQueryBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TreeRepositoryRenderBenchmark {
+
+    private final CloudUser user = BenchmarkSupport.BENCHMARK_USER;
+
+    private final TreeDto dir = TreeDto.builder()
+            .objectId( UUID.randomUUID() )
+            .objectType( DIR )
+            .path( Ltree.valueOf( "dir0.dir1" ) ).build();
+
+    private final TreeDto file = TreeDto.builder()
+            .objectId( UUID.randomUUID() )
+            .objectType( FILE )
+            .path( Ltree.valueOf( "dir0.dir1.file0" ) ).build();
+
+    private final Ltree destination = Ltree.valueOf( "dir2" );
+
+    private final CapturingJooqTransaction jooqTx = new CapturingJooqTransaction();
+    private final TreeRepository treeRepository = new TreeRepository( jooqTx );
+
+    @Benchmark
+    public String create() {
+        treeRepository.create( file, user );
+        return render( jooqTx.captured() );
+    }
+
+    @Benchmark
+    public String lsWithNewestFile() {
+        treeRepository.lsWithNewestFile( dir, user );
+        return render( jooqTx.captured() );
+    }
+
+    @Benchmark
+    public String lsFirstPage() {
+        treeRepository.lsFirstPage( dir, 50, user );
+        return render( jooqTx.captured() );
+    }
+
+    @Benchmark
+    public String mvFile() {
+        treeRepository.mvFile( file, destination, user );
+        return render( jooqTx.captured() );
+    }
+
+    @Benchmark
+    public String cpDirWithFiles() {
+        treeRepository.cpDirWithFiles( dir, destination, true, user );
+        return render( jooqTx.captured() );
+    }
+
+    @Benchmark
+    public String rmDirRecursive() {
+        treeRepository.rmDirRecursive( dir, user );
+        return render( jooqTx.captured() );
+    }
+
+    private static String render(QueryPart query) {
+        return RENDER_DSL.render( query );
+    }
+}
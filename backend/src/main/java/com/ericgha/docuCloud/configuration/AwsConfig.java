@@ -66,6 +66,22 @@ public class AwsConfig {
         return builder.build();
     }
 
+    @Bean
+    S3TransferSettings transferSettings() {
+        S3TransferSettings defaults = S3TransferSettings.DEFAULT;
+        return new S3TransferSettings(
+                Long.parseLong( propertiesService.get( AwsPropertiesKey.MULTIPART_THRESHOLD,
+                        String.valueOf( defaults.multipartThreshold() ) ) ),
+                Integer.parseInt( propertiesService.get( AwsPropertiesKey.MULTIPART_PART_SIZE,
+                        String.valueOf( defaults.partSize() ) ) ),
+                Integer.parseInt( propertiesService.get( AwsPropertiesKey.MULTIPART_CONCURRENCY,
+                        String.valueOf( defaults.partConcurrency() ) ) ),
+                Integer.parseInt( propertiesService.get( AwsPropertiesKey.DOWNLOAD_PART_SIZE,
+                        String.valueOf( defaults.downloadPartSize() ) ) ),
+                Integer.parseInt( propertiesService.get( AwsPropertiesKey.DOWNLOAD_CONCURRENCY,
+                        String.valueOf( defaults.downloadConcurrency() ) ) ) );
+    }
+
     @Bean("ROOT")
     Bucket rootBucket() {
         return Bucket.builder().name(propertiesService.get( AwsPropertiesKey.S3_BUCKET ) ).build();
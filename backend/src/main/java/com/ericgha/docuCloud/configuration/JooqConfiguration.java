@@ -1,6 +1,9 @@
 package com.ericgha.docuCloud.configuration;
 
+import com.ericgha.docuCloud.configuration.properties.JooqPropertiesKey;
+import com.ericgha.docuCloud.service.AppEnvPropertiesService;
 import com.ericgha.docuCloud.service.JooqTransaction;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.r2dbc.spi.ConnectionFactory;
 import lombok.AllArgsConstructor;
 import org.jooq.DSLContext;
@@ -8,6 +11,7 @@ import org.jooq.SQLDialect;
 import org.jooq.conf.RenderQuotedNames;
 import org.jooq.conf.Settings;
 import org.jooq.impl.DSL;
+import org.jooq.impl.DefaultConfiguration;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.jooq.DefaultConfigurationCustomizer;
 import org.springframework.context.annotation.Bean;
@@ -20,11 +24,22 @@ import org.springframework.transaction.ReactiveTransactionManager;
 public class JooqConfiguration {
 
     private final ConnectionFactory cfi;
-    private static final Settings DSL_SETTINGS = new Settings().withRenderFormatted( true )
-            .withBindOffsetDateTimeType( true )
-            .withBindOffsetTimeType( true );
+    private final AppEnvPropertiesService propertiesService;
     private static final SQLDialect DSL_DIALECT = SQLDialect.POSTGRES;
 
+    /**
+     * Formatting SQL is a significant share of render time and only helps when reading logged queries, so it is
+     * disabled unless {@code app.jooq.render-formatted} is true (e.g. in dev).
+     *
+     * @param formatted if rendered SQL is pretty printed
+     * @return settings used by every {@link DSLContext}
+     */
+    public static Settings renderSettings(boolean formatted) {
+        return new Settings().withRenderFormatted( formatted )
+                .withBindOffsetDateTimeType( true )
+                .withBindOffsetTimeType( true );
+    }
+
     @Bean
     public DefaultConfigurationCustomizer configurationCustomizer() {
         return c -> c.settings()
@@ -36,12 +51,21 @@ public class JooqConfiguration {
     // are not transaction aware.
     @Bean
     public DSLContext jooqDslContext() {
-        return DSL.using( cfi, DSL_DIALECT, DSL_SETTINGS );
+        return DSL.using( this.baseConfiguration().derive( cfi ) );
     }
 
     @Bean
-    public JooqTransaction dslPublisher(@Autowired DatabaseClient databaseClient, @Autowired ReactiveTransactionManager transactionManager) {
-        return new JooqTransaction(databaseClient, transactionManager, DSL_DIALECT, DSL_SETTINGS);
+    public JooqTransaction dslPublisher(@Autowired DatabaseClient databaseClient, @Autowired ReactiveTransactionManager transactionManager,
+                                        @Autowired MeterRegistry meterRegistry) {
+        return new JooqTransaction(databaseClient, transactionManager, this.baseConfiguration(), meterRegistry);
+    }
+
+    // Dialect and settings without a connection, connections are set per DSLContext
+    private org.jooq.Configuration baseConfiguration() {
+        boolean formatted = Boolean.parseBoolean( propertiesService.get( JooqPropertiesKey.RENDER_FORMATTED, "false" ) );
+        return new DefaultConfiguration()
+                .set( DSL_DIALECT )
+                .set( renderSettings( formatted ) );
     }
 
 //    @Bean
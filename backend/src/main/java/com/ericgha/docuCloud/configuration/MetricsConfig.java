@@ -0,0 +1,68 @@
+package com.ericgha.docuCloud.configuration;
+
+import com.ericgha.docuCloud.configuration.properties.MetricsPropertiesKey;
+import com.ericgha.docuCloud.repository.FileRepository;
+import com.ericgha.docuCloud.repository.TreeRepository;
+import com.ericgha.docuCloud.service.AppEnvPropertiesService;
+import com.ericgha.docuCloud.service.DocumentService;
+import com.ericgha.docuCloud.service.FileStore;
+import com.ericgha.docuCloud.service.JooqTransaction;
+import com.ericgha.docuCloud.util.metrics.OperationMetrics;
+import com.ericgha.docuCloud.util.metrics.OperationMetricsPostProcessor;
+import com.ericgha.docuCloud.util.metrics.OperationMetricsPostProcessor.Component;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Times every operation of the repositories, file stores, {@link DocumentService} and {@link JooqTransaction}, see
+ * {@link OperationMetrics}.  Meters are published on the {@code prometheus} actuator endpoint.
+ */
+@Configuration
+public class MetricsConfig {
+
+    // static: post processors are created before the other beans of this configuration
+    @Bean
+    static OperationMetricsPostProcessor operationMetricsPostProcessor(ObjectProvider<MeterRegistry> meterRegistry) {
+        return new OperationMetricsPostProcessor( List.of(
+                new Component( TreeRepository.class, true ),
+                new Component( FileRepository.class, true ),
+                new Component( FileStore.class, false ),
+                new Component( DocumentService.class, false ),
+                new Component( JooqTransaction.class, false ) ),
+                meterRegistry );
+    }
+
+    /**
+     * Publishes percentile histograms for the operations listed in {@code app.metrics.histograms}.  Operations not
+     * listed only record count, sum and max.  {@code connection} enables the histogram of connection acquisition.
+     */
+    @Bean
+    MeterFilter operationHistogramFilter(AppEnvPropertiesService propertiesService) {
+        Set<String> operations = OperationMetrics.parseOperations(
+                propertiesService.get( MetricsPropertiesKey.HISTOGRAMS, "" ) );
+        return new MeterFilter() {
+            @Override
+            public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+                boolean enabled = switch (id.getName()) {
+                    case OperationMetrics.OPERATION_TIMER -> operations.contains(
+                            Objects.requireNonNullElse( id.getTag( OperationMetrics.OPERATION_TAG ), "" ) );
+                    case OperationMetrics.CONNECTION_ACQUIRE_TIMER -> operations.contains( "connection" );
+                    default -> false;
+                };
+                return enabled ? DistributionStatisticConfig.builder()
+                        .percentilesHistogram( true )
+                        .build()
+                        .merge( config ) : config;
+            }
+        };
+    }
+}
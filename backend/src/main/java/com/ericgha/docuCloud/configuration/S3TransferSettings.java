@@ -0,0 +1,49 @@
+package com.ericgha.docuCloud.configuration;
+
+/**
+ * Tuning of transfers between {@link com.ericgha.docuCloud.service.S3FileStore S3FileStore} and S3.
+ *
+ * @param multipartThreshold files of at least this many bytes are uploaded with a multipart upload
+ * @param partSize           bytes per part of a multipart upload, S3 requires at least 5 MiB
+ * @param partConcurrency    max parts of a multipart upload uploaded concurrently
+ * @param downloadPartSize   bytes per range of a ranged download, files of at most this many bytes are downloaded with
+ *                           a single request
+ * @param downloadConcurrency max ranges of a ranged download fetched concurrently, ahead of the range being streamed
+ */
+public record S3TransferSettings(long multipartThreshold, int partSize, int partConcurrency,
+                                 int downloadPartSize, int downloadConcurrency) {
+
+    public static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+    // max parts of a multipart upload allowed by S3
+    public static final int MAX_PARTS = 10_000;
+
+    public static final S3TransferSettings DEFAULT = new S3TransferSettings( 64L * 1024 * 1024, 16 * 1024 * 1024, 4,
+            8 * 1024 * 1024, 4 );
+
+    public S3TransferSettings {
+        if (partSize < MIN_PART_SIZE) {
+            throw new IllegalArgumentException( String.format( "partSize must be at least %d bytes", MIN_PART_SIZE ) );
+        }
+        if (multipartThreshold < partSize) {
+            throw new IllegalArgumentException( "multipartThreshold must be at least partSize" );
+        }
+        if (partConcurrency < 1) {
+            throw new IllegalArgumentException( "partConcurrency must be positive" );
+        }
+        if (downloadPartSize < 1) {
+            throw new IllegalArgumentException( "downloadPartSize must be positive" );
+        }
+        if (downloadConcurrency < 1) {
+            throw new IllegalArgumentException( "downloadConcurrency must be positive" );
+        }
+    }
+
+    /**
+     * @param size of the file
+     * @return {@code partSize}, or when a file would need more than {@code MAX_PARTS} parts, the smallest part size
+     * which uploads the file in {@code MAX_PARTS}
+     */
+    public long partSizeFor(long size) {
+        return Math.max( partSize, ( size + MAX_PARTS - 1 ) / MAX_PARTS );
+    }
+}
@@ -9,7 +9,12 @@ public enum AwsPropertiesKey implements PropertyKey {
     S3_ENDPOINT( "s3-endpoint" ),
     S3_BUCKET( "s3-bucket" ),
     S3_ENDPOINT_OVERRRIDE("s3-endpoint-override"),
-    REGION("region");
+    REGION("region"),
+    MULTIPART_THRESHOLD("multipart-threshold"),
+    MULTIPART_PART_SIZE("multipart-part-size"),
+    MULTIPART_CONCURRENCY("multipart-concurrency"),
+    DOWNLOAD_PART_SIZE("download-part-size"),
+    DOWNLOAD_CONCURRENCY("download-concurrency");
 
     public static final String PREFIX = "app.s3.";
     private final String key;
@@ -0,0 +1,22 @@
+package com.ericgha.docuCloud.configuration.properties;
+
+import com.ericgha.docuCloud.service.PropertyKey;
+
+public enum FileCachePropertiesKey implements PropertyKey {
+
+    ROOT( "root" ),
+    MAX_SIZE( "max-size" ),
+    MAX_FILE_SIZE( "max-file-size" );
+
+    public static final String PREFIX = "app.file-cache.";
+    private final String key;
+
+    FileCachePropertiesKey(String key) {
+        this.key = key;
+    }
+
+    public String get() {
+        return PREFIX + key;
+    }
+
+}
@@ -0,0 +1,20 @@
+package com.ericgha.docuCloud.configuration.properties;
+
+import com.ericgha.docuCloud.service.PropertyKey;
+
+public enum JooqPropertiesKey implements PropertyKey {
+
+    RENDER_FORMATTED( "render-formatted" );
+
+    public static final String PREFIX = "app.jooq.";
+    private final String key;
+
+    JooqPropertiesKey(String key) {
+        this.key = key;
+    }
+
+    public String get() {
+        return PREFIX + key;
+    }
+
+}
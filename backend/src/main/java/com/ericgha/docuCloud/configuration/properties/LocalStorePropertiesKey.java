@@ -0,0 +1,21 @@
+package com.ericgha.docuCloud.configuration.properties;
+
+import com.ericgha.docuCloud.service.PropertyKey;
+
+public enum LocalStorePropertiesKey implements PropertyKey {
+
+    ROOT( "root" ),
+    MMAP_THRESHOLD( "mmap-threshold" );
+
+    public static final String PREFIX = "app.local-store.";
+    private final String key;
+
+    LocalStorePropertiesKey(String key) {
+        this.key = key;
+    }
+
+    public String get() {
+        return PREFIX + key;
+    }
+
+}
@@ -0,0 +1,20 @@
+package com.ericgha.docuCloud.configuration.properties;
+
+import com.ericgha.docuCloud.service.PropertyKey;
+
+public enum MetricsPropertiesKey implements PropertyKey {
+
+    HISTOGRAMS( "histograms" );
+
+    public static final String PREFIX = "app.metrics.";
+    private final String key;
+
+    MetricsPropertiesKey(String key) {
+        this.key = key;
+    }
+
+    public String get() {
+        return PREFIX + key;
+    }
+
+}
@@ -0,0 +1,21 @@
+package com.ericgha.docuCloud.configuration.properties;
+
+import com.ericgha.docuCloud.service.PropertyKey;
+
+public enum R2dbcPoolPropertiesKey implements PropertyKey {
+
+    WARMUP( "warmup" ),
+    WARMUP_TIMEOUT( "warmup-timeout" );
+
+    public static final String PREFIX = "app.r2dbc-pool.";
+    private final String key;
+
+    R2dbcPoolPropertiesKey(String key) {
+        this.key = key;
+    }
+
+    public String get() {
+        return PREFIX + key;
+    }
+
+}
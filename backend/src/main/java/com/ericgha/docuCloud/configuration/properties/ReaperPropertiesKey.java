@@ -0,0 +1,24 @@
+package com.ericgha.docuCloud.configuration.properties;
+
+import com.ericgha.docuCloud.service.PropertyKey;
+
+public enum ReaperPropertiesKey implements PropertyKey {
+
+    ENABLED( "enabled" ),
+    BATCH_SIZE( "batch-size" ),
+    INTERVAL( "interval" ),
+    LEASE( "lease" ),
+    MAX_ATTEMPTS( "max-attempts" );
+
+    public static final String PREFIX = "app.blob-reaper.";
+    private final String key;
+
+    ReaperPropertiesKey(String key) {
+        this.key = key;
+    }
+
+    public String get() {
+        return PREFIX + key;
+    }
+
+}
@@ -1,29 +1,45 @@
 package com.ericgha.docuCloud.controller;
 
+import com.ericgha.docuCloud.converter.LtreePathCodec;
+import com.ericgha.docuCloud.dto.ArchiveEntryResult;
+import com.ericgha.docuCloud.dto.ByteRange;
 import com.ericgha.docuCloud.dto.CloudUser;
 import com.ericgha.docuCloud.dto.FileDto;
 import com.ericgha.docuCloud.dto.FileViewDto;
+import com.ericgha.docuCloud.dto.LsSeekInitResponse;
 import com.ericgha.docuCloud.dto.SeekInitResponse;
 import com.ericgha.docuCloud.dto.TreeAndFileView;
+import com.ericgha.docuCloud.dto.TreeCreateRequest;
+import com.ericgha.docuCloud.dto.TreeCreateResult;
 import com.ericgha.docuCloud.dto.TreeDto;
+import com.ericgha.docuCloud.exceptions.ConcurrencyLimitException;
 import com.ericgha.docuCloud.exceptions.DeleteFailureException;
 import com.ericgha.docuCloud.exceptions.IllegalObjectTypeException;
 import com.ericgha.docuCloud.exceptions.InsertFailureException;
+import com.ericgha.docuCloud.exceptions.MalformedArchiveException;
+import com.ericgha.docuCloud.exceptions.RangeNotSatisfiableException;
 import com.ericgha.docuCloud.exceptions.RecordNotFoundException;
+import com.ericgha.docuCloud.exceptions.UploadVerificationException;
 import com.ericgha.docuCloud.repository.testtool.file.UpdateFailureException;
 import com.ericgha.docuCloud.service.DocumentService;
 import com.ericgha.docuCloud.util.StatusCodeMapper;
+import com.ericgha.docuCloud.util.archive.ArchiveDecoder;
 import lombok.RequiredArgsConstructor;
 import org.jooq.postgres.extensions.types.Ltree;
 import org.springframework.context.annotation.Profile;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Flux;
@@ -31,19 +47,28 @@ import reactor.core.publisher.Mono;
 import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 
 import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
+import java.util.zip.Deflater;
 
 import static com.ericgha.docuCloud.jooq.enums.ObjectType.FILE;
 import static org.springframework.http.HttpStatus.BAD_REQUEST;
 import static org.springframework.http.HttpStatus.NOT_FOUND;
+import static org.springframework.http.HttpStatus.PARTIAL_CONTENT;
+import static org.springframework.http.HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE;
+import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
+import static org.springframework.http.HttpStatus.UNSUPPORTED_MEDIA_TYPE;
 
 @RestController
 @RequiredArgsConstructor
-@Profile("(test & s3) | !test")
+@Profile("(test & (s3 | local-fs)) | !test")
 @RequestMapping("api/document")
 public class DocumentController {
 
+    private static final MediaType APPLICATION_ZIP = MediaType.parseMediaType( "application/zip" );
+
     private final DocumentService documentService;
 
      /*
@@ -51,28 +76,55 @@ public class DocumentController {
     # Key - : not used, * : referenced through fKey, X: used
     HTTP Method     Method                          TreeRepository     FileRepository   FileStore
     GET             ls                                   X                   X              -
+    GET             lsFirstPage                          X                   *              -
+    GET             lsNextPage                           X                   *              -
     GET             fetchFirstPageFileVersions           *                   X              -
     GET             fetchNextPage                        *                   X              -
     GET             getFileData                          -                   -              X
-    DELETE          rmTreeObject                         X                   X              X
-    DELETE          rmVersion                            *                   X              X
+    GET             zip                                  X                   *              X
+    DELETE          rmTreeObject                         X                   X              -
+    DELETE          rmVersion                            *                   X              -
     POST            createRoot                           X                   -              -
     POST            createDir                            X                   -              -
+    POST            createAll                            X                   -              -
     POST            addFileVersion                       *                   X              X
+    HEAD            hasFile (version/dedup)              -                   X              -
+    POST            linkFileVersion                      X                   X              -
     POST            createFile                           X                   X              X
+    POST            expandArchive                        X                   X              X
     PATCH           mv                                   X                   -              -
     POST            cp                                   X                   X              -
      */
 
     @GetMapping("ls")
-    public Flux<TreeAndFileView> ls(TreeDto source, @AuthenticationPrincipal CloudUser cloudUser, ServerHttpResponse response) {
-        return documentService.ls( source, cloudUser )
+    public Flux<TreeAndFileView> ls(TreeDto source, @RequestParam(defaultValue = "false") boolean stats,
+                                    @AuthenticationPrincipal CloudUser cloudUser, ServerHttpResponse response) {
+        return documentService.ls( source, stats, cloudUser )
                 .doOnError( e -> response.setStatusCode(
                         StatusCodeMapper.mapThrowable( e,
                                 RecordNotFoundException.class, NOT_FOUND,
                                 IllegalObjectTypeException.class, BAD_REQUEST  ) ) );
     }
 
+    @GetMapping("lsFirst")
+    public Mono<LsSeekInitResponse> lsFirst(TreeDto source, @RequestParam(defaultValue = "100") Integer limit,
+                                            @RequestParam(defaultValue = "true") boolean count,
+                                            @RequestParam(defaultValue = "false") boolean stats,
+                                            @AuthenticationPrincipal CloudUser cloudUser, ServerHttpResponse response) {
+        return documentService.lsFirstPage( source, limit, count, stats, cloudUser )
+                .doOnError( e -> response.setStatusCode(
+                        StatusCodeMapper.mapThrowable( e, IllegalObjectTypeException.class, BAD_REQUEST ) ) );
+    }
+
+    @GetMapping("lsNext")
+    public Flux<TreeAndFileView> lsNext(TreeDto last, @RequestParam(defaultValue = "100") Integer limit,
+                                        @RequestParam(defaultValue = "false") boolean stats,
+                                        @AuthenticationPrincipal CloudUser cloudUser, ServerHttpResponse response) {
+        return documentService.lsNextPage( last, limit, stats, cloudUser )
+                .doOnError( e -> response.setStatusCode(
+                        StatusCodeMapper.mapThrowable( e, IllegalArgumentException.class, BAD_REQUEST ) ) );
+    }
+
     @GetMapping("versionsFirst")
     public Mono<SeekInitResponse> versionsFirst(TreeDto source, @RequestParam(defaultValue = "25") Integer limit, @AuthenticationPrincipal CloudUser cloudUser) {
         return documentService.fetchFirstPageFileVersions( source, limit, cloudUser );
@@ -83,11 +135,49 @@ public class DocumentController {
         return documentService.fetchNextPage( last, limit, cloudUser );
     }
 
+    // A Range header with a single byte range is answered with 206 and only that range.  Without a Range header,
+    // or with an invalid or multi-range one, the whole file is returned.
     @GetMapping("version")
-    public Flux<ByteBuffer> getVersion(FileViewDto fileViewDto, @AuthenticationPrincipal CloudUser cloudUser, ServerHttpResponse response) {
-        return documentService.getFileData( fileViewDto, cloudUser )
+    public Flux<ByteBuffer> getVersion(FileViewDto fileViewDto,
+                                       @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+                                       @AuthenticationPrincipal CloudUser cloudUser, ServerHttpResponse response) {
+        response.getHeaders().set( HttpHeaders.ACCEPT_RANGES, ByteRange.UNIT );
+        Flux<ByteBuffer> data = ByteRange.parseSingle( range )
+                .map( byteRange -> documentService.getFileData( fileViewDto, byteRange, cloudUser )
+                        .flatMapMany( partial -> {
+                            // the store may ignore the range, the whole file is then answered with 200
+                            if (partial.isPartial()) {
+                                response.setStatusCode( PARTIAL_CONTENT );
+                                response.getHeaders().set( HttpHeaders.CONTENT_RANGE, partial.contentRange() );
+                            }
+                            response.getHeaders().setContentLength( partial.contentLength() );
+                            return partial.data();
+                        } ) )
+                .orElseGet( () -> documentService.getFileData( fileViewDto, cloudUser ) );
+        return data.doOnError( e -> {
+            response.setStatusCode( StatusCodeMapper.mapThrowable( e, NoSuchKeyException.class, NOT_FOUND,
+                    RangeNotSatisfiableException.class, REQUESTED_RANGE_NOT_SATISFIABLE ) );
+            // RFC 9110 14.4: a 416 gives the current length of the file
+            if (e instanceof RangeNotSatisfiableException notSatisfiable && notSatisfiable.contentRange() != null) {
+                response.getHeaders().set( HttpHeaders.CONTENT_RANGE, notSatisfiable.contentRange() );
+            }
+        } );
+    }
+
+    // Streams a ZIP of the newest version of every file under source.  compress=false stores files without
+    // compression, which is faster for content that is already compressed.
+    @GetMapping("zip")
+    public Flux<ByteBuffer> zip(TreeDto source, @RequestParam(defaultValue = "true") boolean compress,
+                                @AuthenticationPrincipal CloudUser cloudUser, ServerHttpResponse response) {
+        response.getHeaders().setContentType( APPLICATION_ZIP );
+        response.getHeaders().setContentDisposition( ContentDisposition.attachment()
+                .filename( zipFilename( source ) ).build() );
+        int level = compress ? Deflater.DEFAULT_COMPRESSION : Deflater.NO_COMPRESSION;
+        return documentService.zip( source, level, cloudUser )
                 .doOnError( e -> response.setStatusCode(
-                        StatusCodeMapper.mapThrowable( e, NoSuchKeyException.class, NOT_FOUND ) ) );
+                        StatusCodeMapper.mapThrowable( e,
+                                RecordNotFoundException.class, NOT_FOUND,
+                                IllegalObjectTypeException.class, BAD_REQUEST ) ) );
     }
 
     @DeleteMapping("tree")
@@ -113,29 +203,94 @@ public class DocumentController {
                 .doOnError( e -> response.setStatusCode( StatusCodeMapper.mapThrowable( e, InsertFailureException.class, BAD_REQUEST ) ) );
     }
 
+    // mkdir -p for many objects in one request, FILEs are created without versions.  Results are sent once all are
+    // created, so a failure is a 400 and never a truncated 200.  Newline delimited JSON when requested with
+    // Accept: application/x-ndjson
+    @PostMapping("batch")
+    public Flux<TreeCreateResult> createAll(@RequestBody List<TreeCreateRequest> requests,
+                                            @AuthenticationPrincipal CloudUser cloudUser, ServerHttpResponse response) {
+        List<TreeDto> treeDtos = requests.stream()
+                .map( TreeCreateRequest::toTreeDto )
+                .toList();
+        return documentService.createAll( treeDtos, cloudUser )
+                .doOnError( e -> response.setStatusCode( StatusCodeMapper.mapThrowable( e,
+                        IllegalObjectTypeException.class, BAD_REQUEST,
+                        IllegalArgumentException.class, BAD_REQUEST,
+                        InsertFailureException.class, BAD_REQUEST ) ) );
+    }
+
     @PostMapping("file")
     public Mono<TreeAndFileView> createFile(Flux<ByteBuffer> data, @RequestHeader Ltree path,
                                             @RequestHeader String checksum, @RequestHeader Long size,
+                                            @RequestHeader(defaultValue = "false") boolean dedup,
                                             @AuthenticationPrincipal CloudUser cloudUser, ServerHttpResponse response) {
         TreeDto treeDto = TreeDto.builder()
                 .path( path ).objectType( FILE ).build();
         FileDto fileDto = FileDto.builder()
                 .checksum( checksum ).size( size ).build();
-        return documentService.createFile( treeDto, fileDto, data, cloudUser )
+        return documentService.createFile( treeDto, fileDto, data, dedup, cloudUser )
                 .doOnError( e -> response.setStatusCode( StatusCodeMapper.mapThrowable( e, IllegalObjectTypeException.class, BAD_REQUEST,
-                        InsertFailureException.class, BAD_REQUEST ) ) );
+                        InsertFailureException.class, BAD_REQUEST,
+                        UploadVerificationException.class, BAD_REQUEST ) ) );
+    }
+
+    // Expands a ZIP (Content-Type: application/zip) or TAR (application/x-tar) body under the path header.  The
+    // response is a manifest with one result per entry; entries fail individually and do not fail the request.
+    @PostMapping("archive")
+    public Flux<ArchiveEntryResult> expandArchive(Flux<ByteBuffer> data, @RequestHeader Ltree path,
+                                                  @RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+                                                  @AuthenticationPrincipal CloudUser cloudUser, ServerHttpResponse response) {
+        return Mono.fromCallable( () -> ArchiveDecoder.Format.fromContentType( contentType ) )
+                .flatMapMany( format -> documentService.expandArchive( path, data, format, cloudUser ) )
+                .doOnError( e -> response.setStatusCode( StatusCodeMapper.mapThrowable( e,
+                        IllegalArgumentException.class, UNSUPPORTED_MEDIA_TYPE,
+                        MalformedArchiveException.class, BAD_REQUEST,
+                        ConcurrencyLimitException.class, SERVICE_UNAVAILABLE ) ) );
     }
 
     @PostMapping("version")
     public Mono<TreeAndFileView> addFileVersion(Flux<ByteBuffer> data, @RequestHeader UUID objectId,
                                                 @RequestHeader String checksum, @RequestHeader Long size,
+                                                @RequestHeader(defaultValue = "false") boolean dedup,
                                                 @AuthenticationPrincipal CloudUser cloudUser, ServerHttpResponse response) {
         TreeDto treeDto = TreeDto.builder()
                 .objectId( objectId ).objectType( FILE ).build();
         FileDto fileDto = FileDto.builder()
                 .checksum( checksum ).size( size ).build();
-        return documentService.addFileVersion( treeDto, fileDto, data, cloudUser )
+        return documentService.addFileVersion( treeDto, fileDto, data, dedup, cloudUser )
+                .doOnError( e -> response.setStatusCode( StatusCodeMapper.mapThrowable( e,
+                        IllegalObjectTypeException.class, BAD_REQUEST,
+                        InsertFailureException.class, BAD_REQUEST,
+                        UploadVerificationException.class, BAD_REQUEST ) ) );
+    }
+
+    // Dedup preflight: 200 if the user has a file with this checksum and size, and "version/link" can add it
+    // without sending the data, otherwise 404.  Not mapped to "version", whose implicit HEAD is the download's.
+    @RequestMapping(value = "version/dedup", method = RequestMethod.HEAD)
+    public Mono<Void> hasFile(@RequestHeader String checksum, @RequestHeader Long size,
+                              @AuthenticationPrincipal CloudUser cloudUser, ServerHttpResponse response) {
+        FileDto fileDto = FileDto.builder()
+                .checksum( checksum ).size( size ).build();
+        return documentService.hasFile( fileDto, cloudUser )
+                .doOnNext( found -> {
+                    if (!found) {
+                        response.setStatusCode( NOT_FOUND );
+                    }
+                } )
+                .then();
+    }
+
+    @PostMapping("version/link")
+    public Mono<TreeAndFileView> linkFileVersion(@RequestHeader UUID objectId,
+                                                 @RequestHeader String checksum, @RequestHeader Long size,
+                                                 @AuthenticationPrincipal CloudUser cloudUser, ServerHttpResponse response) {
+        TreeDto treeDto = TreeDto.builder()
+                .objectId( objectId ).objectType( FILE ).build();
+        FileDto fileDto = FileDto.builder()
+                .checksum( checksum ).size( size ).build();
+        return documentService.linkFileVersion( treeDto, fileDto, cloudUser )
                 .doOnError( e -> response.setStatusCode( StatusCodeMapper.mapThrowable( e,
+                        RecordNotFoundException.class, NOT_FOUND,
                         IllegalObjectTypeException.class, BAD_REQUEST,
                         InsertFailureException.class, BAD_REQUEST ) ) );
     }
@@ -159,4 +314,14 @@ public class DocumentController {
                         NullPointerException.class, BAD_REQUEST,
                         InsertFailureException.class, BAD_REQUEST ) ) );
     }
+
+    // last label of the source path, the source path may be null when source is identified by objectId
+    private static String zipFilename(TreeDto source) {
+        Ltree path = source.getPath();
+        if (Objects.isNull( path ) || path.data().isEmpty()) {
+            return "documents.zip";
+        }
+        String pathStr = path.data();
+        return LtreePathCodec.decode( pathStr, pathStr.lastIndexOf( '.' ) + 1, false ) + ".zip";
+    }
 }
@@ -0,0 +1,271 @@
+package com.ericgha.docuCloud.converter;
+
+import org.jooq.postgres.extensions.types.Ltree;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Encodes {@code /} separated paths as {@link Ltree}s and decodes them back, see {@link PathStrToEncodedLtree}.
+ * Letters, digits and {@code _} are kept, {@code /} is mapped to the ltree separator {@code .} and every other
+ * character is escaped by the {@link #IDENTIFIER}:
+ * <ul>
+ *     <li>{@code ǃhh} for characters up to {@code 0xff}, two lowercase hex digits</li>
+ *     <li>{@code ǃǃhhhh} for all other characters, four lowercase hex digits, including the identifier itself</li>
+ * </ul>
+ * The length of an encoding is known from the first character after the identifier, so every {@code char} (the
+ * full BMP, and surrogate pairs as two escapes) round trips.
+ * <br><br>
+ * Paths were previously stored in a legacy encoding, {@code ǃ} followed by the hex digits of the character without
+ * leading zeros (i.e. {@code ǃh} below {@code 0x10} and {@code ǃhhh} or {@code ǃhhhh} above {@code 0xff}).  It is
+ * identical for all other characters.  The legacy form is ambiguous (e.g. {@code ǃ2014} was written for both
+ * {@code —} and {@code " 14"}), so stored paths cannot be re-encoded.  Instead, lookups by path also match
+ * {@link #legacyEncoding(String)}.  Stored legacy paths decode as they did before, two hex digits per escape.
+ * <br><br>
+ * Which characters are kept is looked up in a table built once, and both directions write straight into a
+ * {@code char[]} of the exact (encode) or maximum (decode) length, so no intermediate strings are created.  The bulk
+ * methods reuse one buffer for all paths.
+ */
+public final class LtreePathCodec {
+
+    static final char IDENTIFIER = 'ǃ'; // this is a 'Latin Letter Retroflex Click' character
+    static final char SEPARATOR = '/'; // character that should be mapped to '.' the ltree separator
+    static final char LTREE_SEPARATOR = '.';
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final int SHORT_ESCAPE_MAX = 0xff;
+    private static final int SHORT_ESCAPE_LEN = 3;
+    private static final int LONG_ESCAPE_LEN = 6;
+    // one bit per char, set if the char is kept as is
+    private static final long[] KEPT = new long[(Character.MAX_VALUE + 1) >>> 6];
+    // value of an ASCII hex digit, -1 for other chars
+    private static final byte[] HEX_VALUES = new byte[128];
+
+    static {
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            if ((Character.isLetterOrDigit( c ) || c == '_') && c != IDENTIFIER) {
+                KEPT[c >>> 6] |= 1L << c;
+            }
+        }
+        Arrays.fill( HEX_VALUES, (byte) -1 );
+        for (int i = 0; i < 16; i++) {
+            HEX_VALUES[Character.forDigit( i, 16 )] = (byte) i;
+            HEX_VALUES[Character.toUpperCase( Character.forDigit( i, 16 ) )] = (byte) i;
+        }
+    }
+
+    private LtreePathCodec() {
+        throw new IllegalStateException( "Utility class" );
+    }
+
+    /**
+     * @param path path beginning with the {@link #SEPARATOR}
+     * @return encoded path
+     * @throws ParseException if path does not begin with the {@link #SEPARATOR}
+     */
+    public static Ltree encode(String path) throws ParseException {
+        char[] encoded = new char[encodedLength( path )];
+        encodeInto( path, encoded );
+        return Ltree.valueOf( new String( encoded ) );
+    }
+
+    /**
+     * @param ltree encoded path
+     * @return path beginning with the {@link #SEPARATOR}
+     * @throws IllegalArgumentException if an escape is truncated or has a non-hex digit
+     */
+    public static String decode(Ltree ltree) throws IllegalArgumentException {
+        return decode( ltree.data(), 0, true );
+    }
+
+    /**
+     * Decodes the labels of {@code data} from {@code from}, e.g. the part of a path below a parent, without creating
+     * the {@link Ltree} of that part.
+     *
+     * @param data             ltree data
+     * @param from             index of the first char to decode, the first char of a label
+     * @param leadingSeparator if the decoded path begins with the {@link #SEPARATOR}
+     * @return decoded path
+     * @throws IllegalArgumentException if an escape is truncated or has a non-hex digit
+     */
+    public static String decode(String data, int from, boolean leadingSeparator) throws IllegalArgumentException {
+        char[] decoded = new char[data.length() - from + 1];
+        return new String( decoded, 0, decodeInto( data, from, leadingSeparator, decoded ) );
+    }
+
+    /**
+     * As {@link #encode(String)} for each path, sharing one buffer.
+     *
+     * @throws ParseException if a path does not begin with the {@link #SEPARATOR}, the error offset is that of the
+     *                        path in {@code paths}
+     */
+    public static List<Ltree> encodeAll(List<String> paths) throws ParseException {
+        List<Ltree> encoded = new ArrayList<>( paths.size() );
+        char[] buffer = new char[0];
+        for (int i = 0; i < paths.size(); i++) {
+            String path = paths.get( i );
+            int length;
+            try {
+                length = encodedLength( path );
+            } catch (ParseException e) {
+                throw new ParseException( e.getMessage(), i );
+            }
+            if (buffer.length < length) {
+                buffer = new char[Math.max( length, buffer.length * 2 )];
+            }
+            encodeInto( path, buffer );
+            encoded.add( Ltree.valueOf( new String( buffer, 0, length ) ) );
+        }
+        return encoded;
+    }
+
+    /**
+     * As {@link #decode(Ltree)} for each ltree, sharing one buffer.
+     *
+     * @throws IllegalArgumentException if an escape is truncated or has a non-hex digit
+     */
+    public static List<String> decodeAll(List<Ltree> ltrees) throws IllegalArgumentException {
+        List<String> decoded = new ArrayList<>( ltrees.size() );
+        char[] buffer = new char[0];
+        for (Ltree ltree : ltrees) {
+            String data = ltree.data();
+            if (buffer.length < data.length() + 1) {
+                buffer = new char[Math.max( data.length() + 1, buffer.length * 2 )];
+            }
+            decoded.add( new String( buffer, 0, decodeInto( data, 0, true, buffer ) ) );
+        }
+        return decoded;
+    }
+
+    /**
+     * The legacy encoding of an encoded path, for lookups of paths stored before escapes had a fixed width.
+     *
+     * @param data ltree data
+     * @return the legacy encoding, or null if it is the same as {@code data} or the path has no legacy encoding (it
+     * contains the {@link #IDENTIFIER}, which was rejected)
+     * @throws IllegalArgumentException if an escape is truncated or has a non-hex digit
+     */
+    public static String legacyEncoding(String data) throws IllegalArgumentException {
+        if (data.indexOf( IDENTIFIER ) < 0) {
+            return null;
+        }
+        String path = decode( data, 0, false );
+        StringBuilder legacy = new StringBuilder( data.length() );
+        boolean differs = false;
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt( i );
+            if (isKept( c )) {
+                legacy.append( c );
+            }
+            else if (c == SEPARATOR) {
+                legacy.append( LTREE_SEPARATOR );
+            }
+            else if (c == IDENTIFIER) {
+                return null;
+            }
+            else {
+                legacy.append( IDENTIFIER ).append( Integer.toHexString( c ) );
+                differs |= c < 0x10 || c > SHORT_ESCAPE_MAX;
+            }
+        }
+        return differs ? legacy.toString() : null;
+    }
+
+    static boolean isKept(char c) {
+        return (KEPT[c >>> 6] & (1L << c)) != 0;
+    }
+
+    private static int encodedLength(String path) throws ParseException {
+        Objects.requireNonNull( path, "path" );
+        if (path.isEmpty() || path.charAt( 0 ) != SEPARATOR) {
+            throw new ParseException( String.format( "Input string must being with the '%c' character", SEPARATOR ),
+                    path.isEmpty() ? -1 : 0 );
+        }
+        int length = 0;
+        for (int i = 1; i < path.length(); i++) {
+            char c = path.charAt( i );
+            if (isKept( c ) || c == SEPARATOR) {
+                length++;
+            }
+            else {
+                length += c <= SHORT_ESCAPE_MAX ? SHORT_ESCAPE_LEN : LONG_ESCAPE_LEN;
+            }
+        }
+        return length;
+    }
+
+    // dest must have room for encodedLength chars
+    private static void encodeInto(String path, char[] dest) {
+        int pos = 0;
+        for (int i = 1; i < path.length(); i++) {
+            char c = path.charAt( i );
+            if (isKept( c )) {
+                dest[pos++] = c;
+            }
+            else if (c == SEPARATOR) {
+                dest[pos++] = LTREE_SEPARATOR;
+            }
+            else if (c <= SHORT_ESCAPE_MAX) {
+                dest[pos++] = IDENTIFIER;
+                dest[pos++] = HEX_DIGITS[c >>> 4];
+                dest[pos++] = HEX_DIGITS[c & 0xf];
+            }
+            else {
+                dest[pos++] = IDENTIFIER;
+                dest[pos++] = IDENTIFIER;
+                dest[pos++] = HEX_DIGITS[c >>> 12];
+                dest[pos++] = HEX_DIGITS[(c >>> 8) & 0xf];
+                dest[pos++] = HEX_DIGITS[(c >>> 4) & 0xf];
+                dest[pos++] = HEX_DIGITS[c & 0xf];
+            }
+        }
+    }
+
+    // dest must have room for data.length() - from + 1 chars, returns the decoded length
+    private static int decodeInto(String data, int from, boolean leadingSeparator, char[] dest) {
+        int pos = 0;
+        if (leadingSeparator) {
+            dest[pos++] = SEPARATOR;
+        }
+        int i = from;
+        while (i < data.length()) {
+            char c = data.charAt( i );
+            if (c == LTREE_SEPARATOR) {
+                dest[pos++] = SEPARATOR;
+                i++;
+            }
+            else if (c != IDENTIFIER) {
+                dest[pos++] = c;
+                i++;
+            }
+            else if (i + 1 < data.length() && data.charAt( i + 1 ) == IDENTIFIER) {
+                dest[pos++] = (char) hexValue( data, i + 2, 4 );
+                i += LONG_ESCAPE_LEN;
+            }
+            else {
+                dest[pos++] = (char) hexValue( data, i + 1, 2 );
+                i += SHORT_ESCAPE_LEN;
+            }
+        }
+        return pos;
+    }
+
+    private static int hexValue(String data, int from, int digits) throws IllegalArgumentException {
+        if (from + digits > data.length()) {
+            throw new IllegalArgumentException( "Improperly encoded non-alphanumeric character" );
+        }
+        int value = 0;
+        for (int i = from; i < from + digits; i++) {
+            char c = data.charAt( i );
+            int digit = c < HEX_VALUES.length ? HEX_VALUES[c] : -1;
+            if (digit < 0) {
+                throw new IllegalArgumentException( "Improperly encoded non-alphanumeric character" );
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+}
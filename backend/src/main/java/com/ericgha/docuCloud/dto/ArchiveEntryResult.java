@@ -0,0 +1,21 @@
+package com.ericgha.docuCloud.dto;
+
+import lombok.NonNull;
+
+/**
+ * Outcome of expanding one archive entry into the tree.
+ *
+ * @param name             entry name in the archive
+ * @param treeAndFileView  the DIR, or the FILE and its new version.  Null when the entry failed
+ * @param error            why the entry failed, null on success
+ */
+public record ArchiveEntryResult(@NonNull String name, TreeAndFileView treeAndFileView, String error) {
+
+    public static ArchiveEntryResult created(String name, TreeAndFileView treeAndFileView) {
+        return new ArchiveEntryResult( name, treeAndFileView, null );
+    }
+
+    public static ArchiveEntryResult failed(String name, String error) {
+        return new ArchiveEntryResult( name, null, error );
+    }
+}
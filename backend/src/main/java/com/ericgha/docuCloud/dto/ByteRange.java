@@ -0,0 +1,72 @@
+package com.ericgha.docuCloud.dto;
+
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A single byte range of a {@code Range} request header.  Either {@code first} or {@code last} may be null, but not
+ * both:
+ * <ul>
+ *     <li>{@code first-last}: bytes {@code first} through {@code last}, inclusive</li>
+ *     <li>{@code first-}: bytes {@code first} through the end of the file</li>
+ *     <li>{@code -last}: the final {@code last} bytes of the file</li>
+ * </ul>
+ *
+ * @param first first byte of the range, null for a suffix range
+ * @param last  last byte of the range, or length of a suffix range, null for an open range
+ */
+public record ByteRange(Long first, Long last) {
+
+    public static final String UNIT = "bytes";
+
+    private static final Pattern SINGLE_RANGE = Pattern.compile( "^\\s*" + UNIT + "=\\s*(\\d*)-(\\d*)\\s*$" );
+
+    public ByteRange {
+        if (first == null && last == null) {
+            throw new IllegalArgumentException( "first and last cannot both be null" );
+        }
+        if (first != null && first < 0 || last != null && last < 0) {
+            throw new IllegalArgumentException( "first and last must not be negative" );
+        }
+        if (first != null && last != null && last < first) {
+            throw new IllegalArgumentException( "last must not be less than first" );
+        }
+        if (first == null && last == 0) {
+            throw new IllegalArgumentException( "suffix length must be positive" );
+        }
+    }
+
+    /**
+     * Parses a {@code Range} header with a single byte range.  An invalid header, or one with multiple ranges, should
+     * be ignored and the whole file served (RFC 9110 section 14.2), so this returns an empty optional rather than
+     * throwing.
+     *
+     * @param rangeHeader value of the {@code Range} header, may be null
+     * @return the range, or an empty optional if {@code rangeHeader} is null, invalid or has multiple ranges
+     */
+    public static Optional<ByteRange> parseSingle(String rangeHeader) {
+        if (rangeHeader == null) {
+            return Optional.empty();
+        }
+        Matcher matcher = SINGLE_RANGE.matcher( rangeHeader );
+        if (!matcher.matches()) {
+            return Optional.empty();
+        }
+        try {
+            Long first = matcher.group( 1 ).isEmpty() ? null : Long.valueOf( matcher.group( 1 ) );
+            Long last = matcher.group( 2 ).isEmpty() ? null : Long.valueOf( matcher.group( 2 ) );
+            return Optional.of( new ByteRange( first, last ) );
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException on overflow is also an IllegalArgumentException
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @return the range formatted as a {@code Range} header value, e.g. {@code bytes=0-99}
+     */
+    public String toHeaderValue() {
+        return String.format( "%s=%s-%s", UNIT, first == null ? "" : first, last == null ? "" : last );
+    }
+}
@@ -0,0 +1,9 @@
+package com.ericgha.docuCloud.dto;
+
+import lombok.NonNull;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+public record LsSeekInitResponse(@NonNull Flux<TreeAndFileView> firstPage, @NonNull Mono<Long> numChildren) {
+
+}
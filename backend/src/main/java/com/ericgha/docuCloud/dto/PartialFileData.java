@@ -0,0 +1,25 @@
+package com.ericgha.docuCloud.dto;
+
+import lombok.NonNull;
+import reactor.core.publisher.Flux;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Data of a byte range of a file.
+ *
+ * @param contentRange  {@code Content-Range} of the data, e.g. {@code bytes 0-99/1000}.  Null when the store ignored
+ *                      the range (e.g. an S3 compatible store answering 200 without a {@code Content-Range}), then
+ *                      {@code data} is the whole file
+ * @param contentLength number of bytes in {@code data}
+ * @param data          bytes of the range
+ */
+public record PartialFileData(String contentRange, long contentLength, @NonNull Flux<ByteBuffer> data) {
+
+    /**
+     * @return false if data is the whole file rather than the requested range
+     */
+    public boolean isPartial() {
+        return contentRange != null;
+    }
+}
@@ -1,9 +1,23 @@
 package com.ericgha.docuCloud.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.NonNull;
 
 
-public record TreeAndFileView(@NonNull TreeDto treeDto, FileViewDto fileViewDto) implements Comparable<TreeAndFileView> {
+/**
+ * A tree object, the newest version of a FILE and, when requested, the aggregates of the object.
+ *
+ * @param treeDto     the tree object
+ * @param fileViewDto newest version, null for a ROOT or DIR and for a FILE without versions
+ * @param stats       aggregates, null unless requested or if the object has none.  Omitted from JSON when null, so
+ *                    responses without stats are unchanged
+ */
+public record TreeAndFileView(@NonNull TreeDto treeDto, FileViewDto fileViewDto,
+                              @JsonInclude(JsonInclude.Include.NON_NULL) TreeStatsDto stats) implements Comparable<TreeAndFileView> {
+
+    public TreeAndFileView(@NonNull TreeDto treeDto, FileViewDto fileViewDto) {
+        this( treeDto, fileViewDto, null );
+    }
 
     /**
      * Compares {@code TreeDto} then {@code FileViewDto} using
@@ -0,0 +1,20 @@
+package com.ericgha.docuCloud.dto;
+
+import com.ericgha.docuCloud.jooq.enums.ObjectType;
+import org.jooq.postgres.extensions.types.Ltree;
+
+/**
+ * A tree object to create in a batch.
+ *
+ * @param path       path of the object
+ * @param objectType DIR or FILE
+ */
+public record TreeCreateRequest(String path, ObjectType objectType) {
+
+    public TreeDto toTreeDto() {
+        return TreeDto.builder()
+                .path( path == null ? null : Ltree.valueOf( path ) )
+                .objectType( objectType )
+                .build();
+    }
+}
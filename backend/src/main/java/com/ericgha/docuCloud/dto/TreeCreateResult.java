@@ -0,0 +1,13 @@
+package com.ericgha.docuCloud.dto;
+
+import lombok.NonNull;
+
+/**
+ * Result of creating a tree object in a batch.
+ *
+ * @param treeDto the tree object
+ * @param created true if it was created, false if it already existed
+ */
+public record TreeCreateResult(@NonNull TreeDto treeDto, boolean created) {
+
+}
@@ -0,0 +1,22 @@
+package com.ericgha.docuCloud.dto;
+
+import com.ericgha.docuCloud.jooq.tables.records.TreeStatsRecord;
+import lombok.NonNull;
+
+/**
+ * Aggregates of a tree object, maintained by the database in the {@code tree_stats} table.  For a ROOT or DIR the
+ * descendent DIRs and FILEs are counted, and the bytes are those of the versions of the descendent FILEs.  For a FILE
+ * the counts are 0 and the bytes are those of its own versions.
+ *
+ * @param newestBytes     sum of the size of the newest version of each FILE
+ * @param allVersionBytes sum of the size of every version of each FILE
+ * @param dirCount        number of descendent DIRs
+ * @param fileCount       number of descendent FILEs
+ */
+public record TreeStatsDto(long newestBytes, long allVersionBytes, long dirCount, long fileCount) {
+
+    public static TreeStatsDto fromRecord(@NonNull TreeStatsRecord treeStatsRecord) {
+        return new TreeStatsDto( treeStatsRecord.getNewestBytes(), treeStatsRecord.getAllVersionBytes(),
+                treeStatsRecord.getDirCount(), treeStatsRecord.getFileCount() );
+    }
+}
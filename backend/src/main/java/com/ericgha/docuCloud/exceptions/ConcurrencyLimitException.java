@@ -0,0 +1,28 @@
+package com.ericgha.docuCloud.exceptions;
+
+/**
+ * Thrown when an operation is rejected because the max number of concurrent executions is already running.  The
+ * operation may be retried later.
+ */
+public class ConcurrencyLimitException extends RuntimeException {
+
+    public ConcurrencyLimitException() {
+        super();
+    }
+
+    public ConcurrencyLimitException(String message) {
+        super( message );
+    }
+
+    public ConcurrencyLimitException(String message, Throwable cause) {
+        super( message, cause );
+    }
+
+    public ConcurrencyLimitException(Throwable cause) {
+        super( cause );
+    }
+
+    protected ConcurrencyLimitException(String message, Throwable cause, boolean enableSuppression, boolean writableStackTrace) {
+        super( message, cause, enableSuppression, writableStackTrace );
+    }
+}
@@ -0,0 +1,28 @@
+package com.ericgha.docuCloud.exceptions;
+
+/**
+ * Thrown when an uploaded archive cannot be parsed, for example when it is truncated or is not of the declared
+ * format.
+ */
+public class MalformedArchiveException extends RuntimeException {
+
+    public MalformedArchiveException() {
+        super();
+    }
+
+    public MalformedArchiveException(String message) {
+        super( message );
+    }
+
+    public MalformedArchiveException(String message, Throwable cause) {
+        super( message, cause );
+    }
+
+    public MalformedArchiveException(Throwable cause) {
+        super( cause );
+    }
+
+    protected MalformedArchiveException(String message, Throwable cause, boolean enableSuppression, boolean writableStackTrace) {
+        super( message, cause, enableSuppression, writableStackTrace );
+    }
+}
@@ -0,0 +1,62 @@
+package com.ericgha.docuCloud.exceptions;
+
+import java.util.Objects;
+
+/**
+ * Thrown when a requested byte range does not overlap the file, for example when it starts after the end of the
+ * file.  The size of the file, if known, is answered in the {@code Content-Range} of the 416 response.
+ */
+public class RangeNotSatisfiableException extends RuntimeException {
+
+    private final Long size;
+
+    public RangeNotSatisfiableException(String message, long size) {
+        super( message );
+        this.size = size;
+    }
+
+    public RangeNotSatisfiableException(String message, long size, Throwable cause) {
+        super( message, cause );
+        this.size = size;
+    }
+
+    public RangeNotSatisfiableException() {
+        super();
+        this.size = null;
+    }
+
+    public RangeNotSatisfiableException(String message) {
+        super( message );
+        this.size = null;
+    }
+
+    public RangeNotSatisfiableException(String message, Throwable cause) {
+        super( message, cause );
+        this.size = null;
+    }
+
+    public RangeNotSatisfiableException(Throwable cause) {
+        super( cause );
+        this.size = null;
+    }
+
+    protected RangeNotSatisfiableException(String message, Throwable cause, boolean enableSuppression, boolean writableStackTrace) {
+        super( message, cause, enableSuppression, writableStackTrace );
+        this.size = null;
+    }
+
+    /**
+     * @return size of the file in bytes, null if unknown
+     */
+    public Long getSize() {
+        return size;
+    }
+
+    /**
+     * @return {@code Content-Range} of a 416 response, the unit and {@code *} over the size, null if the size is
+     * unknown
+     */
+    public String contentRange() {
+        return Objects.isNull( size ) ? null : "bytes */" + size;
+    }
+}
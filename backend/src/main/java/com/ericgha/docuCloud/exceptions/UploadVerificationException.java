@@ -0,0 +1,27 @@
+package com.ericgha.docuCloud.exceptions;
+
+/**
+ * Thrown when uploaded data does not match its declared checksum or size.
+ */
+public class UploadVerificationException extends RuntimeException {
+
+    public UploadVerificationException() {
+        super();
+    }
+
+    public UploadVerificationException(String message) {
+        super( message );
+    }
+
+    public UploadVerificationException(String message, Throwable cause) {
+        super( message, cause );
+    }
+
+    public UploadVerificationException(Throwable cause) {
+        super( cause );
+    }
+
+    protected UploadVerificationException(String message, Throwable cause, boolean enableSuppression, boolean writableStackTrace) {
+        super( message, cause, enableSuppression, writableStackTrace );
+    }
+}
@@ -5,9 +5,15 @@ import com.ericgha.docuCloud.dto.FileDto;
 import com.ericgha.docuCloud.dto.FileViewDto;
 import com.ericgha.docuCloud.dto.TreeDto;
 import com.ericgha.docuCloud.dto.TreeJoinFileDto;
+import com.ericgha.docuCloud.jooq.enums.ObjectType;
+import com.ericgha.docuCloud.jooq.tables.TreeJoinFile;
 import com.ericgha.docuCloud.jooq.tables.records.FileViewRecord;
 import com.ericgha.docuCloud.service.JooqTransaction;
+import io.r2dbc.spi.Row;
+import io.r2dbc.spi.RowMetadata;
 import lombok.RequiredArgsConstructor;
+import org.jooq.DSLContext;
+import org.jooq.Field;
 import org.jooq.Record1;
 import org.jooq.Record2;
 import org.jooq.ResultQuery;
@@ -15,10 +21,14 @@ import org.springframework.stereotype.Repository;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.time.OffsetDateTime;
+import java.util.Collection;
 import java.util.UUID;
 
 import static com.ericgha.docuCloud.jooq.Routines.fileViewDel;
+import static com.ericgha.docuCloud.jooq.Tables.FILE;
 import static com.ericgha.docuCloud.jooq.Tables.FILE_VIEW;
+import static com.ericgha.docuCloud.jooq.Tables.TREE;
 import static com.ericgha.docuCloud.jooq.Tables.TREE_JOIN_FILE;
 import static org.jooq.impl.DSL.*;
 
@@ -29,6 +39,9 @@ public class FileRepository {
 
     private final JooqTransaction jooqTx;
 
+    // arguments: objectId, userId, linkedAt, uploadedAt, fileId, limit
+    private final PreparedQuery lsNextFiles = prepareLsNextFiles();
+
     // TODO ensure no ref to non file objects
     // TODO ensure each file has object degree >= 1
     // TODO tests of table constraints
@@ -58,6 +71,66 @@ public class FileRepository {
                 .mapNotNull( FileViewDto::fromRecord );
     }
 
+    /**
+     * Finds a file of the user with the same content, for deduplication of uploads.  The oldest match is returned, so
+     * repeated lookups return the same file.
+     *
+     * @param file      required fields {@code checksum} and {@code size}
+     * @param cloudUser
+     * @return a file with equal checksum and size, or empty if none
+     */
+    public <T extends FileDto> Mono<FileDto> findFile(T file, CloudUser cloudUser) {
+        if (file.getChecksum() == null || file.getSize() == null) {
+            return Mono.empty();
+        }
+        return jooqTx.withConnection( dsl -> dsl.selectFrom( FILE )
+                        .where( FILE.USER_ID.eq( cloudUser.getUserId() ) )
+                        .and( FILE.CHECKSUM.eq( file.getChecksum() ) )
+                        .and( FILE.SIZE.eq( file.getSize() ) )
+                        .orderBy( FILE.UPLOADED_AT.asc(), FILE.FILE_ID.asc() )
+                        .limit( 1 ) )
+                .map( FileDto::fromRecord );
+    }
+
+    /**
+     * Links an existing file to a FILE object as its newest version.  If the file is already linked to the object, its
+     * {@code linked_at} is updated, making it the newest version again.  Unlike
+     * {@link FileRepository#createEdge(FileDto, TreeDto, CloudUser)}, both the object and the file must belong to the
+     * user; otherwise nothing is linked.
+     *
+     * @param treeObject required field {@code objectId}
+     * @param file       required field {@code fileId}
+     * @param cloudUser
+     * @return the linked version, or empty if the object or file was not found
+     */
+    public <T extends FileDto> Mono<FileViewDto> linkFile(TreeDto treeObject, T file, CloudUser cloudUser) {
+        return jooqTx.withConnection( dsl -> {
+                    var linked = name( "linked" ).fields( "object_id", "file_id", "linked_at" ).as(
+                            dsl.insertInto( TREE_JOIN_FILE, TREE_JOIN_FILE.OBJECT_ID, TREE_JOIN_FILE.FILE_ID,
+                                            TREE_JOIN_FILE.LINKED_AT )
+                                    .select( select( TREE.OBJECT_ID, FILE.FILE_ID, currentOffsetDateTime() )
+                                            .from( TREE, FILE )
+                                            .where( TREE.OBJECT_ID.eq( treeObject.getObjectId() ) )
+                                            .and( TREE.USER_ID.eq( cloudUser.getUserId() ) )
+                                            .and( TREE.OBJECT_TYPE.eq( ObjectType.FILE ) )
+                                            .and( FILE.FILE_ID.eq( file.getFileId() ) )
+                                            .and( FILE.USER_ID.eq( cloudUser.getUserId() ) ) )
+                                    .onConflict( TREE_JOIN_FILE.OBJECT_ID, TREE_JOIN_FILE.FILE_ID )
+                                    .doUpdate()
+                                    .set( TREE_JOIN_FILE.LINKED_AT, currentOffsetDateTime() )
+                                    .returning( TREE_JOIN_FILE.OBJECT_ID, TREE_JOIN_FILE.FILE_ID,
+                                            TREE_JOIN_FILE.LINKED_AT ) );
+                    return dsl.with( linked )
+                            .select( linked.field( "object_id", UUID.class ), FILE.FILE_ID, FILE.USER_ID,
+                                    FILE.UPLOADED_AT, linked.field( "linked_at", OffsetDateTime.class ),
+                                    FILE.CHECKSUM, FILE.SIZE )
+                            .from( linked )
+                            .join( FILE ).on( FILE.FILE_ID.eq( linked.field( "file_id", UUID.class ) ) )
+                            .coerce( FILE_VIEW );
+                } )
+                .mapNotNull( FileViewDto::fromRecord );
+    }
+
     // This is intended for when a file version is being deleted
     // returns file edge pointed to and if the file was deleted (creating an orphan fileResource)
     // throws if record not found or not user's
@@ -81,6 +154,50 @@ public class FileRepository {
                 .where( FILE_VIEW.OBJECT_ID.eq( objectId ).and( FILE_VIEW.USER_ID.eq( cloudUser.getUserId() ) ) ) );
     }
 
+    /**
+     * Set based alternative to {@link FileRepository#rmEdgesFrom(UUID, CloudUser)} for when many objects are deleted
+     * from treeRepository.  All edges from the provided objects are deleted, and all files left without any edges are
+     * deleted in the same statement.
+     * <br><br>
+     * All CTEs of a statement share one snapshot, so the orphan check still sees the edges being deleted.  A file is
+     * therefore an orphan when the number of its edges deleted equals the number of its edges in the snapshot.
+     *
+     * @param objectIds objects to delete all edges from
+     * @param cloudUser
+     * @return file_ids of files which were orphaned and deleted
+     */
+    public Flux<UUID> rmEdgesFromAll(Collection<UUID> objectIds, CloudUser cloudUser) {
+        if (objectIds.isEmpty()) {
+            return Flux.empty();
+        }
+        UUID[] ids = objectIds.toArray( UUID[]::new );
+        TreeJoinFile allEdges = TREE_JOIN_FILE.as( "all_edges" );
+        return jooqTx.withConnectionMany( dsl -> {
+                    var delEdges = name( "del_edges" ).fields( "file_id" ).as(
+                            dsl.deleteFrom( TREE_JOIN_FILE )
+                                    .using( FILE )
+                                    .where( TREE_JOIN_FILE.OBJECT_ID.eq( any( ids ) ) )
+                                    .and( TREE_JOIN_FILE.FILE_ID.eq( FILE.FILE_ID ) )
+                                    .and( FILE.USER_ID.eq( cloudUser.getUserId() ) )
+                                    .returning( TREE_JOIN_FILE.FILE_ID ) );
+                    Field<UUID> delFileId = delEdges.field( "file_id", UUID.class );
+                    var orphans = name( "orphans" ).fields( "file_id" ).as(
+                            select( delFileId )
+                                    .from( delEdges )
+                                    .groupBy( delFileId )
+                                    .having( count().eq( field( selectCount()
+                                            .from( allEdges )
+                                            .where( allEdges.FILE_ID.eq( delFileId ) ) ) ) ) );
+                    return dsl.with( delEdges )
+                            .with( orphans )
+                            .deleteFrom( FILE )
+                            .where( FILE.FILE_ID.in( select( orphans.field( "file_id", UUID.class ) ).from( orphans ) ) )
+                            .and( FILE.USER_ID.eq( cloudUser.getUserId() ) )
+                            .returning( FILE.FILE_ID );
+                } )
+                .map( fileRecord -> fileRecord.get( FILE.FILE_ID ) );
+    }
+
     public Mono<Long> cpNewestFile(UUID sourceObjectId, UUID destinationObjectId, CloudUser cloudUser) {
         Mono<ResultQuery<FileViewRecord>> newestFile = this.selectNewestFilesLinkedTo( sourceObjectId, cloudUser, 1 );
         return newestFile.flatMap( query -> this.cpCommon( destinationObjectId, query ) );
@@ -120,14 +237,42 @@ public class FileRepository {
     }
 
     public Flux<FileViewDto> lsNextFilesFor(FileViewDto lastRecord, int limit, CloudUser cloudUser) {
-        return jooqTx.withConnectionMany( dsl -> dsl.select( asterisk() )
-                        .from( FILE_VIEW )
-                        .where( FILE_VIEW.OBJECT_ID.eq( lastRecord.getObjectId() ).and( FILE_VIEW.USER_ID.eq( cloudUser.getUserId() ) ) )
-                        .orderBy( FILE_VIEW.LINKED_AT.desc(), FILE_VIEW.UPLOADED_AT.desc(), FILE_VIEW.FILE_ID.desc() )
-                        .seek( lastRecord.getLinkedAt(), lastRecord.getUploadedAt(), lastRecord.getFileId() )
-                        .limit( limit )
-                        .coerce( FILE_VIEW ) )
-                .mapNotNull( FileViewDto::fromRecord );
+        return jooqTx.withR2dbcConnectionMany( conn -> lsNextFiles.query( conn, FileRepository::toFileViewDto,
+                lastRecord.getObjectId(), cloudUser.getUserId(), lastRecord.getLinkedAt(),
+                lastRecord.getUploadedAt(), lastRecord.getFileId(), limit ) );
+    }
+
+    // query of lsNextFilesFor, executed as a PreparedQuery
+    ResultQuery<FileViewRecord> lsNextFilesQuery(FileViewDto lastRecord, int limit, CloudUser cloudUser, DSLContext dsl) {
+        return dsl.select( asterisk() )
+                .from( FILE_VIEW )
+                .where( FILE_VIEW.OBJECT_ID.eq( lastRecord.getObjectId() ).and( FILE_VIEW.USER_ID.eq( cloudUser.getUserId() ) ) )
+                .orderBy( FILE_VIEW.LINKED_AT.desc(), FILE_VIEW.UPLOADED_AT.desc(), FILE_VIEW.FILE_ID.desc() )
+                .seek( lastRecord.getLinkedAt(), lastRecord.getUploadedAt(), lastRecord.getFileId() )
+                .limit( limit )
+                .coerce( FILE_VIEW );
+    }
+
+    // built with sentinel arguments, see PreparedQuery
+    PreparedQuery prepareLsNextFiles() {
+        FileViewDto lastRecord = new FileViewDto( PreparedQuery.uuidSentinel(), PreparedQuery.uuidSentinel(), null,
+                PreparedQuery.timeSentinel(), PreparedQuery.timeSentinel(), null, null );
+        CloudUser cloudUser = CloudUser.builder()
+                .userId( PreparedQuery.uuidSentinel() )
+                .username( "sentinel" )
+                .realm( "sentinel" ).build();
+        int limit = PreparedQuery.intSentinel();
+        return PreparedQuery.of( lsNextFilesQuery( lastRecord, limit, cloudUser, PreparedQuery.RENDER_DSL ),
+                lastRecord.getObjectId(), cloudUser.getUserId(), lastRecord.getLinkedAt(),
+                lastRecord.getUploadedAt(), lastRecord.getFileId(), limit );
+    }
+
+    // Row of a file_view query into a FileViewDto, as FileViewDto#fromRecord
+    static FileViewDto toFileViewDto(Row row, RowMetadata metadata) {
+        return new FileViewDto( row.get( "object_id", UUID.class ), row.get( "file_id", UUID.class ),
+                row.get( "user_id", UUID.class ), row.get( "uploaded_at", OffsetDateTime.class ),
+                row.get( "linked_at", OffsetDateTime.class ), row.get( "checksum", String.class ),
+                row.get( "size", Long.class ) );
     }
 
     Mono<ResultQuery<FileViewRecord>> selectNewestFilesLinkedTo(UUID objectId, CloudUser cloudUser, int limit) {
@@ -0,0 +1,105 @@
+package com.ericgha.docuCloud.repository;
+
+import com.ericgha.docuCloud.jooq.tables.records.PendingBlobDeleteRecord;
+import com.ericgha.docuCloud.service.JooqTransaction;
+import lombok.RequiredArgsConstructor;
+import org.jooq.Record1;
+import org.jooq.types.DayToSecond;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.UUID;
+
+import static com.ericgha.docuCloud.jooq.Tables.PENDING_BLOB_DELETE;
+import static org.jooq.impl.DSL.*;
+
+/**
+ * Outbox of blobs to delete from the FileStore.  Rows are inserted by the {@code file_del_enqueue_trigger} whenever a
+ * file is deleted, so they are committed (or rolled back) with the delete.
+ */
+@Repository
+@RequiredArgsConstructor
+public class PendingBlobDeleteRepository {
+
+    private final JooqTransaction jooqTx;
+
+    /**
+     * Leases up to {@code limit} of the oldest rows which are not leased or whose lease has expired.  Rows locked by a
+     * concurrent lease are skipped, so several nodes may lease at the same time without leasing the same rows.  Leased
+     * rows should be removed when their blobs are deleted, otherwise they become available again when the lease
+     * expires.
+     *
+     * @param limit         max number of rows to lease
+     * @param leaseDuration how long leased rows are unavailable to other leases
+     * @return leased rows
+     */
+    public Flux<PendingBlobDeleteRecord> lease(int limit, Duration leaseDuration) {
+        return this.lease( limit, leaseDuration, Integer.MAX_VALUE );
+    }
+
+    /**
+     * As {@link #lease(int, Duration)}, but rows already leased {@code maxAttempts} times are parked: they are not
+     * leased again and stay in the outbox until removed, or their {@code attempts} reset, by hand.
+     *
+     * @param maxAttempts max number of times a row is leased
+     */
+    public Flux<PendingBlobDeleteRecord> lease(int limit, Duration leaseDuration, int maxAttempts) {
+        return jooqTx.withConnectionMany( dsl -> {
+            var available = name( "available" ).fields( "file_id" ).as(
+                    select( PENDING_BLOB_DELETE.FILE_ID )
+                            .from( PENDING_BLOB_DELETE )
+                            .where( PENDING_BLOB_DELETE.LEASED_UNTIL.isNull()
+                                    .or( PENDING_BLOB_DELETE.LEASED_UNTIL.lt( currentOffsetDateTime() ) ) )
+                            .and( PENDING_BLOB_DELETE.ATTEMPTS.lt( maxAttempts ) )
+                            .orderBy( PENDING_BLOB_DELETE.ENQUEUED_AT.asc() )
+                            .limit( limit )
+                            .forUpdate()
+                            .skipLocked() );
+            return dsl.with( available )
+                    .update( PENDING_BLOB_DELETE )
+                    .set( PENDING_BLOB_DELETE.LEASED_UNTIL,
+                            currentOffsetDateTime().plus( DayToSecond.valueOf( leaseDuration ) ) )
+                    .set( PENDING_BLOB_DELETE.ATTEMPTS, PENDING_BLOB_DELETE.ATTEMPTS.plus( 1 ) )
+                    .from( available )
+                    .where( PENDING_BLOB_DELETE.FILE_ID.eq( available.field( "file_id", UUID.class ) ) )
+                    .returning( asterisk() );
+        } );
+    }
+
+    /**
+     * @param fileIds rows to remove, usually after the blobs were deleted
+     * @return number of rows removed
+     */
+    public Mono<Long> remove(Collection<UUID> fileIds) {
+        if (fileIds.isEmpty()) {
+            return Mono.just( 0L );
+        }
+        return jooqTx.withConnection( dsl -> dsl.deleteFrom( PENDING_BLOB_DELETE )
+                        .where( PENDING_BLOB_DELETE.FILE_ID.in( fileIds ) ) )
+                // this actually returns a long at runtime, but at compile time expects an Integer
+                .map( (Number c) -> (long) c );
+    }
+
+    /**
+     * @param maxAttempts as {@link #lease(int, Duration, int)}
+     * @return number of parked rows, which are no longer leased
+     */
+    public Mono<Long> countParked(int maxAttempts) {
+        return jooqTx.withConnection( dsl -> dsl.select( count( asterisk() ).cast( Long.class ) )
+                        .from( PENDING_BLOB_DELETE )
+                        .where( PENDING_BLOB_DELETE.ATTEMPTS.ge( maxAttempts ) ) )
+                .map( Record1::value1 );
+    }
+
+    /**
+     * @return number of rows in the outbox, leased or not
+     */
+    public Mono<Long> countPending() {
+        return jooqTx.withConnection( dsl -> dsl.select( count( asterisk() ).cast( Long.class ) )
+                        .from( PENDING_BLOB_DELETE ) )
+                .map( Record1::value1 );
+    }
+}
@@ -0,0 +1,199 @@
+package com.ericgha.docuCloud.repository;
+
+import com.ericgha.docuCloud.configuration.JooqConfiguration;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.Result;
+import io.r2dbc.spi.Row;
+import io.r2dbc.spi.RowMetadata;
+import io.r2dbc.spi.Statement;
+import org.jooq.DSLContext;
+import org.jooq.EnumType;
+import org.jooq.Query;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.jooq.postgres.extensions.types.Ltree;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+/**
+ * A query of fixed shape which is rendered to SQL once, and executed with new bind values on each call through the
+ * R2DBC {@link Statement}.  Building and rendering the jOOQ AST is skipped on each call; only the bind values change.
+ * <br><br>
+ * The shape is built by the same jOOQ code as the uncached query, called with sentinel arguments (unique values which
+ * cannot occur otherwise, e.g. random UUIDs).  Each bind value of the rendered query equal to a sentinel is replaced by
+ * the matching argument on each call, other bind values (e.g. the {@code 1} of {@code LIMIT 1}) are fixed.  Building
+ * fails if a sentinel is not bound (i.e. it was rendered inline) or placeholders and bind values don't line up, so a
+ * shape that can't be prepared fails at startup rather than returning wrong results.
+ */
+final class PreparedQuery {
+
+    // unattached, shapes are built and rendered with it
+    static final DSLContext RENDER_DSL = DSL.using( SQLDialect.POSTGRES, JooqConfiguration.renderSettings( false ) );
+    private static final int FIXED = -1;
+    private static final AtomicInteger SENTINELS = new AtomicInteger();
+
+    private final String sql;
+    // per placeholder, index of the argument or FIXED
+    private final int[] argIndexes;
+    private final Object[] fixedValues;
+    private final int numArgs;
+
+    private PreparedQuery(String sql, int[] argIndexes, Object[] fixedValues, int numArgs) {
+        this.sql = sql;
+        this.argIndexes = argIndexes;
+        this.fixedValues = fixedValues;
+        this.numArgs = numArgs;
+    }
+
+    /**
+     * @param query     query built with {@code sentinels} as its arguments
+     * @param sentinels sentinel of each argument, in argument order.  A null sentinel is an argument which is not
+     *                  part of this shape, its value is ignored
+     * @return prepared query
+     * @throws IllegalStateException if the query can't be prepared
+     */
+    static PreparedQuery of(Query query, Object... sentinels) throws IllegalStateException {
+        String indexedSql = RENDER_DSL.render( query );
+        List<Object> bindValues = RENDER_DSL.extractBindValues( query );
+        int[] argIndexes = new int[bindValues.size()];
+        Object[] fixedValues = new Object[bindValues.size()];
+        boolean[] bound = new boolean[sentinels.length];
+        for (int i = 0; i < bindValues.size(); i++) {
+            Object value = bindable( bindValues.get( i ) );
+            argIndexes[i] = indexOfSentinel( value, sentinels );
+            if (argIndexes[i] == FIXED) {
+                fixedValues[i] = value;
+            }
+            else {
+                bound[argIndexes[i]] = true;
+            }
+        }
+        for (int i = 0; i < sentinels.length; i++) {
+            if (Objects.nonNull( sentinels[i] ) && !bound[i]) {
+                throw new IllegalStateException( "Argument " + i + " is not a bind value of: " + indexedSql );
+            }
+        }
+        return new PreparedQuery( toDollarPlaceholders( indexedSql, bindValues.size() ), argIndexes, fixedValues,
+                sentinels.length );
+    }
+
+    static UUID uuidSentinel() {
+        return UUID.randomUUID();
+    }
+
+    static Ltree ltreeSentinel() {
+        return Ltree.valueOf( "sentinel_" + UUID.randomUUID().toString().replace( "-", "" ) );
+    }
+
+    static OffsetDateTime timeSentinel() {
+        return Instant.EPOCH.plusNanos( SENTINELS.incrementAndGet() ).atOffset( ZoneOffset.UTC );
+    }
+
+    static int intSentinel() {
+        return Integer.MAX_VALUE - SENTINELS.incrementAndGet();
+    }
+
+    String sql() {
+        return sql;
+    }
+
+    /**
+     * @param args arguments in the order of the sentinels
+     * @return bind values in placeholder order
+     */
+    Object[] bindValues(Object... args) {
+        if (args.length != numArgs) {
+            throw new IllegalArgumentException( String.format( "Expected %d arguments, received %d", numArgs, args.length ) );
+        }
+        Object[] values = new Object[argIndexes.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = argIndexes[i] == FIXED ? fixedValues[i] :
+                    bindable( Objects.requireNonNull( args[argIndexes[i]], "Argument " + argIndexes[i] + " was null." ) );
+        }
+        return values;
+    }
+
+    Statement bind(Connection connection, Object... args) {
+        Statement statement = connection.createStatement( sql );
+        Object[] values = this.bindValues( args );
+        for (int i = 0; i < values.length; i++) {
+            statement.bind( i, values[i] );
+        }
+        return statement;
+    }
+
+    <T> Flux<T> query(Connection connection, BiFunction<Row, RowMetadata, T> mapper, Object... args) {
+        return Flux.from( this.bind( connection, args ).execute() )
+                .concatMap( result -> result.map( mapper ) );
+    }
+
+    // sum of the rows updated
+    Mono<Long> update(Connection connection, Object... args) {
+        return Flux.from( this.bind( connection, args ).execute() )
+                .concatMap( Result::getRowsUpdated )
+                .reduce( 0L, Long::sum );
+    }
+
+    // Values as bound by jOOQ.  The rendered SQL casts them to their column type, e.g. cast(? as ltree)
+    private static Object bindable(Object value) {
+        if (value instanceof Ltree ltree) {
+            return ltree.data();
+        }
+        if (value instanceof EnumType enumType) {
+            return enumType.getLiteral();
+        }
+        return value;
+    }
+
+    private static int indexOfSentinel(Object value, Object[] sentinels) {
+        for (int i = 0; i < sentinels.length; i++) {
+            if (Objects.nonNull( sentinels[i] ) && bindable( sentinels[i] ).equals( value )) {
+                return i;
+            }
+        }
+        return FIXED;
+    }
+
+    // Postgres R2DBC statements use $1, $2... placeholders.  ? in literals and quoted identifiers is skipped.
+    static String toDollarPlaceholders(String sql, int expectedPlaceholders) {
+        StringBuilder converted = new StringBuilder( sql.length() + expectedPlaceholders );
+        int placeholder = 0;
+        char quote = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt( i );
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            }
+            else if (c == '\'' || c == '"') {
+                quote = c;
+            }
+            else if (c == '?') {
+                converted.append( '$' ).append( ++placeholder );
+                continue;
+            }
+            converted.append( c );
+        }
+        if (placeholder != expectedPlaceholders) {
+            throw new IllegalStateException( String.format( "Rendered %d placeholders for %d bind values: %s",
+                    placeholder, expectedPlaceholders, sql ) );
+        }
+        return converted.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "PreparedQuery{" + sql + ", fixedValues=" + Arrays.toString( fixedValues ) + '}';
+    }
+}
@@ -1,25 +1,36 @@
 package com.ericgha.docuCloud.repository;
 
+import com.ericgha.docuCloud.converter.LtreePathCodec;
 import com.ericgha.docuCloud.dto.CloudUser;
+import com.ericgha.docuCloud.dto.FileViewDto;
+import com.ericgha.docuCloud.dto.TreeAndFileView;
 import com.ericgha.docuCloud.dto.TreeDto;
+import com.ericgha.docuCloud.dto.TreeStatsDto;
 import com.ericgha.docuCloud.exceptions.IllegalObjectTypeException;
 import com.ericgha.docuCloud.jooq.enums.ObjectType;
 import com.ericgha.docuCloud.jooq.tables.Tree;
+import com.ericgha.docuCloud.jooq.tables.records.FileViewRecord;
 import com.ericgha.docuCloud.jooq.tables.records.TreeRecord;
 import com.ericgha.docuCloud.service.JooqTransaction;
 import com.ericgha.docuCloud.util.validator.TreeDtoValidator;
+import io.r2dbc.spi.Row;
+import io.r2dbc.spi.RowMetadata;
 import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 import org.jooq.CommonTableExpression;
 import org.jooq.DSLContext;
 import org.jooq.Field;
+import org.jooq.Query;
+import org.jooq.Record;
 import org.jooq.Record1;
 import org.jooq.Record2;
 import org.jooq.Record3;
 import org.jooq.Record6;
 import org.jooq.ResultQuery;
+import org.jooq.RowCountQuery;
 import org.jooq.SelectConditionStep;
 import org.jooq.SelectJoinStep;
+import org.jooq.Table;
 import org.jooq.TableLike;
 import org.jooq.impl.DSL;
 import org.jooq.postgres.extensions.types.Ltree;
@@ -29,13 +40,22 @@ import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
 
 import static com.ericgha.docuCloud.jooq.Routines.*;
+import static com.ericgha.docuCloud.jooq.Tables.FILE_VIEW;
 import static com.ericgha.docuCloud.jooq.Tables.TREE;
+import static com.ericgha.docuCloud.jooq.Tables.TREE_JOIN_FILE;
+import static com.ericgha.docuCloud.jooq.Tables.TREE_STATS;
 import static com.ericgha.docuCloud.jooq.enums.ObjectType.DIR;
 import static com.ericgha.docuCloud.jooq.enums.ObjectType.FILE;
+import static com.ericgha.docuCloud.repository.PreparedQuery.RENDER_DSL;
 import static org.jooq.impl.DSL.*;
 
 @Repository
@@ -45,6 +65,12 @@ public class TreeRepository {
     // TODO lsDir(Ltree path, CloudUser clouduser)
     private final JooqTransaction jooqTx;
 
+    // rendered once per SourceShape, arguments: objectId, path, userId, destination
+    private final Map<SourceShape, PreparedQuery> lsShapes = prepareShapes( false,
+            (source, destination, cloudUser) -> lsQuery( source, cloudUser, RENDER_DSL ) );
+    private final Map<SourceShape, PreparedQuery> mvDirShapes = prepareShapes( true,
+            (source, destination, cloudUser) -> mvDirQuery( source, destination, cloudUser, RENDER_DSL ) );
+
 
     // required treeDto fields: objectType, path
 
@@ -60,6 +86,58 @@ public class TreeRepository {
     }
 
 
+    /**
+     * Creates tree objects with a single multi-row insert.  Objects are inserted in the order provided, so parents must
+     * either exist or precede their children.  The statement fails if any path exists.
+     *
+     * @param treeDtos  objects to create, only {@code objectType} and {@code path} are used
+     * @param cloudUser
+     * @return created objects
+     */
+    public Flux<TreeDto> createAll(List<TreeDto> treeDtos, CloudUser cloudUser) {
+        if (treeDtos.isEmpty()) {
+            return Flux.empty();
+        }
+        return jooqTx.withConnectionMany( dsl -> {
+                    var insert = dsl.insertInto( TREE, TREE.OBJECT_ID, TREE.OBJECT_TYPE, TREE.PATH, TREE.USER_ID );
+                    for (TreeDto treeDto : treeDtos) {
+                        insert = insert.values( UUID.randomUUID(), treeDto.getObjectType(), treeDto.getPath(),
+                                cloudUser.getUserId() );
+                    }
+                    return insert.returning( asterisk() );
+                } )
+                .map( TreeDto::fromRecord );
+    }
+
+    /**
+     * Paths stored in the legacy encoding ({@link LtreePathCodec#legacyEncoding(String)}) are also selected, with
+     * their stored path.
+     *
+     * @param paths     paths to select
+     * @param cloudUser
+     * @return objects of the user at any of the paths, in no particular order
+     */
+    public Flux<TreeDto> selectByPaths(Collection<Ltree> paths, CloudUser cloudUser) {
+        if (paths.isEmpty()) {
+            return Flux.empty();
+        }
+        return jooqTx.withConnectionMany( dsl -> dsl.selectFrom( TREE )
+                        .where( TREE.USER_ID.eq( cloudUser.getUserId() )
+                                .and( TREE.PATH.in( withLegacyEncodings( paths ) ) ) ) )
+                .map( TreeDto::fromRecord );
+    }
+
+    private static List<Ltree> withLegacyEncodings(Collection<Ltree> paths) {
+        List<Ltree> withLegacy = new ArrayList<>( paths );
+        for (Ltree path : paths) {
+            String legacy = LtreePathCodec.legacyEncoding( path.data() );
+            if (Objects.nonNull( legacy )) {
+                withLegacy.add( Ltree.valueOf( legacy ) );
+            }
+        }
+        return withLegacy;
+    }
+
     public Mono<Long> mvFile(TreeDto source, Ltree destination, CloudUser cloudUser) {
         if (source.getObjectType() != FILE) {
             return Mono.empty();
@@ -77,17 +155,14 @@ public class TreeRepository {
 
     public Mono<Long> mvDir(TreeDto source, Ltree destination, CloudUser cloudUser) throws IllegalObjectTypeException {
         TreeDtoValidator.mustBeObjectType( source, DIR );
-        return jooqTx.withConnection( dsl -> {
-                    var movePathCte = name( "new" ).fields( "object_id", "path" )
-                            .as( createMovePath( destination, source, cloudUser, dsl ) );
-                    return dsl.with( movePathCte )
-                            .update( TREE )
-                            .set( TREE.PATH, movePathCte.field( "path", Ltree.class ) )
-                            .from( movePathCte )
-                            .where( TREE.OBJECT_ID.eq( movePathCte.field( "object_id", UUID.class ) ) );
-                } )
-                // This is a workaround for a jOOQ bug, Method signature is Integer but actually returns a Long at runtime
-                .map( (Number o) -> o.longValue() );
+        if (hasLegacyEncoding( source )) {
+            return jooqTx.withConnection( dsl -> mvDirQuery( source, destination, cloudUser, dsl ) )
+                    // This is a workaround for a jOOQ bug, Method signature is Integer but actually returns a Long at runtime
+                    .map( (Number o) -> o.longValue() );
+        }
+        PreparedQuery mvDir = mvDirShapes.get( SourceShape.of( source ) );
+        return jooqTx.withR2dbcConnection( conn ->
+                mvDir.update( conn, shapeArgs( source, destination, cloudUser ) ) );
     }
 
 
@@ -137,6 +212,41 @@ public class TreeRepository {
         } );
     }
 
+    /**
+     * Set based alternative to {@link #cpDir} followed by a {@link FileRepository#cpAllFiles} or
+     * {@link FileRepository#cpNewestFile} per copied file object.  The dir, its descendents and the file edges of the
+     * copied file objects are all copied in one statement.
+     *
+     * @param source        dir to copy
+     * @param destination   path of the copy of source
+     * @param onlyNewestVer if true only the newest version of each file object is linked to its copy, otherwise all
+     *                      versions are linked
+     * @param cloudUser
+     * @return number of tree objects copied, 0 if source was not found
+     */
+    public Mono<Long> cpDirWithFiles(TreeDto source, Ltree destination, boolean onlyNewestVer, CloudUser cloudUser) {
+        TreeDtoValidator.mustBeObjectType( source, DIR );
+        return jooqTx.withConnection( dsl -> {
+            var selectRecordCopies = fetchDirCopyRecords( destination, source, cloudUser, dsl );
+            return cpWithFilesCommon( selectRecordCopies, onlyNewestVer, cloudUser, dsl );
+        } ).map( Record1::value1 );
+    }
+
+    /**
+     * Set based alternative to {@link #cpFile} followed by {@link FileRepository#cpAllFiles} or
+     * {@link FileRepository#cpNewestFile}.
+     *
+     * @return number of tree objects copied, 0 if source was not found or is not a file
+     * @see #cpDirWithFiles(TreeDto, Ltree, boolean, CloudUser)
+     */
+    public Mono<Long> cpFileWithFiles(TreeDto source, Ltree destination, boolean onlyNewestVer, CloudUser cloudUser) {
+        TreeDtoValidator.mustBeObjectType( source, FILE );
+        return jooqTx.withConnection( dsl -> {
+            var selectRecordCopies = fetchFileCopyRecords( destination, source, cloudUser, dsl );
+            return cpWithFilesCommon( selectRecordCopies, onlyNewestVer, cloudUser, dsl );
+        } ).map( Record1::value1 );
+    }
+
     /**
      * This works a little differently than a traditional UNIX ls.  The direct descendents of the source are returned
      * along WITH the source.  This allows differentiation between <ol><li>The parent has no children</li>
@@ -153,19 +263,256 @@ public class TreeRepository {
      */
     @SneakyThrows
     public Flux<TreeDto> ls(TreeDto source, CloudUser cloudUser) {
+        if (hasLegacyEncoding( source )) {
+            return jooqTx.withConnectionMany( dsl -> lsQuery( source, cloudUser, dsl ) )
+                    .map( TreeDto::fromRecord );
+        }
+        PreparedQuery ls = lsShapes.get( SourceShape.of( source ) );
+        return jooqTx.withR2dbcConnectionMany( conn ->
+                ls.query( conn, TreeRepository::toTreeDto, shapeArgs( source, null, cloudUser ) ) );
+    }
+
+    /**
+     * Same contract as {@link TreeRepository#ls(TreeDto, CloudUser)}, but each FILE is joined to its newest version in
+     * the same query (a {@code LATERAL} join over {@code file_view}).  The newest version is selected using the
+     * {@code linked_at, uploaded_at, file_id} descending order used by {@link FileRepository#lsNewestFilesFor}.
+     * <br><br>
+     * The fileViewDto is null for ROOT and DIR objects, and for FILE objects without any linked versions.
+     *
+     * @param source
+     * @param cloudUser
+     * @return records (if any) ordered by path ascending.  Source, if found, is guaranteed to be the first record
+     * returned.  If source is NOT found will always return null set.
+     */
+    public Flux<TreeAndFileView> lsWithNewestFile(TreeDto source, CloudUser cloudUser) {
+        return this.lsWithNewestFile( source, false, cloudUser );
+    }
+
+    /**
+     * As {@link TreeRepository#lsWithNewestFile(TreeDto, CloudUser)}.  When {@code withStats} is true each object is
+     * also joined to its {@link TreeStatsDto}, a primary key lookup in the same query.
+     *
+     * @param withStats if the stats of each object should be returned
+     */
+    public Flux<TreeAndFileView> lsWithNewestFile(TreeDto source, boolean withStats, CloudUser cloudUser) {
         CommonTableExpression<TreeRecord> parent = name( "parent" ).as(
                 this.flexibleSelect( source, cloudUser ) );
+        Table<FileViewRecord> newest = this.newestFileView( cloudUser );
+        return jooqTx.withConnectionMany( dsl -> {
+                    var joined = dsl.with( parent )
+                            .select( TREE.fields() )
+                            .select( newest.fields() )
+                            .select( statsFields( withStats ) )
+                            .from( parent )
+                            .join( TREE ).on( ltreeIsparent( parent.field( TREE.PATH ), TREE.PATH ) )
+                            .leftJoin( newest ).on( trueCondition() );
+                    return joinStats( joined, withStats )
+                            .where( nlevel( TREE.PATH ).le( nlevel( parent.field( TREE.PATH ) ).plus( 1 ) ) )
+                            .and( TREE.USER_ID.eq( cloudUser.getUserId() ) )
+                            .orderBy( TREE.PATH.asc() );
+                } )
+                .map( record -> this.toTreeAndFileView( record, newest, withStats ) );
+    }
+
+    /**
+     * Recursive {@link TreeRepository#lsWithNewestFile(TreeDto, CloudUser)}: all descendents of source at any depth,
+     * each FILE joined with its newest version.  Ordering by path ascending means every DIR precedes its children.
+     *
+     * @param source
+     * @param cloudUser
+     * @return records (if any) ordered by path ascending.  Source, if found, is guaranteed to be the first record
+     * returned.  If source is NOT found will always return null set.
+     */
+    public Flux<TreeAndFileView> lsRecursiveWithNewestFile(TreeDto source, CloudUser cloudUser) {
+        CommonTableExpression<TreeRecord> parent = name( "parent" ).as(
+                this.flexibleSelect( source, cloudUser ) );
+        Table<FileViewRecord> newest = this.newestFileView( cloudUser );
         return jooqTx.withConnectionMany( dsl ->
                         dsl.with( parent )
-                                .select( TREE.asterisk() )
-                                .from( TREE, parent )
-                                .where( ltreeIsparent( parent.field( TREE.PATH ), TREE.PATH ) )
-                                .and( nlevel( TREE.PATH ).le( nlevel( parent.field( TREE.PATH ) ).plus( 1 ) ) )
-                                .and( TREE.USER_ID.eq( cloudUser.getUserId() ) )
+                                .select( TREE.fields() )
+                                .select( newest.fields() )
+                                .from( parent )
+                                .join( TREE ).on( ltreeIsparent( parent.field( TREE.PATH ), TREE.PATH ) )
+                                .leftJoin( newest ).on( trueCondition() )
+                                .where( TREE.USER_ID.eq( cloudUser.getUserId() ) )
                                 .orderBy( TREE.PATH.asc() )
-                                .coerce( TREE )
                 )
-                .map( TreeDto::fromRecord );
+                .map( record -> this.toTreeAndFileView( record, newest ) );
+    }
+
+    /**
+     * First page of a keyset paginated {@link TreeRepository#lsWithNewestFile(TreeDto, CloudUser)}.  Unlike
+     * {@code ls} the source is <em>not</em> returned, only its direct descendents.  Use
+     * {@link TreeRepository#lsNextPage(TreeDto, int, CloudUser)} with the last record of a page to fetch the next page.
+     *
+     * @param source    ROOT or DIR to list, one or both of {@code objectId} and {@code path} must be specified
+     * @param limit     max number of records to return
+     * @param cloudUser
+     * @return at most {@code limit} children ordered by path ascending
+     */
+    public Flux<TreeAndFileView> lsFirstPage(TreeDto source, int limit, CloudUser cloudUser) {
+        return this.lsFirstPage( source, limit, false, cloudUser );
+    }
+
+    /**
+     * As {@link TreeRepository#lsFirstPage(TreeDto, int, CloudUser)}, with the {@link TreeStatsDto} of each child
+     * when {@code withStats} is true.
+     */
+    public Flux<TreeAndFileView> lsFirstPage(TreeDto source, int limit, boolean withStats, CloudUser cloudUser) {
+        CommonTableExpression<TreeRecord> parent = name( "parent" ).as(
+                this.flexibleSelect( source, cloudUser ) );
+        Table<FileViewRecord> newest = this.newestFileView( cloudUser );
+        return jooqTx.withConnectionMany( dsl -> {
+                    var joined = dsl.with( parent )
+                            .select( TREE.fields() )
+                            .select( newest.fields() )
+                            .select( statsFields( withStats ) )
+                            .from( parent )
+                            .join( TREE ).on( ltreeIsparent( parent.field( TREE.PATH ), TREE.PATH ) )
+                            .leftJoin( newest ).on( trueCondition() );
+                    return joinStats( joined, withStats )
+                            .where( nlevel( TREE.PATH ).eq( nlevel( parent.field( TREE.PATH ) ).plus( 1 ) ) )
+                            .and( TREE.USER_ID.eq( cloudUser.getUserId() ) )
+                            .orderBy( TREE.PATH.asc() )
+                            .limit( limit );
+                } )
+                .map( record -> this.toTreeAndFileView( record, newest, withStats ) );
+    }
+
+    /**
+     * Fetches the page following {@code lastChild}.  Siblings are located by path alone, so {@code lastChild} only
+     * requires the {@code path} field.  Seeking on {@code (user_id, path)} is served by the unique index of the
+     * tree table, so the cost of a page does not grow with its offset into the directory.
+     *
+     * @param lastChild last record of the previous page, {@code path} is required
+     * @param limit     max number of records to return
+     * @param cloudUser
+     * @return at most {@code limit} siblings of {@code lastChild}, after {@code lastChild}, ordered by path ascending.
+     * Empty if the parent of {@code lastChild} is not a ROOT or DIR of the user.
+     * @throws IllegalArgumentException if the path is null or the ROOT path
+     */
+    public Flux<TreeAndFileView> lsNextPage(TreeDto lastChild, int limit, CloudUser cloudUser) throws IllegalArgumentException {
+        return this.lsNextPage( lastChild, limit, false, cloudUser );
+    }
+
+    /**
+     * As {@link TreeRepository#lsNextPage(TreeDto, int, CloudUser)}, with the {@link TreeStatsDto} of each sibling
+     * when {@code withStats} is true.
+     */
+    public Flux<TreeAndFileView> lsNextPage(TreeDto lastChild, int limit, boolean withStats, CloudUser cloudUser) throws IllegalArgumentException {
+        Ltree lastPath = lastChild.getPath();
+        Ltree parentPath = parentPathOf( lastPath );
+        // siblings are only listed from a ROOT or DIR parent of the user
+        CommonTableExpression<TreeRecord> parent = name( "parent" ).as(
+                this.flexibleSelect( TreeDto.builder().path( parentPath ).build(), cloudUser ) );
+        Table<FileViewRecord> newest = this.newestFileView( cloudUser );
+        return jooqTx.withConnectionMany( dsl -> {
+                    var joined = dsl.with( parent )
+                            .select( TREE.fields() )
+                            .select( newest.fields() )
+                            .select( statsFields( withStats ) )
+                            .from( parent )
+                            .join( TREE ).on( ltreeIsparent( parent.field( TREE.PATH ), TREE.PATH ) )
+                            .leftJoin( newest ).on( trueCondition() );
+                    return joinStats( joined, withStats )
+                            .where( parent.field( TREE.OBJECT_TYPE ).in( ObjectType.ROOT, DIR ) )
+                            .and( TREE.USER_ID.eq( cloudUser.getUserId() ) )
+                            .and( nlevel( TREE.PATH ).eq( nlevel( val( lastPath ) ) ) )
+                            .orderBy( TREE.PATH.asc() )
+                            .seek( lastPath )
+                            .limit( limit );
+                } )
+                .map( record -> this.toTreeAndFileView( record, newest, withStats ) );
+    }
+
+    /**
+     * @param source    ROOT or DIR, one or both of {@code objectId} and {@code path} must be specified
+     * @param cloudUser
+     * @return number of direct descendents of source, 0 if source was not found
+     */
+    public Mono<Long> countChildren(TreeDto source, CloudUser cloudUser) {
+        CommonTableExpression<TreeRecord> parent = name( "parent" ).as(
+                this.flexibleSelect( source, cloudUser ) );
+        return jooqTx.withConnection( dsl ->
+                        dsl.with( parent )
+                                .select( count( asterisk() ).cast( Long.class ) )
+                                .from( parent )
+                                .join( TREE ).on( ltreeIsparent( parent.field( TREE.PATH ), TREE.PATH ) )
+                                .where( nlevel( TREE.PATH ).eq( nlevel( parent.field( TREE.PATH ) ).plus( 1 ) ) )
+                                .and( TREE.USER_ID.eq( cloudUser.getUserId() ) )
+                )
+                .map( Record1::value1 );
+    }
+
+    static Ltree parentPathOf(Ltree path) throws IllegalArgumentException {
+        if (Objects.isNull( path ) || path.data().isEmpty()) {
+            throw new IllegalArgumentException( "Path must be non-null and not the ROOT path." );
+        }
+        String pathStr = path.data();
+        int lastSep = pathStr.lastIndexOf( '.' );
+        return lastSep < 0 ? Ltree.valueOf( "" ) : Ltree.valueOf( pathStr.substring( 0, lastSep ) );
+    }
+
+    // Lateral subquery selecting the newest version linked to the TREE row it is joined to
+    Table<FileViewRecord> newestFileView(CloudUser cloudUser) {
+        return lateral( selectFrom( FILE_VIEW )
+                .where( FILE_VIEW.OBJECT_ID.eq( TREE.OBJECT_ID )
+                        .and( FILE_VIEW.USER_ID.eq( cloudUser.getUserId() ) ) )
+                .orderBy( FILE_VIEW.LINKED_AT.desc(), FILE_VIEW.UPLOADED_AT.desc(), FILE_VIEW.FILE_ID.desc() )
+                .limit( 1 )
+                .asTable( "newest" ) );
+    }
+
+    // record must contain all TREE fields and all fields of newest
+    TreeAndFileView toTreeAndFileView(Record record, Table<FileViewRecord> newest) {
+        return this.toTreeAndFileView( record, newest, false );
+    }
+
+    // record must contain all TREE fields, all fields of newest and, if withStats, all TREE_STATS fields
+    TreeAndFileView toTreeAndFileView(Record record, Table<FileViewRecord> newest, boolean withStats) {
+        TreeDto treeDto = TreeDto.fromRecord( record.into( TREE ) );
+        TreeStatsDto stats = withStats && Objects.nonNull( record.get( TREE_STATS.OBJECT_ID ) ) ?
+                TreeStatsDto.fromRecord( record.into( TREE_STATS ) ) : null;
+        if (Objects.isNull( record.get( newest.field( FILE_VIEW.FILE_ID ) ) )) {
+            return new TreeAndFileView( treeDto, null, stats );
+        }
+        // narrowing to the newest fields first prevents tree.object_id and tree.user_id from being matched
+        FileViewRecord fileViewRecord = record.into( newest.fields() ).into( FILE_VIEW );
+        return new TreeAndFileView( treeDto, FileViewDto.fromRecord( fileViewRecord ), stats );
+    }
+
+    static List<Field<?>> statsFields(boolean withStats) {
+        return withStats ? List.of( TREE_STATS.fields() ) : List.of();
+    }
+
+    // tree_stats of each TREE row, kept by the database (see tests-schema.sql), joined by primary key
+    static SelectJoinStep<Record> joinStats(SelectJoinStep<Record> select, boolean withStats) {
+        return withStats ? select.leftJoin( TREE_STATS ).on( TREE_STATS.OBJECT_ID.eq( TREE.OBJECT_ID ) ) : select;
+    }
+
+    // query of ls, executed as a PreparedQuery
+    ResultQuery<TreeRecord> lsQuery(TreeDto source, CloudUser cloudUser, DSLContext dsl) {
+        CommonTableExpression<TreeRecord> parent = name( "parent" ).as(
+                this.flexibleSelect( source, cloudUser ) );
+        return dsl.with( parent )
+                .select( TREE.asterisk() )
+                .from( TREE, parent )
+                .where( ltreeIsparent( parent.field( TREE.PATH ), TREE.PATH ) )
+                .and( nlevel( TREE.PATH ).le( nlevel( parent.field( TREE.PATH ) ).plus( 1 ) ) )
+                .and( TREE.USER_ID.eq( cloudUser.getUserId() ) )
+                .orderBy( TREE.PATH.asc() )
+                .coerce( TREE );
+    }
+
+    // query of mvDir, executed as a PreparedQuery
+    RowCountQuery mvDirQuery(TreeDto source, Ltree destination, CloudUser cloudUser, DSLContext dsl) {
+        var movePathCte = name( "new" ).fields( "object_id", "path" )
+                .as( createMovePath( destination, source, cloudUser, dsl ) );
+        return dsl.with( movePathCte )
+                .update( TREE )
+                .set( TREE.PATH, movePathCte.field( "path", Ltree.class ) )
+                .from( movePathCte )
+                .where( TREE.OBJECT_ID.eq( movePathCte.field( "object_id", UUID.class ) ) );
     }
 
     // Query designed such that one or both of Object_id and path are used, therefore one of these fields may be null
@@ -179,11 +526,18 @@ public class TreeRepository {
         if (Objects.nonNull( objectId )) {
             conditions = conditions.and( val( objectId ).eq( TREE.OBJECT_ID ) );
         }
-        if (Objects.nonNull( path )) {
+        String legacy = Objects.isNull( path ) ? null : LtreePathCodec.legacyEncoding( path.data() );
+        if (Objects.nonNull( legacy )) {
+            conditions = conditions.and( TREE.PATH.in( path, Ltree.valueOf( legacy ) ) );
+        }
+        else if (Objects.nonNull( path )) {
             conditions = conditions.and( val( path ).eq( TREE.PATH ) );
         }
-        return DSL.select( asterisk() )
-                .from( TREE ).where( conditions ).limit( 1 )
+        var select = DSL.select( asterisk() )
+                .from( TREE ).where( conditions );
+        // if both encodings of the path are stored, the current one is selected
+        return ( Objects.isNull( legacy ) ? select.limit( 1 ) :
+                select.orderBy( field( TREE.PATH.eq( path ) ).desc() ).limit( 1 ) )
                 .coerce( TREE );
     }
 
@@ -249,7 +603,7 @@ public class TreeRepository {
     }
 
     // returns fields source_id, destination_id, object_type
-    Publisher<Record3<UUID, UUID, ObjectType>> cpCommon(
+    ResultQuery<Record3<UUID, UUID, ObjectType>> cpCommon(
             SelectConditionStep<Record6<UUID, UUID, ObjectType, Ltree, UUID, OffsetDateTime>> selectRecordCopies, DSLContext dsl) {
         var copyCte = name( "copy_records" ).fields( "source_id", "object_id", "object_type",
                 "path", "user_id", "created_at" ).as( selectRecordCopies );
@@ -265,6 +619,43 @@ public class TreeRepository {
     }
 
 
+    // copies tree records like cpCommon, and links the files of each source file object to its copy.
+    // returns the number of tree records copied
+    Publisher<Record1<Long>> cpWithFilesCommon(
+            SelectConditionStep<Record6<UUID, UUID, ObjectType, Ltree, UUID, OffsetDateTime>> selectRecordCopies,
+            boolean onlyNewestVer, CloudUser cloudUser, DSLContext dsl) {
+        var copyCte = name( "copy_records" ).fields( "source_id", "object_id", "object_type",
+                "path", "user_id", "created_at" ).as( selectRecordCopies );
+        var insertCte = name( "insert_res" ).as(
+                dsl.insertInto( TREE )
+                        .select( dsl.select( copyCte.fields( "object_id", "object_type",
+                                "path", "user_id", "created_at" ) ).from( copyCte ) )
+                        .returning( TREE.OBJECT_ID ) );
+        // versions ordered newest first, as in FileRepository#selectNewestFilesLinkedTo
+        Field<Integer> versionRank = onlyNewestVer ?
+                rowNumber().over( partitionBy( FILE_VIEW.OBJECT_ID )
+                        .orderBy( FILE_VIEW.LINKED_AT.desc(), FILE_VIEW.UPLOADED_AT.desc(), FILE_VIEW.FILE_ID.desc() ) ) :
+                inline( 1 );
+        var edgesCte = name( "edge_copies" ).fields( "object_id", "file_id", "version_rank" ).as(
+                dsl.select( copyCte.field( "object_id", UUID.class ), FILE_VIEW.FILE_ID, versionRank )
+                        .from( copyCte )
+                        .join( FILE_VIEW ).on( FILE_VIEW.OBJECT_ID.eq( copyCte.field( "source_id", UUID.class ) ) )
+                        .where( copyCte.field( "object_type", ObjectType.class ).eq( FILE )
+                                .and( FILE_VIEW.USER_ID.eq( cloudUser.getUserId() ) ) ) );
+        // tree_join_file foreign keys are deferred, so edges may reference tree records inserted by insert_res
+        var insertEdgesCte = name( "insert_edges" ).as(
+                dsl.insertInto( TREE_JOIN_FILE, TREE_JOIN_FILE.OBJECT_ID, TREE_JOIN_FILE.FILE_ID, TREE_JOIN_FILE.LINKED_AT )
+                        .select( dsl.select( edgesCte.field( "object_id", UUID.class ),
+                                        edgesCte.field( "file_id", UUID.class ), currentOffsetDateTime() )
+                                .from( edgesCte )
+                                .where( onlyNewestVer ?
+                                        edgesCte.field( "version_rank", Integer.class ).eq( 1 ) : noCondition() ) )
+                        .returning( TREE_JOIN_FILE.FILE_ID ) );
+        return dsl.with( copyCte ).with( insertCte ).with( edgesCte ).with( insertEdgesCte )
+                .select( count( asterisk() ).cast( Long.class ) )
+                .from( copyCte );
+    }
+
     // Does not includes self (parent)
     // Creates new uuid and new timestamp, and converts path, other fields remain the same;
     SelectConditionStep<Record6<UUID, UUID, ObjectType, Ltree, UUID, OffsetDateTime>> fetchDirCopyRecords(
@@ -310,4 +701,76 @@ public class TreeRepository {
     SelectConditionStep<TreeRecord> selectAll(CloudUser cloudUser, DSLContext dsl) {
         return dsl.selectFrom( TREE ).where( TREE.USER_ID.eq( cloudUser.getUserId() ) );
     }
+
+    /* The prepared shapes are rendered from sentinel paths, so their flexibleSelect only matches the current encoding
+       of the path.  A source whose path may be stored in the legacy encoding is queried through jOOQ instead. */
+    static boolean hasLegacyEncoding(TreeDto source) {
+        return Objects.nonNull( source.getPath() ) && Objects.nonNull( LtreePathCodec.legacyEncoding( source.getPathStr() ) );
+    }
+
+    /**
+     * Which of {@code objectId} and {@code path} identify the source of a {@link #flexibleSelect}.  Each renders a
+     * different query, so each query built on flexibleSelect is prepared once per shape.
+     */
+    enum SourceShape {
+        OBJECT_ID(true, false),
+        PATH(false, true),
+        OBJECT_ID_AND_PATH(true, true);
+
+        private final boolean hasObjectId;
+        private final boolean hasPath;
+
+        SourceShape(boolean hasObjectId, boolean hasPath) {
+            this.hasObjectId = hasObjectId;
+            this.hasPath = hasPath;
+        }
+
+        static SourceShape of(TreeDto source) throws IllegalArgumentException {
+            boolean hasObjectId = Objects.nonNull( source.getObjectId() );
+            boolean hasPath = Objects.nonNull( source.getPath() );
+            if (!hasObjectId && !hasPath) {
+                throw new IllegalArgumentException( "One or both of objectId and path must be non-null.  Instead both were null" );
+            }
+            return hasObjectId ? ( hasPath ? OBJECT_ID_AND_PATH : OBJECT_ID ) : PATH;
+        }
+    }
+
+    @FunctionalInterface
+    interface ShapeQuery {
+        Query build(TreeDto source, Ltree destination, CloudUser cloudUser);
+    }
+
+    // builds the query of each SourceShape with sentinel arguments, see PreparedQuery
+    static Map<SourceShape, PreparedQuery> prepareShapes(boolean hasDestination, ShapeQuery shapeQuery) {
+        Map<SourceShape, PreparedQuery> shapes = new EnumMap<>( SourceShape.class );
+        for (SourceShape shape : SourceShape.values()) {
+            TreeDto source = TreeDto.builder()
+                    .objectId( shape.hasObjectId ? PreparedQuery.uuidSentinel() : null )
+                    .path( shape.hasPath ? PreparedQuery.ltreeSentinel() : null )
+                    .build();
+            CloudUser cloudUser = CloudUser.builder()
+                    .userId( PreparedQuery.uuidSentinel() )
+                    .username( "sentinel" )
+                    .realm( "sentinel" ).build();
+            Ltree destination = hasDestination ? PreparedQuery.ltreeSentinel() : null;
+            shapes.put( shape, PreparedQuery.of( shapeQuery.build( source, destination, cloudUser ),
+                    shapeArgs( source, destination, cloudUser ) ) );
+        }
+        return shapes;
+    }
+
+    static Object[] shapeArgs(TreeDto source, Ltree destination, CloudUser cloudUser) {
+        return new Object[]{source.getObjectId(), source.getPath(), cloudUser.getUserId(), destination};
+    }
+
+    // Row of a tree query into a TreeDto, as TreeDto#fromRecord.  Enum literals equal the ObjectType constant names.
+    static TreeDto toTreeDto(Row row, RowMetadata metadata) {
+        return TreeDto.builder()
+                .objectId( row.get( "object_id", UUID.class ) )
+                .objectType( ObjectType.valueOf( row.get( "object_type", String.class ) ) )
+                .path( Ltree.valueOf( row.get( "path", String.class ) ) )
+                .userId( row.get( "user_id", UUID.class ) )
+                .createdAt( row.get( "created_at", OffsetDateTime.class ) )
+                .build();
+    }
 }
@@ -17,4 +17,8 @@ public class AppEnvPropertiesService {
                 "Couldn't locate Property: " + key.get() );
     }
 
+    public <T extends PropertyKey> String get(T key, String defaultValue) {
+        return env.getProperty( key.get(), defaultValue );
+    }
+
 }
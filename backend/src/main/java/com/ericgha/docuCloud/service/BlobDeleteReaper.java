@@ -0,0 +1,136 @@
+package com.ericgha.docuCloud.service;
+
+import com.ericgha.docuCloud.configuration.properties.ReaperPropertiesKey;
+import com.ericgha.docuCloud.dto.CloudUser;
+import com.ericgha.docuCloud.jooq.tables.records.PendingBlobDeleteRecord;
+import com.ericgha.docuCloud.repository.PendingBlobDeleteRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Drains the {@code pending_blob_delete} outbox, deleting blobs of deleted files from the {@link FileStore}.  Rows are
+ * leased before deleting, so reapers on several nodes can share the work.  Rows are removed only after their blobs
+ * were deleted, a failed delete is retried when the lease expires.  After {@code max-attempts} failures a row is
+ * parked, logged and no longer retried.
+ */
+@Service
+@Slf4j
+@Profile("(test & (s3 | local-fs)) | !test")
+public class BlobDeleteReaper {
+
+    // FileStore keys only use the userId of a CloudUser
+    private static final String REAPER_USERNAME = "blob-reaper";
+    private static final String REAPER_REALM = "internal";
+    // max concurrent deleteFiles calls, each for a different user
+    private static final int DELETE_CONCURRENCY = 4;
+
+    private final PendingBlobDeleteRepository pendingBlobDeleteRepository;
+    private final FileStore fileStore;
+    private final boolean enabled;
+    private final int batchSize;
+    private final Duration interval;
+    private final Duration lease;
+    private final int maxAttempts;
+    private Disposable schedule;
+
+    public BlobDeleteReaper(PendingBlobDeleteRepository pendingBlobDeleteRepository, FileStore fileStore,
+                            AppEnvPropertiesService propertiesService) {
+        this.pendingBlobDeleteRepository = pendingBlobDeleteRepository;
+        this.fileStore = fileStore;
+        this.enabled = Boolean.parseBoolean( propertiesService.get( ReaperPropertiesKey.ENABLED ) );
+        this.batchSize = Integer.parseInt( propertiesService.get( ReaperPropertiesKey.BATCH_SIZE ) );
+        this.interval = Duration.parse( propertiesService.get( ReaperPropertiesKey.INTERVAL ) );
+        this.lease = Duration.parse( propertiesService.get( ReaperPropertiesKey.LEASE ) );
+        this.maxAttempts = Integer.parseInt( propertiesService.get( ReaperPropertiesKey.MAX_ATTEMPTS ) );
+    }
+
+    @EventListener
+    public void handleEvent(ApplicationStartedEvent event) {
+        if (!enabled) {
+            log.info( "Blob delete reaper is disabled." );
+            return;
+        }
+        // drains never overlap, while draining at most one tick is queued and the rest are dropped
+        this.schedule = Flux.interval( interval )
+                .onBackpressureDrop()
+                .concatMap( tick -> this.drain()
+                        .onErrorResume( e -> {
+                            log.warn( "Failed draining pending blob deletes", e );
+                            return Mono.empty();
+                        } ), 1 )
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (schedule != null) {
+            schedule.dispose();
+        }
+    }
+
+    /**
+     * Reaps batches until a batch reaps nothing.
+     *
+     * @return total number of blobs deleted
+     */
+    public Mono<Long> drain() {
+        return this.reapBatch()
+                .expand( numReaped -> numReaped > 0 ? this.reapBatch() : Mono.empty() )
+                .reduce( 0L, Long::sum );
+    }
+
+    /**
+     * Leases a batch of rows, deletes their blobs grouped by user and removes the rows of users whose blobs were
+     * deleted.
+     *
+     * @return number of blobs deleted
+     */
+    public Mono<Long> reapBatch() {
+        return pendingBlobDeleteRepository.lease( batchSize, lease, maxAttempts )
+                .collectMultimap( PendingBlobDeleteRecord::getUserId )
+                .flatMapIterable( Map::entrySet )
+                .flatMap( userRows -> this.deleteBlobs( List.copyOf( userRows.getValue() ), userRows.getKey() ),
+                        DELETE_CONCURRENCY )
+                .reduce( 0L, Long::sum );
+    }
+
+    // failures are logged and the rows are left to be retried after the lease expires, or parked on the last attempt
+    private Mono<Long> deleteBlobs(List<PendingBlobDeleteRecord> rows, UUID userId) {
+        List<UUID> fileIds = rows.stream().map( PendingBlobDeleteRecord::getFileId ).toList();
+        return fileStore.deleteFiles( Mono.just( fileIds ), ownerOf( userId ) )
+                .then( Mono.defer( () -> pendingBlobDeleteRepository.remove( fileIds ) ) )
+                .onErrorResume( e -> {
+                    List<UUID> parked = rows.stream()
+                            .filter( row -> row.getAttempts() >= maxAttempts )
+                            .map( PendingBlobDeleteRecord::getFileId )
+                            .toList();
+                    log.warn( "Failed deleting {} blobs for user {}, retrying after lease expires",
+                            fileIds.size() - parked.size(), userId, e );
+                    if (!parked.isEmpty()) {
+                        log.error( "Parking pending deletes of blobs {} for user {} after {} attempts",
+                                parked, userId, maxAttempts );
+                    }
+                    return Mono.just( 0L );
+                } );
+    }
+
+    private static CloudUser ownerOf(UUID userId) {
+        return CloudUser.builder()
+                .userId( userId )
+                .username( REAPER_USERNAME )
+                .realm( REAPER_REALM )
+                .build();
+    }
+}
@@ -0,0 +1,364 @@
+package com.ericgha.docuCloud.service;
+
+import com.ericgha.docuCloud.configuration.properties.FileCachePropertiesKey;
+import com.ericgha.docuCloud.dto.ByteRange;
+import com.ericgha.docuCloud.dto.CloudUser;
+import com.ericgha.docuCloud.dto.FileDto;
+import com.ericgha.docuCloud.dto.PartialFileData;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+/**
+ * Read-through cache of file versions on local disk in front of another {@link FileStore}, usually
+ * {@link S3FileStore}.  Enabled by {@code app.file-cache.enabled}, when it becomes the primary {@code FileStore}.
+ * <br><br>
+ * Versions are immutable so cached files are never stale, they are only removed by {@link #deleteFiles} or evicted.
+ * The cache is bounded to {@code max-size} bytes and evicts the least recently read files.  Files larger than
+ * {@code max-file-size} bytes, or of unknown size, bypass the cache.  The cached files are the index: access times
+ * are recorded as file modification times, so the index is rebuilt from the cache directory on startup.
+ * <br><br>
+ * A miss is streamed from the backing store to the reader while it is written to the cache, so the first bytes are
+ * not delayed by the fill.  The reader completes once the fill has, so a later read is a hit.  Concurrent misses of a
+ * file are coalesced into a single read of the backing store: later readers wait for the fill and are served from
+ * disk, or by the backing store if caching fails.  A fill in flight when its file is deleted is discarded, so a deleted
+ * version is never cached.  Ranges are served from the cache when cached, but do not populate it.
+ */
+@Service
+@Slf4j
+@Primary
+@Profile("(test & s3) | (!test & !local-fs)")
+@ConditionalOnProperty(name = "app.file-cache.enabled", havingValue = "true")
+public class CachingFileStore implements FileStore {
+
+    private static final Duration READY_TIMEOUT = Duration.ofSeconds( 60L );
+
+    private final FileStore delegate;
+    private final LocalDiskFileStore cache;
+    private final long maxBytes;
+    private final long maxFileBytes;
+    private final Mono<Void> isReady;
+
+    // cached files and their sizes in access order, guarded by itself
+    private final LinkedHashMap<Path, Long> index = new LinkedHashMap<>( 16, 0.75f, true );
+    private long cachedBytes = 0;
+    private final Map<Path, Fill> inFlight = new ConcurrentHashMap<>();
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    @Autowired
+    public CachingFileStore(S3FileStore delegate, AppEnvPropertiesService propertiesService,
+                            MeterRegistry meterRegistry) {
+        this( delegate,
+                new LocalDiskFileStore( Path.of( propertiesService.get( FileCachePropertiesKey.ROOT ) ),
+                        LocalDiskFileStore.DEFAULT_MMAP_THRESHOLD ),
+                Long.parseLong( propertiesService.get( FileCachePropertiesKey.MAX_SIZE ) ),
+                Long.parseLong( propertiesService.get( FileCachePropertiesKey.MAX_FILE_SIZE ) ),
+                meterRegistry );
+    }
+
+    public CachingFileStore(FileStore delegate, LocalDiskFileStore cache, long maxBytes, long maxFileBytes,
+                            MeterRegistry meterRegistry) throws IllegalArgumentException {
+        if (maxFileBytes > maxBytes) {
+            throw new IllegalArgumentException( "max-file-size must not be greater than max-size" );
+        }
+        this.delegate = delegate;
+        this.cache = cache;
+        this.maxBytes = maxBytes;
+        this.maxFileBytes = maxFileBytes;
+        this.hits = meterRegistry.counter( "filestore.cache.hits" );
+        this.misses = meterRegistry.counter( "filestore.cache.misses" );
+        this.evictions = meterRegistry.counter( "filestore.cache.evictions" );
+        Gauge.builder( "filestore.cache.size", this, CachingFileStore::getCachedBytes )
+                .baseUnit( "bytes" )
+                .register( meterRegistry );
+        this.isReady = cache.isReady()
+                .then( Mono.fromRunnable( this::loadIndex ).subscribeOn( Schedulers.boundedElastic() ) )
+                .then()
+                .cache();
+    }
+
+    @EventListener
+    public void handleEvent(ApplicationStartedEvent event) {
+        // intended to block application startup until the index is loaded
+        try {
+            this.isReady.block( READY_TIMEOUT );
+        } catch (Exception e) {
+            throw new IllegalStateException( "Failed to prepare CachingFileStore", e );
+        }
+    }
+
+    @Override
+    public Mono<Void> isReady() throws RuntimeException {
+        return delegate.isReady().then( isReady );
+    }
+
+    @Override
+    public Mono<Boolean> createBucketIfNotExists() throws RuntimeException {
+        return delegate.createBucketIfNotExists();
+    }
+
+    @Override
+    public <T extends FileDto> Mono<Void> putFile(Flux<ByteBuffer> data, T fileDto, CloudUser cloudUser) throws RuntimeException {
+        // most versions are never read back, they are cached when first read
+        return delegate.putFile( data, fileDto, cloudUser );
+    }
+
+    @Override
+    public <T extends FileDto> Flux<ByteBuffer> getFile(T fileDto, CloudUser cloudUser) throws RuntimeException {
+        if (fileDto.getSize() == null || fileDto.getSize() > maxFileBytes) {
+            return delegate.getFile( fileDto, cloudUser );
+        }
+        Path path = cache.pathOf( fileDto.getFileId(), cloudUser );
+        return isReady.thenMany( Flux.defer( () -> {
+            if (this.isCached( path )) {
+                hits.increment();
+                return this.touch( path )
+                        .thenMany( cache.getFile( fileDto, cloudUser ) )
+                        // deleted or evicted since checked
+                        .onErrorResume( NoSuchKeyException.class, e -> {
+                            this.forget( path );
+                            return delegate.getFile( fileDto, cloudUser );
+                        } );
+            }
+            misses.increment();
+            // the delegate is read once, by both the reader and the fill
+            Flux<ByteBuffer> tee = delegate.getFile( fileDto, cloudUser ).publish().autoConnect( 2 );
+            // each subscriber reads its own view of a buffer, so neither moves the position of the other's
+            Fill fill = this.fill( path, tee.map( ByteBuffer::duplicate ), fileDto, cloudUser );
+            Fill leader = inFlight.putIfAbsent( path, fill );
+            if (leader != null) {
+                return leader.done()
+                        .thenMany( Flux.defer( () -> cache.getFile( fileDto, cloudUser ) ) )
+                        .onErrorResume( NoSuchKeyException.class, e -> delegate.getFile( fileDto, cloudUser ) );
+            }
+            // not cancelled with the reader, so a cancelled read still caches the file
+            fill.done()
+                    .doFinally( signal -> inFlight.remove( path, fill ) )
+                    .subscribe();
+            return tee.map( ByteBuffer::duplicate )
+                    .concatWith( fill.done().then( Mono.<ByteBuffer>empty() ) );
+        } ) );
+    }
+
+    @Override
+    public <T extends FileDto> Mono<PartialFileData> getFileRange(T fileDto, ByteRange range, CloudUser cloudUser) throws RuntimeException {
+        Path path = cache.pathOf( fileDto.getFileId(), cloudUser );
+        return isReady.then( Mono.defer( () -> {
+            if (!this.isCached( path )) {
+                return delegate.getFileRange( fileDto, range, cloudUser );
+            }
+            hits.increment();
+            return this.touch( path )
+                    .then( cache.getFileRange( fileDto, range, cloudUser ) )
+                    .onErrorResume( NoSuchKeyException.class, e -> {
+                        this.forget( path );
+                        return delegate.getFileRange( fileDto, range, cloudUser );
+                    } );
+        } ) );
+    }
+
+    /**
+     * Deletes files from the backing store, then from the cache.
+     */
+    @Override
+    public Mono<Void> deleteFiles(Mono<List<UUID>> fileIds, CloudUser cloudUser) throws RuntimeException {
+        Mono<List<UUID>> ids = fileIds.cache();
+        return delegate.deleteFiles( ids, cloudUser )
+                .then( ids )
+                .doOnNext( list -> list.forEach( fileId -> this.invalidate( cache.pathOf( fileId, cloudUser ) ) ) )
+                .flatMap( list -> cache.deleteFiles( Mono.just( list ), cloudUser ) );
+    }
+
+    @Override
+    public int getDeleteFilesMax() {
+        return delegate.getDeleteFilesMax();
+    }
+
+    /**
+     * @return bytes of cached files
+     */
+    public long getCachedBytes() {
+        synchronized (index) {
+            return cachedBytes;
+        }
+    }
+
+    // A fill of the cache in flight.  invalidated is set by a delete of its file, the fill is then not admitted.
+    private record Fill(Mono<Void> done, AtomicBoolean invalidated) {}
+
+    // writes data to the cache, done never errors.  The reader's tee connects once the fill has subscribed to data, so
+    // a fill failing before it subscribes drains data instead.
+    private <T extends FileDto> Fill fill(Path path, Flux<ByteBuffer> data, T fileDto, CloudUser cloudUser) {
+        AtomicBoolean invalidated = new AtomicBoolean( false );
+        AtomicBoolean subscribed = new AtomicBoolean( false );
+        Mono<Void> done = cache.putFile( data.doOnSubscribe( subscription -> subscribed.set( true ) ), fileDto, cloudUser )
+                .then( Mono.fromRunnable( () -> this.admit( path, fileDto.getSize(), invalidated ) )
+                        .subscribeOn( Schedulers.boundedElastic() ) )
+                .then()
+                .onErrorResume( e -> {
+                    log.debug( "Failed caching {}", path.getFileName(), e );
+                    return subscribed.get() ? Mono.empty() : data.onErrorResume( drainError -> Mono.empty() ).then();
+                } )
+                .cache();
+        return new Fill( done, invalidated );
+    }
+
+    private boolean isCached(Path path) {
+        synchronized (index) {
+            // get updates the access order
+            return index.get( path ) != null;
+        }
+    }
+
+    // records the access time, so access order survives a restart
+    private Mono<Void> touch(Path path) {
+        return Mono.fromRunnable( () -> {
+                    try {
+                        Files.setLastModifiedTime( path, FileTime.from( Instant.now() ) );
+                    } catch (IOException e) {
+                        log.debug( "Failed to update access time of {}", path.getFileName(), e );
+                    }
+                } )
+                .subscribeOn( Schedulers.boundedElastic() )
+                .then();
+    }
+
+    // blocking, a fill invalidated by a delete is removed rather than admitted
+    private void admit(Path path, long size, AtomicBoolean invalidated) {
+        List<Path> victims = new ArrayList<>();
+        boolean discarded;
+        synchronized (index) {
+            discarded = invalidated.get();
+            if (!discarded) {
+                Long previous = index.put( path, size );
+                cachedBytes += size - ( previous == null ? 0 : previous );
+                victims.addAll( this.evictOverflow() );
+            }
+        }
+        if (discarded) {
+            try {
+                Files.deleteIfExists( path );
+            } catch (IOException e) {
+                log.warn( "Failed to discard {}", path.getFileName(), e );
+            }
+            return;
+        }
+        this.delete( victims );
+    }
+
+    // checked by the fill under the index lock, so a fill either sees the delete or is admitted before it is forgotten
+    private void invalidate(Path path) {
+        Fill fill = inFlight.get( path );
+        if (fill != null) {
+            fill.invalidated().set( true );
+        }
+        this.forget( path );
+    }
+
+    private void forget(Path path) {
+        synchronized (index) {
+            Long size = index.remove( path );
+            if (size != null) {
+                cachedBytes -= size;
+            }
+        }
+    }
+
+    // removes least recently read files until under maxBytes, caller must hold the index lock
+    private List<Path> evictOverflow() {
+        List<Path> victims = new ArrayList<>();
+        Iterator<Map.Entry<Path, Long>> eldest = index.entrySet().iterator();
+        while (cachedBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<Path, Long> victim = eldest.next();
+            cachedBytes -= victim.getValue();
+            victims.add( victim.getKey() );
+            eldest.remove();
+        }
+        return victims;
+    }
+
+    // blocking
+    private void delete(List<Path> victims) {
+        for (Path victim : victims) {
+            try {
+                Files.deleteIfExists( victim );
+                evictions.increment();
+            } catch (IOException e) {
+                log.warn( "Failed to evict {}", victim.getFileName(), e );
+            }
+        }
+    }
+
+    // blocking, rebuilds the index from the cache directory ordered by access time
+    private void loadIndex() {
+        record Entry(Path path, FileTime accessed, long size) {}
+        List<Entry> entries;
+        try (Stream<Path> files = Files.list( cache.root() )) {
+            entries = files.map( path -> {
+                        try {
+                            if (path.getFileName().toString().endsWith( LocalDiskFileStore.TEMP_SUFFIX )) {
+                                // incomplete fill interrupted by a shutdown
+                                Files.deleteIfExists( path );
+                                return null;
+                            }
+                            BasicFileAttributes attributes = Files.readAttributes( path, BasicFileAttributes.class );
+                            return new Entry( path, attributes.lastModifiedTime(), attributes.size() );
+                        } catch (IOException e) {
+                            throw new UncheckedIOException( e );
+                        }
+                    } )
+                    .filter( Objects::nonNull )
+                    .sorted( Comparator.comparing( Entry::accessed ) )
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException( e );
+        }
+        List<Path> victims;
+        synchronized (index) {
+            entries.forEach( entry -> {
+                index.put( entry.path(), entry.size() );
+                cachedBytes += entry.size();
+            } );
+            // max-size may have been reduced
+            victims = this.evictOverflow();
+        }
+        this.delete( victims );
+        log.info( "Loaded {} cached files, {} bytes", entries.size(), this.getCachedBytes() );
+    }
+}
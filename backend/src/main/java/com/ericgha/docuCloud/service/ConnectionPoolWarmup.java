@@ -0,0 +1,52 @@
+package com.ericgha.docuCloud.service;
+
+import com.ericgha.docuCloud.configuration.properties.R2dbcPoolPropertiesKey;
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.spi.ConnectionFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+
+/**
+ * Opens the {@code spring.r2dbc.pool.initial-size} connections of the pool at startup, so the first requests don't
+ * pay for connection setup (TCP, TLS and authentication).  Without warmup the pool only creates connections on
+ * acquire.
+ * <br><br>
+ * Warmup blocks startup for at most {@code app.r2dbc-pool.warmup-timeout}.  A failed warmup is logged and startup
+ * continues, connections are then created on demand.
+ */
+@Service
+@Slf4j
+public class ConnectionPoolWarmup {
+
+    private final ConnectionFactory connectionFactory;
+    private final boolean enabled;
+    private final Duration timeout;
+
+    public ConnectionPoolWarmup(ConnectionFactory connectionFactory, AppEnvPropertiesService propertiesService) {
+        this.connectionFactory = connectionFactory;
+        this.enabled = Boolean.parseBoolean( propertiesService.get( R2dbcPoolPropertiesKey.WARMUP, "true" ) );
+        this.timeout = Duration.parse( propertiesService.get( R2dbcPoolPropertiesKey.WARMUP_TIMEOUT, "PT10S" ) );
+    }
+
+    @EventListener
+    public void handleEvent(ApplicationStartedEvent event) {
+        if (!enabled) {
+            log.info( "Connection pool warmup is disabled." );
+            return;
+        }
+        if (!( connectionFactory instanceof ConnectionPool pool )) {
+            log.info( "Connection factory is not pooled, skipping warmup." );
+            return;
+        }
+        try {
+            Integer numWarmed = pool.warmup().block( timeout );
+            log.info( "Warmed up {} pooled connections.", numWarmed );
+        } catch (RuntimeException e) {
+            log.warn( "Failed warming up connection pool, connections will be created on demand.", e );
+        }
+    }
+}
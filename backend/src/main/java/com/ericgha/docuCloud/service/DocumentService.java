@@ -1,26 +1,38 @@
 package com.ericgha.docuCloud.service;
 
+import com.ericgha.docuCloud.converter.LtreePathCodec;
+import com.ericgha.docuCloud.converter.PathStrToEncodedLtree;
+import com.ericgha.docuCloud.dto.ArchiveEntryResult;
+import com.ericgha.docuCloud.dto.ByteRange;
 import com.ericgha.docuCloud.dto.CloudUser;
 import com.ericgha.docuCloud.dto.FileDto;
 import com.ericgha.docuCloud.dto.FileViewDto;
+import com.ericgha.docuCloud.dto.LsSeekInitResponse;
+import com.ericgha.docuCloud.dto.PartialFileData;
 import com.ericgha.docuCloud.dto.SeekInitResponse;
 import com.ericgha.docuCloud.dto.TreeAndFileView;
+import com.ericgha.docuCloud.dto.TreeCreateResult;
 import com.ericgha.docuCloud.dto.TreeDto;
 import com.ericgha.docuCloud.dto.TreeJoinFileDto;
+import com.ericgha.docuCloud.exceptions.ConcurrencyLimitException;
 import com.ericgha.docuCloud.exceptions.DeleteFailureException;
 import com.ericgha.docuCloud.exceptions.IllegalObjectTypeException;
 import com.ericgha.docuCloud.exceptions.InsertFailureException;
+import com.ericgha.docuCloud.exceptions.MalformedArchiveException;
+import com.ericgha.docuCloud.exceptions.RangeNotSatisfiableException;
 import com.ericgha.docuCloud.exceptions.RecordNotFoundException;
-import com.ericgha.docuCloud.jooq.enums.ObjectType;
+import com.ericgha.docuCloud.exceptions.UploadVerificationException;
 import com.ericgha.docuCloud.repository.FileRepository;
 import com.ericgha.docuCloud.repository.TreeRepository;
 import com.ericgha.docuCloud.repository.testtool.file.UpdateFailureException;
 import com.ericgha.docuCloud.util.PublisherUtil;
+import com.ericgha.docuCloud.util.archive.ArchiveDecoder;
+import com.ericgha.docuCloud.util.archive.ZipStreamEncoder;
+import com.ericgha.docuCloud.util.filestore.UploadVerifier;
 import com.ericgha.docuCloud.util.validator.TreeDtoValidator;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.jooq.Record3;
 import org.jooq.postgres.extensions.types.Ltree;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
@@ -29,16 +41,24 @@ import reactor.core.publisher.Mono;
 import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 
 import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.Semaphore;
 import java.util.function.Supplier;
 
 import static com.ericgha.docuCloud.jooq.enums.ObjectType.*;
-import static com.ericgha.docuCloud.jooq.tables.Tree.TREE;
 
 @Service
-@Profile("(test & s3) | !test")
+@Profile("(test & (s3 | local-fs)) | !test")
 @RequiredArgsConstructor
 @Slf4j
 public class DocumentService {
@@ -49,11 +69,73 @@ public class DocumentService {
 
     private final JooqTransaction jooqTrans;
 
+    private static final PathStrToEncodedLtree PATH_FORMATTER = new PathStrToEncodedLtree();
+
+    /**
+     * Max number of paths, including implicit parents, created by {@link #createAll}.  Each path is four bind values
+     * (objectId, objectType, path and userId) of a single insert, which can bind at most 65535 values.
+     */
+    public static final int MAX_BATCH_CREATE_PATHS = 65_535 / 4;
+
+    /**
+     * Number of files fetched from the {@link FileStore} ahead of the file being written by {@link #zip}.
+     */
+    public static final int ZIP_FETCH_CONCURRENCY = 4;
+
+    /**
+     * Max number of chunks buffered for each file fetched ahead by {@link #zip}.
+     */
+    public static final int ZIP_FETCH_PREFETCH = 16;
+
+    /**
+     * Max size of a file entry expanded by {@link #expandArchive}.  Entries are buffered in memory so their checksum
+     * is known before they are stored, larger files should be uploaded individually.
+     */
+    public static final long ARCHIVE_MAX_ENTRY_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * Max number of entries whose tree objects are created in one transaction by {@link #expandArchive}.
+     */
+    public static final int ARCHIVE_BATCH_SIZE = 500;
+
+    /**
+     * A batch of {@link #expandArchive} is closed early once its entries hold this many bytes.
+     */
+    public static final long ARCHIVE_BATCH_BYTES = 64 * 1024 * 1024;
+
+    /**
+     * Number of entries of a batch stored in the {@link FileStore} at once by {@link #expandArchive}.
+     */
+    public static final int ARCHIVE_PUT_CONCURRENCY = 8;
+
+    /**
+     * Number of request body chunks read ahead of the archive parser by {@link #expandArchive}.
+     */
+    public static final int ARCHIVE_PREFETCH = 16;
+
+    /**
+     * Max decompressed size of an archive expanded by {@link #expandArchive}, including the data of skipped entries.
+     */
+    public static final long ARCHIVE_MAX_TOTAL_BYTES = 4L * 1024 * 1024 * 1024;
+
+    /**
+     * Max number of entries of an archive expanded by {@link #expandArchive}.
+     */
+    public static final int ARCHIVE_MAX_ENTRIES = 100_000;
+
+    /**
+     * Max number of {@link #expandArchive} calls running at once.  Each holds up to about three
+     * {@link #ARCHIVE_BATCH_BYTES} batches in memory (one being filled, one queued and one being stored).
+     */
+    public static final int ARCHIVE_MAX_CONCURRENT_EXPANSIONS = 4;
+
+    private final Semaphore archiveExpansions = new Semaphore( ARCHIVE_MAX_CONCURRENT_EXPANSIONS );
+
     /**
      * Lists files and directories in a ROOT or DIR. Fetches FileViewDtos for all FILE objects, if an object is not a
      * FILE then a null fileViewDto is returned.  Returns a {@link TreeAndFileView} The TreeDto will never be null. The
      * FileViewDto must be null when the TreeDto is a DIR; The fileViewDto may be null for a FILE when no file versions
-     * are linked to the TreeDto.
+     * are linked to the TreeDto.  Objects and their newest versions are fetched in a single query.
      *
      * @param source
      * @param cloudUser
@@ -65,14 +147,77 @@ public class DocumentService {
 
     public Flux<TreeAndFileView> ls(TreeDto source, CloudUser cloudUser)
             throws IllegalObjectTypeException, RecordNotFoundException {
+        return this.ls( source, false, cloudUser );
+    }
+
+    /**
+     * As {@link DocumentService#ls(TreeDto, CloudUser)}.  When {@code withStats} is true each object also has its
+     * {@link com.ericgha.docuCloud.dto.TreeStatsDto}: the sizes and counts below a DIR, or the sizes of a FILE's
+     * versions.  These are maintained by the database as objects change, so they are read in the same query.
+     *
+     * @param withStats if the stats of each object should be returned
+     */
+    public Flux<TreeAndFileView> ls(TreeDto source, boolean withStats, CloudUser cloudUser)
+            throws IllegalObjectTypeException, RecordNotFoundException {
         TreeDtoValidator.mustBeOneOfObjectTypes( source, ROOT, DIR );
-        Flux<TreeDto> hotStream = treeRepository.ls( source, cloudUser ).cache( 0 );
-        Mono<Void> takeParent = this.firstMustBeRootOrFile( hotStream );
-        Flux<TreeAndFileView> dirsAndFiles = this.zipWithFileViewDtos( hotStream, cloudUser );
+        Flux<TreeAndFileView> hotStream = treeRepository.lsWithNewestFile( source, withStats, cloudUser ).cache( 0 );
+        Mono<Void> takeParent = this.firstMustBeRootOrFile( hotStream.map( TreeAndFileView::treeDto ) );
+        Flux<TreeAndFileView> dirsAndFiles = hotStream.doOnNext( treeAndFileView ->
+                TreeDtoValidator.mustBeOneOfObjectTypes( treeAndFileView.treeDto(), FILE, DIR ) );
         return takeParent.thenMany( dirsAndFiles );
     }
 
 
+    /**
+     * Keyset paginated alternative to {@link DocumentService#ls(TreeDto, CloudUser)} for large directories.  Only
+     * the children of source are listed.  When the source cannot be located the first page is empty.
+     *
+     * @param source    ROOT or DIR to list
+     * @param limit     page size
+     * @param withCount if {@code numChildren} of the response should count all children of source, otherwise it is
+     *                  empty
+     * @param cloudUser
+     * @return {@link LsSeekInitResponse}
+     * @throws IllegalObjectTypeException if source is not a ROOT or DIR
+     */
+    public Mono<LsSeekInitResponse> lsFirstPage(TreeDto source, int limit, boolean withCount, CloudUser cloudUser)
+            throws IllegalObjectTypeException {
+        return this.lsFirstPage( source, limit, withCount, false, cloudUser );
+    }
+
+    /**
+     * As {@link DocumentService#lsFirstPage(TreeDto, int, boolean, CloudUser)}, with the stats of each child when
+     * {@code withStats} is true (see {@link DocumentService#ls(TreeDto, boolean, CloudUser)}).
+     */
+    public Mono<LsSeekInitResponse> lsFirstPage(TreeDto source, int limit, boolean withCount, boolean withStats,
+                                                CloudUser cloudUser) throws IllegalObjectTypeException {
+        return Mono.fromSupplier( () -> {
+            TreeDtoValidator.mustBeOneOfObjectTypes( source, ROOT, DIR );
+            Mono<Long> count = withCount ? treeRepository.countChildren( source, cloudUser ) : Mono.empty();
+            var firstPage = treeRepository.lsFirstPage( source, limit, withStats, cloudUser );
+            return new LsSeekInitResponse( firstPage, count );
+        } );
+    }
+
+    /**
+     * @param lastChild last record of the previous page, only the {@code path} is required
+     * @param limit     page size
+     * @param cloudUser
+     * @return the next page
+     * @throws IllegalArgumentException if the lastChild path is null or the ROOT path
+     */
+    public Flux<TreeAndFileView> lsNextPage(TreeDto lastChild, int limit, CloudUser cloudUser) throws IllegalArgumentException {
+        return this.lsNextPage( lastChild, limit, false, cloudUser );
+    }
+
+    /**
+     * As {@link DocumentService#lsNextPage(TreeDto, int, CloudUser)}, with the stats of each sibling when
+     * {@code withStats} is true.
+     */
+    public Flux<TreeAndFileView> lsNextPage(TreeDto lastChild, int limit, boolean withStats, CloudUser cloudUser) throws IllegalArgumentException {
+        return Flux.defer( () -> treeRepository.lsNextPage( lastChild, limit, withStats, cloudUser ) );
+    }
+
     public Mono<SeekInitResponse> fetchFirstPageFileVersions(TreeDto source, int limit, CloudUser cloudUser) {
         var count = fileRepository.countFilesFor( source, cloudUser );
         var fileList = fileRepository.lsNewestFilesFor( source, limit, cloudUser );
@@ -84,6 +229,16 @@ public class DocumentService {
         return fileRepository.lsNextFilesFor( lastFileView, limit, cloudUser );
     }
 
+    /**
+     * Deletes the object (and its descendents when recursive) and all file versions left without any links.  Data of
+     * deleted versions is queued in the same transaction and deleted from the FileStore by {@link BlobDeleteReaper},
+     * so this completes as soon as the db commits.
+     *
+     * @param record    object to delete
+     * @param recursive if descendents should be deleted
+     * @param cloudUser
+     * @return void
+     */
     public Mono<Void> rmTreeObject(TreeDto record, @NonNull Boolean recursive, CloudUser cloudUser) {
         Flux<TreeDto> rmTree;
         if (recursive) {
@@ -92,27 +247,29 @@ public class DocumentService {
             rmTree = treeRepository.rmNormal( record, cloudUser )
                     .flux();
         }
-        Mono<List<UUID>> versionsToDelete = rmTree.map( TreeDto::getObjectId )
-                .flatMap( objectId -> fileRepository.rmEdgesFrom( objectId, cloudUser ) )
-                .filter( record2 -> record2.get( "orphan", Boolean.class ) )
-                .map( record2 -> record2.get( "file_id", UUID.class ) )
-                .collectList();
-        return fileStore.deleteFiles( versionsToDelete, cloudUser ).as( jooqTrans::inTransaction );
+        return rmTree.map( TreeDto::getObjectId )
+                .collectList()
+                .flatMapMany( objectIds -> fileRepository.rmEdgesFromAll( objectIds, cloudUser ) )
+                .then()
+                .as( jooqTrans::inTransaction );
     }
 
-
-    public <T extends FileDto> Mono<Void> rmVersion(FileViewDto fileViewDto, CloudUser cloudUser) throws DeleteFailureException {
+    /**
+     * Deletes a link between a FILE object and a file version, and the version if left without any links.  Data of a
+     * deleted version is deleted from the FileStore by {@link BlobDeleteReaper}.
+     *
+     * @param fileViewDto link to delete, requires {@code objectId} and {@code fileId}
+     * @param cloudUser
+     * @return void
+     * @throws DeleteFailureException if the link was not found
+     */
+    public Mono<Void> rmVersion(FileViewDto fileViewDto, CloudUser cloudUser) throws DeleteFailureException {
         TreeJoinFileDto record = TreeJoinFileDto.builder().objectId( fileViewDto.getObjectId() )
                 .fileId( fileViewDto.getFileId() )
                 .build();
-        // This will always flat map to 1 UUID, however delete files is designed to take requests of multiple files
-        Mono<List<UUID>> versionsToDelete = PublisherUtil.requireNext( fileRepository.rmEdge( record, cloudUser ),
+        return PublisherUtil.requireNext( fileRepository.rmEdge( record, cloudUser ),
                         e -> new DeleteFailureException( "FileRepository", e ) )
-                .filter( record2 -> record2.get( "orphan", Boolean.class ) )
-                .map( record2 -> record2.get( "file_id", UUID.class ) )
-                .flux()
-                .collectList();
-        return fileStore.deleteFiles( versionsToDelete, cloudUser );
+                .then();
     }
 
     /**
@@ -132,17 +289,33 @@ public class DocumentService {
                                                                 @NonNull T fileDto,
                                                                 @NonNull Flux<ByteBuffer> data,
                                                                 @NonNull CloudUser cloudUser) throws IllegalObjectTypeException, InsertFailureException {
+        return this.createFile( treeDto, fileDto, data, false, cloudUser );
+    }
+
+    /**
+     * As {@link DocumentService#createFile(TreeDto, FileDto, Flux, CloudUser)}.  When {@code dedup} is true and the
+     * user already has a file with the same checksum and size, the new object is linked to that file, and the data is
+     * neither read nor stored.
+     *
+     * @param dedup if an existing file with the same content should be linked instead of storing the data
+     * @see DocumentService#hasFile(FileDto, CloudUser)
+     */
+    public <T extends FileDto> Mono<TreeAndFileView> createFile(@NonNull TreeDto treeDto,
+                                                                @NonNull T fileDto,
+                                                                @NonNull Flux<ByteBuffer> data,
+                                                                boolean dedup,
+                                                                @NonNull CloudUser cloudUser) throws IllegalObjectTypeException, InsertFailureException, UploadVerificationException {
         TreeDtoValidator.mustBeObjectType( treeDto, FILE );
 
         return PublisherUtil.requireNext(
                         treeRepository.create( treeDto, cloudUser ),
                         e -> new InsertFailureException( "TreeRepository", e ) )
-                .zipWhen( fullTreeDto ->
-                                PublisherUtil.requireNext(
-                                        fileRepository.createFileFor( fullTreeDto, fileDto, cloudUser ),
-                                        e -> new InsertFailureException( "FileRepository", e ) ),
-                        TreeAndFileView::new )
-                .flatMap( treeAndFileView -> this.putDocumentIfFile( treeAndFileView, data, cloudUser ) )
+                .flatMap( fullTreeDto -> ( dedup ? this.linkDuplicate( fullTreeDto, fileDto, cloudUser ) : Mono.<TreeAndFileView>empty() )
+                        .switchIfEmpty( Mono.defer( () -> PublisherUtil.requireNext(
+                                                fileRepository.createFileFor( fullTreeDto, fileDto, cloudUser ),
+                                                e -> new InsertFailureException( "FileRepository", e ) )
+                                        .map( fileViewDto -> new TreeAndFileView( fullTreeDto, fileViewDto ) )
+                                        .flatMap( treeAndFileView -> this.putDocumentIfFile( treeAndFileView, data, cloudUser ) ) ) ) )
                 .as( jooqTrans::inTransaction );
     }
 
@@ -151,25 +324,309 @@ public class DocumentService {
     public <T extends FileDto> Mono<TreeAndFileView> addFileVersion(@NonNull TreeDto treeDto,
                                                                     @NonNull T fileDto,
                                                                     @NonNull Flux<ByteBuffer> data,
-                                                                    @NonNull CloudUser cloudUser) throws InsertFailureException, IllegalObjectTypeException {
+                                                                    @NonNull CloudUser cloudUser) throws InsertFailureException, IllegalObjectTypeException, UploadVerificationException {
         TreeDtoValidator.mustBeObjectType( treeDto, FILE );
         return PublisherUtil.requireNext(
                         fileRepository.createFileFor( treeDto, fileDto, cloudUser ),
                         e -> new InsertFailureException( "FileRepository", e ) )
                 .map( fileViewDto -> new TreeAndFileView( treeDto, fileViewDto ) )
-                .flatMap( treeAndFileView -> this.putDocumentIfFile( treeAndFileView, data, cloudUser ) );
+                .flatMap( treeAndFileView -> this.putDocumentIfFile( treeAndFileView, data, cloudUser ) )
+                .as( jooqTrans::inTransaction );
+    }
+
+    /**
+     * As {@link DocumentService#addFileVersion(TreeDto, FileDto, Flux, CloudUser)}.  When {@code dedup} is true and the
+     * user already has a file with the same checksum and size, that file is linked as the newest version, and the
+     * data is neither read nor stored.
+     *
+     * @param dedup if an existing file with the same content should be linked instead of storing the data
+     * @see DocumentService#linkFileVersion(TreeDto, FileDto, CloudUser)
+     */
+    public <T extends FileDto> Mono<TreeAndFileView> addFileVersion(@NonNull TreeDto treeDto,
+                                                                    @NonNull T fileDto,
+                                                                    @NonNull Flux<ByteBuffer> data,
+                                                                    boolean dedup,
+                                                                    @NonNull CloudUser cloudUser) throws InsertFailureException, IllegalObjectTypeException, UploadVerificationException {
+        if (!dedup) {
+            return this.addFileVersion( treeDto, fileDto, data, cloudUser );
+        }
+        TreeDtoValidator.mustBeObjectType( treeDto, FILE );
+        return this.linkDuplicate( treeDto, fileDto, cloudUser )
+                .switchIfEmpty( Mono.defer( () -> this.addFileVersion( treeDto, fileDto, data, cloudUser ) ) );
+    }
+
+    /**
+     * Preflight for deduplicated uploads: a client which knows the checksum of its data can check if the data needs
+     * to be sent at all.
+     *
+     * @param fileDto   required fields {@code checksum} and {@code size}
+     * @param cloudUser
+     * @return true if the user has a file with the same checksum and size
+     */
+    public <T extends FileDto> Mono<Boolean> hasFile(@NonNull T fileDto, @NonNull CloudUser cloudUser) {
+        return fileRepository.findFile( fileDto, cloudUser )
+                .hasElement();
+    }
+
+    /**
+     * Adds a version to a FILE object without any data, by linking an existing file of the user with the same
+     * checksum and size.
+     *
+     * @param treeDto   required fields {@code objectId} and {@code objectType}
+     * @param fileDto   required fields {@code checksum} and {@code size}
+     * @param cloudUser
+     * @return {@code TreeAndFileView} of the linked version
+     * @throws IllegalObjectTypeException if the treeDto objectType is not FILE
+     * @throws RecordNotFoundException    if the user has no file with the same checksum and size
+     * @throws InsertFailureException     if the object was not found
+     */
+    public <T extends FileDto> Mono<TreeAndFileView> linkFileVersion(@NonNull TreeDto treeDto,
+                                                                     @NonNull T fileDto,
+                                                                     @NonNull CloudUser cloudUser) throws IllegalObjectTypeException, RecordNotFoundException, InsertFailureException {
+        TreeDtoValidator.mustBeObjectType( treeDto, FILE );
+        return this.linkDuplicate( treeDto, fileDto, cloudUser )
+                .switchIfEmpty( Mono.error( () -> new RecordNotFoundException( "No file with matching checksum and size" ) ) );
+    }
+
+    // empty if the user has no file with the same content
+    private <T extends FileDto> Mono<TreeAndFileView> linkDuplicate(TreeDto treeDto, T fileDto, CloudUser cloudUser) {
+        return fileRepository.findFile( fileDto, cloudUser )
+                .flatMap( existing -> PublisherUtil.requireNext(
+                        fileRepository.linkFile( treeDto, existing, cloudUser ),
+                        e -> new InsertFailureException( "FileRepository", e ) ) )
+                .map( fileViewDto -> new TreeAndFileView( treeDto, fileViewDto ) );
     }
 
     public <T extends FileDto> Flux<ByteBuffer> getFileData(T fileDto, CloudUser cloudUser) throws NoSuchKeyException {
         return fileStore.getFile( fileDto, cloudUser );
     }
 
+    public <T extends FileDto> Mono<PartialFileData> getFileData(T fileDto, ByteRange range, CloudUser cloudUser) throws NoSuchKeyException, RangeNotSatisfiableException {
+        return fileStore.getFileRange( fileDto, range, cloudUser );
+    }
+
+    /**
+     * Streams a ZIP archive of source and all of its descendents.  The newest version of each FILE is included, FILEs
+     * without versions are skipped, and DIRs are included as directory entries so empty DIRs are preserved.  Entry
+     * names are paths relative to the parent of source (i.e. a DIR's archive contains a single top level directory).
+     * <br><br>
+     * Descendents are read with a single query, which is collected before any file is fetched so that no database
+     * connection is held while the archive streams.  File data is fetched with up to {@link #ZIP_FETCH_CONCURRENCY}
+     * files in flight.  Nothing is buffered on disk, and in memory only the listing, the prefetched chunks and what the
+     * {@link FileStore} holds per file (e.g. the ranges of {@link S3FileStore#getFileRanged}), so memory use does not
+     * depend on the size of the files.  Errors after the first chunk is emitted truncate the archive.
+     * <br><br>
+     * Names may decode to any char, so each label is made safe to extract (see {@link #zipEntryName}).  Labels of
+     * only dots (i.e. {@code .} and {@code ..}) and {@code /}, {@code \}, {@code :} and control chars are replaced
+     * by {@code _}, so no entry can be extracted outside of the archive's directory.
+     *
+     * @param source    ROOT or DIR to archive
+     * @param level     deflate level, see {@link java.util.zip.Deflater}
+     * @param cloudUser
+     * @return the archive
+     * @throws IllegalObjectTypeException if source is not a ROOT or DIR
+     * @throws RecordNotFoundException    if source could not be located
+     */
+    public Flux<ByteBuffer> zip(TreeDto source, int level, CloudUser cloudUser) throws IllegalObjectTypeException, RecordNotFoundException {
+        TreeDtoValidator.mustBeOneOfObjectTypes( source, ROOT, DIR );
+        return treeRepository.lsRecursiveWithNewestFile( source, cloudUser )
+                .collectList()
+                .flatMapMany( records -> {
+                    if (records.isEmpty()) {
+                        return Flux.error( new RecordNotFoundException() );
+                    }
+                    TreeDto parent = records.get( 0 ).treeDto();
+                    String parentPath = parent.getPath().data();
+                    // ROOT has no name so its children are top level entries
+                    int prefixLen = parentPath.lastIndexOf( '.' ) + 1;
+                    Flux<ZipStreamEncoder.Entry> entries = Flux.fromIterable( records )
+                            .skip( parent.getObjectType() == ROOT ? 1 : 0 )
+                            .filter( record -> record.treeDto().getObjectType() == DIR || Objects.nonNull( record.fileViewDto() ) )
+                            .map( record -> toZipEntry( record, prefixLen, cloudUser ) );
+                    return Mono.fromRunnable( () -> TreeDtoValidator.mustBeOneOfObjectTypes( parent, ROOT, DIR ) )
+                            .thenMany( ZipStreamEncoder.encode( entries, level, ZIP_FETCH_CONCURRENCY, ZIP_FETCH_PREFETCH ) );
+                } );
+    }
+
+    /**
+     * Expands a streamed ZIP or TAR archive into the tree under destination.  The archive is parsed as it is received
+     * and entries are processed in batches of up to {@link #ARCHIVE_BATCH_SIZE} entries or
+     * {@link #ARCHIVE_BATCH_BYTES}.  The tree objects of a batch, including missing parents, are created in one
+     * transaction with {@link #createAll} semantics.  Then the file entries are added as versions, each in its own
+     * transaction, with up to {@link #ARCHIVE_PUT_CONCURRENCY} puts to the {@link FileStore} in flight.  An entry at
+     * the path of an existing FILE adds a new version to it.
+     * <br><br>
+     * One result is emitted per entry, in archive order.  Failures are reported per entry: an invalid name, a file
+     * larger than {@link #ARCHIVE_MAX_ENTRY_BYTES} or a failed put fails only that entry, while a failure to create
+     * the tree objects of a batch fails every entry of the batch.  A FILE object created for an entry whose put
+     * failed is left without versions.
+     * <br><br>
+     * An archive that expands to more than {@link #ARCHIVE_MAX_TOTAL_BYTES} or has more than
+     * {@link #ARCHIVE_MAX_ENTRIES} entries fails when the limit is reached.  At most
+     * {@link #ARCHIVE_MAX_CONCURRENT_EXPANSIONS} archives are expanded at once, further calls fail without reading
+     * the archive.
+     *
+     * @param destination ROOT or DIR path to expand into, created if missing
+     * @param archive     archive data
+     * @param format      archive format
+     * @param cloudUser
+     * @return manifest of results
+     * @throws MalformedArchiveException if the archive cannot be parsed or exceeds a limit, results of completed
+     *                                   batches are kept
+     * @throws ConcurrencyLimitException if {@link #ARCHIVE_MAX_CONCURRENT_EXPANSIONS} archives are being expanded
+     */
+    public Flux<ArchiveEntryResult> expandArchive(@NonNull Ltree destination, @NonNull Flux<ByteBuffer> archive,
+                                                  @NonNull ArchiveDecoder.Format format, @NonNull CloudUser cloudUser) throws MalformedArchiveException, ConcurrencyLimitException {
+        // the permit is released once on complete, error or cancel
+        return Flux.using( this::acquireArchiveExpansion,
+                permit -> ArchiveDecoder.decode( archive, format, ARCHIVE_MAX_ENTRY_BYTES, ARCHIVE_MAX_TOTAL_BYTES,
+                                ARCHIVE_MAX_ENTRIES, ARCHIVE_PREFETCH )
+                        .<ArchiveItem>handle( (entry, sink) -> {
+                            // i.e. "./", the destination itself
+                            if (!entry.isDirectory() || !normalizeEntryName( entry.name() ).isEmpty()) {
+                                sink.next( toArchiveItem( destination, entry ) );
+                            }
+                        } )
+                        .transform( DocumentService::batchArchiveItems )
+                        .concatMap( batch -> this.expandArchiveBatch( batch, cloudUser ), 1 ),
+                Semaphore::release );
+    }
+
     public Mono<TreeDto> createDir(TreeDto treeDto, CloudUser cloudUser) throws NullPointerException, IllegalArgumentException {
         TreeDtoValidator.mustBeObjectType( treeDto, DIR );
         return PublisherUtil.requireNext( treeRepository.create( treeDto, cloudUser ),
                 e -> new InsertFailureException( "TreeRepository - DIR", e ) );
     }
 
+    /**
+     * Creates many DIR and FILE objects in one transaction, with {@code mkdir -p} semantics: missing parents are
+     * created as DIRs and objects that already exist with the requested objectType are left unchanged.  FILE objects
+     * are created without versions.
+     * <br><br>
+     * One result is emitted for each requested object that already existed, followed by one for each created object,
+     * including created parents.  Missing objects are created with a single multi-row insert, and nothing is emitted
+     * until it completes, so a failed insert errors before any result.
+     * <br><br>
+     * Objects stored in the legacy path encoding (see {@link LtreePathCodec}) are found, and missing children of such
+     * an object are created under its stored path.
+     *
+     * @param treeDtos  objects to create, only {@code objectType} and {@code path} are used
+     * @param cloudUser
+     * @return results
+     * @throws IllegalObjectTypeException if an objectType is not DIR or FILE
+     * @throws IllegalArgumentException   if a path is missing or the ROOT, the batch exceeds
+     *                                    {@link #MAX_BATCH_CREATE_PATHS}, or a FILE is the parent of another object
+     * @throws InsertFailureException     if an object exists with a different objectType, or the insert fails
+     */
+    public Flux<TreeCreateResult> createAll(List<TreeDto> treeDtos, CloudUser cloudUser) throws IllegalObjectTypeException, IllegalArgumentException, InsertFailureException {
+        return Mono.fromCallable( () -> withParents( treeDtos ) )
+                .flatMapMany( toCreate -> treeRepository.selectByPaths(
+                                toCreate.keySet().stream().map( Ltree::valueOf ).toList(), cloudUser )
+                        .collectMap( TreeDto::getPathStr )
+                        .flatMapMany( existing -> {
+                            List<TreeDto> missing = new ArrayList<>();
+                            List<TreeCreateResult> found = new ArrayList<>();
+                            // requested path -> path it is stored or created at, which differ at or under a path stored in
+                            // the legacy encoding
+                            Map<String, String> storedPaths = new HashMap<>();
+                            toCreate.forEach( (pathStr, toCreateObj) -> {
+                                TreeDto existingDto = existingAt( existing, pathStr );
+                                if (existingDto == null) {
+                                    TreeDto toInsert = underStoredParent( toCreateObj.treeDto(), storedPaths );
+                                    storedPaths.put( pathStr, toInsert.getPathStr() );
+                                    missing.add( toInsert );
+                                } else if (existingDto.getObjectType() != toCreateObj.treeDto().getObjectType()) {
+                                    throw new InsertFailureException( String.format( "%s exists as a %s",
+                                            pathStr, existingDto.getObjectType() ) );
+                                } else {
+                                    storedPaths.put( pathStr, existingDto.getPathStr() );
+                                    if (toCreateObj.requested()) {
+                                        // only requested objects are reported, not existing parents
+                                        found.add( new TreeCreateResult( existingDto, false ) );
+                                    }
+                                }
+                            } );
+                            return treeRepository.createAll( missing, cloudUser )
+                                    .onErrorMap( e -> new InsertFailureException( "Unable to create tree objects", e ) )
+                                    .map( created -> new TreeCreateResult( created, true ) )
+                                    .collectList()
+                                    .flatMapMany( created -> Flux.fromIterable( found )
+                                            .concatWith( Flux.fromIterable( created ) ) );
+                        } ) )
+                .as( jooqTrans::inTransaction );
+    }
+
+    // the object at pathStr, or at its legacy encoding (see LtreePathCodec#legacyEncoding) if none is at pathStr
+    private static TreeDto existingAt(Map<String, TreeDto> existing, String pathStr) {
+        TreeDto existingDto = existing.get( pathStr );
+        if (existingDto != null) {
+            return existingDto;
+        }
+        String legacy = LtreePathCodec.legacyEncoding( pathStr );
+        return legacy == null ? null : existing.get( legacy );
+    }
+
+    // parents are created or found before their children, so a child of a parent stored in the legacy encoding is
+    // created under the stored parent rather than beside it
+    private static TreeDto underStoredParent(TreeDto treeDto, Map<String, String> storedPaths) {
+        String pathStr = treeDto.getPathStr();
+        int lastSep = pathStr.lastIndexOf( '.' );
+        if (lastSep < 0) {
+            return treeDto;
+        }
+        String parentStr = pathStr.substring( 0, lastSep );
+        String storedParent = storedPaths.getOrDefault( parentStr, parentStr );
+        if (storedParent.equals( parentStr )) {
+            return treeDto;
+        }
+        return TreeDto.builder()
+                .path( Ltree.valueOf( storedParent + pathStr.substring( lastSep ) ) )
+                .objectType( treeDto.getObjectType() )
+                .build();
+    }
+
+    // an object to create, requested is false for implicit parents
+    private record ObjectToCreate(TreeDto treeDto, boolean requested) {}
+
+    // paths to create ordered parents first
+    private static LinkedHashMap<String, ObjectToCreate> withParents(List<TreeDto> treeDtos) throws IllegalObjectTypeException, IllegalArgumentException {
+        Map<String, ObjectToCreate> byPath = new HashMap<>();
+        for (TreeDto treeDto : treeDtos) {
+            TreeDtoValidator.mustBeOneOfObjectTypes( treeDto, DIR, FILE );
+            if (treeDto.getPath() == null || treeDto.getPathStr().isEmpty()) {
+                throw new IllegalArgumentException( "Path must not be null or the ROOT" );
+            }
+            String[] labels = treeDto.getPathStr().split( "\\." );
+            for (int level = 1; level < labels.length; level++) {
+                String parentStr = String.join( ".", Arrays.copyOf( labels, level ) );
+                ObjectToCreate parent = byPath.computeIfAbsent( parentStr, str -> new ObjectToCreate(
+                        TreeDto.builder().path( Ltree.valueOf( str ) ).objectType( DIR ).build(), false ) );
+                if (parent.treeDto().getObjectType() != DIR) {
+                    throw new IllegalArgumentException( String.format( "FILE %s cannot be a parent", parentStr ) );
+                }
+            }
+            TreeDto requested = TreeDto.builder()
+                    .path( treeDto.getPath() )
+                    .objectType( treeDto.getObjectType() )
+                    .build();
+            ObjectToCreate previous = byPath.put( treeDto.getPathStr(), new ObjectToCreate( requested, true ) );
+            if (previous != null && previous.treeDto().getObjectType() != requested.getObjectType()) {
+                throw new IllegalArgumentException( String.format( "%s requested as both %s and %s",
+                        treeDto.getPathStr(), previous.treeDto().getObjectType(), requested.getObjectType() ) );
+            }
+        }
+        if (byPath.size() > MAX_BATCH_CREATE_PATHS) {
+            throw new IllegalArgumentException( String.format( "Batch creates %d paths, the max is %d",
+                    byPath.size(), MAX_BATCH_CREATE_PATHS ) );
+        }
+        LinkedHashMap<String, ObjectToCreate> ordered = new LinkedHashMap<>();
+        byPath.entrySet().stream()
+                .sorted( Comparator.comparingInt( (Map.Entry<String, ObjectToCreate> entry) -> entry.getKey().split( "\\." ).length )
+                        .thenComparing( Map.Entry::getKey ) )
+                .forEach( entry -> ordered.put( entry.getKey(), entry.getValue() ) );
+        return ordered;
+    }
+
     public Mono<TreeDto> createRoot(CloudUser cloudUser) throws InsertFailureException {
         TreeDto root = TreeDto.builder().objectType( ROOT )
                 .path( Ltree.valueOf( "" ) )
@@ -204,39 +661,22 @@ public class DocumentService {
 
     // NullPointerException - ObjectType == null
     // InsertFailureException - no records copied in Tree
+    // tree records and their file edges are copied in a single statement
     public Mono<Void> cp(TreeDto source, Ltree destination, boolean onlyNewestVer, CloudUser cloudUser) throws NullPointerException {
-        return this.cpTreeOperations( source, destination, cloudUser )
-                .flatMap( record3 -> this.cpFileOperations( record3, onlyNewestVer, cloudUser ) )
-                .as( jooqTrans::inTransaction )
-                .then();
-    }
-
-    private Flux<Record3<UUID, UUID, ObjectType>> cpTreeOperations(TreeDto source, Ltree destination,
-                                                                   CloudUser cloudUser) {
         var objectType = TreeDtoValidator.getOrThrow( source.getObjectType(), "objectType" );
-        Flux<Record3<UUID, UUID, ObjectType>> copied;
+        Mono<Long> copied;
         if (objectType == FILE) {
-            copied = treeRepository.cpFile( source, destination, cloudUser ).flux();
+            copied = treeRepository.cpFileWithFiles( source, destination, onlyNewestVer, cloudUser );
         } else if (objectType == DIR) {
-            copied = treeRepository.cpDir( source, destination, cloudUser );
+            copied = treeRepository.cpDirWithFiles( source, destination, onlyNewestVer, cloudUser );
         } else {
             throw new IllegalArgumentException( String.format( "Cannot copy source type: %s", objectType ) );
         }
-        return copied
-                .as( flux -> PublisherUtil.requireNonEmpty( flux, e -> new InsertFailureException( "Unable to copy treeObject", e ) ) )
-                .filter( record3 -> record3.get( TREE.OBJECT_TYPE ) == FILE );
-    }
-
-    // record3 probably should have a dto...
-    // source_id, destination_id, objectType (should only receive file objectTypes)
-    private Mono<Long> cpFileOperations(Record3<UUID, UUID, ObjectType> record3, boolean onlyNewestVer,
-                                        CloudUser cloudUser) {
-        var sourceId = record3.get( "source_id", UUID.class );
-        var destId = record3.get( "destination_id", TREE.OBJECT_ID.getType() );
-        if (onlyNewestVer) {
-            return fileRepository.cpNewestFile( sourceId, destId, cloudUser );
-        }
-        return fileRepository.cpAllFiles( sourceId, destId, cloudUser );
+        return copied.as( mono -> PublisherUtil.requireNext( mono,
+                        e -> new InsertFailureException( "Unable to copy treeObject", e ) ) )
+                .as( mono -> PublisherUtil.requireNonZero( mono,
+                        () -> new InsertFailureException( "Unable to copy treeObject" ) ) )
+                .then();
     }
 
     /**
@@ -261,29 +701,140 @@ public class DocumentService {
                 .then();
     }
 
-    /**
-     * Fetches FileViewDtos for all FILE objects, if an object is not a FILE then a null fileViewDto is returned.
-     * Returns a {@link TreeAndFileView} The TreeDto will never be null. The FileViewDto must be null when the TreeDto
-     * is a DIR; The fileViewDto may be null for a FILE when no file versions are linked to the TreeDto.
-     *
-     * @param flux
-     * @param cloudUser
-     * @return
-     */
-    private Flux<TreeAndFileView> zipWithFileViewDtos(Flux<TreeDto> flux, CloudUser cloudUser) {
-        return flux.flatMap( treeDto -> {
-            ObjectType objectType = TreeDtoValidator.mustBeOneOfObjectTypes( treeDto, FILE, DIR );
-            if (objectType == DIR) {
-                return Mono.just( new TreeAndFileView( treeDto, null ) );
-            } else {
-                return fileRepository.lsNewestFileFor( treeDto, cloudUser )
-                        .map( fileViewDto -> new TreeAndFileView( treeDto, fileViewDto ) )
-                        // while uncommon a fileObject without any files is possible
-                        .switchIfEmpty( Mono.just( new TreeAndFileView( treeDto, null ) ) );
+    private ZipStreamEncoder.Entry toZipEntry(TreeAndFileView record, int prefixLen, CloudUser cloudUser) {
+        TreeDto treeDto = record.treeDto();
+        String name = zipEntryName( treeDto.getPath().data(), prefixLen );
+        if (treeDto.getObjectType() == DIR) {
+            return ZipStreamEncoder.Entry.dir( name, treeDto.getCreatedAt() );
+        }
+        FileViewDto fileView = record.fileViewDto();
+        return new ZipStreamEncoder.Entry( name, fileView.getUploadedAt(), fileStore.getFile( fileView, cloudUser ) );
+    }
+
+    // decodes labels encoded by PathStrToEncodedLtree, from the label at index from, as a relative '/' delimited name
+    // whose labels are safe to extract
+    static String zipEntryName(String data, int from) {
+        StringBuilder name = new StringBuilder( data.length() - from );
+        for (String label : data.substring( from ).split( "\\.", -1 )) {
+            if (!name.isEmpty()) {
+                name.append( '/' );
+            }
+            name.append( safeEntryLabel( LtreePathCodec.decode( label, 0, false ) ) );
+        }
+        return name.toString();
+    }
+
+    private static String safeEntryLabel(String label) {
+        if (label.chars().allMatch( c -> c == '.' )) {
+            return "_".repeat( label.length() );
+        }
+        char[] chars = label.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            char c = chars[i];
+            if (c == '/' || c == '\\' || c == ':' || Character.isISOControl( c )) {
+                chars[i] = '_';
             }
+        }
+        return new String( chars );
+    }
+
+    // an archive entry, treeDto is null when error is not
+    private record ArchiveItem(ArchiveDecoder.Entry entry, TreeDto treeDto, String error) {}
+
+    private static ArchiveItem toArchiveItem(Ltree destination, ArchiveDecoder.Entry entry) {
+        if (entry.isSkipped()) {
+            return new ArchiveItem( entry, null, entry.error() );
+        }
+        String name = normalizeEntryName( entry.name() );
+        if (name.isEmpty() || Arrays.stream( name.split( "/", -1 ) )
+                .anyMatch( label -> label.isEmpty() || label.equals( "." ) || label.equals( ".." ) )) {
+            return new ArchiveItem( entry, null, "Name must be a relative path without empty, . or .. segments" );
+        }
+        Ltree relative;
+        try {
+            relative = PATH_FORMATTER.parse( "/" + name, Locale.ROOT );
+        } catch (ParseException e) {
+            return new ArchiveItem( entry, null, e.getMessage() );
+        }
+        Ltree path = destination.data().isEmpty() ? relative :
+                Ltree.valueOf( destination.data() + "." + relative.data() );
+        TreeDto treeDto = TreeDto.builder().path( path )
+                .objectType( entry.isDirectory() ? DIR : FILE )
+                .build();
+        return new ArchiveItem( entry, treeDto, null );
+    }
+
+    // strips leading "./" (common in TAR archives) and the trailing '/' of directories
+    private static String normalizeEntryName(String name) {
+        String normalized = name;
+        while (normalized.startsWith( "./" )) {
+            normalized = normalized.substring( 2 );
+        }
+        return normalized.endsWith( "/" ) ? normalized.substring( 0, normalized.length() - 1 ) : normalized;
+    }
+
+    private Semaphore acquireArchiveExpansion() throws ConcurrencyLimitException {
+        if (!archiveExpansions.tryAcquire()) {
+            throw new ConcurrencyLimitException( String.format(
+                    "%d archives are being expanded, try again later", ARCHIVE_MAX_CONCURRENT_EXPANSIONS ) );
+        }
+        return archiveExpansions;
+    }
+
+    // closes a batch at ARCHIVE_BATCH_SIZE entries or ARCHIVE_BATCH_BYTES
+    private static Flux<List<ArchiveItem>> batchArchiveItems(Flux<ArchiveItem> items) {
+        return Flux.defer( () -> {
+            long[] batchBytes = {0};
+            int[] batchSize = {0};
+            return items.bufferUntil( item -> {
+                batchBytes[0] += Objects.isNull( item.entry().data() ) ? 0 : item.entry().size();
+                batchSize[0]++;
+                if (batchBytes[0] >= ARCHIVE_BATCH_BYTES || batchSize[0] >= ARCHIVE_BATCH_SIZE) {
+                    batchBytes[0] = 0;
+                    batchSize[0] = 0;
+                    return true;
+                }
+                return false;
+            } );
         } );
     }
 
+    private Flux<ArchiveEntryResult> expandArchiveBatch(List<ArchiveItem> batch, CloudUser cloudUser) {
+        List<ArchiveItem> valid = batch.stream()
+                .filter( item -> Objects.isNull( item.error() ) )
+                .toList();
+        Mono<Map<String, TreeDto>> created = valid.isEmpty() ? Mono.just( Map.of() ) :
+                this.createAll( valid.stream().map( ArchiveItem::treeDto ).toList(), cloudUser )
+                        .collectMap( result -> result.treeDto().getPathStr(), TreeCreateResult::treeDto );
+        return created.flatMapMany( byPath -> Flux.fromIterable( batch )
+                        .flatMapSequential( item -> this.expandArchiveItem( item, byPath, cloudUser ), ARCHIVE_PUT_CONCURRENCY ) )
+                .onErrorResume( e -> Flux.fromIterable( batch )
+                        .map( item -> ArchiveEntryResult.failed( item.entry().name(),
+                                Objects.requireNonNullElse( item.error(), errorMessageOf( e ) ) ) ) );
+    }
+
+    private Mono<ArchiveEntryResult> expandArchiveItem(ArchiveItem item, Map<String, TreeDto> byPath, CloudUser cloudUser) {
+        ArchiveDecoder.Entry entry = item.entry();
+        if (Objects.nonNull( item.error() )) {
+            return Mono.just( ArchiveEntryResult.failed( entry.name(), item.error() ) );
+        }
+        TreeDto treeDto = byPath.get( item.treeDto().getPathStr() );
+        if (treeDto.getObjectType() == DIR) {
+            return Mono.just( ArchiveEntryResult.created( entry.name(), new TreeAndFileView( treeDto, null ) ) );
+        }
+        FileDto fileDto = FileDto.builder()
+                .checksum( entry.checksum() )
+                .size( entry.size() )
+                .build();
+        return this.addFileVersion( treeDto, fileDto, Mono.fromSupplier( entry.data()::duplicate ).flux(), cloudUser )
+                .map( treeAndFileView -> ArchiveEntryResult.created( entry.name(), treeAndFileView ) )
+                .onErrorResume( e -> Mono.just( ArchiveEntryResult.failed( entry.name(), errorMessageOf( e ) ) ) );
+    }
+
+    private static String errorMessageOf(Throwable e) {
+        return Objects.requireNonNullElse( e.getMessage(), e.getClass().getSimpleName() );
+    }
+
     private Mono<TreeAndFileView> putDocumentIfFile(TreeAndFileView treeAndFileView, Flux<ByteBuffer> data, CloudUser cloudUser) {
         FileViewDto fileView = treeAndFileView.fileViewDto();
         TreeDto treeDto = treeAndFileView.treeDto();
@@ -293,6 +844,19 @@ public class DocumentService {
             return returnVal.get();
         }
         TreeDtoValidator.mustBeObjectType( treeDto, FILE );
-        return fileStore.putFile( data, fileView, cloudUser ).then( returnVal.get() );
+        // a mismatch errors the upload before it completes, rolling back the file record
+        return fileStore.putFile( UploadVerifier.verify( data, fileView ), fileView, cloudUser )
+                .onErrorMap( DocumentService::unwrapVerificationFailure )
+                .then( returnVal.get() );
+    }
+
+    // FileStores may wrap errors from the data stream, e.g. the S3 client in an SdkClientException
+    private static Throwable unwrapVerificationFailure(Throwable e) {
+        for (Throwable cause = e; Objects.nonNull( cause ); cause = cause.getCause()) {
+            if (cause instanceof UploadVerificationException) {
+                return cause;
+            }
+        }
+        return e;
     }
 }
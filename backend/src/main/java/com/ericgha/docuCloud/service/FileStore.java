@@ -1,7 +1,10 @@
 package com.ericgha.docuCloud.service;
 
+import com.ericgha.docuCloud.dto.ByteRange;
 import com.ericgha.docuCloud.dto.CloudUser;
 import com.ericgha.docuCloud.dto.FileDto;
+import com.ericgha.docuCloud.dto.PartialFileData;
+import com.ericgha.docuCloud.exceptions.RangeNotSatisfiableException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
@@ -28,8 +31,28 @@ public interface FileStore {
 
     <T extends FileDto> Flux<ByteBuffer> getFile(T fileDto, CloudUser cloudUser) throws RuntimeException;
 
+    /**
+     * @param fileDto   file to read
+     * @param range     byte range of the file to read, a range extending past the end of the file is truncated
+     * @param cloudUser user
+     * @return data of the range and its {@code Content-Range}
+     * @throws RangeNotSatisfiableException if the range starts after the end of the file
+     */
+    <T extends FileDto> Mono<PartialFileData> getFileRange(T fileDto, ByteRange range, CloudUser cloudUser) throws RuntimeException;
+
+    /**
+     * Lists of any size may be deleted, however only lists of at most {@link FileStore#getDeleteFilesMax()} files are
+     * deleted atomically.  On an error deleting a larger list, some files may have been deleted.
+     *
+     * @param fileIds   list of fileIds to delete
+     * @param cloudUser user
+     * @throws RuntimeException on any failure to delete
+     */
     Mono<Void> deleteFiles(Mono<List<UUID>> fileIds, CloudUser cloudUser) throws RuntimeException;
 
+    /**
+     * @return max number of files that {@link FileStore#deleteFiles(Mono, CloudUser)} deletes atomically
+     */
     int getDeleteFilesMax();
 
 }
@@ -1,11 +1,14 @@
 package com.ericgha.docuCloud.service;
 
+import com.ericgha.docuCloud.util.metrics.OperationMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.r2dbc.spi.Connection;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
+import org.jooq.Configuration;
 import org.jooq.DSLContext;
-import org.jooq.SQLDialect;
-import org.jooq.conf.Settings;
-import org.jooq.impl.DSL;
+import org.jooq.tools.r2dbc.DefaultConnectionFactory;
 import org.reactivestreams.Publisher;
 import org.springframework.r2dbc.connection.ConnectionFactoryUtils;
 import org.springframework.r2dbc.core.DatabaseClient;
@@ -24,14 +27,21 @@ public class JooqTransaction {
 
     private final ReactiveTransactionManager transactionManager;
 
-    private final SQLDialect sqlDialect;
-    private final Settings dslSettings;
+    // dialect and render settings shared by every DSLContext, built once at startup
+    private final Configuration configuration;
+
+    // times connection acquisition, see OperationMetrics#CONNECTION_ACQUIRE_TIMER
+    private final MeterRegistry meterRegistry;
 
     public Mono<DSLContext> get() {
         // publish a transaction aware connection
         // and wrap it in a DSLContext
-        return ConnectionFactoryUtils.getConnection( databaseClient.getConnectionFactory() )
-                .map( c -> DSL.using( c, sqlDialect, dslSettings ) );
+        return Mono.defer( () -> {
+            Timer.Sample acquire = Timer.start( meterRegistry );
+            return ConnectionFactoryUtils.getConnection( databaseClient.getConnectionFactory() )
+                    .doOnNext( c -> acquire.stop( this.acquireTimer() ) )
+                    .map( this::dslFor );
+        } );
     }
 
     /**
@@ -68,9 +78,13 @@ public class JooqTransaction {
      * @param <T> Data type of mono
      */
     public <T> Mono<T> withConnection(@NonNull Function<DSLContext, Publisher<T>> monoFunction) {
-        return databaseClient.inConnection( conn -> {
-            var trxDsl = DSL.using( conn );
-            return Mono.from( monoFunction.apply( trxDsl ) );
+        return Mono.defer( () -> {
+            Timer.Sample acquire = Timer.start( meterRegistry );
+            return databaseClient.inConnection( conn -> {
+                acquire.stop( this.acquireTimer() );
+                var trxDsl = this.dslFor( conn );
+                return Mono.from( monoFunction.apply( trxDsl ) );
+            } );
         } );
     }
 
@@ -84,9 +98,60 @@ public class JooqTransaction {
      * @param <T> Data type of flux
      */
     public <T> Flux<T> withConnectionMany(@NonNull Function<DSLContext, Publisher<T>> fluxFunction) {
-        return databaseClient.inConnectionMany( conn -> {
-            var trxDsl = DSL.using( conn, sqlDialect, dslSettings );
-            return Flux.from( fluxFunction.apply( trxDsl ) );
+        return Flux.defer( () -> {
+            Timer.Sample acquire = Timer.start( meterRegistry );
+            return databaseClient.inConnectionMany( conn -> {
+                acquire.stop( this.acquireTimer() );
+                var trxDsl = this.dslFor( conn );
+                return Flux.from( fluxFunction.apply( trxDsl ) );
+            } );
+        } );
+    }
+
+    /**
+     * Provides a transaction aware R2DBC connection, for statements not executed by jOOQ (e.g. queries rendered once
+     * and executed with new bind values).  Same transaction semantics as
+     * {@link JooqTransaction#withConnection(Function)}.
+     * @param fluxFunction with Connection as an argument returning a flux
+     * @return data stream
+     * @param <T> Data type of flux
+     */
+    public <T> Flux<T> withR2dbcConnectionMany(@NonNull Function<Connection, Publisher<T>> fluxFunction) {
+        return Flux.defer( () -> {
+            Timer.Sample acquire = Timer.start( meterRegistry );
+            return databaseClient.inConnectionMany( conn -> {
+                acquire.stop( this.acquireTimer() );
+                return Flux.from( fluxFunction.apply( conn ) );
+            } );
+        } );
+    }
+
+    /**
+     * As {@link JooqTransaction#withR2dbcConnectionMany(Function)}, for a single result.
+     * @param monoFunction with Connection as an argument returning a mono
+     * @return data stream
+     * @param <T> Data type of mono
+     */
+    public <T> Mono<T> withR2dbcConnection(@NonNull Function<Connection, Publisher<T>> monoFunction) {
+        return Mono.defer( () -> {
+            Timer.Sample acquire = Timer.start( meterRegistry );
+            return databaseClient.inConnection( conn -> {
+                acquire.stop( this.acquireTimer() );
+                return Mono.from( monoFunction.apply( conn ) );
+            } );
         } );
     }
+
+    // A DSLContext is bound to a single connection, so one is derived per connection from the shared configuration.
+    // Closing is left to Spring, DefaultConnectionFactory does not close the connection it wraps.
+    private DSLContext dslFor(Connection connection) {
+        return configuration.derive( new DefaultConnectionFactory( connection ) ).dsl();
+    }
+
+    // A connection bound to a transaction is reused, so its acquisition time is ~0
+    private Timer acquireTimer() {
+        return Timer.builder( OperationMetrics.CONNECTION_ACQUIRE_TIMER )
+                .description( "Time to acquire an R2DBC connection" )
+                .register( meterRegistry );
+    }
 }
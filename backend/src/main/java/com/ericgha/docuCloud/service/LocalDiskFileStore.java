@@ -0,0 +1,342 @@
+package com.ericgha.docuCloud.service;
+
+import com.ericgha.docuCloud.configuration.properties.LocalStorePropertiesKey;
+import com.ericgha.docuCloud.converter.ObjectIdentifierGenerator;
+import com.ericgha.docuCloud.dto.ByteRange;
+import com.ericgha.docuCloud.dto.CloudUser;
+import com.ericgha.docuCloud.dto.FileDto;
+import com.ericgha.docuCloud.dto.PartialFileData;
+import com.ericgha.docuCloud.exceptions.DeleteFailureException;
+import com.ericgha.docuCloud.exceptions.RangeNotSatisfiableException;
+import com.ericgha.docuCloud.exceptions.UploadVerificationException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.Channel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+/**
+ * Stores files on a local disk, for small deployments and tests which would otherwise run MinIO just to store bytes.
+ * Files use the same keys as {@link S3FileStore}, generated by {@link ObjectIdentifierGenerator}, as file names in a
+ * single directory.
+ * <br><br>
+ * Writes go to a temp file in the same directory through an {@link AsynchronousFileChannel}.  The temp file is fsynced
+ * and then atomically renamed to its key, and the directory is fsynced, so a file is either completely stored or not
+ * at all, even after a crash.  Files of at least {@code mmapThreshold} bytes are read through memory mapped regions,
+ * smaller files through an {@code AsynchronousFileChannel}.
+ */
+@Service
+@Slf4j
+@Profile("local-fs")
+public class LocalDiskFileStore implements FileStore {
+
+    public static final long DEFAULT_MMAP_THRESHOLD = 4L * 1024 * 1024;
+    // bytes per buffer emitted by reads
+    static final int READ_BUFFER_SIZE = 256 * 1024;
+    static final String TEMP_SUFFIX = ".part";
+    private static final Duration READY_TIMEOUT = Duration.ofSeconds( 30L );
+    // bytes per memory mapped region
+    private static final int MAP_REGION_SIZE = 64 * 1024 * 1024;
+
+    private final Path root;
+    private final long mmapThreshold;
+    private final Mono<Void> isReady;
+
+    @Autowired
+    public LocalDiskFileStore(AppEnvPropertiesService propertiesService) {
+        this( Path.of( propertiesService.get( LocalStorePropertiesKey.ROOT ) ),
+                Long.parseLong( propertiesService.get( LocalStorePropertiesKey.MMAP_THRESHOLD,
+                        String.valueOf( DEFAULT_MMAP_THRESHOLD ) ) ) );
+    }
+
+    public LocalDiskFileStore(Path root, long mmapThreshold) {
+        this.root = root;
+        this.mmapThreshold = mmapThreshold;
+        this.isReady = this.createBucketIfNotExists()
+                .then()
+                .cache();
+    }
+
+    @EventListener
+    public void handleEvent(ApplicationStartedEvent event) {
+        // intended to block application startup until isReady completes
+        try {
+            this.isReady.block( READY_TIMEOUT );
+        } catch (Exception e) {
+            throw new IllegalStateException( "Failed to prepare LocalDiskFileStore", e );
+        }
+    }
+
+    @Override
+    public Mono<Void> isReady() throws RuntimeException {
+        return isReady;
+    }
+
+    /**
+     * @return true if the root directory was created, false if it exists
+     * @throws UncheckedIOException if the root directory cannot be created
+     */
+    @Override
+    public Mono<Boolean> createBucketIfNotExists() throws UncheckedIOException {
+        return Mono.fromCallable( () -> {
+                    if (Files.isDirectory( root )) {
+                        return false;
+                    }
+                    Files.createDirectories( root );
+                    return true;
+                } )
+                .onErrorMap( IOException.class, UncheckedIOException::new )
+                .subscribeOn( Schedulers.boundedElastic() );
+    }
+
+    /**
+     * The checksum is not computed again here, data is expected to be verified as it streams (see
+     * {@link com.ericgha.docuCloud.util.filestore.UploadVerifier}), which errors before the file is renamed to its key.
+     *
+     * @throws UploadVerificationException if the data does not match the size of the fileDto, nothing is stored
+     * @throws UncheckedIOException        on any failure to write
+     */
+    @Override
+    public <T extends FileDto> Mono<Void> putFile(Flux<ByteBuffer> data, T fileDto, CloudUser cloudUser) throws RuntimeException {
+        return Mono.defer( () -> {
+            Path target = this.pathOf( fileDto.getFileId(), cloudUser );
+            Path temp = target.resolveSibling( target.getFileName() + "." + UUID.randomUUID() + TEMP_SUFFIX );
+            return Mono.using( () -> AsynchronousFileChannel.open( temp, StandardOpenOption.CREATE_NEW,
+                                    StandardOpenOption.WRITE ),
+                            channel -> this.write( channel, data )
+                                    .doOnNext( numBytes -> verifySize( fileDto, numBytes ) )
+                                    // durable before the rename makes it visible
+                                    .then( Mono.fromCallable( () -> {
+                                        channel.force( true );
+                                        return true;
+                                    } ) ),
+                            this::closeQuietly )
+                    .then( Mono.fromCallable( () -> Files.move( temp, target, StandardCopyOption.ATOMIC_MOVE ) ) )
+                    .then( Mono.fromRunnable( this::fsyncRoot ) )
+                    .subscribeOn( Schedulers.boundedElastic() )
+                    .onErrorResume( e -> Mono.fromCallable( () -> Files.deleteIfExists( temp ) )
+                            .onErrorResume( IOException.class, deleteError -> Mono.just( false ) )
+                            .then( Mono.error( e ) ) )
+                    .onErrorMap( IOException.class, UncheckedIOException::new )
+                    .then();
+        } );
+    }
+
+    /**
+     * Small files are read through an {@link AsynchronousFileChannel}, files of at least {@code mmapThreshold} bytes
+     * are memory mapped, avoiding a copy of the data into heap buffers.
+     *
+     * @throws NoSuchKeyException if the file does not exist, as thrown by {@link S3FileStore}
+     */
+    @Override
+    public <T extends FileDto> Flux<ByteBuffer> getFile(T fileDto, CloudUser cloudUser) throws NoSuchKeyException {
+        Path path = this.pathOf( fileDto.getFileId(), cloudUser );
+        return this.sizeOf( path )
+                .flatMapMany( size -> this.read( path, 0, size ) );
+    }
+
+    /**
+     * @throws RangeNotSatisfiableException if the range starts after the end of the file
+     * @throws NoSuchKeyException           if the file does not exist, as thrown by {@link S3FileStore}
+     */
+    @Override
+    public <T extends FileDto> Mono<PartialFileData> getFileRange(T fileDto, ByteRange range, CloudUser cloudUser) throws RangeNotSatisfiableException, NoSuchKeyException {
+        Path path = this.pathOf( fileDto.getFileId(), cloudUser );
+        return this.sizeOf( path )
+                .<PartialFileData>handle( (size, sink) -> {
+                    long first = range.first() == null ? Math.max( 0, size - range.last() ) : range.first();
+                    long last = range.first() == null || range.last() == null ?
+                            size - 1 : Math.min( range.last(), size - 1 );
+                    if (first >= size) {
+                        sink.error( new RangeNotSatisfiableException(
+                                "Range " + range.toHeaderValue() + " not satisfiable", size ) );
+                        return;
+                    }
+                    long length = last - first + 1;
+                    sink.next( new PartialFileData( String.format( "%s %d-%d/%d", ByteRange.UNIT, first, last, size ),
+                            length, this.read( path, first, length ) ) );
+                } );
+    }
+
+    /**
+     * Deletes files one at a time, files which do not exist are ignored.  No deletes are atomic, on error some files
+     * may have been deleted.
+     *
+     * @throws DeleteFailureException on any failure to delete
+     */
+    @Override
+    public Mono<Void> deleteFiles(Mono<List<UUID>> fileIds, CloudUser cloudUser) throws DeleteFailureException {
+        return fileIds.flatMapIterable( ids -> ids )
+                .map( fileId -> this.pathOf( fileId, cloudUser ) )
+                .concatMap( path -> Mono.fromCallable( () -> Files.deleteIfExists( path ) ) )
+                .onErrorMap( IOException.class, e -> new DeleteFailureException( "Error deleting file", e ) )
+                .subscribeOn( Schedulers.boundedElastic() )
+                .then();
+    }
+
+    @Override
+    public int getDeleteFilesMax() {
+        // each file is deleted on its own
+        return 1;
+    }
+
+    Path root() {
+        return root;
+    }
+
+    Path pathOf(UUID fileId, CloudUser cloudUser) {
+        return root.resolve( ObjectIdentifierGenerator.generate( fileId, cloudUser ).key() );
+    }
+
+    private Mono<Long> sizeOf(Path path) {
+        return Mono.fromCallable( () -> Files.size( path ) )
+                .onErrorMap( NoSuchFileException.class, e -> NoSuchKeyException.builder()
+                        .message( "The specified key does not exist." )
+                        .cause( e )
+                        .build() )
+                .onErrorMap( IOException.class, UncheckedIOException::new )
+                .subscribeOn( Schedulers.boundedElastic() );
+    }
+
+    // writes buffers sequentially, returns number of bytes written
+    private Mono<Long> write(AsynchronousFileChannel channel, Flux<ByteBuffer> data) {
+        long[] position = {0};
+        return data.concatMap( buffer -> {
+                    ByteBuffer toWrite = buffer.duplicate();
+                    long start = position[0];
+                    position[0] += toWrite.remaining();
+                    return writeFully( channel, toWrite, start );
+                } )
+                .then( Mono.fromSupplier( () -> position[0] ) );
+    }
+
+    private Flux<ByteBuffer> read(Path path, long offset, long length) {
+        if (length >= mmapThreshold) {
+            return this.readMapped( path, offset, length );
+        }
+        return Flux.using( () -> AsynchronousFileChannel.open( path, StandardOpenOption.READ ),
+                channel -> Flux.fromStream( LongStream.iterate( offset, position -> position < offset + length,
+                                        position -> position + READ_BUFFER_SIZE )
+                                .boxed() )
+                        .concatMap( position -> readFully( channel,
+                                ByteBuffer.allocate( (int) Math.min( READ_BUFFER_SIZE, offset + length - position ) ),
+                                position ) ),
+                this::closeQuietly );
+    }
+
+    // Regions are mapped on demand, one ahead of the slice being emitted (the default prefetch of concatMapIterable
+    // would map up to 256 regions on subscribe).  A cancel closes the channel and stops further mapping; regions
+    // already mapped stay valid after the close and are unmapped when garbage collected.
+    private Flux<ByteBuffer> readMapped(Path path, long offset, long length) {
+        return Flux.using( () -> FileChannel.open( path, StandardOpenOption.READ ),
+                        channel -> Flux.fromStream( LongStream.iterate( offset, position -> position < offset + length,
+                                                position -> position + MAP_REGION_SIZE )
+                                        .boxed() )
+                                .map( position -> this.map( channel, position,
+                                        Math.min( MAP_REGION_SIZE, offset + length - position ) ) )
+                                .concatMapIterable( LocalDiskFileStore::slices, 1 ),
+                        this::closeQuietly )
+                .subscribeOn( Schedulers.boundedElastic() );
+    }
+
+    private ByteBuffer map(FileChannel channel, long position, long size) {
+        try {
+            return channel.map( FileChannel.MapMode.READ_ONLY, position, size );
+        } catch (IOException e) {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    // splits a region into buffers of READ_BUFFER_SIZE, so downstream demand is in READ_BUFFER_SIZE units
+    private static List<ByteBuffer> slices(ByteBuffer region) {
+        return IntStream.iterate( 0, start -> start < region.limit(), start -> start + READ_BUFFER_SIZE )
+                .mapToObj( start -> region.slice( start, Math.min( READ_BUFFER_SIZE, region.limit() - start ) ) )
+                .toList();
+    }
+
+    private static Mono<Void> writeFully(AsynchronousFileChannel channel, ByteBuffer buffer, long position) {
+        return Mono.create( sink -> channel.write( buffer, position, position, new CompletionHandler<Integer, Long>() {
+            @Override
+            public void completed(Integer written, Long position) {
+                if (buffer.hasRemaining()) {
+                    channel.write( buffer, position + written, position + written, this );
+                } else {
+                    sink.success();
+                }
+            }
+
+            @Override
+            public void failed(Throwable e, Long position) {
+                sink.error( e );
+            }
+        } ) );
+    }
+
+    private static Mono<ByteBuffer> readFully(AsynchronousFileChannel channel, ByteBuffer buffer, long position) {
+        return Mono.create( (MonoSink<ByteBuffer> sink) -> channel.read( buffer, position, position, new CompletionHandler<Integer, Long>() {
+            @Override
+            public void completed(Integer read, Long position) {
+                if (read < 0) {
+                    sink.error( new IOException( "Unexpected end of file" ) );
+                } else if (buffer.hasRemaining()) {
+                    channel.read( buffer, position + read, position + read, this );
+                } else {
+                    sink.success( buffer.flip() );
+                }
+            }
+
+            @Override
+            public void failed(Throwable e, Long position) {
+                sink.error( e );
+            }
+        } ) );
+    }
+
+    private static <T extends FileDto> void verifySize(T fileDto, long numBytes) throws UploadVerificationException {
+        if (fileDto.getSize() != null && numBytes != fileDto.getSize()) {
+            throw new UploadVerificationException( String.format(
+                    "Received %d bytes, expected %d.", numBytes, fileDto.getSize() ) );
+        }
+    }
+
+    // makes the rename durable, not supported on every platform
+    private void fsyncRoot() {
+        try (FileChannel dir = FileChannel.open( root, StandardOpenOption.READ )) {
+            dir.force( true );
+        } catch (IOException e) {
+            log.debug( "Unable to fsync {}", root, e );
+        }
+    }
+
+    private void closeQuietly(Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.debug( "Failed to close channel", e );
+        }
+    }
+}
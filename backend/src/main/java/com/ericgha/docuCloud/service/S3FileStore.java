@@ -1,14 +1,21 @@
 package com.ericgha.docuCloud.service;
 
+import com.ericgha.docuCloud.configuration.S3TransferSettings;
 import com.ericgha.docuCloud.converter.ObjectIdentifierGenerator;
+import com.ericgha.docuCloud.dto.ByteRange;
 import com.ericgha.docuCloud.dto.CloudUser;
 import com.ericgha.docuCloud.dto.FileDto;
+import com.ericgha.docuCloud.dto.PartialFileData;
 import com.ericgha.docuCloud.exceptions.DeleteFailureException;
+import com.ericgha.docuCloud.exceptions.RangeNotSatisfiableException;
+import com.ericgha.docuCloud.exceptions.UploadVerificationException;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.context.event.ApplicationStartedEvent;
 import org.springframework.context.annotation.Profile;
 import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
@@ -16,16 +23,26 @@ import reactor.core.publisher.Mono;
 import reactor.util.retry.Retry;
 import software.amazon.awssdk.core.async.AsyncRequestBody;
 import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.async.ResponsePublisher;
 import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
 import software.amazon.awssdk.services.s3.model.Bucket;
 import software.amazon.awssdk.services.s3.model.BucketAlreadyOwnedByYouException;
 import software.amazon.awssdk.services.s3.model.ChecksumAlgorithm;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
 import software.amazon.awssdk.services.s3.model.CreateBucketRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
 import software.amazon.awssdk.services.s3.model.Delete;
 import software.amazon.awssdk.services.s3.model.DeleteBucketRequest;
 import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
 import software.amazon.awssdk.services.s3.model.HeadBucketRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
 import software.amazon.awssdk.services.s3.model.ListBucketsResponse;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
@@ -33,10 +50,16 @@ import software.amazon.awssdk.services.s3.model.NoSuchBucketException;
 import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
 import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
 
 import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
 import java.util.UUID;
 
@@ -44,11 +67,13 @@ import static reactor.core.publisher.Mono.fromFuture;
 
 @Service
 @Slf4j
-@Profile("(test & s3) | !test")
+@Profile("(test & s3) | (!test & !local-fs)")
 public class S3FileStore implements FileStore {
 
     // max objects per request of deleteObjects
     private static final int DELETE_FILES_MAX = 1000;
+    // max concurrent deleteObjects requests
+    private static final int DELETE_CONCURRENCY = 4;
     private static final Duration READY_TIMEOUT = Duration.ofSeconds( 93L );
 
     private static final ChecksumAlgorithm CHECKSUM_ALGORITHM = ChecksumAlgorithm.SHA1;
@@ -56,12 +81,20 @@ public class S3FileStore implements FileStore {
     private final String bucketName;
     private final Mono<Void> isReady;
 
-    public S3FileStore(S3AsyncClient s3Client, @Qualifier("ROOT") Bucket bucket) {
+    private final S3TransferSettings transferSettings;
+
+    @Autowired
+    public S3FileStore(S3AsyncClient s3Client, @Qualifier("ROOT") Bucket bucket, S3TransferSettings transferSettings) {
         this.s3Client = s3Client;
         this.bucketName = bucket.name();
+        this.transferSettings = transferSettings;
         isReady = this.generateIsReady();
     }
 
+    public S3FileStore(S3AsyncClient s3Client, Bucket bucket) {
+        this( s3Client, bucket, S3TransferSettings.DEFAULT );
+    }
+
 
     @EventListener
     public void handleEvent(ApplicationStartedEvent event) {
@@ -100,8 +133,17 @@ public class S3FileStore implements FileStore {
                 .onErrorReturn( NoSuchBucketException.class, false );
     }
 
+    /**
+     * Files of at least {@link S3TransferSettings#multipartThreshold()} bytes are uploaded with a multipart upload,
+     * smaller files with a single request.
+     *
+     * @see S3FileStore#putFileMultipart(Flux, FileDto, CloudUser)
+     */
     @Override
     public <T extends FileDto> Mono<Void> putFile(Flux<ByteBuffer> data, T fileDto, CloudUser cloudUser) throws RuntimeException {
+        if (fileDto.getSize() >= transferSettings.multipartThreshold()) {
+            return this.putFileMultipart( data, fileDto, cloudUser );
+        }
         // uses fileId, checksum, size and probably in the future, content type from fileDto
         var request = PutObjectRequest.builder()
                 .bucket( bucketName )
@@ -116,30 +158,285 @@ public class S3FileStore implements FileStore {
                 .then();
     }
 
+    /**
+     * Splits data into parts of {@link S3TransferSettings#partSizeFor(long)} bytes and uploads up to
+     * {@link S3TransferSettings#partConcurrency()} parts concurrently.  S3 validates the SHA-1 checksum of each part.
+     * The checksum of the whole file is not computed again here, data is expected to be verified as it streams
+     * (see {@link com.ericgha.docuCloud.util.filestore.UploadVerifier}), which errors before the last part completes.
+     * On any error, or cancellation, the upload is aborted so no object or parts remain.
+     * <br><br>
+     * At most {@code partConcurrency + 2} parts are held in memory.
+     *
+     * @throws UploadVerificationException if the data does not match the size of the fileDto
+     */
+    <T extends FileDto> Mono<Void> putFileMultipart(Flux<ByteBuffer> data, T fileDto, CloudUser cloudUser) throws RuntimeException {
+        String key = ObjectIdentifierGenerator.generate( fileDto, cloudUser ).key();
+        var createRequest = CreateMultipartUploadRequest.builder()
+                .bucket( bucketName )
+                .key( key )
+                .contentType( MediaType.APPLICATION_OCTET_STREAM_VALUE )
+                .checksumAlgorithm( CHECKSUM_ALGORITHM )
+                .build();
+        return Mono.fromFuture( () -> s3Client.createMultipartUpload( createRequest ) )
+                .map( CreateMultipartUploadResponse::uploadId )
+                .flatMap( uploadId -> this.uploadParts( data, fileDto, key, uploadId )
+                        .flatMap( parts -> this.completeMultipartUpload( key, uploadId, parts ) )
+                        .onErrorResume( e -> this.abortMultipartUpload( key, uploadId )
+                                .then( Mono.error( e ) ) )
+                        .doOnCancel( () -> this.abortMultipartUpload( key, uploadId ).subscribe() ) );
+    }
+
+    private <T extends FileDto> Mono<List<CompletedPart>> uploadParts(Flux<ByteBuffer> data, T fileDto, String key,
+                                                                      String uploadId) {
+        return Mono.defer( () -> {
+            long[] numBytes = {0};
+            int[] partNumber = {0};
+            return splitParts( data, transferSettings.partSizeFor( fileDto.getSize() ) )
+                    .map( buffers -> {
+                        MessageDigest partDigest = sha1Digest();
+                        long partBytes = 0;
+                        for (ByteBuffer buffer : buffers) {
+                            partDigest.update( buffer.duplicate() );
+                            partBytes += buffer.remaining();
+                        }
+                        numBytes[0] += partBytes;
+                        return new Part( ++partNumber[0], buffers, partBytes,
+                                Base64.getEncoder().encodeToString( partDigest.digest() ) );
+                    } )
+                    .flatMapSequential( part -> this.uploadPart( key, uploadId, part ),
+                            transferSettings.partConcurrency(), 1 )
+                    .collectList()
+                    .doOnNext( parts -> {
+                        if (numBytes[0] != fileDto.getSize()) {
+                            throw new UploadVerificationException( String.format(
+                                    "Received %d bytes, expected %d.", numBytes[0], fileDto.getSize() ) );
+                        }
+                    } );
+        } );
+    }
+
+    private Mono<CompletedPart> uploadPart(String key, String uploadId, Part part) {
+        var request = UploadPartRequest.builder()
+                .bucket( bucketName )
+                .key( key )
+                .uploadId( uploadId )
+                .partNumber( part.partNumber() )
+                .contentLength( part.size() )
+                .checksumAlgorithm( CHECKSUM_ALGORITHM )
+                .checksumSHA1( part.checksum() )
+                .build();
+        // supplier resends the part on each retry
+        return Mono.fromFuture( () -> s3Client.uploadPart( request,
+                        AsyncRequestBody.fromPublisher( Flux.fromIterable( part.buffers() ).map( ByteBuffer::duplicate ) ) ) )
+                .retryWhen( Retry.backoff( 3, Duration.ofMillis( 100 ) ) )
+                .map( response -> CompletedPart.builder()
+                        .partNumber( part.partNumber() )
+                        .eTag( response.eTag() )
+                        .checksumSHA1( response.checksumSHA1() )
+                        .build() );
+    }
+
+    private Mono<Void> completeMultipartUpload(String key, String uploadId, List<CompletedPart> parts) {
+        var request = CompleteMultipartUploadRequest.builder()
+                .bucket( bucketName )
+                .key( key )
+                .uploadId( uploadId )
+                .multipartUpload( CompletedMultipartUpload.builder().parts( parts ).build() )
+                .build();
+        return Mono.fromFuture( () -> s3Client.completeMultipartUpload( request ) )
+                .then();
+    }
+
+    private Mono<Void> abortMultipartUpload(String key, String uploadId) {
+        var request = AbortMultipartUploadRequest.builder()
+                .bucket( bucketName )
+                .key( key )
+                .uploadId( uploadId )
+                .build();
+        return Mono.fromFuture( () -> s3Client.abortMultipartUpload( request ) )
+                .retryWhen( Retry.backoff( 3, Duration.ofMillis( 100 ) ) )
+                .doOnError( e -> log.warn( "Failed to abort multipart upload {} of {}", uploadId, key, e ) )
+                .onErrorResume( e -> Mono.empty() )
+                .then();
+    }
+
+    /**
+     * Re-chunks data into parts of exactly {@code partSize} bytes, except for the last part, which may be smaller.
+     * Incoming buffers are sliced, not copied, and are not modified.
+     *
+     * @param data     data to split
+     * @param partSize bytes per part
+     * @return list of buffers per part
+     */
+    static Flux<List<ByteBuffer>> splitParts(Flux<ByteBuffer> data, long partSize) {
+        return Flux.defer( () -> {
+            long[] partRemaining = {partSize};
+            return data.concatMapIterable( buffer -> {
+                        List<PartSlice> slices = new ArrayList<>();
+                        int position = buffer.position();
+                        while (position < buffer.limit()) {
+                            int length = (int) Math.min( buffer.limit() - position, partRemaining[0] );
+                            partRemaining[0] -= length;
+                            boolean endsPart = partRemaining[0] == 0;
+                            if (endsPart) {
+                                partRemaining[0] = partSize;
+                            }
+                            slices.add( new PartSlice( buffer.slice( position, length ), endsPart ) );
+                            position += length;
+                        }
+                        return slices;
+                    } )
+                    .bufferUntil( PartSlice::endsPart )
+                    .map( slices -> slices.stream().map( PartSlice::buffer ).toList() );
+        } );
+    }
+
+    private static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance( "SHA-1" );
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    private record PartSlice(ByteBuffer buffer, boolean endsPart) {
+    }
+
+    private record Part(int partNumber, List<ByteBuffer> buffers, long size, String checksum) {
+    }
+
+    /**
+     * Files of at most {@link S3TransferSettings#downloadPartSize()} bytes are downloaded with a single request.
+     * Larger files, and files of unknown size, are downloaded in ranges.
+     *
+     * @see S3FileStore#getFileRanged(FileDto, CloudUser)
+     */
     @Override
     public <T extends FileDto> Flux<ByteBuffer> getFile(T fileDto, CloudUser cloudUser) throws NoSuchKeyException {
+        if (fileDto.getSize() != null && fileDto.getSize() <= transferSettings.downloadPartSize()) {
+            return this.getObject( ObjectIdentifierGenerator.generate( fileDto, cloudUser ).key() )
+                    .flatMapMany( Flux::from );
+        }
+        return this.getFileRanged( fileDto, cloudUser );
+    }
+
+    /**
+     * Downloads a file in ranges of {@link S3TransferSettings#downloadPartSize()} bytes.  The first range is streamed
+     * as it arrives, its {@code Content-Range} gives the size of the file.  Meanwhile up to
+     * {@link S3TransferSettings#downloadConcurrency()} of the following ranges are fetched concurrently.  Each is held
+     * until the ranges before it have been emitted, and the next range is only fetched once the oldest held range has
+     * been emitted, so at most {@code downloadConcurrency + 1} ranges are held in memory.  A failed range, other than
+     * the first, is fetched again.
+     * <br><br>
+     * An empty file has no satisfiable range, it is downloaded with a single request.
+     */
+    <T extends FileDto> Flux<ByteBuffer> getFileRanged(T fileDto, CloudUser cloudUser) throws NoSuchKeyException {
+        String key = ObjectIdentifierGenerator.generate( fileDto, cloudUser ).key();
+        long partSize = transferSettings.downloadPartSize();
+        return this.getObjectRange( key, new ByteRange( 0L, partSize - 1 ) )
+                .onErrorResume( S3FileStore::isRangeNotSatisfiable, e -> this.getObject( key ) )
+                .flatMapMany( first -> {
+                    if (first.response().contentRange() == null) {
+                        // the whole (empty) object
+                        return Flux.from( first );
+                    }
+                    long size = totalSizeOf( first.response().contentRange() );
+                    long numParts = ( size + partSize - 1 ) / partSize;
+                    Flux<ByteBuffer> rest = Flux.range( 1, (int) Math.max( 0, numParts - 1 ) )
+                            .flatMapSequential( part -> this.getObjectRange( key, new ByteRange( part * partSize,
+                                                    Math.min( size, ( part + 1 ) * partSize ) - 1 ) )
+                                            .flatMap( publisher -> Flux.from( publisher ).collectList() )
+                                            // the part is collected, so a retry doesn't re-emit buffers
+                                            .retryWhen( Retry.backoff( 3, Duration.ofMillis( 100 ) )
+                                                    .filter( e -> !( e instanceof NoSuchKeyException ) ) ),
+                                    transferSettings.downloadConcurrency(), 1 )
+                            // prefetch of 1, so collected ranges are held by flatMapSequential and not queued here
+                            .concatMapIterable( buffers -> buffers, 1 );
+                    // both are subscribed eagerly, so the following ranges are fetched while the first streams
+                    return Flux.mergeSequential( 2, 1, Flux.from( first ), rest );
+                } );
+    }
+
+    private Mono<ResponsePublisher<GetObjectResponse>> getObject(String key) {
         var request = GetObjectRequest.builder()
                 .bucket( bucketName )
-                .key( ObjectIdentifierGenerator.generate( fileDto, cloudUser ).key() )
+                .key( key )
                 .build();
-        return Mono.fromFuture( s3Client.getObject( request, AsyncResponseTransformer.toPublisher() ) )
-                .flatMapMany( Flux::from );
+        return Mono.fromFuture( () -> s3Client.getObject( request, AsyncResponseTransformer.toPublisher() ) );
+    }
+
+    private Mono<Long> sizeOf(String key) {
+        var request = HeadObjectRequest.builder()
+                .bucket( bucketName )
+                .key( key )
+                .build();
+        return Mono.fromFuture( () -> s3Client.headObject( request ) )
+                .map( response -> response.contentLength() );
+    }
+
+    private Mono<ResponsePublisher<GetObjectResponse>> getObjectRange(String key, ByteRange range) {
+        var request = GetObjectRequest.builder()
+                .bucket( bucketName )
+                .key( key )
+                .range( range.toHeaderValue() )
+                .build();
+        return Mono.fromFuture( () -> s3Client.getObject( request, AsyncResponseTransformer.toPublisher() ) );
+    }
+
+    private static boolean isRangeNotSatisfiable(Throwable e) {
+        return e instanceof S3Exception s3Exception
+                && s3Exception.statusCode() == HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value();
+    }
+
+    /**
+     * @param contentRange a {@code Content-Range} header value, e.g. {@code bytes 0-99/1000}
+     * @return size of the whole file, e.g. 1000
+     * @throws IllegalArgumentException if the size is unknown or the value cannot be parsed
+     */
+    static long totalSizeOf(String contentRange) throws IllegalArgumentException {
+        int slash = contentRange == null ? -1 : contentRange.lastIndexOf( '/' );
+        if (slash < 0) {
+            throw new IllegalArgumentException( "Content-Range has no size: " + contentRange );
+        }
+        // NumberFormatException on an unknown size ("*") is an IllegalArgumentException
+        return Long.parseLong( contentRange.substring( slash + 1 ).trim() );
+    }
+
+    /**
+     * Forwards the range to S3, which returns only the requested bytes.  S3 does not give the size of the file with a
+     * 416, so it is then read with a HEAD request.  A response without a {@code Content-Range} is the whole object,
+     * it is returned as such (see {@link PartialFileData#isPartial()}).
+     *
+     * @throws RangeNotSatisfiableException if S3 responds 416, i.e. the range starts after the end of the file
+     * @throws NoSuchKeyException           if the file does not exist
+     */
+    @Override
+    public <T extends FileDto> Mono<PartialFileData> getFileRange(T fileDto, ByteRange range, CloudUser cloudUser) throws RangeNotSatisfiableException, NoSuchKeyException {
+        String key = ObjectIdentifierGenerator.generate( fileDto, cloudUser ).key();
+        return this.getObjectRange( key, range )
+                .onErrorResume( S3FileStore::isRangeNotSatisfiable, e -> this.sizeOf( key )
+                        .flatMap( size -> Mono.<ResponsePublisher<GetObjectResponse>>error( new RangeNotSatisfiableException(
+                                "Range " + range.toHeaderValue() + " not satisfiable", size, e ) ) ) )
+                .map( publisher -> new PartialFileData( publisher.response().contentRange(),
+                        publisher.response().contentLength(), Flux.from( publisher ) ) );
     }
 
     /**
-     * Atomic delete from S3.
+     * Delete from S3 in batches of {@code DELETE_FILES_MAX}.  Up to {@code DELETE_FILES_MAX} files are deleted in a
+     * single (atomic) request.  Larger lists are split into batches deleted by up to {@code DELETE_CONCURRENCY}
+     * concurrent requests.  A failing batch does not cancel the others, so on error every batch has been attempted and
+     * an unknown subset of the files has been deleted.
      *
      * @param fileIds   list of fileIds to delete
      * @param cloudUser user
      * @return void
-     * @throws DeleteFailureException if {@link software.amazon.awssdk.services.s3.model.DeleteObjectsResponse DeleteObjectsResponse} has errors
-     * @throws IllegalArgumentException requested number of records exceeds {@code DELETE_OBJECTS_MAX}
+     * @throws DeleteFailureException if any {@link software.amazon.awssdk.services.s3.model.DeleteObjectsResponse DeleteObjectsResponse} has errors
      * @see S3FileStore#getDeleteFilesMax()
      */
     @Override
-    public Mono<Void> deleteFiles(Mono<List<UUID>> fileIds, CloudUser cloudUser) throws DeleteFailureException, IllegalArgumentException {
-        Mono<List<ObjectIdentifier>> objectIdentifiers =
-                fileIds.map( listIds -> ObjectIdentifierGenerator.generate( listIds, cloudUser ) );
+    public Mono<Void> deleteFiles(Mono<List<UUID>> fileIds, CloudUser cloudUser) throws DeleteFailureException {
+        Flux<ObjectIdentifier> objectIdentifiers =
+                fileIds.flatMapIterable( listIds -> ObjectIdentifierGenerator.generate( listIds, cloudUser ) );
         return deleteObjects( objectIdentifiers );
     }
 
@@ -148,30 +445,29 @@ public class S3FileStore implements FileStore {
         return DELETE_FILES_MAX;
     }
 
-    Mono<Void> deleteObjects(Mono<List<ObjectIdentifier>> objects) throws RuntimeException {
-        return objects.as( this::assertLteDeleteMax )
-                .map( objectIdentifiers -> Delete.builder().objects( objectIdentifiers ).build() )
-                .map( delete -> DeleteObjectsRequest.builder()
-                        .bucket( bucketName ).delete( delete ).build() )
-                .flatMap( request -> Mono.fromFuture( s3Client.deleteObjects( request ) )
-                        .timeout( Duration.ofSeconds( 5 ) )
-                        .retryWhen( Retry.backoff( 3, Duration.ofMillis( 100 ) )
-                                .filter( e -> !( e instanceof IllegalArgumentException ) ) )
-                        .doOnNext( response -> {
-                            if (response.hasErrors() && !response.errors().isEmpty()) {
-                                log.debug( "Errors from AWS: {}", response.errors() );
-                                throw new DeleteFailureException( "Error response from AWS while deleting file" );
-                            }
-                        } ) )
+    Mono<Void> deleteObjects(Flux<ObjectIdentifier> objects) throws RuntimeException {
+        return objects.buffer( DELETE_FILES_MAX )
+                .flatMapDelayError( this::deleteBatch, DELETE_CONCURRENCY, 1 )
                 .then();
     }
 
-    private <T> Mono<List<T>> assertLteDeleteMax(Mono<List<T>> listMono) {
-        return listMono.doOnNext( list -> {
-            if (list.size() > DELETE_FILES_MAX) {
-                throw new IllegalArgumentException( String.format( "Cannot delete more than %s files in a single request", DELETE_FILES_MAX ) );
-            }
-        } );
+    // objectIdentifiers must not exceed DELETE_FILES_MAX
+    Mono<DeleteObjectsResponse> deleteBatch(List<ObjectIdentifier> objectIdentifiers) throws DeleteFailureException {
+        var request = DeleteObjectsRequest.builder()
+                .bucket( bucketName )
+                .delete( Delete.builder().objects( objectIdentifiers ).build() )
+                .build();
+        // supplier resends the request on each retry
+        return Mono.fromFuture( () -> s3Client.deleteObjects( request ) )
+                .timeout( Duration.ofSeconds( 5 ) )
+                .retryWhen( Retry.backoff( 3, Duration.ofMillis( 100 ) )
+                        .filter( e -> !( e instanceof IllegalArgumentException ) ) )
+                .doOnNext( response -> {
+                    if (response.hasErrors() && !response.errors().isEmpty()) {
+                        log.debug( "Errors from AWS: {}", response.errors() );
+                        throw new DeleteFailureException( "Error response from AWS while deleting file" );
+                    }
+                } );
     }
 
     Mono<Boolean> deleteObjects(Flux<ObjectIdentifier> objects, Bucket bucket) {
@@ -0,0 +1,312 @@
+package com.ericgha.docuCloud.util.archive;
+
+import com.ericgha.docuCloud.exceptions.MalformedArchiveException;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.SynchronousSink;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Decodes a streamed ZIP or TAR archive into its entries.  The archive is read once, front to back, without a temp
+ * file.  ZIP entries are read from their local headers and the central directory is ignored, so archives written
+ * with data descriptors (e.g. by {@link ZipStreamEncoder}) are supported, except for STORED entries with a data
+ * descriptor, whose end can only be found by buffering the whole entry.  These fail the archive.
+ * <br><br>
+ * The data of each file entry is buffered in memory so that it can be stored with a known checksum and size.  The
+ * SHA-1 checksum is computed as the data is read.  Entries larger than {@code maxEntryBytes} are skipped.  Every
+ * decompressed byte, including the skipped data of entries that are too large, counts towards {@code maxTotalBytes}
+ * and every entry towards {@code maxEntries}.  Exceeding either fails the archive, so a small archive cannot expand
+ * without bound.  Parsing blocks, so it runs on {@link Schedulers#boundedElastic()}.  An entry is only read when it is
+ * requested, and at most {@code prefetch} chunks of the archive are read ahead.
+ */
+@Slf4j
+public final class ArchiveDecoder {
+
+    static final int READ_BUFFER_SIZE = 8192;
+
+    private ArchiveDecoder() throws IllegalAccessException {
+        throw new IllegalAccessException( "Do not instantiate." );
+    }
+
+    public enum Format {
+        ZIP( "application/zip" ),
+        TAR( "application/x-tar" );
+
+        private final String contentType;
+
+        Format(String contentType) {
+            this.contentType = contentType;
+        }
+
+        public String contentType() {
+            return contentType;
+        }
+
+        /**
+         * @param contentType a Content-Type header value, parameters are ignored
+         * @return the matching format
+         * @throws IllegalArgumentException if contentType is not a supported archive type
+         */
+        public static Format fromContentType(String contentType) throws IllegalArgumentException {
+            String mimeType = Objects.requireNonNullElse( contentType, "" )
+                    .split( ";" )[0].trim()
+                    .toLowerCase( Locale.ROOT );
+            for (Format format : values()) {
+                if (format.contentType.equals( mimeType )) {
+                    return format;
+                }
+            }
+            throw new IllegalArgumentException( "Unsupported archive type: " + contentType );
+        }
+    }
+
+    /**
+     * @param name        path of the entry inside the archive, {@code /} delimited
+     * @param isDirectory if the entry is a directory
+     * @param data        null for directories and skipped entries
+     * @param checksum    Base64 encoded SHA-1 of data, null when data is null
+     * @param size        length of data.  For skipped entries, the size that exceeded the max (if known)
+     * @param error       why the entry was skipped, null otherwise
+     */
+    public record Entry(@NonNull String name, boolean isDirectory, ByteBuffer data, String checksum, long size,
+                        String error) {
+
+        static Entry dir(String name) {
+            return new Entry( name, true, null, null, 0, null );
+        }
+
+        static Entry skipped(String name, long size, String error) {
+            return new Entry( name, false, null, null, size, error );
+        }
+
+        public boolean isSkipped() {
+            return Objects.nonNull( error );
+        }
+    }
+
+    /**
+     * Decodes an archive without a limit on its total size or number of entries.
+     *
+     * @see #decode(Flux, Format, long, long, int, int)
+     */
+    public static Flux<Entry> decode(Flux<ByteBuffer> archive, Format format, long maxEntryBytes, int prefetch) {
+        return decode( archive, format, maxEntryBytes, Long.MAX_VALUE, Integer.MAX_VALUE, prefetch );
+    }
+
+    /**
+     * @param archive       archive data
+     * @param format        archive format
+     * @param maxEntryBytes max size of a file entry, larger entries are skipped
+     * @param maxTotalBytes max decompressed size of all entries, including skipped data
+     * @param maxEntries    max number of entries, including directories and skipped entries
+     * @param prefetch      number of archive chunks read ahead
+     * @return entries in archive order
+     * @throws MalformedArchiveException if the archive cannot be parsed or exceeds maxTotalBytes or maxEntries
+     */
+    public static Flux<Entry> decode(Flux<ByteBuffer> archive, Format format, long maxEntryBytes, long maxTotalBytes,
+                                     int maxEntries, int prefetch) {
+        return Flux.generate( () -> new Reader( archive.toStream( prefetch ), format, maxEntryBytes, maxTotalBytes, maxEntries ),
+                        (Reader reader, SynchronousSink<Entry> sink) -> {
+                            try {
+                                Entry next = reader.next();
+                                if (Objects.isNull( next )) {
+                                    sink.complete();
+                                }
+                                else {
+                                    sink.next( next );
+                                }
+                            } catch (IOException e) {
+                                sink.error( new MalformedArchiveException( "Unable to read " + format + " archive", e ) );
+                            }
+                            return reader;
+                        },
+                        Reader::close )
+                .subscribeOn( Schedulers.boundedElastic() );
+    }
+
+    // Not thread safe, Flux.generate calls next serially
+    private static final class Reader {
+
+        private final ChunkInputStream chunks;
+        private final ArchiveInputStream archive;
+        private final long maxEntryBytes;
+        private final long maxTotalBytes;
+        private final int maxEntries;
+        private final MessageDigest digest;
+        private final byte[] readBuf = new byte[READ_BUFFER_SIZE];
+        private long totalBytes = 0;
+        private int numEntries = 0;
+
+        Reader(Stream<ByteBuffer> chunks, Format format, long maxEntryBytes, long maxTotalBytes, int maxEntries) {
+            this.chunks = new ChunkInputStream( chunks );
+            this.archive = switch (format) {
+                // STORED entries with a data descriptor are not read, commons-compress would buffer the entire
+                // entry to find the descriptor signature before returning any data
+                case ZIP -> new ZipArchiveInputStream( this.chunks, StandardCharsets.UTF_8.name(), true, false );
+                case TAR -> new TarArchiveInputStream( this.chunks, StandardCharsets.UTF_8.name() );
+            };
+            this.maxEntryBytes = maxEntryBytes;
+            this.maxTotalBytes = maxTotalBytes;
+            this.maxEntries = maxEntries;
+            try {
+                this.digest = MessageDigest.getInstance( "SHA-1" );
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException( e );
+            }
+        }
+
+        // null at the end of the archive.  Unread data of the previous entry is skipped by getNextEntry.
+        Entry next() throws IOException {
+            ArchiveEntry archiveEntry = archive.getNextEntry();
+            if (Objects.isNull( archiveEntry )) {
+                return null;
+            }
+            if (++numEntries > maxEntries) {
+                throw new MalformedArchiveException( String.format( "Archive has more than %d entries", maxEntries ) );
+            }
+            String name = archiveEntry.getName();
+            if (archiveEntry.isDirectory()) {
+                return Entry.dir( name );
+            }
+            if (archiveEntry instanceof TarArchiveEntry tarEntry && !tarEntry.isFile()) {
+                return Entry.skipped( name, 0, "Links and special files are not supported" );
+            }
+            if (archiveEntry instanceof ZipArchiveEntry zipEntry && zipEntry.getMethod() == ZipEntry.STORED
+                    && zipEntry.getGeneralPurposeBit().usesDataDescriptor()) {
+                // the end of the entry is unknown, so it cannot be skipped either
+                throw new IOException( "STORED entries with a data descriptor are not supported: " + name );
+            }
+            if (!archive.canReadEntryData( archiveEntry )) {
+                return Entry.skipped( name, 0, "Unsupported compression method or encryption" );
+            }
+            // size is -1 when not known up front (i.e. ZIP entries with a data descriptor), the read below is capped
+            if (archiveEntry.getSize() > maxEntryBytes) {
+                return tooLarge( name, archiveEntry.getSize() );
+            }
+            BufferOutputStream data = new BufferOutputStream( (int) Math.max( archiveEntry.getSize(), 0 ) );
+            digest.reset();
+            long size = 0;
+            int read;
+            while (( read = readCounted() ) != -1) {
+                size += read;
+                if (size > maxEntryBytes) {
+                    // drained here rather than by getNextEntry, so the skipped data counts towards maxTotalBytes
+                    while (( read = readCounted() ) != -1) {
+                        size += read;
+                    }
+                    return tooLarge( name, size );
+                }
+                digest.update( readBuf, 0, read );
+                data.write( readBuf, 0, read );
+            }
+            String checksum = Base64.getEncoder().encodeToString( digest.digest() );
+            return new Entry( name, false, data.toByteBuffer(), checksum, size, null );
+        }
+
+        // Flux.generate's state consumer must not throw, the archive has already been read or failed
+        void close() {
+            try {
+                archive.close();
+            } catch (IOException e) {
+                log.warn( "Unable to close archive", e );
+            }
+        }
+
+        private int readCounted() throws IOException {
+            int read = archive.read( readBuf );
+            if (read > 0) {
+                totalBytes += read;
+                if (totalBytes > maxTotalBytes) {
+                    throw new MalformedArchiveException( String.format(
+                            "Archive expands to more than %d bytes", maxTotalBytes ) );
+                }
+            }
+            return read;
+        }
+
+        private Entry tooLarge(String name, long size) {
+            return Entry.skipped( name, size, String.format( "Larger than the max entry size of %d bytes", maxEntryBytes ) );
+        }
+    }
+
+    // Blocking InputStream over chunks of a Flux.  Closing cancels the Flux.
+    private static final class ChunkInputStream extends InputStream {
+
+        private final Stream<ByteBuffer> stream;
+        private final Iterator<ByteBuffer> chunks;
+        private ByteBuffer current = ByteBuffer.allocate( 0 );
+
+        ChunkInputStream(Stream<ByteBuffer> stream) {
+            this.stream = stream;
+            this.chunks = stream.iterator();
+        }
+
+        @Override
+        public int read() {
+            return advance() ? current.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            Objects.checkFromIndexSize( off, len, b.length );
+            if (len == 0) {
+                return 0;
+            }
+            if (!advance()) {
+                return -1;
+            }
+            int read = Math.min( len, current.remaining() );
+            current.get( b, off, read );
+            return read;
+        }
+
+        @Override
+        public void close() {
+            stream.close();
+        }
+
+        // false at the end of the Flux
+        private boolean advance() {
+            while (!current.hasRemaining()) {
+                if (!chunks.hasNext()) {
+                    return false;
+                }
+                current = chunks.next();
+            }
+            return true;
+        }
+    }
+
+    private static final class BufferOutputStream extends ByteArrayOutputStream {
+
+        BufferOutputStream(int size) {
+            super( size );
+        }
+
+        // wraps without copying
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap( buf, 0, count );
+        }
+    }
+}
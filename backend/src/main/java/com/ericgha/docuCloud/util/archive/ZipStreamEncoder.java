@@ -0,0 +1,174 @@
+package com.ericgha.docuCloud.util.archive;
+
+import lombok.NonNull;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.attribute.FileTime;
+import java.time.OffsetDateTime;
+import java.util.Objects;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Encodes a stream of entries into a ZIP archive without a temp file.  Each chunk of entry data is deflated as it
+ * arrives and the compressed bytes are emitted immediately; sizes and CRCs are written in a data descriptor after
+ * each entry, so they do not need to be known up front.
+ * <br><br>
+ * Entries are written in order, but up to {@code concurrency} entries have their data subscribed to ahead of time,
+ * each buffering up to {@code prefetch} chunks.  The encoder therefore buffers at most {@code concurrency * prefetch}
+ * chunks plus the deflater window, regardless of the size of the archive.  This does not include what the data
+ * publisher of each entry buffers itself, e.g. a ranged S3 download holds up to {@code downloadConcurrency + 1}
+ * ranges per file, so memory use is then bounded by {@code concurrency} times that as well.
+ * <br><br>
+ * {@link ZipOutputStream} requires the CRC of a {@link ZipEntry#STORED} entry before its data is written, so files
+ * are always {@code DEFLATED}.  A {@code level} of {@link java.util.zip.Deflater#NO_COMPRESSION} produces stored
+ * deflate blocks, which is the streaming equivalent of {@code STORED}.
+ */
+public final class ZipStreamEncoder {
+
+    private ZipStreamEncoder() throws IllegalAccessException {
+        throw new IllegalAccessException( "Do not instantiate." );
+    }
+
+    /**
+     * @param name         path of the entry inside the archive, {@code /} delimited.  Directory names must end in
+     *                     {@code /}
+     * @param lastModified nullable
+     * @param data         file data, empty for directories
+     */
+    public record Entry(@NonNull String name, OffsetDateTime lastModified, @NonNull Flux<ByteBuffer> data) {
+
+        public static Entry dir(String name, OffsetDateTime lastModified) {
+            return new Entry( name.endsWith( "/" ) ? name : name + "/", lastModified, Flux.empty() );
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith( "/" );
+        }
+    }
+
+    /**
+     * @param entries     entries in the order they should appear in the archive
+     * @param level       deflate level, 0-9 or {@link java.util.zip.Deflater#DEFAULT_COMPRESSION}
+     * @param concurrency max number of entries with their data subscribed to at once
+     * @param prefetch    max number of chunks buffered for each entry that is subscribed to ahead of time
+     * @return the archive, in chunks no larger than the deflated size of a single entry chunk
+     */
+    public static Flux<ByteBuffer> encode(Flux<Entry> entries, int level, int concurrency, int prefetch) {
+        return Flux.using( () -> new Writer( level ),
+                writer -> entries.flatMapSequential( ZipStreamEncoder::partsOf, concurrency, prefetch )
+                        .map( writer::write )
+                        .concatWith( Mono.fromCallable( writer::finish ) )
+                        .filter( ByteBuffer::hasRemaining ),
+                Writer::close );
+    }
+
+    private static Flux<Part> partsOf(Entry entry) {
+        return Flux.concat( Mono.just( new Start( entry ) ),
+                entry.data().map( Chunk::new ),
+                Mono.just( End.INSTANCE ) );
+    }
+
+    private sealed interface Part permits Start, Chunk, End {
+    }
+
+    private record Start(Entry entry) implements Part {
+    }
+
+    private record Chunk(ByteBuffer data) implements Part {
+    }
+
+    private enum End implements Part {
+        INSTANCE
+    }
+
+    // Not thread safe, parts are written serially by the map operator
+    private static final class Writer {
+
+        private final DrainableOutputStream out = new DrainableOutputStream();
+        private final ZipOutputStream zip;
+        // copy buffer for ByteBuffers not backed by an accessible array (i.e. direct or mapped buffers)
+        private byte[] copyBuf = new byte[0];
+
+        Writer(int level) {
+            this.zip = new ZipOutputStream( out, StandardCharsets.UTF_8 );
+            this.zip.setLevel( level );
+        }
+
+        ByteBuffer write(Part part) throws UncheckedIOException {
+            try {
+                if (part instanceof Start start) {
+                    zip.putNextEntry( toZipEntry( start.entry() ) );
+                }
+                else if (part instanceof Chunk chunk) {
+                    writeChunk( chunk.data() );
+                }
+                else {
+                    zip.closeEntry();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException( e );
+            }
+            return out.drain();
+        }
+
+        ByteBuffer finish() throws IOException {
+            zip.finish();
+            return out.drain();
+        }
+
+        void close() {
+            try {
+                zip.close();
+            } catch (IOException e) {
+                // only closes an in memory stream
+                throw new UncheckedIOException( e );
+            }
+        }
+
+        private void writeChunk(ByteBuffer data) throws IOException {
+            int len = data.remaining();
+            if (data.hasArray()) {
+                zip.write( data.array(), data.arrayOffset() + data.position(), len );
+                return;
+            }
+            if (copyBuf.length < len) {
+                copyBuf = new byte[len];
+            }
+            data.duplicate().get( copyBuf, 0, len );
+            zip.write( copyBuf, 0, len );
+        }
+
+        private static ZipEntry toZipEntry(Entry entry) {
+            ZipEntry zipEntry = new ZipEntry( entry.name() );
+            if (Objects.nonNull( entry.lastModified() )) {
+                zipEntry.setLastModifiedTime( FileTime.from( entry.lastModified().toInstant() ) );
+            }
+            if (entry.isDirectory()) {
+                // no data, so size and crc are known
+                zipEntry.setMethod( ZipEntry.STORED );
+                zipEntry.setSize( 0 );
+                zipEntry.setCompressedSize( 0 );
+                zipEntry.setCrc( new CRC32().getValue() );
+            }
+            return zipEntry;
+        }
+    }
+
+    private static final class DrainableOutputStream extends ByteArrayOutputStream {
+
+        // returns everything written since the last drain
+        ByteBuffer drain() {
+            ByteBuffer drained = ByteBuffer.wrap( toByteArray() );
+            reset();
+            return drained;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.ericgha.docuCloud.util.filestore;
+
+import com.ericgha.docuCloud.dto.FileDto;
+import com.ericgha.docuCloud.exceptions.UploadVerificationException;
+import lombok.NonNull;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Verifies upload data against the declared checksum and size of a {@link FileDto} as it streams by, in a single
+ * pass.  Buffers are passed downstream unchanged.  Digests read a {@link ByteBuffer#duplicate()} of each buffer, which
+ * shares its content, so nothing is copied.
+ * <br><br>
+ * Bytes are counted as they arrive and the stream errors as soon as the declared size is exceeded, cutting the upload
+ * short.  A short stream or checksum mismatch errors after the last buffer but <em>before</em> completion, so a
+ * consumer such as {@code FileStore#putFile} aborts rather than completes the upload.
+ */
+public final class UploadVerifier {
+
+    private UploadVerifier() throws IllegalAccessException {
+        throw new IllegalAccessException( "Do not instantiate." );
+    }
+
+    public enum Algorithm {
+        SHA_1( "SHA-1" ),
+        SHA_256( "SHA-256" );
+
+        private final String jcaName;
+
+        Algorithm(String jcaName) {
+            this.jcaName = jcaName;
+        }
+
+        MessageDigest newDigest() {
+            try {
+                return MessageDigest.getInstance( jcaName );
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException( e );
+            }
+        }
+    }
+
+    /**
+     * @param size    bytes received
+     * @param digests Base64 encoded digest for each computed algorithm
+     */
+    public record Digests(long size, @NonNull Map<Algorithm, String> digests) {
+
+        public String get(Algorithm algorithm) {
+            return digests.get( algorithm );
+        }
+    }
+
+    /**
+     * Verifies the SHA-1 checksum and size of the data.
+     *
+     * @see UploadVerifier#verify(Flux, FileDto, Set, Consumer)
+     */
+    public static Flux<ByteBuffer> verify(@NonNull Flux<ByteBuffer> data, @NonNull FileDto expected) throws UploadVerificationException {
+        return verify( data, expected, Set.of(), digests -> {} );
+    }
+
+    /**
+     * @param data       upload data, each subscription is verified independently
+     * @param expected   the declared checksum (Base64 encoded SHA-1) and size
+     * @param additional digests to compute in the same pass, SHA-1 is always computed
+     * @param onVerified called with the digests once the data has been verified, before completion
+     * @return data, erroring with {@link UploadVerificationException} if it does not match {@code expected}
+     */
+    public static Flux<ByteBuffer> verify(@NonNull Flux<ByteBuffer> data, @NonNull FileDto expected,
+                                          @NonNull Set<Algorithm> additional,
+                                          @NonNull Consumer<Digests> onVerified) throws UploadVerificationException {
+        String expectedChecksum = Objects.requireNonNull( expected.getChecksum(), "Checksum is required." );
+        long expectedSize = Objects.requireNonNull( expected.getSize(), "Size is required." );
+        return Flux.defer( () -> {
+            Map<Algorithm, MessageDigest> mds = new EnumMap<>( Algorithm.class );
+            mds.put( Algorithm.SHA_1, Algorithm.SHA_1.newDigest() );
+            additional.forEach( algorithm -> mds.computeIfAbsent( algorithm, Algorithm::newDigest ) );
+            long[] numBytes = {0};
+            return data.<ByteBuffer>handle( (buffer, sink) -> {
+                        numBytes[0] += buffer.remaining();
+                        if (numBytes[0] > expectedSize) {
+                            sink.error( new UploadVerificationException(
+                                    String.format( "Received more than the declared size of %d bytes.", expectedSize ) ) );
+                            return;
+                        }
+                        mds.values().forEach( md -> md.update( buffer.duplicate() ) );
+                        sink.next( buffer );
+                    } )
+                    .concatWith( Mono.defer( () -> {
+                        if (numBytes[0] != expectedSize) {
+                            return Mono.error( new UploadVerificationException(
+                                    String.format( "Received %d bytes, expected %d.", numBytes[0], expectedSize ) ) );
+                        }
+                        Map<Algorithm, String> encoded = new EnumMap<>( Algorithm.class );
+                        mds.forEach( (algorithm, md) -> encoded.put( algorithm,
+                                Base64.getEncoder().encodeToString( md.digest() ) ) );
+                        if (!expectedChecksum.equals( encoded.get( Algorithm.SHA_1 ) )) {
+                            return Mono.error( new UploadVerificationException( "Checksum does not match the data." ) );
+                        }
+                        onVerified.accept( new Digests( numBytes[0], encoded ) );
+                        return Mono.empty();
+                    } ) );
+        } );
+    }
+}
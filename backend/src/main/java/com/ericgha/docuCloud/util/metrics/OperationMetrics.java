@@ -0,0 +1,115 @@
+package com.ericgha.docuCloud.util.metrics;
+
+import reactor.core.publisher.SignalType;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Meter names, tags and the mapping of method names to operations shared by {@link OperationMetricsInterceptor}
+ * and {@link com.ericgha.docuCloud.service.JooqTransaction}.
+ * <br><br>
+ * Every operation is timed by {@link OperationMetrics#OPERATION_TIMER}, tagged with {@code component} (the class
+ * of the bean), {@code operation} (one of {@code ls, cp, mv, rm, put, get, delete, transaction}), {@code method}
+ * and {@code outcome}.
+ */
+public final class OperationMetrics {
+
+    public static final String OPERATION_TIMER = "docucloud.operation";
+    public static final String ROWS_COUNTER = "docucloud.operation.rows";
+    public static final String BYTES_COUNTER = "docucloud.operation.bytes";
+    public static final String CONNECTION_ACQUIRE_TIMER = "docucloud.r2dbc.connection.acquire";
+
+    public static final String COMPONENT_TAG = "component";
+    public static final String OPERATION_TAG = "operation";
+    public static final String METHOD_TAG = "method";
+    public static final String OUTCOME_TAG = "outcome";
+
+    // Checked in order, the first matching prefix wins
+    private static final Map<String, String> OPERATION_PREFIXES = new LinkedHashMap<>();
+
+    static {
+        OPERATION_PREFIXES.put( "ls", "ls" );
+        OPERATION_PREFIXES.put( "fetch", "ls" );
+        OPERATION_PREFIXES.put( "cp", "cp" );
+        OPERATION_PREFIXES.put( "mv", "mv" );
+        OPERATION_PREFIXES.put( "rm", "rm" );
+        OPERATION_PREFIXES.put( "create", "put" );
+        OPERATION_PREFIXES.put( "put", "put" );
+        OPERATION_PREFIXES.put( "add", "put" );
+        OPERATION_PREFIXES.put( "link", "put" );
+        OPERATION_PREFIXES.put( "expand", "put" );
+        OPERATION_PREFIXES.put( "get", "get" );
+        OPERATION_PREFIXES.put( "find", "get" );
+        OPERATION_PREFIXES.put( "select", "get" );
+        OPERATION_PREFIXES.put( "count", "get" );
+        OPERATION_PREFIXES.put( "has", "get" );
+        OPERATION_PREFIXES.put( "zip", "get" );
+        OPERATION_PREFIXES.put( "delete", "delete" );
+        OPERATION_PREFIXES.put( "inTransaction", "transaction" );
+    }
+
+    // Match a prefix but are not operations.  JooqTransaction#get only acquires a connection, which is timed by
+    // CONNECTION_ACQUIRE_TIMER
+    private static final Set<String> IGNORED_METHODS = Set.of( "createBucketIfNotExists", "get" );
+
+    private OperationMetrics() throws IllegalAccessException {
+        throw new IllegalAccessException( "Do not instantiate." );
+    }
+
+    public enum Outcome {
+        SUCCESS,
+        ERROR,
+        CANCELLED;
+
+        /**
+         * @param signalType terminal signal of the operation
+         * @param emitted    if the operation emitted at least one element.  A cancel after an element (e.g. by
+         *                   {@code next()} or {@code take(n)}) is a success, only a cancel before any element is
+         *                   {@link #CANCELLED}
+         * @return outcome of the operation
+         */
+        public static Outcome of(SignalType signalType, boolean emitted) {
+            return switch (signalType) {
+                case ON_ERROR -> ERROR;
+                case CANCEL -> emitted ? SUCCESS : CANCELLED;
+                default -> SUCCESS;
+            };
+        }
+
+        public String tagValue() {
+            return name().toLowerCase( Locale.ROOT );
+        }
+    }
+
+    /**
+     * @param methodName name of a public method
+     * @return the operation of the method or null if the method is not an operation
+     */
+    public static String operationOf(String methodName) {
+        if (IGNORED_METHODS.contains( methodName )) {
+            return null;
+        }
+        return OPERATION_PREFIXES.entrySet().stream()
+                .filter( entry -> methodName.startsWith( entry.getKey() ) )
+                .map( Map.Entry::getValue )
+                .findFirst()
+                .orElse( null );
+    }
+
+    /**
+     * @param operations comma separated operations, e.g. {@code ls, put}, blank for none
+     * @return operations
+     */
+    public static Set<String> parseOperations(String operations) {
+        return Arrays.stream( Objects.requireNonNullElse( operations, "" ).split( "," ) )
+                .map( String::trim )
+                .filter( operation -> !operation.isEmpty() )
+                .collect( Collectors.toUnmodifiableSet() );
+    }
+}
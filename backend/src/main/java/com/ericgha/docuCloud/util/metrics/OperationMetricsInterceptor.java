@@ -0,0 +1,194 @@
+package com.ericgha.docuCloud.util.metrics;
+
+import com.ericgha.docuCloud.util.metrics.OperationMetrics.Outcome;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Times each operation of a component, a method returning a {@link Mono} or {@link Flux} whose name maps to an
+ * operation (see {@link OperationMetrics#operationOf(String)}).  Other methods are invoked untouched.  Timing starts
+ * on subscription, so an operation subscribed to more than once is timed once per subscription.  An operation
+ * cancelled after it emitted an element is tagged as a success, only one cancelled before emitting is tagged
+ * {@link Outcome#CANCELLED}.
+ * <br><br>
+ * Components which access the database count rows in {@link OperationMetrics#ROWS_COUNTER}.  A {@code Mono<Long>}
+ * returned by a {@code cp, mv, rm} or {@code put} operation is the number of rows affected, otherwise each element is
+ * a row.  Bytes of {@code Flux<ByteBuffer>} arguments and return values are counted in
+ * {@link OperationMetrics#BYTES_COUNTER}.
+ */
+public class OperationMetricsInterceptor implements MethodInterceptor {
+
+    private static final Set<String> ROW_COUNT_OPERATIONS = Set.of( "cp", "mv", "rm", "put" );
+
+    private final String component;
+    private final boolean countsRows;
+    private final Supplier<MeterRegistry> registry;
+    private final Map<Method, Optional<Plan>> plans = new ConcurrentHashMap<>();
+
+    /**
+     * @param component  value of the component tag
+     * @param countsRows if returned elements should be counted as rows
+     * @param registry   called once per meter, so the registry may be resolved lazily
+     */
+    public OperationMetricsInterceptor(String component, boolean countsRows, Supplier<MeterRegistry> registry) {
+        this.component = component;
+        this.countsRows = countsRows;
+        this.registry = registry;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        Optional<Plan> maybePlan = plans.computeIfAbsent( invocation.getMethod(), this::planFor );
+        if (maybePlan.isEmpty()) {
+            return invocation.proceed();
+        }
+        Plan plan = maybePlan.get();
+        // the arguments array is the one passed to the target
+        Object[] args = invocation.getArguments();
+        for (int i : plan.byteArgs()) {
+            if (args[i] instanceof Flux<?> data) {
+                args[i] = this.countBytes( data, plan );
+            }
+        }
+        Object result = invocation.proceed();
+        if (result instanceof Mono<?> mono) {
+            return this.timed( mono, plan );
+        }
+        if (result instanceof Flux<?> flux) {
+            return this.timed( plan.returnsBytes() ? this.countBytes( flux, plan ) : flux, plan );
+        }
+        return result;
+    }
+
+    private <T> Mono<T> timed(Mono<T> mono, Plan plan) {
+        return Mono.defer( () -> {
+            Timer.Sample sample = Timer.start( registry.get() );
+            boolean[] emitted = {false};
+            Mono<T> counted = countsRows ? mono.doOnNext( value -> plan.rows().increment( plan.rowsOf( value ) ) ) : mono;
+            return counted.doOnNext( value -> emitted[0] = true )
+                    .doFinally( signal -> sample.stop( plan.timer( Outcome.of( signal, emitted[0] ) ) ) );
+        } );
+    }
+
+    private <T> Flux<T> timed(Flux<T> flux, Plan plan) {
+        return Flux.defer( () -> {
+            Timer.Sample sample = Timer.start( registry.get() );
+            boolean[] emitted = {false};
+            Flux<T> counted = countsRows ? flux.doOnNext( value -> plan.rows().increment( plan.rowsOf( value ) ) ) : flux;
+            return counted.doOnNext( value -> emitted[0] = true )
+                    .doFinally( signal -> sample.stop( plan.timer( Outcome.of( signal, emitted[0] ) ) ) );
+        } );
+    }
+
+    private <T> Flux<T> countBytes(Flux<T> data, Plan plan) {
+        return data.doOnNext( buffer -> plan.bytes().increment( ( (ByteBuffer) buffer ).remaining() ) );
+    }
+
+    private Optional<Plan> planFor(Method method) {
+        String operation = OperationMetrics.operationOf( method.getName() );
+        Class<?> returnType = method.getReturnType();
+        if (operation == null || !( Mono.class.equals( returnType ) || Flux.class.equals( returnType ) )) {
+            return Optional.empty();
+        }
+        Type[] paramTypes = method.getGenericParameterTypes();
+        int[] byteArgs = IntStream.range( 0, paramTypes.length )
+                .filter( i -> isPublisherOf( paramTypes[i], Flux.class, ByteBuffer.class ) )
+                .toArray();
+        Type genericReturn = method.getGenericReturnType();
+        return Optional.of( new Plan( operation, method.getName(), byteArgs,
+                isPublisherOf( genericReturn, Flux.class, ByteBuffer.class ),
+                ROW_COUNT_OPERATIONS.contains( operation ) && isPublisherOf( genericReturn, Mono.class, Long.class ) ) );
+    }
+
+    private static boolean isPublisherOf(Type type, Class<?> publisher, Class<?> element) {
+        return type instanceof ParameterizedType parameterized
+                && publisher.equals( parameterized.getRawType() )
+                && element.equals( parameterized.getActualTypeArguments()[0] );
+    }
+
+    // Meters are registered on first use.  Racing threads register the same meter, which the registry deduplicates.
+    private final class Plan {
+
+        private final String operation;
+        private final String method;
+        private final int[] byteArgs;
+        private final boolean returnsBytes;
+        private final boolean returnsRowCount;
+        private final Timer[] timers = new Timer[Outcome.values().length];
+        private Counter rows;
+        private Counter bytes;
+
+        Plan(String operation, String method, int[] byteArgs, boolean returnsBytes, boolean returnsRowCount) {
+            this.operation = operation;
+            this.method = method;
+            this.byteArgs = byteArgs;
+            this.returnsBytes = returnsBytes;
+            this.returnsRowCount = returnsRowCount;
+        }
+
+        int[] byteArgs() {
+            return byteArgs;
+        }
+
+        boolean returnsBytes() {
+            return returnsBytes;
+        }
+
+        long rowsOf(Object value) {
+            return returnsRowCount && value instanceof Long numRows ? numRows : 1;
+        }
+
+        Timer timer(Outcome outcome) {
+            Timer timer = timers[outcome.ordinal()];
+            if (timer == null) {
+                timer = Timer.builder( OperationMetrics.OPERATION_TIMER )
+                        .tag( OperationMetrics.COMPONENT_TAG, component )
+                        .tag( OperationMetrics.OPERATION_TAG, operation )
+                        .tag( OperationMetrics.METHOD_TAG, method )
+                        .tag( OperationMetrics.OUTCOME_TAG, outcome.tagValue() )
+                        .register( registry.get() );
+                timers[outcome.ordinal()] = timer;
+            }
+            return timer;
+        }
+
+        Counter rows() {
+            if (rows == null) {
+                rows = this.counter( OperationMetrics.ROWS_COUNTER, "rows" );
+            }
+            return rows;
+        }
+
+        Counter bytes() {
+            if (bytes == null) {
+                bytes = this.counter( OperationMetrics.BYTES_COUNTER, "bytes" );
+            }
+            return bytes;
+        }
+
+        private Counter counter(String name, String baseUnit) {
+            return Counter.builder( name )
+                    .baseUnit( baseUnit )
+                    .tag( OperationMetrics.COMPONENT_TAG, component )
+                    .tag( OperationMetrics.OPERATION_TAG, operation )
+                    .tag( OperationMetrics.METHOD_TAG, method )
+                    .register( registry.get() );
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.ericgha.docuCloud.util.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Proxies beans of the instrumented types with an {@link OperationMetricsInterceptor}.  Beans which are already
+ * proxied get the interceptor added to their advice chain.  The component tag is the simple name of the bean's class,
+ * so two implementations of an interface (e.g. a {@code CachingFileStore} in front of an {@code S3FileStore}) are
+ * recorded separately.
+ * <br><br>
+ * The registry is resolved on first use, so creating this post processor does not initialize the metrics
+ * infrastructure early.
+ */
+public class OperationMetricsPostProcessor implements BeanPostProcessor {
+
+    /**
+     * @param type       beans assignable to type are instrumented
+     * @param countsRows if returned elements are rows, see {@link OperationMetricsInterceptor}
+     */
+    public record Component(Class<?> type, boolean countsRows) {
+    }
+
+    private final List<Component> components;
+    private final Supplier<MeterRegistry> registry;
+
+    public OperationMetricsPostProcessor(List<Component> components, ObjectProvider<MeterRegistry> registryProvider) {
+        this.components = List.copyOf( components );
+        this.registry = new Supplier<>() {
+            private volatile MeterRegistry resolved;
+
+            @Override
+            public MeterRegistry get() {
+                MeterRegistry meterRegistry = resolved;
+                if (meterRegistry == null) {
+                    meterRegistry = registryProvider.getObject();
+                    resolved = meterRegistry;
+                }
+                return meterRegistry;
+            }
+        };
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        Class<?> targetClass = AopUtils.getTargetClass( bean );
+        return components.stream()
+                .filter( component -> component.type().isAssignableFrom( targetClass ) )
+                .findFirst()
+                .map( component -> this.instrument( bean, targetClass, component ) )
+                .orElse( bean );
+    }
+
+    private Object instrument(Object bean, Class<?> targetClass, Component component) {
+        var interceptor = new OperationMetricsInterceptor( targetClass.getSimpleName(), component.countsRows(), registry );
+        if (bean instanceof Advised advised && !advised.isFrozen()) {
+            advised.addAdvice( 0, interceptor );
+            return bean;
+        }
+        ProxyFactory proxyFactory = new ProxyFactory( bean );
+        // concrete classes are injected, e.g. S3FileStore into CachingFileStore
+        proxyFactory.setProxyTargetClass( true );
+        proxyFactory.addAdvice( interceptor );
+        return proxyFactory.getProxy( targetClass.getClassLoader() );
+    }
+}
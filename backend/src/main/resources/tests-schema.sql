@@ -1,6 +1,9 @@
 ;DROP VIEW IF EXISTS public.file_view;
+;DROP TABLE IF EXISTS public.tree_stats;
+;DROP TABLE IF EXISTS public.tree_stats_delta;
 ;DROP TABLE IF EXISTS public.tree_join_file;
 ;DROP TABLE IF EXISTS public.file;
+;DROP TABLE IF EXISTS public.pending_blob_delete;
 ;DROP TABLE IF EXISTS tree CASCADE;
 ;DROP TYPE IF EXISTS OBJECT_TYPE;
 
@@ -115,12 +118,16 @@ EXECUTE PROCEDURE insCheck();
 	uploaded_at TIMESTAMPTZ NOT NULL DEFAULT CURRENT_TIMESTAMP
 );
 
+-- deduplication of uploads looks up files by content
+;CREATE INDEX IF NOT EXISTS file_user_id_checksum_size_idx on file (user_id, checksum, size);
+
 ;CREATE TABLE IF NOT EXISTS public.tree_join_file (
 	object_id uuid NOT NULL REFERENCES public.tree DEFERRABLE INITIALLY DEFERRED,
 	file_id uuid NOT NULL REFERENCES public.file DEFERRABLE INITIALLY DEFERRED,
 	linked_at TIMESTAMPTZ NOT NULL DEFAULT CURRENT_TIMESTAMP,
 	PRIMARY KEY (object_id, file_id)
 );
+;CREATE INDEX IF NOT EXISTS tree_join_file_file_id_idx on tree_join_file (file_id);
 
 ;CREATE OR REPLACE VIEW public.file_view AS
 	SELECT tree_join_file.object_id,
@@ -152,10 +159,11 @@ BEGIN
 		INSERT INTO public.tree_join_file (object_id, file_id, linked_at)
 			values(NEW.object_id, NEW.file_id, NEW.linked_at);
 	ELSEIF 0 = num_nulls(NEW.file_id, NEW.linked_at, NEW.uploaded_at, NEW.checksum, NEW.size) THEN
-			INSERT INTO public.tree_join_file (object_id, file_id, linked_at)
-				values(NEW.object_id, NEW.file_id, NEW.linked_at);
+			-- file first, so the size is known to the tree_stats trigger of the link
 			INSERT INTO public.file (file_id, checksum, SIZE, user_id, uploaded_at)
 				values(NEW.file_id, NEW.checksum, NEW.SIZE, NEW.user_id, NEW.uploaded_at);
+			INSERT INTO public.tree_join_file (object_id, file_id, linked_at)
+				values(NEW.object_id, NEW.file_id, NEW.linked_at);
 	ELSE
 		RAISE EXCEPTION 'improper arguments: missing required fields or provided too many fields';
 	END IF;
@@ -166,6 +174,300 @@ $$ language plpgsql;
 CREATE OR REPLACE TRIGGER file_view_ins_trigger INSTEAD OF INSERT ON public.file_view
 	FOR EACH ROW EXECUTE PROCEDURE file_view_ins();
 
+-- Aggregates of each ROOT and DIR: the number of descendent DIRs and FILEs, and the bytes of the newest version and
+-- of all versions of the descendent FILEs.  Each FILE holds the bytes of its own versions, and counts of 0.  Kept
+-- up to date by the statement triggers below, in the transaction of every change to tree and tree_join_file, so
+-- listings read them without scanning a subtree.  tree_stats_rebuild() recomputes them from scratch.
+--
+-- The rows of ancestors (ultimately the user's ROOT) are shared by every change of a user, so the triggers do not
+-- update them.  They append deltas to tree_stats_delta, which tree_stats_fold adds to the ancestors when the
+-- transaction commits.  So the ancestor rows are only locked while committing, not for the rest of the transaction
+-- (e.g. during an upload), and a transaction does not see its own changes to the aggregates of ancestors.
+--
+-- Every change of a user still folds into the user's ROOT row, so the commits of concurrent writers of the same user
+-- serialize on that row (for as long as the fold takes, not for the whole transaction).  Writers of different users
+-- do not contend.  Skipping locked rows would drop deltas, and folding in a background job would leave the aggregates
+-- stale, so the per user commit serialization is accepted.  Bulk writes (e.g. createAll, cpDir) fold once per
+-- transaction, not once per object.
+;CREATE TABLE IF NOT EXISTS public.tree_stats (
+	object_id uuid PRIMARY KEY NOT NULL,
+	user_id uuid NOT NULL,
+	newest_bytes bigint NOT NULL DEFAULT 0,
+	-- a file linked to several objects is counted once per object
+	all_version_bytes bigint NOT NULL DEFAULT 0,
+	dir_count bigint NOT NULL DEFAULT 0,
+	file_count bigint NOT NULL DEFAULT 0
+);
+
+-- Changes to the aggregates of ancestors, insert only.  Rows are deleted by the transaction which inserted them, as
+-- it commits, so the table is empty outside of transactions and need not survive a crash.
+;CREATE UNLOGGED TABLE IF NOT EXISTS public.tree_stats_delta (
+	txid bigint NOT NULL DEFAULT txid_current(),
+	object_id uuid NOT NULL,
+	user_id uuid NOT NULL,
+	newest_bytes bigint NOT NULL DEFAULT 0,
+	all_version_bytes bigint NOT NULL DEFAULT 0,
+	dir_count bigint NOT NULL DEFAULT 0,
+	file_count bigint NOT NULL DEFAULT 0
+);
+;CREATE INDEX IF NOT EXISTS tree_stats_delta_txid_idx on tree_stats_delta (txid);
+
+-- Paths of the ancestors of a path, the ROOT path included.  Ancestors are looked up by (user_id, path) in the
+-- unique index of tree.
+CREATE OR REPLACE FUNCTION ancestor_paths(descendent ltree) RETURNS SETOF ltree
+LANGUAGE sql IMMUTABLE
+AS $$
+	SELECT subpath(descendent, 0, lvl) FROM generate_series(0, nlevel(descendent) - 1) AS lvl
+$$;
+
+-- Bytes of the newest version (ordered as FileRepository#lsNewestFilesFor) and of all versions of a FILE
+CREATE OR REPLACE FUNCTION file_version_bytes(in_object_id uuid, OUT newest_bytes bigint, OUT all_version_bytes bigint)
+LANGUAGE sql STABLE
+AS $$
+	SELECT coalesce((SELECT file.size
+			FROM public.tree_join_file JOIN public.file ON file.file_id = tree_join_file.file_id
+			WHERE tree_join_file.object_id = in_object_id
+			ORDER BY tree_join_file.linked_at DESC, file.uploaded_at DESC, file.file_id DESC
+			LIMIT 1), 0),
+		coalesce((SELECT sum(file.size)
+			FROM public.tree_join_file JOIN public.file ON file.file_id = tree_join_file.file_id
+			WHERE tree_join_file.object_id = in_object_id), 0)::bigint
+$$;
+
+-- Created objects are counted by their ancestors.  The bytes of created FILEs are added when their versions are
+-- linked, by tree_stats_versions.
+CREATE OR REPLACE FUNCTION tree_stats_ins() RETURNS TRIGGER AS $$
+BEGIN
+	INSERT INTO public.tree_stats (object_id, user_id)
+		SELECT inserted.object_id, inserted.user_id FROM inserted
+	ON CONFLICT (object_id) DO NOTHING;
+	INSERT INTO public.tree_stats_delta (object_id, user_id, dir_count, file_count)
+		SELECT ancestor.object_id, ancestor.user_id, added.dir_count, added.file_count
+		FROM (SELECT inserted.user_id, ancestor_path,
+				count(*) FILTER (WHERE inserted.object_type = 'DIR') AS dir_count,
+				count(*) FILTER (WHERE inserted.object_type = 'FILE') AS file_count
+			FROM inserted CROSS JOIN LATERAL ancestor_paths(inserted.path) AS ancestor_path
+			GROUP BY inserted.user_id, ancestor_path) AS added
+		JOIN public.tree AS ancestor
+			ON ancestor.user_id = added.user_id AND ancestor.path = added.ancestor_path
+		WHERE ancestor.object_type <> 'FILE';
+	RETURN NULL;
+END;
+$$ language plpgsql;
+
+-- Deleted objects, and the bytes of deleted FILEs, are subtracted from the ancestors which remain.  Versions
+-- unlinked after their object is deleted (FileRepository#rmEdgesFromAll) are then ignored by tree_stats_versions.
+CREATE OR REPLACE FUNCTION tree_stats_del() RETURNS TRIGGER AS $$
+BEGIN
+	-- the bytes of the deleted FILEs must not change until subtracted
+	PERFORM 1 FROM public.tree_stats
+		WHERE object_id IN (SELECT deleted.object_id FROM deleted WHERE deleted.object_type = 'FILE')
+		ORDER BY object_id FOR UPDATE;
+	INSERT INTO public.tree_stats_delta (object_id, user_id, newest_bytes, all_version_bytes, dir_count, file_count)
+		SELECT ancestor.object_id, ancestor.user_id, -removed.newest_bytes, -removed.all_version_bytes,
+			-removed.dir_count, -removed.file_count
+		FROM (SELECT deleted.user_id, ancestor_path,
+				coalesce(sum(own.newest_bytes), 0) AS newest_bytes,
+				coalesce(sum(own.all_version_bytes), 0) AS all_version_bytes,
+				count(*) FILTER (WHERE deleted.object_type = 'DIR') AS dir_count,
+				count(*) FILTER (WHERE deleted.object_type = 'FILE') AS file_count
+			FROM deleted
+			LEFT JOIN public.tree_stats AS own
+				ON own.object_id = deleted.object_id AND deleted.object_type = 'FILE'
+			CROSS JOIN LATERAL ancestor_paths(deleted.path) AS ancestor_path
+			GROUP BY deleted.user_id, ancestor_path) AS removed
+		JOIN public.tree AS ancestor
+			ON ancestor.user_id = removed.user_id AND ancestor.path = removed.ancestor_path
+		WHERE ancestor.object_type <> 'FILE';
+	DELETE FROM public.tree_stats WHERE object_id IN (SELECT deleted.object_id FROM deleted);
+	RETURN NULL;
+END;
+$$ language plpgsql;
+
+-- Moved objects, and the bytes of moved FILEs, are subtracted from the ancestors of their old path and added to the
+-- ancestors of their new path.  Moved DIRs keep their own aggregates, as their descendents move with them.
+CREATE OR REPLACE FUNCTION tree_stats_upd() RETURNS TRIGGER AS $$
+BEGIN
+	PERFORM 1 FROM public.tree_stats
+		WHERE object_id IN (SELECT moved_to.object_id FROM moved_to WHERE moved_to.object_type = 'FILE')
+		ORDER BY object_id FOR UPDATE;
+	WITH moved AS (
+		SELECT moved_to.object_id, moved_to.user_id, moved_to.object_type,
+			moved_from.path AS from_path, moved_to.path AS to_path
+		FROM moved_from JOIN moved_to ON moved_to.object_id = moved_from.object_id
+		WHERE moved_to.path <> moved_from.path
+	)
+	INSERT INTO public.tree_stats_delta (object_id, user_id, newest_bytes, all_version_bytes, dir_count, file_count)
+		SELECT ancestor.object_id, ancestor.user_id, changed.newest_bytes, changed.all_version_bytes,
+			changed.dir_count, changed.file_count
+		FROM (SELECT moved.user_id, moved_ancestor.path AS ancestor_path,
+				coalesce(sum(moved_ancestor.sign * own.newest_bytes), 0) AS newest_bytes,
+				coalesce(sum(moved_ancestor.sign * own.all_version_bytes), 0) AS all_version_bytes,
+				coalesce(sum(moved_ancestor.sign) FILTER (WHERE moved.object_type = 'DIR'), 0) AS dir_count,
+				coalesce(sum(moved_ancestor.sign) FILTER (WHERE moved.object_type = 'FILE'), 0) AS file_count
+			FROM moved
+			LEFT JOIN public.tree_stats AS own
+				ON own.object_id = moved.object_id AND moved.object_type = 'FILE'
+			CROSS JOIN LATERAL (
+				SELECT from_ancestor, -1 FROM ancestor_paths(moved.from_path) AS from_ancestor
+				UNION ALL
+				SELECT to_ancestor, 1 FROM ancestor_paths(moved.to_path) AS to_ancestor
+			) AS moved_ancestor(path, sign)
+			GROUP BY moved.user_id, moved_ancestor.path) AS changed
+		JOIN public.tree AS ancestor
+			ON ancestor.user_id = changed.user_id AND ancestor.path = changed.ancestor_path
+		WHERE ancestor.object_type <> 'FILE'
+			AND ancestor.object_id NOT IN (SELECT moved.object_id FROM moved)
+			-- ancestors of both paths are unchanged
+			AND (changed.dir_count <> 0 OR changed.file_count <> 0);
+	RETURN NULL;
+END;
+$$ language plpgsql;
+
+-- The bytes of each FILE whose versions were linked, relinked or unlinked are recomputed, and the difference to the
+-- stored bytes is added to its ancestors.  FILEs which no longer exist are ignored.
+CREATE OR REPLACE FUNCTION tree_stats_versions() RETURNS TRIGGER AS $$
+BEGIN
+	-- recomputed from a snapshot taken after concurrent changes to the same FILEs commit
+	PERFORM 1 FROM public.tree_stats
+		WHERE object_id IN (SELECT changed.object_id FROM changed)
+		ORDER BY object_id FOR UPDATE;
+	WITH sizes AS (
+		SELECT tree.object_id, tree.user_id, tree.path, bytes.newest_bytes, bytes.all_version_bytes,
+			bytes.newest_bytes - coalesce(own.newest_bytes, 0) AS newest_diff,
+			bytes.all_version_bytes - coalesce(own.all_version_bytes, 0) AS all_version_diff
+		FROM public.tree
+		CROSS JOIN LATERAL file_version_bytes(tree.object_id) AS bytes
+		LEFT JOIN public.tree_stats AS own ON own.object_id = tree.object_id
+		WHERE tree.object_id IN (SELECT changed.object_id FROM changed)
+			AND tree.object_type = 'FILE'
+	), own_bytes AS (
+		INSERT INTO public.tree_stats AS stats (object_id, user_id, newest_bytes, all_version_bytes)
+			SELECT sizes.object_id, sizes.user_id, sizes.newest_bytes, sizes.all_version_bytes FROM sizes
+		ON CONFLICT (object_id) DO UPDATE SET newest_bytes = excluded.newest_bytes,
+			all_version_bytes = excluded.all_version_bytes
+	)
+	INSERT INTO public.tree_stats_delta (object_id, user_id, newest_bytes, all_version_bytes)
+		SELECT ancestor.object_id, ancestor.user_id, changed.newest_bytes, changed.all_version_bytes
+		FROM (SELECT sizes.user_id, ancestor_path,
+				sum(sizes.newest_diff) AS newest_bytes,
+				sum(sizes.all_version_diff) AS all_version_bytes
+			FROM sizes CROSS JOIN LATERAL ancestor_paths(sizes.path) AS ancestor_path
+			WHERE sizes.newest_diff <> 0 OR sizes.all_version_diff <> 0
+			GROUP BY sizes.user_id, ancestor_path) AS changed
+		JOIN public.tree AS ancestor
+			ON ancestor.user_id = changed.user_id AND ancestor.path = changed.ancestor_path
+		WHERE ancestor.object_type <> 'FILE';
+	RETURN NULL;
+END;
+$$ language plpgsql;
+
+-- Adds the deltas of the committing transaction to the aggregates of the ancestors, locked in object_id order.  Fires
+-- once per delta at commit, the first folds all of them.  Ancestors deleted later in the transaction are skipped.
+CREATE OR REPLACE FUNCTION tree_stats_fold() RETURNS TRIGGER AS $$
+BEGIN
+	WITH folded AS (
+		DELETE FROM public.tree_stats_delta WHERE tree_stats_delta.txid = txid_current()
+		RETURNING tree_stats_delta.*
+	)
+	INSERT INTO public.tree_stats AS stats (object_id, user_id, newest_bytes, all_version_bytes, dir_count, file_count)
+		SELECT folded.object_id, folded.user_id, sum(folded.newest_bytes), sum(folded.all_version_bytes),
+			sum(folded.dir_count), sum(folded.file_count)
+		FROM folded
+		WHERE EXISTS (SELECT 1 FROM public.tree WHERE tree.object_id = folded.object_id)
+		GROUP BY folded.object_id, folded.user_id
+		ORDER BY folded.object_id
+	ON CONFLICT (object_id) DO UPDATE SET newest_bytes = stats.newest_bytes + excluded.newest_bytes,
+		all_version_bytes = stats.all_version_bytes + excluded.all_version_bytes,
+		dir_count = stats.dir_count + excluded.dir_count,
+		file_count = stats.file_count + excluded.file_count;
+	RETURN NULL;
+END;
+$$ language plpgsql;
+
+-- Recomputes tree_stats from tree and tree_join_file, to backfill or to repair it
+CREATE OR REPLACE FUNCTION tree_stats_rebuild() RETURNS void AS $$
+BEGIN
+	-- the rebuild includes the changes of this transaction
+	DELETE FROM public.tree_stats_delta WHERE txid = txid_current();
+	DELETE FROM public.tree_stats;
+	INSERT INTO public.tree_stats (object_id, user_id, newest_bytes, all_version_bytes)
+		SELECT tree.object_id, tree.user_id, bytes.newest_bytes, bytes.all_version_bytes
+		FROM public.tree CROSS JOIN LATERAL file_version_bytes(tree.object_id) AS bytes
+		WHERE tree.object_type = 'FILE';
+	INSERT INTO public.tree_stats (object_id, user_id, newest_bytes, all_version_bytes, dir_count, file_count)
+		SELECT ancestor.object_id, ancestor.user_id,
+			coalesce(sum(own.newest_bytes), 0),
+			coalesce(sum(own.all_version_bytes), 0),
+			count(*) FILTER (WHERE descendent.object_type = 'DIR'),
+			count(*) FILTER (WHERE descendent.object_type = 'FILE')
+		FROM public.tree AS ancestor
+		LEFT JOIN public.tree AS descendent
+			ON descendent.user_id = ancestor.user_id AND ancestor.path @> descendent.path
+				AND descendent.object_id <> ancestor.object_id
+		LEFT JOIN public.tree_stats AS own ON own.object_id = descendent.object_id
+		WHERE ancestor.object_type <> 'FILE'
+		GROUP BY ancestor.object_id, ancestor.user_id;
+END;
+$$ language plpgsql;
+
+CREATE OR REPLACE TRIGGER tree_stats_ins_trigger AFTER INSERT ON public.tree
+	REFERENCING NEW TABLE AS inserted
+	FOR EACH STATEMENT EXECUTE PROCEDURE tree_stats_ins();
+
+CREATE OR REPLACE TRIGGER tree_stats_del_trigger AFTER DELETE ON public.tree
+	REFERENCING OLD TABLE AS deleted
+	FOR EACH STATEMENT EXECUTE PROCEDURE tree_stats_del();
+
+CREATE OR REPLACE TRIGGER tree_stats_upd_trigger AFTER UPDATE ON public.tree
+	REFERENCING OLD TABLE AS moved_from NEW TABLE AS moved_to
+	FOR EACH STATEMENT EXECUTE PROCEDURE tree_stats_upd();
+
+CREATE OR REPLACE TRIGGER tree_stats_link_trigger AFTER INSERT ON public.tree_join_file
+	REFERENCING NEW TABLE AS changed
+	FOR EACH STATEMENT EXECUTE PROCEDURE tree_stats_versions();
+
+CREATE OR REPLACE TRIGGER tree_stats_relink_trigger AFTER UPDATE ON public.tree_join_file
+	REFERENCING NEW TABLE AS changed
+	FOR EACH STATEMENT EXECUTE PROCEDURE tree_stats_versions();
+
+CREATE OR REPLACE TRIGGER tree_stats_unlink_trigger AFTER DELETE ON public.tree_join_file
+	REFERENCING OLD TABLE AS changed
+	FOR EACH STATEMENT EXECUTE PROCEDURE tree_stats_versions();
+
+-- constraint triggers can not be replaced
+DROP TRIGGER IF EXISTS tree_stats_fold_trigger ON public.tree_stats_delta;
+CREATE CONSTRAINT TRIGGER tree_stats_fold_trigger AFTER INSERT ON public.tree_stats_delta
+	DEFERRABLE INITIALLY DEFERRED
+	FOR EACH ROW EXECUTE PROCEDURE tree_stats_fold();
+
+-- backfills objects created before tree_stats
+SELECT tree_stats_rebuild();
+
+-- Blobs of deleted files, drained from the FileStore by BlobDeleteReaper
+;CREATE TABLE IF NOT EXISTS public.pending_blob_delete (
+	file_id uuid PRIMARY KEY NOT NULL,
+	user_id uuid NOT NULL,
+	enqueued_at TIMESTAMPTZ NOT NULL DEFAULT CURRENT_TIMESTAMP,
+	leased_until TIMESTAMPTZ,
+	attempts integer NOT NULL DEFAULT 0
+);
+;CREATE INDEX IF NOT EXISTS pending_blob_delete_enqueued_at_idx on pending_blob_delete (enqueued_at);
+
+-- Enqueues the blob of every deleted file in the transaction which deleted the file
+CREATE OR REPLACE FUNCTION file_del_enqueue() RETURNS TRIGGER AS $$
+BEGIN
+	INSERT INTO public.pending_blob_delete (file_id, user_id)
+		SELECT deleted.file_id, deleted.user_id FROM deleted
+	ON CONFLICT (file_id) DO NOTHING;
+	RETURN NULL;
+END;
+$$ language plpgsql;
+
+CREATE OR REPLACE TRIGGER file_del_enqueue_trigger AFTER DELETE ON public.file
+	REFERENCING OLD TABLE AS deleted
+	FOR EACH STATEMENT EXECUTE PROCEDURE file_del_enqueue();
+
 -- Returns affected file UUIDs and if the file resource is an orphan
 CREATE OR REPLACE FUNCTION file_view_del(in_object_id UUID, in_file_id UUID, in_user_id UUID)
 RETURNS bool
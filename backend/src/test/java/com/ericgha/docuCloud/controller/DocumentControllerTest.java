@@ -0,0 +1,62 @@
+package com.ericgha.docuCloud.controller;
+
+import com.ericgha.docuCloud.dto.TreeAndFileView;
+import com.ericgha.docuCloud.dto.TreeDto;
+import com.ericgha.docuCloud.dto.TreeStatsDto;
+import com.ericgha.docuCloud.service.DocumentService;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.core.ReactiveAdapterRegistry;
+import org.springframework.security.web.reactive.result.method.annotation.AuthenticationPrincipalArgumentResolver;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+
+import java.util.UUID;
+
+import static com.ericgha.docuCloud.jooq.enums.ObjectType.DIR;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+// JSON of responses, the service is mocked and no principal is set
+class DocumentControllerTest {
+
+    private final DocumentService documentService = Mockito.mock( DocumentService.class );
+
+    private final WebTestClient client = WebTestClient.bindToController( new DocumentController( documentService ) )
+            .argumentResolvers( resolvers -> resolvers.addCustomResolver(
+                    new AuthenticationPrincipalArgumentResolver( ReactiveAdapterRegistry.getSharedInstance() ) ) )
+            .build();
+
+    private final TreeDto dir0 = TreeDto.builder()
+            .objectId( UUID.randomUUID() )
+            .objectType( DIR )
+            .build();
+
+    @Test
+    @DisplayName("ls omits stats from the JSON unless requested")
+    void lsWithoutStats() {
+        when( documentService.ls( any(), eq( false ), any() ) )
+                .thenReturn( Flux.just( new TreeAndFileView( dir0, null ) ) );
+        client.get().uri( "/api/document/ls?stats=false" )
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath( "$[0].treeDto.objectId" ).isEqualTo( dir0.getObjectId().toString() )
+                .jsonPath( "$[0].stats" ).doesNotExist();
+    }
+
+    @Test
+    @DisplayName("ls includes stats in the JSON when requested")
+    void lsWithStats() {
+        when( documentService.ls( any(), eq( true ), any() ) )
+                .thenReturn( Flux.just( new TreeAndFileView( dir0, null, new TreeStatsDto( 10L, 20L, 1L, 2L ) ) ) );
+        client.get().uri( "/api/document/ls?stats=true" )
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath( "$[0].stats.allVersionBytes" ).isEqualTo( 20 )
+                .jsonPath( "$[0].stats.fileCount" ).isEqualTo( 2 );
+    }
+}
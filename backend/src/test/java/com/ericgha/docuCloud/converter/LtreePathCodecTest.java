@@ -0,0 +1,131 @@
+package com.ericgha.docuCloud.converter;
+
+import org.jooq.postgres.extensions.types.Ltree;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LtreePathCodecTest {
+
+    private static final int RANDOM_PATHS = 10_000;
+
+    @ParameterizedTest
+    @DisplayName("encode escapes with a fixed width")
+    @CsvSource(delimiter = '|', quoteCharacter = '"', textBlock = """
+    #   path  |  expected
+        "/a%b" | "aǃ25b"
+        "/a b" | "aǃ20b"
+        "/a€1" | "aǃǃ20ac1"
+        "/aǃ" | "aǃǃ01c3"
+        "/dir0/déjà vu" | "dir0.déjàǃ20vu"
+    """)
+    void encodeEscapesWithFixedWidth(String path, String expected) throws ParseException {
+        assertEquals( expected, LtreePathCodec.encode( path ).data() );
+        assertEquals( path, LtreePathCodec.decode( Ltree.valueOf( expected ) ) );
+    }
+
+    @Test
+    @DisplayName("every char round trips, and is encoded as ltree label characters")
+    void everyCharRoundTrips() throws ParseException {
+        for (int c = Character.MIN_VALUE; c <= Character.MAX_VALUE; c++) {
+            String path = "/a" + (char) c + "b/c";
+            Ltree encoded = LtreePathCodec.encode( path );
+            int escaped = c;
+            assertEquals( path, LtreePathCodec.decode( encoded ), () -> "char " + Integer.toHexString( escaped ) );
+            assertLabelChars( encoded );
+        }
+    }
+
+    @Test
+    @DisplayName("random paths round trip, one at a time and in bulk")
+    void randomPathsRoundTrip() throws ParseException {
+        SplittableRandom random = new SplittableRandom( 0 );
+        List<String> paths = new ArrayList<>( RANDOM_PATHS );
+        for (int i = 0; i < RANDOM_PATHS; i++) {
+            paths.add( randomPath( random ) );
+        }
+        List<Ltree> encoded = LtreePathCodec.encodeAll( paths );
+        List<String> decoded = LtreePathCodec.decodeAll( encoded );
+        for (int i = 0; i < RANDOM_PATHS; i++) {
+            String path = paths.get( i );
+            assertEquals( LtreePathCodec.encode( path ), encoded.get( i ), path );
+            assertEquals( path, decoded.get( i ) );
+            assertLabelChars( encoded.get( i ) );
+        }
+    }
+
+    @Test
+    @DisplayName("decode from an index decodes the following labels")
+    void decodeFromIndex() {
+        String data = "dir0.dirǃ401.fileǃ2eexe";
+        assertEquals( "dir@1/file.exe", LtreePathCodec.decode( data, 5, false ) );
+        assertEquals( "/file.exe", LtreePathCodec.decode( data, data.lastIndexOf( '.' ) + 1, true ) );
+    }
+
+    @ParameterizedTest
+    @DisplayName("decode throws IllegalArgumentException on a truncated escape or non-hex digit")
+    @ValueSource(strings = {"aǃ2", "aǃzz", "aǃǃ01c", "aǃǃ01g3", "aǃ"})
+    void decodeThrowsOnMalformedEscape(String data) {
+        assertThrows( IllegalArgumentException.class, () -> LtreePathCodec.decode( Ltree.valueOf( data ) ) );
+    }
+
+    @ParameterizedTest
+    @DisplayName("legacyEncoding writes escapes without leading zeros, null when unchanged")
+    @CsvSource(delimiter = '|', quoteCharacter = '"', nullValues = "null", textBlock = """
+    #   path  |  expected
+        "/a€1" | "aǃ20ac1"
+        "/a\u0001b/€" | "aǃ1b.ǃ20ac"
+        "/a%b/c" | null
+        "/abc" | null
+        "/aǃ€" | null
+    """)
+    void legacyEncoding(String path, String expected) throws ParseException {
+        assertEquals( expected, LtreePathCodec.legacyEncoding( LtreePathCodec.encode( path ).data() ) );
+    }
+
+    @Test
+    @DisplayName("encodeAll throws a ParseException with the index of the path")
+    void encodeAllThrowsWithIndex() {
+        ParseException e = assertThrows( ParseException.class,
+                () -> LtreePathCodec.encodeAll( List.of( "/a", "/b", "c" ) ) );
+        assertEquals( 2, e.getErrorOffset() );
+    }
+
+    // labels of random length from ASCII, other BMP chars and surrogate pairs
+    private static String randomPath(SplittableRandom random) {
+        StringBuilder path = new StringBuilder();
+        int labels = random.nextInt( 1, 8 );
+        for (int label = 0; label < labels; label++) {
+            path.append( '/' );
+            int length = random.nextInt( 1, 16 );
+            for (int i = 0; i < length; i++) {
+                switch (random.nextInt( 3 )) {
+                    case 0 -> path.append( (char) random.nextInt( 0x20, 0x7f ) );
+                    case 1 -> path.append( (char) random.nextInt( Character.MAX_VALUE + 1 ) );
+                    default -> path.appendCodePoint( random.nextInt( Character.MIN_SUPPLEMENTARY_CODE_POINT,
+                            Character.MAX_CODE_POINT + 1 ) );
+                }
+            }
+        }
+        return path.toString();
+    }
+
+    private static void assertLabelChars(Ltree ltree) {
+        String data = ltree.data();
+        for (int i = 0; i < data.length(); i++) {
+            char c = data.charAt( i );
+            assertTrue( Character.isLetterOrDigit( c ) || c == '_' || c == '.', data );
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.ericgha.docuCloud.dto;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ByteRangeTest {
+
+    @ParameterizedTest
+    @DisplayName("parseSingle parses single ranges")
+    @CsvSource(delimiter = '|', nullValues = "null", textBlock = """
+            #   header           | first | last
+                bytes=0-99       | 0     | 99
+                bytes=100-       | 100   | null
+                bytes=-500       | null  | 500
+                ' bytes= 5-5 '   | 5     | 5
+            """)
+    void parseSingleParsesRange(String header, Long first, Long last) {
+        assertEquals( Optional.of( new ByteRange( first, last ) ), ByteRange.parseSingle( header ) );
+    }
+
+    @ParameterizedTest
+    @DisplayName("parseSingle returns empty for invalid and multi-range headers")
+    @ValueSource(strings = {"", "bytes=", "bytes=-", "bytes=5-4", "bytes=-0", "items=0-99", "bytes=0-99,200-299",
+            "bytes=99999999999999999999-"})
+    void parseSingleReturnsEmptyWhenInvalid(String header) {
+        assertEquals( Optional.empty(), ByteRange.parseSingle( header ) );
+    }
+
+    @Test
+    @DisplayName("parseSingle returns empty for a null header")
+    void parseSingleReturnsEmptyWhenNull() {
+        assertEquals( Optional.empty(), ByteRange.parseSingle( null ) );
+    }
+
+    @ParameterizedTest
+    @DisplayName("toHeaderValue round trips through parseSingle")
+    @ValueSource(strings = {"bytes=0-99", "bytes=100-", "bytes=-500"})
+    void toHeaderValueRoundTrips(String header) {
+        assertEquals( header, ByteRange.parseSingle( header ).orElseThrow().toHeaderValue() );
+    }
+
+    @Test
+    @DisplayName("Constructor throws when first and last are null")
+    void constructorThrowsWhenBothNull() {
+        assertThrows( IllegalArgumentException.class, () -> new ByteRange( null, null ) );
+    }
+}
@@ -0,0 +1,302 @@
+package com.ericgha.docuCloud.load;
+
+import com.ericgha.docuCloud.dto.CloudUser;
+import com.ericgha.docuCloud.dto.TreeDto;
+import com.ericgha.docuCloud.load.LatencyRecorder.Summary;
+import com.ericgha.docuCloud.load.LoadMix.Operation;
+import com.ericgha.docuCloud.load.LoadSeeder.SeededUser;
+import com.ericgha.docuCloud.repository.testtool.file.RandomFileGenerator;
+import com.ericgha.docuCloud.repository.testtool.file.RandomFileGenerator.FileDtoAndData;
+import com.ericgha.docuCloud.repository.testtool.tree.TreeTestQueries;
+import com.ericgha.docuCloud.service.DocumentService;
+import com.ericgha.docuCloud.service.JooqTransaction;
+import com.ericgha.docuCloud.service.S3FileStore;
+import com.ericgha.docuCloud.testconainer.EnableMinioTestContainerContextCustomizerFactory.EnableMinioTestContainer;
+import com.ericgha.docuCloud.testconainer.EnablePostgresTestContainerContextCustomizerFactory.EnablePostgresTestContainer;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.test.web.reactive.server.WebTestClient.RequestHeadersSpec;
+import org.springframework.test.web.reactive.server.WebTestClient.ResponseSpec;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static com.ericgha.docuCloud.jooq.enums.ObjectType.DIR;
+import static com.ericgha.docuCloud.jooq.enums.ObjectType.FILE;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.security.test.web.reactive.server.SecurityMockServerConfigurers.csrf;
+import static org.springframework.security.test.web.reactive.server.SecurityMockServerConfigurers.mockAuthentication;
+import static org.springframework.security.test.web.reactive.server.SecurityMockServerConfigurers.springSecurity;
+
+/**
+ * End-to-end load test of the document API.  Postgres and MinIO are seeded with realistic users (a deep chain of dirs
+ * with many versions per file, and a wide dir), then a closed loop of workers drives a mix of {@code ls},
+ * {@code versionsFirst}, {@code createFile}, {@code cp}, {@code mv} and {@code rm} requests through the WebFlux
+ * application.  p50 and p99 latency and throughput of each operation are printed and written as CSV (see
+ * {@link LoadSettings}).  Run with {@code ./gradlew loadTest}.
+ * <br><br>
+ * Requests are sent through the application context rather than a port, with the principal set by the security test
+ * support, as no token issuer is configured in tests.  Reads target the seeded objects, while every mutation stays in
+ * the worker's own scratch dir ({@code w<worker>}), so workers don't fail each other's requests.
+ */
+@SpringBootTest
+@EnablePostgresTestContainer
+@EnableMinioTestContainer
+@ActiveProfiles(value = {"test", "s3", "dev"})
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@Tag("load")
+class DocumentLoadTest {
+
+    private static final Duration RESPONSE_TIMEOUT = Duration.ofSeconds( 30 );
+
+    @Autowired
+    private ApplicationContext context;
+
+    @Autowired
+    private DocumentService documentService;
+
+    @Autowired
+    private TreeTestQueries treeTestQueries;
+
+    private final LoadSettings settings = LoadSettings.fromSystemProperties();
+
+    private List<SeededUser> seededUsers;
+
+    @BeforeAll
+    void seed(@Autowired S3FileStore s3FileStore, @Autowired JooqTransaction jooqTx) throws URISyntaxException, IOException {
+        s3FileStore.listBuckets().flatMap( s3FileStore::deleteAllObjectsInBucket )
+                .flatMap( s3FileStore::deleteBucket )
+                .then( Mono.defer( s3FileStore::createBucketIfNotExists ) ).block();
+        Path schemaFile = Paths.get( this.getClass()
+                .getClassLoader()
+                .getResource( "tests-schema.sql" )
+                .toURI() );
+        String sql = Files.readString( schemaFile );
+        jooqTx.withConnection( dsl -> dsl.query( sql ) ).publishOn( Schedulers.boundedElastic() ).block();
+
+        LoadSeeder seeder = new LoadSeeder( documentService, settings );
+        long start = System.nanoTime();
+        seededUsers = IntStream.range( 0, settings.users() )
+                .mapToObj( i -> CloudUser.builder()
+                        .userId( UUID.randomUUID() )
+                        .username( "loadTester" + i )
+                        .realm( "cloud9" ).build() )
+                .map( seeder::seed )
+                .toList();
+        System.out.printf( "seeded %d users in %d ms, settings: %s%n", settings.users(),
+                TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ), settings );
+    }
+
+    @Test
+    @DisplayName("document API p50/p99 latency and throughput under a mixed load")
+    void mixedLoad() throws Exception {
+        LoadSeeder seeder = new LoadSeeder( documentService, settings );
+        List<Worker> workers = new ArrayList<>();
+        for (int i = 0; i < settings.concurrency(); i++) {
+            SeededUser seeded = seededUsers.get( i % seededUsers.size() );
+            String scratch = "w" + i;
+            seeder.createDir( scratch, seeded.user() );
+            workers.add( new Worker( seeded, scratch, i ) );
+        }
+        LatencyRecorder recorder = new LatencyRecorder();
+        long measureStart = System.nanoTime() + settings.warmup().toNanos();
+        long measureEnd = measureStart + settings.duration().toNanos();
+
+        ExecutorService executor = Executors.newFixedThreadPool( settings.concurrency() );
+        try {
+            List<Future<?>> running = workers.stream()
+                    .<Future<?>>map( worker -> executor.submit( () -> worker.run( recorder, measureStart, measureEnd ) ) )
+                    .toList();
+            for (Future<?> worker : running) {
+                // rethrows a worker's exception
+                worker.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        List<Summary> summaries = recorder.summarize( settings.duration() );
+        summaries.forEach( System.out::println );
+        LatencyRecorder.writeCsv( summaries, settings.report() );
+        System.out.println( "written to: " + settings.report().toAbsolutePath() );
+        assertTrue( summaries.stream().anyMatch( summary -> summary.operation().equals( "all" ) ),
+                "No requests were recorded" );
+    }
+
+    /**
+     * Sends one request at a time for a single user.  Objects created by {@code createFile} and {@code cp} are tracked
+     * so {@code mv} and {@code rm} have a target, if there is none the request is an {@code ls} instead.
+     */
+    private class Worker {
+
+        private final SeededUser seeded;
+        private final String scratch;
+        private final WebTestClient client;
+        private final SplittableRandom random;
+        private final RandomFileGenerator randomFileGenerator;
+        // paths, relative to the scratch dir
+        private final Deque<String> files = new ArrayDeque<>();
+        private final Deque<String> copies = new ArrayDeque<>();
+        private int created = 0;
+
+        Worker(SeededUser seeded, String scratch, long seed) {
+            this.seeded = seeded;
+            this.scratch = scratch;
+            this.random = new SplittableRandom( seed );
+            this.randomFileGenerator = RandomFileGenerator.builder().random( random.split() ).build();
+            var authentication = new UsernamePasswordAuthenticationToken( seeded.user(), "n/a", List.of() );
+            this.client = WebTestClient.bindToApplicationContext( context )
+                    .apply( springSecurity() )
+                    .configureClient()
+                    .responseTimeout( RESPONSE_TIMEOUT )
+                    .build()
+                    .mutateWith( mockAuthentication( authentication ) )
+                    .mutateWith( csrf() );
+        }
+
+        void run(LatencyRecorder recorder, long measureStart, long measureEnd) {
+            long start;
+            while ((start = System.nanoTime()) < measureEnd) {
+                Operation operation = settings.mix().next( random );
+                Request request = this.prepare( operation );
+                boolean success = request.send();
+                long nanos = System.nanoTime() - start;
+                if (success) {
+                    request.onSuccess().run();
+                }
+                if (start >= measureStart) {
+                    recorder.record( request.operation(), nanos, success );
+                }
+            }
+        }
+
+        // untimed part of a request, choosing the target and generating data
+        private Request prepare(Operation operation) {
+            return switch (operation) {
+                case LS -> this.ls();
+                case VERSIONS_FIRST -> {
+                    TreeDto file = this.pick( seeded.versioned() );
+                    yield new Request( operation, client.get()
+                            .uri( "/api/document/versionsFirst?objectId={objectId}&objectType={objectType}&limit=25",
+                                    file.getObjectId(), FILE ) );
+                }
+                case CREATE_FILE -> {
+                    String name = "f" + created++;
+                    FileDtoAndData file = randomFileGenerator.generate();
+                    yield new Request( operation, client.post()
+                            .uri( "/api/document/file" )
+                            .contentType( MediaType.APPLICATION_OCTET_STREAM )
+                            .header( "path", quoted( scratch + "." + name ) )
+                            .header( "checksum", file.fileDto().getChecksum() )
+                            .header( "size", file.fileDto().getSize().toString() )
+                            .body( file.data(), ByteBuffer.class ),
+                            () -> files.addLast( name ) );
+                }
+                case CP -> {
+                    TreeDto dir = this.pick( seeded.chain() );
+                    String name = "c" + created++;
+                    yield new Request( operation, client.post()
+                            .uri( "/api/document/cp?objectId={objectId}&objectType={objectType}", dir.getObjectId(), DIR )
+                            .header( "destination", quoted( scratch + "." + name ) )
+                            .header( "onlyNewest", "true" ),
+                            () -> copies.addLast( name ) );
+                }
+                case MV -> {
+                    if (files.isEmpty()) {
+                        yield this.ls();
+                    }
+                    String name = files.pollFirst();
+                    String moved = "m" + created++;
+                    UUID objectId = this.fetchObjectId( name );
+                    yield new Request( operation, client.patch()
+                            .uri( "/api/document/mv?objectId={objectId}&objectType={objectType}", objectId, FILE )
+                            .header( "destination", quoted( scratch + "." + moved ) ),
+                            () -> files.addLast( moved ) );
+                }
+                case RM -> {
+                    boolean dir = !copies.isEmpty();
+                    if (!dir && files.isEmpty()) {
+                        yield this.ls();
+                    }
+                    String name = dir ? copies.pollFirst() : files.pollFirst();
+                    UUID objectId = this.fetchObjectId( name );
+                    yield new Request( operation, client.delete()
+                            .uri( "/api/document/tree?objectId={objectId}&objectType={objectType}", objectId,
+                                    dir ? DIR : FILE )
+                            .header( "recursive", Boolean.toString( dir ) ) );
+                }
+            };
+        }
+
+        private Request ls() {
+            TreeDto dir = this.pick( seeded.dirs() );
+            return new Request( Operation.LS, client.get()
+                    .uri( "/api/document/ls?objectId={objectId}", dir.getObjectId() ) );
+        }
+
+        private UUID fetchObjectId(String name) {
+            TreeDto found = treeTestQueries.getByObjectPath( scratch + "." + name, seeded.user().getUserId() );
+            return Objects.requireNonNull( found, "Tracked object not found: " + name ).getObjectId();
+        }
+
+        private <T> T pick(List<T> objects) {
+            return objects.get( random.nextInt( objects.size() ) );
+        }
+    }
+
+    /**
+     * @param onSuccess updates the worker's tracked objects, run if the request succeeded
+     */
+    private record Request(Operation operation, RequestHeadersSpec<?> spec, Runnable onSuccess) {
+
+        Request(Operation operation, RequestHeadersSpec<?> spec) {
+            this( operation, spec, () -> {} );
+        }
+
+        // true if the response status is 2xx, the body is read before returning
+        boolean send() {
+            ResponseSpec response = spec.exchange();
+            response.expectBody().returnResult();
+            try {
+                response.expectStatus().is2xxSuccessful();
+                return true;
+            } catch (AssertionError e) {
+                return false;
+            }
+        }
+    }
+
+    // Ltree headers are quoted, see CsvLtreeFormatter
+    private static String quoted(String path) {
+        return '"' + path + '"';
+    }
+}
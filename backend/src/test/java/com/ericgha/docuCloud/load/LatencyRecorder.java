@@ -0,0 +1,105 @@
+package com.ericgha.docuCloud.load;
+
+import com.ericgha.docuCloud.load.LoadMix.Operation;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency of every measured request and the number of failed requests per operation.  Failed requests (non 2xx
+ * responses) are included in the latencies.
+ */
+class LatencyRecorder {
+
+    record Summary(String operation, long count, long errors, double p50Millis, double p99Millis, double maxMillis,
+                   double throughput) {
+
+        static final String CSV_HEADER = "operation,count,errors,p50_ms,p99_ms,max_ms,ops_per_s";
+
+        String toCsv() {
+            return String.format( "%s,%d,%d,%.3f,%.3f,%.3f,%.1f", operation, count, errors, p50Millis, p99Millis,
+                    maxMillis, throughput );
+        }
+
+        @Override
+        public String toString() {
+            return String.format( "%-16s n: %8d  errors: %6d  p50: %9.3f ms  p99: %9.3f ms  max: %9.3f ms  %9.1f ops/s",
+                    operation, count, errors, p50Millis, p99Millis, maxMillis, throughput );
+        }
+    }
+
+    private final Map<Operation, ConcurrentLinkedQueue<Long>> latencies = new EnumMap<>( Operation.class );
+    private final Map<Operation, AtomicLong> errors = new EnumMap<>( Operation.class );
+
+    LatencyRecorder() {
+        for (Operation operation : Operation.values()) {
+            latencies.put( operation, new ConcurrentLinkedQueue<>() );
+            errors.put( operation, new AtomicLong() );
+        }
+    }
+
+    void record(Operation operation, long nanos, boolean success) {
+        latencies.get( operation ).add( nanos );
+        if (!success) {
+            errors.get( operation ).incrementAndGet();
+        }
+    }
+
+    /**
+     * @param elapsed measured duration, throughput is requests per second of elapsed
+     * @return one summary per operation which ran, followed by the summary of all operations
+     */
+    List<Summary> summarize(Duration elapsed) {
+        List<Summary> summaries = new ArrayList<>();
+        List<Long> all = new ArrayList<>();
+        long allErrors = 0;
+        for (Operation operation : Operation.values()) {
+            List<Long> opLatencies = List.copyOf( latencies.get( operation ) );
+            if (opLatencies.isEmpty()) {
+                continue;
+            }
+            long opErrors = errors.get( operation ).get();
+            summaries.add( summarize( operation.key(), opLatencies, opErrors, elapsed ) );
+            all.addAll( opLatencies );
+            allErrors += opErrors;
+        }
+        if (!all.isEmpty()) {
+            summaries.add( summarize( "all", all, allErrors, elapsed ) );
+        }
+        return summaries;
+    }
+
+    static void writeCsv(List<Summary> summaries, Path file) {
+        List<String> lines = new ArrayList<>();
+        lines.add( Summary.CSV_HEADER );
+        summaries.stream().map( Summary::toCsv ).forEach( lines::add );
+        try {
+            Files.createDirectories( file.toAbsolutePath().getParent() );
+            Files.write( file, lines );
+        } catch (IOException e) {
+            throw new UncheckedIOException( "Failed writing load report to " + file, e );
+        }
+    }
+
+    private static Summary summarize(String operation, List<Long> nanos, long errors, Duration elapsed) {
+        long[] sorted = nanos.stream().mapToLong( Long::longValue ).sorted().toArray();
+        double seconds = elapsed.toNanos() / 1e9;
+        return new Summary( operation, sorted.length, errors, percentile( sorted, 0.50 ) / 1e6,
+                percentile( sorted, 0.99 ) / 1e6, sorted[sorted.length - 1] / 1e6, sorted.length / seconds );
+    }
+
+    // nearest rank
+    static long percentile(long[] sorted, double percentile) {
+        int rank = (int) Math.ceil( percentile * sorted.length );
+        return sorted[Math.max( 0, rank - 1 )];
+    }
+}
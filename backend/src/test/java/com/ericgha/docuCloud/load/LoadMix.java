@@ -0,0 +1,96 @@
+package com.ericgha.docuCloud.load;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.random.RandomGenerator;
+
+/**
+ * Relative weights of the operations driven by {@link DocumentLoadTest}, parsed from e.g.
+ * {@code ls=40,versionsFirst=20,createFile=10,cp=10,mv=10,rm=10}.  Operations which are not listed are not run.
+ */
+class LoadMix {
+
+    enum Operation {
+        LS( "ls" ),
+        VERSIONS_FIRST( "versionsFirst" ),
+        CREATE_FILE( "createFile" ),
+        CP( "cp" ),
+        MV( "mv" ),
+        RM( "rm" );
+
+        private final String key;
+
+        Operation(String key) {
+            this.key = key;
+        }
+
+        String key() {
+            return key;
+        }
+
+        static Operation fromKey(String key) throws IllegalArgumentException {
+            return Arrays.stream( values() )
+                    .filter( operation -> operation.key.equals( key ) )
+                    .findFirst()
+                    .orElseThrow( () -> new IllegalArgumentException( "Unrecognized operation: " + key ) );
+        }
+    }
+
+    private final Map<Operation, Integer> weights;
+    private final Operation[] operations;
+    // cumulative weights, in the order of operations
+    private final int[] cumulative;
+
+    private LoadMix(Map<Operation, Integer> weights) {
+        this.weights = Collections.unmodifiableMap( weights );
+        this.operations = weights.keySet().toArray( new Operation[0] );
+        this.cumulative = new int[operations.length];
+        int sum = 0;
+        for (int i = 0; i < operations.length; i++) {
+            sum += weights.get( operations[i] );
+            cumulative[i] = sum;
+        }
+    }
+
+    static LoadMix parse(String mix) throws IllegalArgumentException {
+        Map<Operation, Integer> weights = new EnumMap<>( Operation.class );
+        for (String entry : mix.split( "," )) {
+            String[] keyAndWeight = entry.trim().split( "=" );
+            if (keyAndWeight.length != 2) {
+                throw new IllegalArgumentException( "Expected operation=weight, received: " + entry );
+            }
+            int weight = Integer.parseInt( keyAndWeight[1].trim() );
+            if (weight < 0) {
+                throw new IllegalArgumentException( "Weight must be non-negative, received: " + entry );
+            }
+            if (weight > 0 && weights.put( Operation.fromKey( keyAndWeight[0].trim() ), weight ) != null) {
+                throw new IllegalArgumentException( "Duplicate operation: " + entry );
+            }
+        }
+        if (weights.isEmpty()) {
+            throw new IllegalArgumentException( "Mix has no operations: " + mix );
+        }
+        return new LoadMix( weights );
+    }
+
+    Map<Operation, Integer> weights() {
+        return weights;
+    }
+
+    Operation next(RandomGenerator random) {
+        int pick = random.nextInt( cumulative[cumulative.length - 1] );
+        for (int i = 0; i < cumulative.length; i++) {
+            if (pick < cumulative[i]) {
+                return operations[i];
+            }
+        }
+        throw new IllegalStateException( "Unreachable" );
+    }
+
+    @Override
+    public String toString() {
+        return weights.toString();
+    }
+}
@@ -0,0 +1,56 @@
+package com.ericgha.docuCloud.load;
+
+import com.ericgha.docuCloud.load.LoadMix.Operation;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class LoadMixTest {
+
+    @Test
+    @DisplayName("parse reads weights and skips zero weights")
+    void parseReadsWeights() {
+        LoadMix mix = LoadMix.parse( "ls=3, versionsFirst=1,rm=0" );
+        assertEquals( Map.of( Operation.LS, 3, Operation.VERSIONS_FIRST, 1 ), mix.weights() );
+    }
+
+    @Test
+    @DisplayName("parse throws on unknown, duplicate or malformed entries and an empty mix")
+    void parseThrowsOnInvalidMix() {
+        assertThrows( IllegalArgumentException.class, () -> LoadMix.parse( "ls=1,touch=1" ) );
+        assertThrows( IllegalArgumentException.class, () -> LoadMix.parse( "ls=1,ls=2" ) );
+        assertThrows( IllegalArgumentException.class, () -> LoadMix.parse( "ls" ) );
+        assertThrows( IllegalArgumentException.class, () -> LoadMix.parse( "ls=-1" ) );
+        assertThrows( IllegalArgumentException.class, () -> LoadMix.parse( "ls=0" ) );
+    }
+
+    @Test
+    @DisplayName("next picks operations in proportion to their weights")
+    void nextFollowsWeights() {
+        LoadMix mix = LoadMix.parse( "ls=3,cp=1" );
+        SplittableRandom random = new SplittableRandom( 0 );
+        Map<Operation, Integer> counts = new EnumMap<>( Operation.class );
+        for (int i = 0; i < 40_000; i++) {
+            counts.merge( mix.next( random ), 1, Integer::sum );
+        }
+        assertEquals( 30_000, counts.get( Operation.LS ), 600 );
+        assertEquals( 10_000, counts.get( Operation.CP ), 600 );
+        assertFalse( counts.containsKey( Operation.RM ) );
+    }
+
+    @Test
+    @DisplayName("percentile is the nearest rank")
+    void percentileIsNearestRank() {
+        long[] sorted = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+        assertEquals( 5, LatencyRecorder.percentile( sorted, 0.50 ) );
+        assertEquals( 10, LatencyRecorder.percentile( sorted, 0.99 ) );
+        assertEquals( 7, LatencyRecorder.percentile( new long[]{7}, 0.50 ) );
+    }
+}
@@ -0,0 +1,101 @@
+package com.ericgha.docuCloud.load;
+
+import com.ericgha.docuCloud.dto.CloudUser;
+import com.ericgha.docuCloud.dto.TreeAndFileView;
+import com.ericgha.docuCloud.dto.TreeDto;
+import com.ericgha.docuCloud.repository.testtool.file.RandomFileGenerator;
+import com.ericgha.docuCloud.repository.testtool.file.RandomFileGenerator.FileDtoAndData;
+import com.ericgha.docuCloud.service.DocumentService;
+import org.jooq.postgres.extensions.types.Ltree;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.ericgha.docuCloud.jooq.enums.ObjectType.DIR;
+import static com.ericgha.docuCloud.jooq.enums.ObjectType.FILE;
+
+/**
+ * Seeds the tree and files of a load test user through the {@link DocumentService}, so files are stored in the file
+ * store as they would be by clients.  Each user gets
+ * <ul>
+ *     <li>a chain of nested dirs {@code d0}, {@code d0.d1}... each with files of many versions</li>
+ *     <li>a single wide dir with many files of one version</li>
+ * </ul>
+ */
+class LoadSeeder {
+
+    // uploads in flight while seeding
+    private static final int SEED_CONCURRENCY = 8;
+
+    /**
+     * @param chain     nested dirs, shallowest first
+     * @param wideDir   dir with {@link LoadSettings#wideDirFiles()} files
+     * @param versioned files in the chain
+     */
+    record SeededUser(CloudUser user, List<TreeDto> chain, TreeDto wideDir, List<TreeDto> versioned) {
+
+        List<TreeDto> dirs() {
+            List<TreeDto> dirs = new ArrayList<>( chain );
+            dirs.add( wideDir );
+            return dirs;
+        }
+    }
+
+    private final DocumentService documentService;
+    private final LoadSettings settings;
+    private final RandomFileGenerator randomFileGenerator = new RandomFileGenerator();
+
+    LoadSeeder(DocumentService documentService, LoadSettings settings) {
+        this.documentService = documentService;
+        this.settings = settings;
+    }
+
+    SeededUser seed(CloudUser user) {
+        documentService.createRoot( user ).block();
+        List<TreeDto> chain = new ArrayList<>();
+        List<TreeDto> versioned = new ArrayList<>();
+        String path = "";
+        for (int level = 0; level < settings.depth(); level++) {
+            path = level == 0 ? "d0" : path + ".d" + level;
+            chain.add( this.createDir( path, user ) );
+            String dirPath = path;
+            Flux.range( 0, settings.filesPerDir() )
+                    .flatMap( i -> this.createFile( dirPath + ".f" + i, settings.versionsPerFile(), user ), SEED_CONCURRENCY )
+                    .doOnNext( versioned::add )
+                    .blockLast();
+        }
+        TreeDto wideDir = this.createDir( "wide", user );
+        Flux.range( 0, settings.wideDirFiles() )
+                .flatMap( i -> this.createFile( "wide.f" + i, 1, user ), SEED_CONCURRENCY )
+                .blockLast();
+        return new SeededUser( user, List.copyOf( chain ), wideDir, List.copyOf( versioned ) );
+    }
+
+    TreeDto createDir(String path, CloudUser user) {
+        TreeDto dir = TreeDto.builder().objectType( DIR ).path( Ltree.valueOf( path ) ).build();
+        return documentService.createDir( dir, user ).block();
+    }
+
+    // emits the created file object after all versions are added
+    private Mono<TreeDto> createFile(String path, int versions, CloudUser user) {
+        TreeDto file = TreeDto.builder().objectType( FILE ).path( Ltree.valueOf( path ) ).build();
+        return Mono.defer( () -> {
+                    FileDtoAndData first = this.generate();
+                    return documentService.createFile( file, first.fileDto(), first.data(), user );
+                } )
+                .map( TreeAndFileView::treeDto )
+                .flatMap( created -> Flux.range( 1, versions - 1 )
+                        .concatMap( i -> Mono.defer( () -> {
+                            FileDtoAndData next = this.generate();
+                            return documentService.addFileVersion( created, next.fileDto(), next.data(), user );
+                        } ) )
+                        .then( Mono.just( created ) ) );
+    }
+
+    // the generator is not thread safe, uploads complete on different threads
+    private synchronized FileDtoAndData generate() {
+        return randomFileGenerator.generate();
+    }
+}
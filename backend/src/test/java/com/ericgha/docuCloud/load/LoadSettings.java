@@ -0,0 +1,51 @@
+package com.ericgha.docuCloud.load;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Settings of a {@link DocumentLoadTest} run, read from {@code load.*} system properties.  {@code ./gradlew loadTest}
+ * passes project properties through, e.g. {@code ./gradlew loadTest -Pload.concurrency=32 -Pload.duration=PT5M}.
+ *
+ * @param users           users seeded and driven, workers are assigned to users round robin
+ * @param depth           depth of the chain of nested dirs seeded for each user
+ * @param filesPerDir     files seeded in each dir of the chain
+ * @param versionsPerFile versions of each file in the chain
+ * @param wideDirFiles    files (of one version) seeded in a single dir of each user
+ * @param concurrency     workers, each sends its next request when the previous completed
+ * @param warmup          requests are sent but not recorded
+ * @param duration        requests are recorded, after the warmup
+ * @param mix             see {@link LoadMix#parse(String)}
+ * @param report          CSV summary is written here
+ */
+record LoadSettings(int users, int depth, int filesPerDir, int versionsPerFile, int wideDirFiles, int concurrency,
+                    Duration warmup, Duration duration, LoadMix mix, Path report) {
+
+    static final String PREFIX = "load.";
+
+    static LoadSettings fromSystemProperties() {
+        return new LoadSettings(
+                intProperty( "users", 2 ),
+                intProperty( "depth", 6 ),
+                intProperty( "filesPerDir", 3 ),
+                intProperty( "versionsPerFile", 10 ),
+                intProperty( "wideDirFiles", 500 ),
+                intProperty( "concurrency", 8 ),
+                Duration.parse( property( "warmup", "PT10S" ) ),
+                Duration.parse( property( "duration", "PT60S" ) ),
+                LoadMix.parse( property( "mix", "ls=40,versionsFirst=20,createFile=10,cp=10,mv=10,rm=10" ) ),
+                Path.of( property( "report", "build/reports/load/results.csv" ) ) );
+    }
+
+    private static String property(String key, String defaultValue) {
+        return System.getProperty( PREFIX + key, defaultValue );
+    }
+
+    private static int intProperty(String key, int defaultValue) {
+        int value = Integer.parseInt( property( key, Integer.toString( defaultValue ) ) );
+        if (value < 1) {
+            throw new IllegalArgumentException( PREFIX + key + " must be positive, received: " + value );
+        }
+        return value;
+    }
+}
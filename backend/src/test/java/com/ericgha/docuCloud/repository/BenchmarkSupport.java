@@ -0,0 +1,86 @@
+package com.ericgha.docuCloud.repository;
+
+import com.ericgha.docuCloud.dto.CloudUser;
+import org.jooq.DSLContext;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * The user, schema reset, seeding and timing shared by the {@code *Benchmark} classes, including those of other
+ * packages and of the jmh source set.  Seeding is done in plain SQL with {@code generate_series} as inserting tens of
+ * thousands of objects through the repositories would dominate the benchmark run time.
+ */
+public class BenchmarkSupport {
+
+    static final int WARMUP_ITERATIONS = 3;
+    static final int MEASURED_ITERATIONS = 10;
+
+    /**
+     * Owner of every object created by a benchmark.
+     */
+    public static final CloudUser BENCHMARK_USER = CloudUser.builder()
+            .userId( UUID.fromString( "1234567-89ab-cdef-fedc-ba9876543210" ) )
+            .username( "benchmarker" )
+            .realm( "cloud9" ).build();
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * Drops and recreates every table with {@code tests-schema.sql}.
+     */
+    public static void resetSchema(DSLContext dsl) throws URISyntaxException, IOException {
+        Path schemaFile = Paths.get( BenchmarkSupport.class.getClassLoader().getResource( "tests-schema.sql" ).toURI() );
+        Mono.from( dsl.query( Files.readString( schemaFile ) ) ).block();
+    }
+
+    /**
+     * Inserts a ROOT (if {@code dirPath} is the ROOT path) or a DIR, {@code numChildren} FILEs below it named
+     * {@code f1...fn} and {@code versionsPerFile} file versions linked to each FILE.  The parents of a DIR must already
+     * exist.
+     */
+    static void seedFlatDir(DSLContext dsl, UUID userId, String dirPath, int numChildren, int versionsPerFile) {
+        String prefix = dirPath.isEmpty() ? "" : dirPath + ".";
+        String objectType = dirPath.isEmpty() ? "ROOT" : "DIR";
+        String sql = """
+                INSERT INTO tree (object_type, path, user_id) VALUES ('%5$s', '%2$s', '%1$s');
+                INSERT INTO tree (object_type, path, user_id)
+                    SELECT 'FILE', ('%3$s' || 'f' || i)::ltree, '%1$s' FROM generate_series(1, %4$d) i;
+                WITH files AS MATERIALIZED (
+                    INSERT INTO file (checksum, size, user_id)
+                        SELECT md5(random()::text), 1024, '%1$s' FROM generate_series(1, %4$d * %6$d)
+                    RETURNING file_id
+                ), numbered_files AS (
+                    SELECT file_id, (row_number() OVER () - 1) / %6$d + 1 AS i FROM files
+                )
+                INSERT INTO tree_join_file (object_id, file_id)
+                    SELECT tree.object_id, numbered_files.file_id
+                    FROM numbered_files JOIN tree ON tree.path = ('%3$s' || 'f' || numbered_files.i)::ltree
+                    WHERE tree.user_id = '%1$s';
+                """.formatted( userId, dirPath, prefix, numChildren, objectType, versionsPerFile );
+        Mono.from( dsl.query( sql ) ).block();
+    }
+
+    // mean nanos per invocation
+    static long time(Supplier<?> operation) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            operation.get();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            operation.get();
+        }
+        return ( System.nanoTime() - start ) / MEASURED_ITERATIONS;
+    }
+
+    static void report(String operation, String variant, int size, long nanosPerOp) {
+        System.out.printf( "%-16s %-16s n: %7d  %12.3f ms/op%n", operation, variant, size, nanosPerOp / 1e6 );
+    }
+}
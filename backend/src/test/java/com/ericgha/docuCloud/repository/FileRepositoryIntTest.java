@@ -257,6 +257,142 @@ class FileRepositoryIntTest {
         TestFileAssertion.assertNoChanges( files1 );
     }
 
+    @Test
+    @DisplayName("rmEdgesFromAll deletes all edges from provided objects and returns only file_ids of orphans")
+    void rmEdgesFromAllDeletesEdgesAndReturnsOrphans() {
+        files0.insertFileViewRecord( "fileObj2", "fileRes0" );
+        /* Current state:
+            fileObj0, fileRes0
+            dir0.fileObj1, fileRes0
+            fileObj2, fileRes0
+            fileObj2, fileRes1
+         */
+        String expectedState = """
+                # deleted: fileObj0, fileRes0
+                dir0.fileObj1, fileRes0
+                # deleted: fileObj2, fileRes0
+                # deleted: fileObj2, fileRes1
+                """;
+        List<UUID> objectIds = List.of( tree0.getOrigRecord( "fileObj0" ).getObjectId(),
+                tree0.getOrigRecord( "fileObj2" ).getObjectId() );
+        UUID fileRes1Id = files0.getOrigFileFor( "fileRes1" ).getFileId();
+        StepVerifier.create( fileRepository.rmEdgesFromAll( objectIds, user0 ) )
+                .expectNext( fileRes1Id )
+                .verifyComplete();
+        TestFileAssertion.assertRepositoryState( files0, expectedState );
+        TestFileAssertion.assertNoChangesFor( files0, expectedState );
+        TestFileAssertion.assertNoChanges( files1 );
+    }
+
+    @Test
+    @DisplayName("rmEdgesFromAll deletes a file when all of its edges are deleted in the same call")
+    void rmEdgesFromAllDeletesFileWhenAllEdgesDeletedTogether() {
+        String expectedState = """
+                # deleted: fileObj0, fileRes0
+                # deleted: dir0.fileObj1, fileRes0
+                fileObj2, fileRes1
+                """;
+        List<UUID> objectIds = List.of( tree0.getOrigRecord( "fileObj0" ).getObjectId(),
+                tree0.getOrigRecord( "dir0.fileObj1" ).getObjectId() );
+        UUID fileRes0Id = files0.getOrigFileFor( "fileRes0" ).getFileId();
+        StepVerifier.create( fileRepository.rmEdgesFromAll( objectIds, user0 ) )
+                .expectNext( fileRes0Id )
+                .verifyComplete();
+        TestFileAssertion.assertRepositoryState( files0, expectedState );
+        TestFileAssertion.assertNoChangesFor( files0, expectedState );
+        TestFileAssertion.assertNoChanges( files1 );
+    }
+
+    @Test
+    @DisplayName("rmEdgesFromAll does not modify another user's files")
+    void rmEdgesFromAllIgnoresOtherUsersObjects() {
+        // notice tree1, not user0's objects
+        List<UUID> objectIds = List.of( tree1.getOrigRecord( "fileObj2" ).getObjectId() );
+        StepVerifier.create( fileRepository.rmEdgesFromAll( objectIds, user0 ) )
+                .verifyComplete();
+        TestFileAssertion.assertNoChanges( files0 );
+        TestFileAssertion.assertNoChanges( files1 );
+    }
+
+    @Test
+    @DisplayName("findFile returns the user's file with the same checksum and size")
+    void findFileReturnsMatchingFile() {
+        FileDto fileRes1 = files0.getOrigFileFor( "fileRes1" );
+        FileDto query = FileDto.builder().checksum( fileRes1.getChecksum() ).size( fileRes1.getSize() ).build();
+        StepVerifier.create( fileRepository.findFile( query, user0 ) )
+                .expectNext( fileRes1 )
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("findFile returns empty when the size differs")
+    void findFileReturnsEmptyWhenSizeDiffers() {
+        FileDto fileRes1 = files0.getOrigFileFor( "fileRes1" );
+        FileDto query = FileDto.builder().checksum( fileRes1.getChecksum() ).size( fileRes1.getSize() + 1 ).build();
+        StepVerifier.create( fileRepository.findFile( query, user0 ) )
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("findFile does not return another user's file")
+    void findFileIgnoresOtherUsersFiles() {
+        CloudUser user2 = CloudUser.builder()
+                .userId( UUID.randomUUID() )
+                .username( "unitTester" )
+                .realm( "cloud9" ).build();
+        FileDto fileRes1 = files0.getOrigFileFor( "fileRes1" );
+        FileDto query = FileDto.builder().checksum( fileRes1.getChecksum() ).size( fileRes1.getSize() ).build();
+        StepVerifier.create( fileRepository.findFile( query, user2 ) )
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("linkFile links an existing file to an object and returns the version")
+    void linkFileCreatesEdge() {
+        String expectedState = """
+                fileObj0, fileRes0
+                dir0.fileObj1, fileRes0
+                fileObj2, fileRes1
+                # new Link
+                dir0.fileObj3, fileRes1
+                """;
+        TreeDto objToLink = tree0.getOrigRecord( "dir0.fileObj3" );
+        FileDto fileRes1 = files0.getOrigFileFor( "fileRes1" );
+        StepVerifier.create( fileRepository.linkFile( objToLink, fileRes1, user0 ) )
+                .assertNext( record -> {
+                    assertEquals( objToLink.getObjectId(), record.getObjectId() );
+                    assertEquals( fileRes1.getFileId(), record.getFileId() );
+                    assertEquals( fileRes1.getUploadedAt(), record.getUploadedAt() );
+                    assertPastDateTimeWithinLast( record.getLinkedAt(), Duration.ofSeconds( 1 ) );
+                } )
+                .verifyComplete();
+        TestFileAssertion.assertRepositoryState( files0, expectedState );
+        TestFileAssertion.assertNoChangesFor( files0, FILE_FACTORY_CSV );
+        TestFileAssertion.assertNoChanges( files1 );
+    }
+
+    @Test
+    @DisplayName("linkFile updates linked_at when the file is already linked to the object")
+    void linkFileRelinksExistingEdge() {
+        FileViewDto existing = files0.getOrigFileViewFor( "fileObj2", "fileRes1" );
+        TreeDto fileObj2 = tree0.getOrigRecord( "fileObj2" );
+        StepVerifier.create( fileRepository.linkFile( fileObj2, files0.getOrigFileFor( "fileRes1" ), user0 ) )
+                .assertNext( record -> assertTrue( record.getLinkedAt().isAfter( existing.getLinkedAt() ) ) )
+                .verifyComplete();
+        TestFileAssertion.assertRepositoryState( files0, FILE_FACTORY_CSV );
+        TestFileAssertion.assertNoChanges( files1 );
+    }
+
+    @Test
+    @DisplayName("linkFile does not link another user's file")
+    void linkFileIgnoresOtherUsersFiles() {
+        TreeDto objToLink = tree0.getOrigRecord( "dir0.fileObj3" );
+        StepVerifier.create( fileRepository.linkFile( objToLink, files1.getOrigFileFor( "fileRes1" ), user0 ) )
+                .verifyComplete();
+        TestFileAssertion.assertNoChanges( files0 );
+        TestFileAssertion.assertNoChanges( files1 );
+    }
+
     @Test
     @DisplayName( "cpNewestFile createsEdge between newest file linked to source and destination" )
     void cpNewestFileCreatesExpectedEdge() {
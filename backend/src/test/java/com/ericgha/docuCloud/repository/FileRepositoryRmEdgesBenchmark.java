@@ -0,0 +1,86 @@
+package com.ericgha.docuCloud.repository;
+
+import com.ericgha.docuCloud.dto.CloudUser;
+import com.ericgha.docuCloud.dto.TreeDto;
+import com.ericgha.docuCloud.testconainer.EnablePostgresTestContainerContextCustomizerFactory.EnablePostgresTestContainer;
+import org.jooq.DSLContext;
+import org.jooq.postgres.extensions.types.Ltree;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Function;
+
+import static com.ericgha.docuCloud.jooq.Tables.TREE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares removing the edges of a recursively deleted directory one object at a time
+ * ({@link FileRepository#rmEdgesFrom}, which calls {@code file_view_del} per edge) against the set based
+ * {@link FileRepository#rmEdgesFromAll}.  As deletes are destructive each variant is timed once on a freshly seeded
+ * directory.  Run with {@code ./gradlew benchmark}.
+ */
+@SpringBootTest
+@EnablePostgresTestContainer
+@Tag("benchmark")
+class FileRepositoryRmEdgesBenchmark {
+
+    @Autowired
+    TreeRepository treeRepository;
+
+    @Autowired
+    FileRepository fileRepository;
+
+    @Autowired
+    TransactionalOperator txrx;
+
+    @Autowired
+    DSLContext dsl;
+
+    CloudUser user0 = BenchmarkSupport.BENCHMARK_USER;
+
+    @ParameterizedTest(name = "{0} files")
+    @ValueSource(ints = {1_000, 10_000, 100_000})
+    @DisplayName("rm -r: per object file_view_del vs single set based statement")
+    void rmDirRecursive(int numFiles) throws URISyntaxException, IOException {
+        long perObjectNanos = timeRmDir( numFiles, objectIds -> Flux.fromIterable( objectIds )
+                .concatMap( objectId -> fileRepository.rmEdgesFrom( objectId, user0 ) )
+                .filter( record2 -> record2.get( "orphan", Boolean.class ) )
+                .count() );
+        long setBasedNanos = timeRmDir( numFiles, objectIds -> fileRepository.rmEdgesFromAll( objectIds, user0 )
+                .count() );
+        BenchmarkSupport.report( "rm -r", "per object", numFiles, perObjectNanos );
+        BenchmarkSupport.report( "rm -r", "set based", numFiles, setBasedNanos );
+    }
+
+    // Seeds dir "d" with numFiles FILEs, each with a single version, and times its removal in one transaction
+    private long timeRmDir(int numFiles, Function<List<UUID>, Mono<Long>> rmEdges) throws URISyntaxException, IOException {
+        BenchmarkSupport.resetSchema( dsl );
+        BenchmarkSupport.seedFlatDir( dsl, user0.getUserId(), "", 0, 1 );
+        BenchmarkSupport.seedFlatDir( dsl, user0.getUserId(), "d", numFiles, 1 );
+        TreeDto dir = Flux.from( dsl.selectFrom( TREE ).where( TREE.USER_ID.eq( user0.getUserId() )
+                        .and( TREE.PATH.eq( Ltree.valueOf( "d" ) ) ) ) )
+                .map( TreeDto::fromRecord )
+                .blockFirst();
+        long start = System.nanoTime();
+        Long numOrphans = treeRepository.rmDirRecursive( dir, user0 )
+                .map( TreeDto::getObjectId )
+                .collectList()
+                .flatMap( rmEdges )
+                .as( txrx::transactional )
+                .block();
+        long elapsed = System.nanoTime() - start;
+        assertEquals( numFiles, numOrphans.intValue() );
+        return elapsed;
+    }
+}
@@ -0,0 +1,161 @@
+package com.ericgha.docuCloud.repository;
+
+import com.ericgha.docuCloud.dto.CloudUser;
+import com.ericgha.docuCloud.jooq.tables.records.PendingBlobDeleteRecord;
+import com.ericgha.docuCloud.repository.testtool.file.TestFiles;
+import com.ericgha.docuCloud.repository.testtool.file.TestFilesFactory;
+import com.ericgha.docuCloud.repository.testtool.tree.TestFileTree;
+import com.ericgha.docuCloud.repository.testtool.tree.TestFileTreeFactory;
+import com.ericgha.docuCloud.testconainer.EnablePostgresTestContainerContextCustomizerFactory.EnablePostgresTestContainer;
+import org.jooq.DSLContext;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+@EnablePostgresTestContainer
+public class PendingBlobDeleteRepositoryIntTest {
+
+    @Autowired
+    PendingBlobDeleteRepository pendingBlobDeleteRepository;
+
+    @Autowired
+    FileRepository fileRepository;
+
+    @Autowired
+    DSLContext dsl;
+
+    @Autowired
+    private TestFileTreeFactory treeFactory;
+
+    @Autowired
+    private TestFilesFactory fileFactory;
+
+    private final CloudUser user0 = CloudUser.builder()
+            .userId( UUID.fromString( "1234567-89ab-cdef-fedc-ba9876543210" ) )
+            .username( "unitTester" )
+            .realm( "cloud9" ).build();
+
+    private static final String TREE_FACTORY_CSV = """
+            ROOT, ""
+            FILE, "fileObj0"
+            FILE, "fileObj1"
+            """;
+
+    private static final String FILE_FACTORY_CSV = """
+            fileObj0, fileRes0
+            fileObj0, fileRes1
+            fileObj1, fileRes1
+            fileObj1, fileRes2
+            """;
+
+    private TestFileTree tree0;
+    private TestFiles files0;
+
+    @BeforeEach
+    void before() throws URISyntaxException, IOException {
+        // testcontainers cannot reliably run complex init scrips (ie with declared functions)
+        // testcontainers/testcontainers-java issue #2814
+        Path schemaFile = Paths.get( this.getClass().getClassLoader().getResource( "tests-schema.sql" ).toURI() );
+        String sql = Files.readString( schemaFile );
+        Mono.from( dsl.query( sql ) ).block();
+        tree0 = treeFactory.constructFromCsv( TREE_FACTORY_CSV, user0 );
+        files0 = fileFactory.constructFromCsv( FILE_FACTORY_CSV, tree0 );
+    }
+
+    // deletes fileObj0's edges; fileRes0 becomes an orphan, fileRes1 is still linked to fileObj1
+    private void rmFileObj0Edges() {
+        fileRepository.rmEdgesFromAll( List.of( tree0.getOrigRecord( "fileObj0" ).getObjectId() ), user0 )
+                .blockLast();
+    }
+
+    @Test
+    @DisplayName("Deleting a file enqueues it, deleting only an edge does not")
+    void fileDeleteEnqueuesFile() {
+        rmFileObj0Edges();
+        UUID fileRes0Id = files0.getOrigFileFor( "fileRes0" ).getFileId();
+        StepVerifier.create( pendingBlobDeleteRepository.lease( 10, Duration.ofMinutes( 1 ) ) )
+                .assertNext( leased -> {
+                    assertEquals( fileRes0Id, leased.getFileId() );
+                    assertEquals( user0.getUserId(), leased.getUserId() );
+                    assertEquals( 1, leased.getAttempts() );
+                } )
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("Leased rows are not leased again until the lease expires")
+    void leaseSkipsLeasedRows() {
+        fileRepository.rmEdgesFromAll( List.of( tree0.getOrigRecord( "fileObj0" ).getObjectId(),
+                tree0.getOrigRecord( "fileObj1" ).getObjectId() ), user0 ).blockLast();
+        Set<UUID> first = pendingBlobDeleteRepository.lease( 2, Duration.ofMinutes( 1 ) )
+                .map( PendingBlobDeleteRecord::getFileId )
+                .collect( Collectors.toSet() ).block();
+        Set<UUID> second = pendingBlobDeleteRepository.lease( 2, Duration.ofMinutes( 1 ) )
+                .map( PendingBlobDeleteRecord::getFileId )
+                .collect( Collectors.toSet() ).block();
+        assertEquals( 2, first.size() );
+        assertEquals( 1, second.size() );
+        assertTrue( second.stream().noneMatch( first::contains ) );
+        // every lease is active
+        StepVerifier.create( pendingBlobDeleteRepository.lease( 2, Duration.ofMinutes( 1 ) ) )
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("Rows with an expired lease are leased again")
+    void leaseReleasesExpiredLeases() {
+        rmFileObj0Edges();
+        pendingBlobDeleteRepository.lease( 10, Duration.ZERO ).blockLast();
+        StepVerifier.create( pendingBlobDeleteRepository.lease( 10, Duration.ofMinutes( 1 ) ) )
+                .assertNext( leased -> assertEquals( 2, leased.getAttempts() ) )
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("Rows leased maxAttempts times are parked")
+    void leaseParksRowsAtMaxAttempts() {
+        rmFileObj0Edges();
+        pendingBlobDeleteRepository.lease( 10, Duration.ZERO, 2 ).blockLast();
+        pendingBlobDeleteRepository.lease( 10, Duration.ZERO, 2 ).blockLast();
+        StepVerifier.create( pendingBlobDeleteRepository.lease( 10, Duration.ofMinutes( 1 ), 2 ) )
+                .verifyComplete();
+        StepVerifier.create( pendingBlobDeleteRepository.countParked( 2 ) )
+                .expectNext( 1L )
+                .verifyComplete();
+        StepVerifier.create( pendingBlobDeleteRepository.countPending() )
+                .expectNext( 1L )
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("remove deletes rows")
+    void removeDeletesRows() {
+        rmFileObj0Edges();
+        UUID fileRes0Id = files0.getOrigFileFor( "fileRes0" ).getFileId();
+        StepVerifier.create( pendingBlobDeleteRepository.remove( List.of( fileRes0Id ) ) )
+                .expectNext( 1L )
+                .verifyComplete();
+        StepVerifier.create( pendingBlobDeleteRepository.countPending() )
+                .expectNext( 0L )
+                .verifyComplete();
+    }
+}
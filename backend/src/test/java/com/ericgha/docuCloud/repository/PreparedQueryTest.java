@@ -0,0 +1,85 @@
+package com.ericgha.docuCloud.repository;
+
+import com.ericgha.docuCloud.dto.TreeDto;
+import com.ericgha.docuCloud.repository.TreeRepository.SourceShape;
+import org.jooq.Query;
+import org.jooq.postgres.extensions.types.Ltree;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static com.ericgha.docuCloud.jooq.Tables.TREE;
+import static com.ericgha.docuCloud.repository.PreparedQuery.RENDER_DSL;
+import static org.jooq.impl.DSL.inline;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class PreparedQueryTest {
+
+    @Test
+    @DisplayName("toDollarPlaceholders numbers placeholders and skips quoted ?")
+    void toDollarPlaceholdersSkipsQuoted() {
+        String sql = "select \"a?\" from t where x = ? and y = '?''?' and z = ?";
+        assertEquals( "select \"a?\" from t where x = $1 and y = '?''?' and z = $2",
+                PreparedQuery.toDollarPlaceholders( sql, 2 ) );
+    }
+
+    @Test
+    @DisplayName("toDollarPlaceholders throws if placeholders and bind values don't line up")
+    void toDollarPlaceholdersThrowsOnCountMismatch() {
+        assertThrows( IllegalStateException.class, () -> PreparedQuery.toDollarPlaceholders( "select ?", 2 ) );
+    }
+
+    @Test
+    @DisplayName("bindValues replaces sentinels by arguments and keeps fixed values")
+    void bindValuesReplacesSentinels() {
+        UUID userSentinel = PreparedQuery.uuidSentinel();
+        Ltree pathSentinel = PreparedQuery.ltreeSentinel();
+        Query query = RENDER_DSL.selectFrom( TREE )
+                .where( TREE.USER_ID.eq( userSentinel ).and( TREE.PATH.eq( pathSentinel ) ) )
+                .limit( 1 );
+        PreparedQuery prepared = PreparedQuery.of( query, pathSentinel, userSentinel );
+
+        UUID userId = UUID.randomUUID();
+        assertArrayEquals( new Object[]{userId, "dir0.dir1", 1},
+                prepared.bindValues( Ltree.valueOf( "dir0.dir1" ), userId ) );
+        assertEquals( 3, prepared.sql().split( "\\$" ).length - 1 );
+    }
+
+    @Test
+    @DisplayName("of throws if a sentinel is not a bind value")
+    void ofThrowsOnInlinedSentinel() {
+        UUID userSentinel = PreparedQuery.uuidSentinel();
+        Query query = RENDER_DSL.selectFrom( TREE ).where( TREE.USER_ID.eq( inline( userSentinel ) ) );
+        assertThrows( IllegalStateException.class, () -> PreparedQuery.of( query, userSentinel ) );
+    }
+
+    @Test
+    @DisplayName("bindValues throws on a wrong number of arguments or a null argument")
+    void bindValuesValidatesArguments() {
+        UUID userSentinel = PreparedQuery.uuidSentinel();
+        PreparedQuery prepared = PreparedQuery.of(
+                RENDER_DSL.selectFrom( TREE ).where( TREE.USER_ID.eq( userSentinel ) ), userSentinel, null );
+        assertThrows( IllegalArgumentException.class, () -> prepared.bindValues( UUID.randomUUID() ) );
+        assertThrows( NullPointerException.class, () -> prepared.bindValues( null, UUID.randomUUID() ) );
+        // unused arguments may be null
+        assertDoesNotThrow( () -> prepared.bindValues( UUID.randomUUID(), null ) );
+    }
+
+    @Test
+    @DisplayName("repository shapes are prepared without a database")
+    void repositoryShapesPrepare() {
+        assertDoesNotThrow( () -> new TreeRepository( null ) );
+        assertDoesNotThrow( () -> new FileRepository( null ) );
+    }
+
+    @Test
+    @DisplayName("SourceShape.of throws when neither objectId nor path is set")
+    void sourceShapeOfThrowsWithoutIdentifier() {
+        assertEquals( SourceShape.PATH, SourceShape.of( TreeDto.builder().path( Ltree.valueOf( "dir0" ) ).build() ) );
+        assertThrows( IllegalArgumentException.class, () -> SourceShape.of( TreeDto.builder().build() ) );
+    }
+}
@@ -0,0 +1,112 @@
+package com.ericgha.docuCloud.repository;
+
+import com.ericgha.docuCloud.configuration.JooqConfiguration;
+import com.ericgha.docuCloud.dto.CloudUser;
+import com.ericgha.docuCloud.dto.FileDto;
+import com.ericgha.docuCloud.dto.TreeDto;
+import com.ericgha.docuCloud.service.JooqTransaction;
+import org.jooq.DSLContext;
+import org.jooq.QueryPart;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.jooq.postgres.extensions.types.Ltree;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+
+import static com.ericgha.docuCloud.jooq.enums.ObjectType.DIR;
+import static com.ericgha.docuCloud.jooq.enums.ObjectType.FILE;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+/**
+ * Render cost of the main repository queries with and without {@code renderFormatted}.  Queries are captured from the
+ * repositories through a mocked {@link JooqTransaction} and rendered without a database, so only jOOQ's rendering is
+ * measured.  Run with {@code ./gradlew benchmark}.
+ */
+@Tag("benchmark")
+class QueryRenderBenchmark {
+
+    private static final int RENDERS_PER_OP = 1_000;
+
+    private final CloudUser user0 = BenchmarkSupport.BENCHMARK_USER;
+
+    private final TreeDto dir = TreeDto.builder()
+            .objectId( UUID.randomUUID() )
+            .objectType( DIR )
+            .path( Ltree.valueOf( "dir0.dir1" ) ).build();
+
+    private final TreeDto file = TreeDto.builder()
+            .objectId( UUID.randomUUID() )
+            .objectType( FILE )
+            .path( Ltree.valueOf( "dir0.file0" ) ).build();
+
+    private QueryPart captured;
+    private TreeRepository treeRepository;
+    private FileRepository fileRepository;
+
+    private final DSLContext unattached = DSL.using( SQLDialect.POSTGRES );
+
+    @BeforeEach
+    void before() {
+        JooqTransaction jooqTxMock = Mockito.mock( JooqTransaction.class );
+        when( jooqTxMock.withConnection( any() ) ).thenAnswer( invocation -> {
+            Function<DSLContext, Publisher<?>> query = invocation.getArgument( 0 );
+            captured = (QueryPart) query.apply( unattached );
+            return Mono.empty();
+        } );
+        when( jooqTxMock.withConnectionMany( any() ) ).thenAnswer( invocation -> {
+            Function<DSLContext, Publisher<?>> query = invocation.getArgument( 0 );
+            captured = (QueryPart) query.apply( unattached );
+            return Flux.empty();
+        } );
+        treeRepository = new TreeRepository( jooqTxMock );
+        fileRepository = new FileRepository( jooqTxMock );
+    }
+
+    @Test
+    @DisplayName("render: main repository queries, formatted vs single line")
+    void renderQueries() {
+        Map<String, Runnable> queries = new LinkedHashMap<>();
+        queries.put( "create", () -> treeRepository.create( file, user0 ) );
+        // executed as prepared queries, so built directly
+        queries.put( "ls", () -> captured = treeRepository.lsQuery( dir, user0, unattached ) );
+        queries.put( "lsNewestFile", () -> treeRepository.lsWithNewestFile( dir, user0 ) );
+        queries.put( "lsFirstPage", () -> treeRepository.lsFirstPage( dir, 50, user0 ) );
+        queries.put( "mvDir", () -> captured = treeRepository.mvDirQuery( dir, Ltree.valueOf( "dir2" ), user0, unattached ) );
+        queries.put( "cpDirWithFiles", () -> treeRepository.cpDirWithFiles( dir, Ltree.valueOf( "dir2" ), true, user0 ) );
+        queries.put( "createFileFor", () -> fileRepository.createFileFor( file,
+                FileDto.builder().checksum( "checksum" ).size( 1L ).build(), user0 ) );
+        queries.put( "rmEdgesFrom", () -> fileRepository.rmEdgesFrom( file.getObjectId(), user0 ) );
+
+        DSLContext formatted = DSL.using( SQLDialect.POSTGRES, JooqConfiguration.renderSettings( true ) );
+        DSLContext singleLine = DSL.using( SQLDialect.POSTGRES, JooqConfiguration.renderSettings( false ) );
+        queries.forEach( (name, capture) -> {
+            capture.run();
+            QueryPart query = captured;
+            BenchmarkSupport.report( name, "formatted", RENDERS_PER_OP,
+                    BenchmarkSupport.time( () -> renderRepeatedly( formatted, query ) ) );
+            BenchmarkSupport.report( name, "single line", RENDERS_PER_OP,
+                    BenchmarkSupport.time( () -> renderRepeatedly( singleLine, query ) ) );
+        } );
+    }
+
+    // returns the total length, so rendering cannot be optimized away
+    private static long renderRepeatedly(DSLContext dsl, QueryPart query) {
+        long length = 0;
+        for (int i = 0; i < RENDERS_PER_OP; i++) {
+            length += dsl.render( query ).length();
+        }
+        return length;
+    }
+}
@@ -0,0 +1,95 @@
+package com.ericgha.docuCloud.repository;
+
+import com.ericgha.docuCloud.dto.CloudUser;
+import com.ericgha.docuCloud.dto.TreeDto;
+import com.ericgha.docuCloud.testconainer.EnablePostgresTestContainerContextCustomizerFactory.EnablePostgresTestContainer;
+import org.jooq.DSLContext;
+import org.jooq.Record1;
+import org.jooq.postgres.extensions.types.Ltree;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.function.Function;
+
+import static com.ericgha.docuCloud.jooq.Tables.TREE;
+import static com.ericgha.docuCloud.jooq.Tables.TREE_JOIN_FILE;
+import static com.ericgha.docuCloud.jooq.enums.ObjectType.FILE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares copying a directory with {@link TreeRepository#cpDir} followed by a {@link FileRepository#cpAllFiles} or
+ * {@link FileRepository#cpNewestFile} per copied file object against the single statement
+ * {@link TreeRepository#cpDirWithFiles}.  Each variant is timed once on a freshly seeded directory.  Run with
+ * {@code ./gradlew benchmark}.
+ */
+@SpringBootTest
+@EnablePostgresTestContainer
+@Tag("benchmark")
+class TreeRepositoryCpBenchmark {
+
+    private static final int VERSIONS_PER_FILE = 3;
+
+    @Autowired
+    TreeRepository treeRepository;
+
+    @Autowired
+    FileRepository fileRepository;
+
+    @Autowired
+    TransactionalOperator txrx;
+
+    @Autowired
+    DSLContext dsl;
+
+    CloudUser user0 = BenchmarkSupport.BENCHMARK_USER;
+
+    @ParameterizedTest(name = "{0} files")
+    @ValueSource(ints = {100, 1_000, 10_000, 50_000})
+    @DisplayName("cp -r: per file edge copies vs single set based statement")
+    void cpDir(int numFiles) throws URISyntaxException, IOException {
+        for (boolean onlyNewestVer : new boolean[]{true, false}) {
+            String mode = onlyNewestVer ? "newest" : "all";
+            long perFileNanos = timeCpDir( numFiles, onlyNewestVer, dir -> treeRepository.cpDir( dir, Ltree.valueOf( "copy" ), user0 )
+                    .filter( record3 -> record3.get( TREE.OBJECT_TYPE ) == FILE )
+                    .concatMap( record3 -> onlyNewestVer ?
+                            fileRepository.cpNewestFile( record3.value1(), record3.value2(), user0 ) :
+                            fileRepository.cpAllFiles( record3.value1(), record3.value2(), user0 ) )
+                    .then() );
+            long setBasedNanos = timeCpDir( numFiles, onlyNewestVer, dir ->
+                    treeRepository.cpDirWithFiles( dir, Ltree.valueOf( "copy" ), onlyNewestVer, user0 ).then() );
+            BenchmarkSupport.report( "cp -r " + mode, "per file", numFiles, perFileNanos );
+            BenchmarkSupport.report( "cp -r " + mode, "set based", numFiles, setBasedNanos );
+        }
+    }
+
+    // Seeds dir "d" with numFiles FILEs, each with VERSIONS_PER_FILE versions, and times copying it to "copy" in one
+    // transaction
+    private long timeCpDir(int numFiles, boolean onlyNewestVer, Function<TreeDto, Mono<Void>> cp) throws URISyntaxException, IOException {
+        BenchmarkSupport.resetSchema( dsl );
+        BenchmarkSupport.seedFlatDir( dsl, user0.getUserId(), "", 0, 1 );
+        BenchmarkSupport.seedFlatDir( dsl, user0.getUserId(), "d", numFiles, VERSIONS_PER_FILE );
+        TreeDto dir = Mono.from( dsl.selectFrom( TREE ).where( TREE.USER_ID.eq( user0.getUserId() )
+                        .and( TREE.PATH.eq( Ltree.valueOf( "d" ) ) ) ) )
+                .map( TreeDto::fromRecord )
+                .block();
+        long start = System.nanoTime();
+        cp.apply( dir )
+                .as( txrx::transactional )
+                .block();
+        long elapsed = System.nanoTime() - start;
+        int numEdges = Mono.from( dsl.selectCount().from( TREE_JOIN_FILE ) )
+                .map( Record1::value1 )
+                .block();
+        int expectedCopies = onlyNewestVer ? numFiles : numFiles * VERSIONS_PER_FILE;
+        assertEquals( numFiles * VERSIONS_PER_FILE + expectedCopies, numEdges );
+        return elapsed;
+    }
+}
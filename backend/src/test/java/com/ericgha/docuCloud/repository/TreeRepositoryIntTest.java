@@ -1,12 +1,18 @@
 package com.ericgha.docuCloud.repository;
 
 import com.ericgha.docuCloud.dto.CloudUser;
+import com.ericgha.docuCloud.dto.FileDto;
+import com.ericgha.docuCloud.dto.FileViewDto;
+import com.ericgha.docuCloud.dto.TreeAndFileView;
 import com.ericgha.docuCloud.dto.TreeDto;
 import com.ericgha.docuCloud.jooq.enums.ObjectType;
 import com.ericgha.docuCloud.jooq.tables.records.TreeRecord;
+import com.ericgha.docuCloud.repository.testtool.file.TestFiles;
+import com.ericgha.docuCloud.repository.testtool.file.TestFilesFactory;
 import com.ericgha.docuCloud.repository.testtool.tree.TestFileTree;
 import com.ericgha.docuCloud.repository.testtool.tree.TestFileTreeFactory;
 import com.ericgha.docuCloud.testconainer.EnablePostgresTestContainerContextCustomizerFactory.EnablePostgresTestContainer;
+import com.ericgha.docuCloud.util.comparator.FileViewDtoComparators;
 import com.ericgha.docuCloud.util.comparator.TreeDtoComparators;
 import org.jooq.DSLContext;
 import org.jooq.Record1;
@@ -56,6 +62,9 @@ class TreeRepositoryIntTest {
     @Autowired
     TestFileTreeFactory treeFactory;
 
+    @Autowired
+    TestFilesFactory fileFactory;
+
     @Autowired
     DSLContext dsl;
 
@@ -368,6 +377,90 @@ class TreeRepositoryIntTest {
         assertNoChanges( tree1 );
     }
 
+    private static final String CP_TREE_CSV = """
+            ROOT, ""
+            DIR, "dir0"
+            FILE, "dir0.fileObj0"
+            FILE, "dir0.fileObj1"
+            DIR, "dir0.dir1"
+            FILE, "dir0.dir1.fileObj2"
+            """;
+
+    private static final String CP_FILE_CSV = """
+            dir0.fileObj0, fileRes0
+            dir0.fileObj0, fileRes1
+            dir0.fileObj1, fileRes1
+            dir0.dir1.fileObj2, fileRes2
+            dir0.dir1.fileObj2, fileRes3
+            """;
+
+    @Test
+    @DisplayName("cpDirWithFiles copies a dir, its children and all file versions")
+    void cpDirWithFilesCopiesAllVersions() {
+        TestFileTree tree0 = treeFactory.constructFromCsv( CP_TREE_CSV, user0 );
+        TestFiles files0 = fileFactory.constructFromCsv( CP_FILE_CSV, tree0 );
+        TestFileTree tree1 = treeFactory.constructFromCsv( CP_TREE_CSV, user1 );
+        fileFactory.constructFromCsv( CP_FILE_CSV, tree1 );
+
+        StepVerifier.create( treeRepository.cpDirWithFiles( tree0.getOrigRecord( "dir0" ), Ltree.valueOf( "dir100" ),
+                        false, user0 ) )
+                .expectNext( 5L )
+                .verifyComplete();
+        for (String fileObj : List.of( "fileObj0", "fileObj1", "dir1.fileObj2" )) {
+            assertEquals( files0.fetchFileDtosLinkedTo( "dir0." + fileObj ),
+                    files0.fetchFileDtosLinkedTo( "dir100." + fileObj ) );
+        }
+        assertNoChanges( tree1 );
+    }
+
+    @Test
+    @DisplayName("cpDirWithFiles copies only the newest version of each file when onlyNewestVer")
+    void cpDirWithFilesCopiesNewestVersions(@Autowired FileRepository fileRepository) {
+        TestFileTree tree0 = treeFactory.constructFromCsv( CP_TREE_CSV, user0 );
+        TestFiles files0 = fileFactory.constructFromCsv( CP_FILE_CSV, tree0 );
+
+        StepVerifier.create( treeRepository.cpDirWithFiles( tree0.getOrigRecord( "dir0" ), Ltree.valueOf( "dir100" ),
+                        true, user0 ) )
+                .expectNext( 5L )
+                .verifyComplete();
+        for (String fileObj : List.of( "fileObj0", "fileObj1", "dir1.fileObj2" )) {
+            UUID newest = fileRepository.lsNewestFileFor( tree0.getOrigRecord( "dir0." + fileObj ), user0 )
+                    .map( FileViewDto::getFileId )
+                    .block();
+            List<UUID> copied = files0.fetchFileDtosLinkedTo( "dir100." + fileObj ).stream()
+                    .map( FileDto::getFileId )
+                    .toList();
+            assertEquals( List.of( newest ), copied );
+        }
+    }
+
+    @Test
+    @DisplayName("cpFileWithFiles copies a file object and its versions")
+    void cpFileWithFilesCopiesFile() {
+        TestFileTree tree0 = treeFactory.constructFromCsv( CP_TREE_CSV, user0 );
+        TestFiles files0 = fileFactory.constructFromCsv( CP_FILE_CSV, tree0 );
+
+        StepVerifier.create( treeRepository.cpFileWithFiles( tree0.getOrigRecord( "dir0.fileObj0" ),
+                        Ltree.valueOf( "dir0.fileObj100" ), false, user0 ) )
+                .expectNext( 1L )
+                .verifyComplete();
+        assertEquals( files0.fetchFileDtosLinkedTo( "dir0.fileObj0" ),
+                files0.fetchFileDtosLinkedTo( "dir0.fileObj100" ) );
+    }
+
+    @Test
+    @DisplayName("cpDirWithFiles copies nothing from another user")
+    void cpDirWithFilesDoesNotCopyAnotherUsersRecords() {
+        TestFileTree tree0 = treeFactory.constructFromCsv( CP_TREE_CSV, user0 );
+        fileFactory.constructFromCsv( CP_FILE_CSV, tree0 );
+
+        StepVerifier.create( treeRepository.cpDirWithFiles( tree0.getOrigRecord( "dir0" ), Ltree.valueOf( "dir100" ),
+                        false, user1 ) )
+                .expectNext( 0L )
+                .verifyComplete();
+        assertNoChanges( tree0 );
+    }
+
     @Test
     @DisplayName("fetch CopyFileRecords produces the correct record")
     void fetchCopyFileRecordsProducesCorrectRecord() {
@@ -646,4 +739,147 @@ class TreeRepositoryIntTest {
         TreeDto source = tree0.getOrigRecord( "file0" );
         treeRepository.ls( source, user0 ).as( StepVerifier::create ).expectNext( source ).verifyComplete();
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("lsWithNewestFile returns expected files and dirs joined with the newest version of each file")
+    void lsWithNewestFileReturnsExpectedRecords() {
+        TestFileTree tree0 = treeFactory.constructDefault( user0 );
+        // selectivity challenge
+        TestFileTree tree1 = treeFactory.constructDefault( user1 );
+        String filesCsv = """
+                file0, fileRes0
+                file0, fileRes1
+                dir0.dir3.file1, fileRes2
+                """;
+        TestFiles files0 = fileFactory.constructFromCsv( filesCsv, tree0 );
+        fileFactory.constructFromCsv( filesCsv, tree1 );
+        FileViewDto newestFile0 = files0.getOrigFileViewsFor( "file0" ).stream()
+                .max( FileViewDtoComparators.compareByLinkedAtUploadedAtFileId() )
+                .orElseThrow();
+        TreeDto parent = tree0.getOrigRecord( "" );
+        Iterable<TreeAndFileView> expected = List.of(
+                new TreeAndFileView( tree0.getOrigRecord( "" ), null ),
+                new TreeAndFileView( tree0.getOrigRecord( "dir0" ), null ),
+                new TreeAndFileView( tree0.getOrigRecord( "file0" ), newestFile0 ) );
+        StepVerifier.create( treeRepository.lsWithNewestFile( parent, user0 ) )
+                .expectNextSequence( expected ).verifyComplete();
+    }
+
+    @Test
+    @DisplayName("lsWithNewestFile returns a null fileViewDto for a file without versions")
+    void lsWithNewestFileReturnsNullFileViewWhenNoVersions() {
+        TestFileTree tree0 = treeFactory.constructDefault( user0 );
+        TreeDto parent = tree0.getOrigRecord( "dir0.dir3" );
+        Iterable<TreeAndFileView> expected = List.of(
+                new TreeAndFileView( tree0.getOrigRecord( "dir0.dir3" ), null ),
+                new TreeAndFileView( tree0.getOrigRecord( "dir0.dir3.file1" ), null ) );
+        StepVerifier.create( treeRepository.lsWithNewestFile( parent, user0 ) )
+                .expectNextSequence( expected ).verifyComplete();
+    }
+
+    @Test
+    @DisplayName("lsRecursiveWithNewestFile returns source and all descendents joined with the newest version of each file")
+    void lsRecursiveWithNewestFileReturnsExpectedRecords() {
+        TestFileTree tree0 = treeFactory.constructDefault( user0 );
+        // selectivity challenge
+        TestFileTree tree1 = treeFactory.constructDefault( user1 );
+        String filesCsv = """
+                file0, fileRes0
+                dir0.dir3.file1, fileRes1
+                dir0.dir3.file1, fileRes2
+                """;
+        TestFiles files0 = fileFactory.constructFromCsv( filesCsv, tree0 );
+        fileFactory.constructFromCsv( filesCsv, tree1 );
+        FileViewDto newestFile1 = files0.getOrigFileViewsFor( "dir0.dir3.file1" ).stream()
+                .max( FileViewDtoComparators.compareByLinkedAtUploadedAtFileId() )
+                .orElseThrow();
+        TreeDto parent = tree0.getOrigRecord( "dir0" );
+        Iterable<TreeAndFileView> expected = List.of(
+                new TreeAndFileView( tree0.getOrigRecord( "dir0" ), null ),
+                new TreeAndFileView( tree0.getOrigRecord( "dir0.dir1" ), null ),
+                new TreeAndFileView( tree0.getOrigRecord( "dir0.dir1.dir2" ), null ),
+                new TreeAndFileView( tree0.getOrigRecord( "dir0.dir3" ), null ),
+                new TreeAndFileView( tree0.getOrigRecord( "dir0.dir3.file1" ), newestFile1 ) );
+        StepVerifier.create( treeRepository.lsRecursiveWithNewestFile( parent, user0 ) )
+                .expectNextSequence( expected ).verifyComplete();
+    }
+
+    @Test
+    @DisplayName("lsFirstPage and lsNextPage page through only the direct children of the source")
+    void lsPagesThroughChildren() {
+        String treeCsv = """
+                ROOT, ""
+                DIR, "dir0"
+                FILE, "dir0.file0"
+                FILE, "dir0.file1"
+                DIR, "dir0.dir1"
+                FILE, "dir0.dir1.file2"
+                FILE, "dir0.file3"
+                FILE, "file4"
+                """;
+        TestFileTree tree0 = treeFactory.constructFromCsv( treeCsv, user0 );
+        // selectivity challenge
+        treeFactory.constructFromCsv( treeCsv, user1 );
+        TestFiles files0 = fileFactory.constructFromCsv( "dir0.file1, fileRes0", tree0 );
+        TreeDto parent = tree0.getOrigRecord( "dir0" );
+        List<TreeAndFileView> firstPage = List.of(
+                new TreeAndFileView( tree0.getOrigRecord( "dir0.dir1" ), null ),
+                new TreeAndFileView( tree0.getOrigRecord( "dir0.file0" ), null ) );
+        List<TreeAndFileView> secondPage = List.of(
+                new TreeAndFileView( tree0.getOrigRecord( "dir0.file1" ),
+                        files0.getOrigFileViewFor( "dir0.file1", "fileRes0" ) ),
+                new TreeAndFileView( tree0.getOrigRecord( "dir0.file3" ), null ) );
+        StepVerifier.create( treeRepository.lsFirstPage( parent, 2, user0 ) )
+                .expectNextSequence( firstPage ).verifyComplete();
+        StepVerifier.create( treeRepository.lsNextPage( firstPage.get( 1 ).treeDto(), 2, user0 ) )
+                .expectNextSequence( secondPage ).verifyComplete();
+        StepVerifier.create( treeRepository.lsNextPage( secondPage.get( 1 ).treeDto(), 2, user0 ) )
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("lsNextPage seeks from a path when only the path is provided")
+    void lsNextPageFromPathOnly() {
+        TestFileTree tree0 = treeFactory.constructDefault( user0 );
+        TreeDto last = TreeDto.builder().path( Ltree.valueOf( "dir0" ) ).build();
+        StepVerifier.create( treeRepository.lsNextPage( last, 25, user0 ) )
+                .expectNext( new TreeAndFileView( tree0.getOrigRecord( "file0" ), null ) )
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("lsNextPage is empty when the parent of the last path is not a DIR of the user")
+    void lsNextPageEmptyWithoutDirParent() {
+        treeFactory.constructFromCsv( """
+                ROOT, ""
+                FILE, "file0"
+                """, user0 );
+        // children of a FILE can only be inserted directly
+        Mono.from( dsl.insertInto( TREE, TREE.USER_ID, TREE.OBJECT_TYPE, TREE.PATH )
+                .values( user0.getUserId(), ObjectType.FILE, Ltree.valueOf( "file0.file1" ) )
+                .values( user0.getUserId(), ObjectType.FILE, Ltree.valueOf( "file0.file2" ) ) ).block();
+        treeFactory.constructDefault( user1 );
+        StepVerifier.create( treeRepository.lsNextPage( TreeDto.builder().path( Ltree.valueOf( "file0.file1" ) ).build(), 25, user0 ) )
+                .verifyComplete();
+        // dir0 of user1
+        StepVerifier.create( treeRepository.lsNextPage( TreeDto.builder().path( Ltree.valueOf( "dir0.dir1" ) ).build(), 25, user0 ) )
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("lsNextPage throws when the last path is the ROOT path")
+    void lsNextPageThrowsOnRootPath() {
+        TreeDto last = TreeDto.builder().path( Ltree.valueOf( "" ) ).build();
+        assertThrows( IllegalArgumentException.class, () -> treeRepository.lsNextPage( last, 25, user0 ) );
+    }
+
+    @Test
+    @DisplayName("countChildren counts only direct descendents")
+    void countChildrenCountsDirectDescendents() {
+        TestFileTree tree0 = treeFactory.constructDefault( user0 );
+        // selectivity challenge
+        treeFactory.constructDefault( user1 );
+        StepVerifier.create( treeRepository.countChildren( tree0.getOrigRecord( "dir0" ), user0 ) )
+                .expectNext( 2L ).verifyComplete();
+    }
+}
@@ -0,0 +1,79 @@
+package com.ericgha.docuCloud.repository;
+
+import com.ericgha.docuCloud.dto.CloudUser;
+import com.ericgha.docuCloud.dto.TreeAndFileView;
+import com.ericgha.docuCloud.dto.TreeDto;
+import com.ericgha.docuCloud.jooq.enums.ObjectType;
+import com.ericgha.docuCloud.testconainer.EnablePostgresTestContainerContextCustomizerFactory.EnablePostgresTestContainer;
+import org.jooq.DSLContext;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static com.ericgha.docuCloud.jooq.Tables.TREE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares the per-file lookup listing ({@link TreeRepository#ls} followed by
+ * {@link FileRepository#lsNewestFileFor} for each file) against the single query
+ * {@link TreeRepository#lsWithNewestFile}.  Run with {@code ./gradlew benchmark}.
+ */
+@SpringBootTest
+@EnablePostgresTestContainer
+@Tag("benchmark")
+class TreeRepositoryLsBenchmark {
+
+    @Autowired
+    TreeRepository treeRepository;
+
+    @Autowired
+    FileRepository fileRepository;
+
+    @Autowired
+    DSLContext dsl;
+
+    CloudUser user0 = BenchmarkSupport.BENCHMARK_USER;
+
+    @BeforeEach
+    void before() throws URISyntaxException, IOException {
+        BenchmarkSupport.resetSchema( dsl );
+    }
+
+    @ParameterizedTest(name = "{0} children")
+    @ValueSource(ints = {10, 1_000, 50_000})
+    @DisplayName("ls: newest version per file via N+1 lookups vs single lateral join")
+    void lsNewestVersions(int numChildren) {
+        TreeDto root = seedRoot( numChildren );
+        Supplier<List<TreeAndFileView>> nPlusOne = () -> treeRepository.ls( root, user0 )
+                .concatMap( treeDto -> treeDto.getObjectType() == ObjectType.FILE ?
+                        fileRepository.lsNewestFileFor( treeDto, user0 )
+                                .map( fileView -> new TreeAndFileView( treeDto, fileView ) ) :
+                        Mono.just( new TreeAndFileView( treeDto, null ) ) )
+                .collectList().block();
+        Supplier<List<TreeAndFileView>> singleQuery = () -> treeRepository.lsWithNewestFile( root, user0 )
+                .collectList().block();
+        assertEquals( nPlusOne.get(), singleQuery.get() );
+        BenchmarkSupport.report( "ls", "N+1", numChildren, BenchmarkSupport.time( nPlusOne ) );
+        BenchmarkSupport.report( "ls", "lateral join", numChildren, BenchmarkSupport.time( singleQuery ) );
+    }
+
+    // Every child is a FILE with two versions
+    private TreeDto seedRoot(int numChildren) {
+        BenchmarkSupport.seedFlatDir( dsl, user0.getUserId(), "", numChildren, 2 );
+        return Flux.from( dsl.selectFrom( TREE ).where( TREE.USER_ID.eq( user0.getUserId() )
+                        .and( TREE.OBJECT_TYPE.eq( ObjectType.ROOT ) ) ) )
+                .map( TreeDto::fromRecord )
+                .blockFirst();
+    }
+}
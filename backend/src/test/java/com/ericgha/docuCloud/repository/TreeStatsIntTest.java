@@ -0,0 +1,234 @@
+package com.ericgha.docuCloud.repository;
+
+import com.ericgha.docuCloud.converter.FileViewDtoToTreeJoinFileDto;
+import com.ericgha.docuCloud.dto.CloudUser;
+import com.ericgha.docuCloud.dto.FileDto;
+import com.ericgha.docuCloud.dto.FileViewDto;
+import com.ericgha.docuCloud.dto.TreeAndFileView;
+import com.ericgha.docuCloud.dto.TreeDto;
+import com.ericgha.docuCloud.dto.TreeStatsDto;
+import com.ericgha.docuCloud.jooq.tables.records.TreeStatsRecord;
+import com.ericgha.docuCloud.repository.testtool.file.TestFiles;
+import com.ericgha.docuCloud.repository.testtool.file.TestFilesFactory;
+import com.ericgha.docuCloud.repository.testtool.tree.TestFileTree;
+import com.ericgha.docuCloud.repository.testtool.tree.TestFileTreeFactory;
+import com.ericgha.docuCloud.service.JooqTransaction;
+import com.ericgha.docuCloud.testconainer.EnablePostgresTestContainerContextCustomizerFactory.EnablePostgresTestContainer;
+import org.jooq.DSLContext;
+import org.jooq.postgres.extensions.types.Ltree;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.ericgha.docuCloud.jooq.Tables.TREE_STATS;
+import static com.ericgha.docuCloud.jooq.enums.ObjectType.FILE;
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@EnablePostgresTestContainer
+class TreeStatsIntTest {
+
+    @Autowired
+    private DSLContext dsl;
+
+    @Autowired
+    private TreeRepository treeRepository;
+
+    @Autowired
+    private FileRepository fileRepository;
+
+    @Autowired
+    private JooqTransaction jooqTx;
+
+    @Autowired
+    private FileViewDtoToTreeJoinFileDto fileViewToTreeJoinFile;
+
+    @Autowired
+    private TestFileTreeFactory treeFactory;
+
+    @Autowired
+    private TestFilesFactory fileFactory;
+
+    private final CloudUser user0 = CloudUser.builder()
+            .userId( UUID.fromString( "1234567-89ab-cdef-fedc-ba9876543210" ) )
+            .username( "unitTester" )
+            .realm( "cloud9" ).build();
+
+    private final CloudUser user1 = CloudUser.builder()
+            .userId( UUID.fromString( "ffffffff-ffff-ffff-fedc-ba9876543210" ) )
+            .username( "unitTester" )
+            .realm( "cloud9" ).build();
+
+    private static final String TREE_FACTORY_CSV = """
+            ROOT, ""
+            DIR, "dir0"
+            FILE, "dir0.fileObj0"
+            DIR, "dir0.dir1"
+            FILE, "dir0.dir1.fileObj1"
+            DIR, "dir2"
+            FILE, "fileObj2"
+            """;
+
+    private static final String FILE_FACTORY_CSV = """
+            dir0.fileObj0, fileRes0
+            dir0.dir1.fileObj1, fileRes1
+            dir0.dir1.fileObj1, fileRes2
+            fileObj2, fileRes0
+            """;
+
+    private TestFileTree tree0;
+    private TestFiles files0;
+
+    @BeforeEach
+    void before() throws URISyntaxException, IOException {
+        // testcontainers cannot reliably run complex init scrips (ie with declared functions)
+        // testcontainers/testcontainers-java issue #2814
+        Path schemaFile = Paths.get( this.getClass().getClassLoader().getResource( "tests-schema.sql" ).toURI() );
+        String sql = Files.readString( schemaFile );
+        Mono.from( dsl.query( sql ) ).block();
+        tree0 = treeFactory.constructFromCsv( TREE_FACTORY_CSV, user0 );
+        files0 = fileFactory.constructFromCsv( FILE_FACTORY_CSV, tree0 );
+        // selectivity challenge
+        TestFileTree tree1 = treeFactory.constructFromCsv( TREE_FACTORY_CSV, user1 );
+        fileFactory.constructFromCsv( FILE_FACTORY_CSV, tree1 );
+    }
+
+    private Map<UUID, TreeStatsRecord> fetchStats() {
+        return Flux.from( dsl.selectFrom( TREE_STATS ) )
+                .collectMap( TreeStatsRecord::getObjectId )
+                .block();
+    }
+
+    // the incrementally maintained stats must equal stats computed from scratch
+    private void assertMatchesRebuild() {
+        Map<UUID, TreeStatsRecord> incremental = fetchStats();
+        Mono.from( dsl.query( "SELECT tree_stats_rebuild()" ) ).block();
+        assertEquals( fetchStats(), incremental );
+    }
+
+    @Test
+    @DisplayName("Stats of inserted objects and files match a rebuild")
+    void statsAfterInsert() {
+        assertMatchesRebuild();
+    }
+
+    @Test
+    @DisplayName("Stats after mvDir match a rebuild")
+    void statsAfterMvDir() {
+        treeRepository.mvDir( tree0.getOrigRecord( "dir0.dir1" ), Ltree.valueOf( "dir2.dir1" ), user0 ).block();
+        assertMatchesRebuild();
+    }
+
+    @Test
+    @DisplayName("Stats after mvFile match a rebuild")
+    void statsAfterMvFile() {
+        treeRepository.mvFile( tree0.getOrigRecord( "fileObj2" ), Ltree.valueOf( "dir0.dir1.fileObj2" ), user0 ).block();
+        assertMatchesRebuild();
+    }
+
+    @Test
+    @DisplayName("Stats after cpDirWithFiles match a rebuild")
+    void statsAfterCpDirWithFiles() {
+        treeRepository.cpDirWithFiles( tree0.getOrigRecord( "dir0" ), Ltree.valueOf( "dir2.dir0" ), false, user0 ).block();
+        assertMatchesRebuild();
+    }
+
+    @Test
+    @DisplayName("Stats after rmDirRecursive and rmEdgesFromAll match a rebuild")
+    void statsAfterRmDirRecursive() {
+        List<UUID> objectIds = treeRepository.rmDirRecursive( tree0.getOrigRecord( "dir0.dir1" ), user0 )
+                .map( TreeDto::getObjectId )
+                .collectList()
+                .block();
+        fileRepository.rmEdgesFromAll( objectIds, user0 ).blockLast();
+        assertMatchesRebuild();
+    }
+
+    @Test
+    @DisplayName("Stats after rmEdge match a rebuild")
+    void statsAfterRmEdge() {
+        FileViewDto toDelete = files0.getOrigFileViewFor( "dir0.dir1.fileObj1", "fileRes2" );
+        fileRepository.rmEdge( fileViewToTreeJoinFile.convert( toDelete ), user0 ).block();
+        assertMatchesRebuild();
+    }
+
+    @Test
+    @DisplayName("Stats after createFileFor match a rebuild")
+    void statsAfterCreateFileFor() {
+        FileDto newFile = FileDto.builder().checksum( "fileRes3" ).size( 7L ).build();
+        fileRepository.createFileFor( tree0.getOrigRecord( "fileObj2" ), newFile, user0 ).block();
+        assertMatchesRebuild();
+    }
+
+    @Test
+    @DisplayName("An upload does not block another upload by the same user until it commits")
+    void statsAfterOverlappingUploads() throws Exception {
+        // as DocumentService, the transaction stays open while the file is uploaded
+        Sinks.Empty<Void> inserted = Sinks.empty();
+        Sinks.Empty<Void> uploaded = Sinks.empty();
+        FileDto newFile0 = FileDto.builder().checksum( "fileRes3" ).size( 7L ).build();
+        CompletableFuture<FileViewDto> upload0 = jooqTx.inTransaction(
+                fileRepository.createFileFor( tree0.getOrigRecord( "fileObj2" ), newFile0, user0 )
+                        .doOnNext( created -> inserted.tryEmitEmpty() )
+                        .flatMap( created -> uploaded.asMono().thenReturn( created ) ) )
+                .toFuture();
+        inserted.asMono().block( Duration.ofSeconds( 10 ) );
+
+        FileDto newFile1 = FileDto.builder().checksum( "fileRes4" ).size( 11L ).build();
+        // would time out waiting on the lock of the ROOT stats if they were updated before commit
+        assertNotNull( jooqTx.inTransaction(
+                        fileRepository.createFileFor( tree0.getOrigRecord( "dir0.fileObj0" ), newFile1, user0 ) )
+                .block( Duration.ofSeconds( 10 ) ) );
+        assertFalse( upload0.isDone() );
+
+        uploaded.tryEmitEmpty();
+        assertNotNull( upload0.get( 10, TimeUnit.SECONDS ) );
+        assertMatchesRebuild();
+    }
+
+    @Test
+    @DisplayName("lsWithNewestFile returns the stats of source and its children when requested")
+    void lsWithNewestFileWithStats() {
+        long newestBytes = tree0.getTrackedObjectsOfType( FILE ).stream()
+                .map( treeDto -> fileRepository.lsNewestFileFor( treeDto, user0 ).block() )
+                .mapToLong( FileDto::getSize )
+                .sum();
+        long allVersionBytes = files0.fetchUserFileViewDtos().stream()
+                .mapToLong( FileDto::getSize )
+                .sum();
+        TreeStatsDto expectedRoot = new TreeStatsDto( newestBytes, allVersionBytes, 3L, 3L );
+
+        List<TreeAndFileView> found = treeRepository.lsWithNewestFile( tree0.getOrigRecord( "" ), true, user0 )
+                .collectList()
+                .block();
+        assertEquals( expectedRoot, found.get( 0 ).stats() );
+        // dir0, dir2, fileObj2
+        assertEquals( 4, found.size() );
+        found.forEach( treeAndFileView -> assertNotNull( treeAndFileView.stats() ) );
+    }
+
+    @Test
+    @DisplayName("lsWithNewestFile does not return stats unless requested")
+    void lsWithNewestFileWithoutStats() {
+        treeRepository.lsWithNewestFile( tree0.getOrigRecord( "" ), user0 )
+                .toStream()
+                .forEach( treeAndFileView -> assertNull( treeAndFileView.stats() ) );
+    }
+}
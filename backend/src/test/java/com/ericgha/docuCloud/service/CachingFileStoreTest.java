@@ -0,0 +1,259 @@
+package com.ericgha.docuCloud.service;
+
+import com.ericgha.docuCloud.dto.ByteRange;
+import com.ericgha.docuCloud.dto.CloudUser;
+import com.ericgha.docuCloud.dto.FileDto;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class CachingFileStoreTest {
+
+    private static final long MAX_BYTES = 3000;
+    private static final long MAX_FILE_BYTES = 1500;
+
+    @Mock
+    FileStore delegateMock;
+
+    @TempDir
+    Path cacheRoot;
+
+    private final CloudUser user = CloudUser.builder()
+            .userId( UUID.fromString( "1234567-89ab-cdef-fedc-ba9876543210" ) )
+            .username( "unitTester" )
+            .realm( "cloud9" ).build();
+
+    MeterRegistry meterRegistry;
+    CachingFileStore cachingFileStore;
+
+    @BeforeEach
+    void before() {
+        meterRegistry = new SimpleMeterRegistry();
+        cachingFileStore = newCachingFileStore();
+    }
+
+    private CachingFileStore newCachingFileStore() {
+        CachingFileStore store = new CachingFileStore( delegateMock,
+                new LocalDiskFileStore( cacheRoot, LocalDiskFileStore.DEFAULT_MMAP_THRESHOLD ),
+                MAX_BYTES, MAX_FILE_BYTES, meterRegistry );
+        store.handleEvent( null );
+        return store;
+    }
+
+    // stubs the delegate to serve data for fileDto, returns number of delegate reads
+    private AtomicInteger stubGetFile(FileDto fileDto, byte[] data) {
+        AtomicInteger reads = new AtomicInteger();
+        doReturn( Flux.defer( () -> {
+            reads.incrementAndGet();
+            return Flux.just( ByteBuffer.wrap( data ) ).delayElements( Duration.ofMillis( 50 ) );
+        } ) ).when( delegateMock ).getFile( fileDto, user );
+        return reads;
+    }
+
+    @Test
+    @DisplayName("A miss is read from the delegate once, later reads are hits served from disk")
+    void missThenHit() throws NoSuchAlgorithmException {
+        byte[] data = randomBytes( 1000 );
+        FileDto fileDto = fileDtoFor( data );
+        AtomicInteger reads = stubGetFile( fileDto, data );
+
+        assertArrayEquals( data, concat( cachingFileStore.getFile( fileDto, user ).collectList().block() ) );
+        assertArrayEquals( data, concat( cachingFileStore.getFile( fileDto, user ).collectList().block() ) );
+        assertEquals( 1, reads.get() );
+        assertEquals( 1, meterRegistry.counter( "filestore.cache.misses" ).count() );
+        assertEquals( 1, meterRegistry.counter( "filestore.cache.hits" ).count() );
+        assertEquals( 1000, cachingFileStore.getCachedBytes() );
+    }
+
+    @Test
+    @DisplayName("Concurrent misses of a file coalesce into a single delegate read")
+    void concurrentMissesCoalesce() throws NoSuchAlgorithmException {
+        byte[] data = randomBytes( 1000 );
+        FileDto fileDto = fileDtoFor( data );
+        AtomicInteger reads = stubGetFile( fileDto, data );
+
+        List<byte[]> found = Flux.range( 0, 8 )
+                .flatMap( i -> cachingFileStore.getFile( fileDto, user ).collectList().map( CachingFileStoreTest::concat ) )
+                .collectList()
+                .block();
+        assertEquals( 8, found.size() );
+        found.forEach( bytes -> assertArrayEquals( data, bytes ) );
+        assertEquals( 1, reads.get() );
+    }
+
+    @Test
+    @DisplayName("Least recently read files are evicted when over max size")
+    void evictsLeastRecentlyRead() throws NoSuchAlgorithmException {
+        byte[] data0 = randomBytes( 1000 );
+        byte[] data1 = randomBytes( 1001 );
+        byte[] data2 = randomBytes( 1002 );
+        FileDto file0 = fileDtoFor( data0 );
+        FileDto file1 = fileDtoFor( data1 );
+        FileDto file2 = fileDtoFor( data2 );
+        AtomicInteger reads0 = stubGetFile( file0, data0 );
+        stubGetFile( file1, data1 );
+        stubGetFile( file2, data2 );
+
+        cachingFileStore.getFile( file0, user ).blockLast();
+        cachingFileStore.getFile( file1, user ).blockLast();
+        // file0 is now more recently read than file1
+        cachingFileStore.getFile( file0, user ).blockLast();
+        cachingFileStore.getFile( file2, user ).blockLast();
+
+        assertEquals( 1, meterRegistry.counter( "filestore.cache.evictions" ).count() );
+        assertEquals( 2002, cachingFileStore.getCachedBytes() );
+        Path cached1 = cacheRoot.resolve( user.getUserId() + "." + file1.getFileId() );
+        assertFalse( Files.exists( cached1 ) );
+        cachingFileStore.getFile( file0, user ).blockLast();
+        assertEquals( 1, reads0.get() );
+    }
+
+    @Test
+    @DisplayName("Files larger than max-file-size bypass the cache")
+    void largeFilesBypassCache() throws NoSuchAlgorithmException {
+        byte[] data = randomBytes( (int) MAX_FILE_BYTES + 1 );
+        FileDto fileDto = fileDtoFor( data );
+        AtomicInteger reads = stubGetFile( fileDto, data );
+
+        cachingFileStore.getFile( fileDto, user ).blockLast();
+        cachingFileStore.getFile( fileDto, user ).blockLast();
+        assertEquals( 2, reads.get() );
+        assertEquals( 0, cachingFileStore.getCachedBytes() );
+    }
+
+    @Test
+    @DisplayName("The index is rebuilt from the cache directory on restart")
+    void indexSurvivesRestart() throws NoSuchAlgorithmException {
+        byte[] data = randomBytes( 1000 );
+        FileDto fileDto = fileDtoFor( data );
+        AtomicInteger reads = stubGetFile( fileDto, data );
+        cachingFileStore.getFile( fileDto, user ).blockLast();
+
+        CachingFileStore restarted = newCachingFileStore();
+        assertEquals( 1000, restarted.getCachedBytes() );
+        assertArrayEquals( data, concat( restarted.getFile( fileDto, user ).collectList().block() ) );
+        assertEquals( 1, reads.get() );
+    }
+
+    @Test
+    @DisplayName("Cached ranges are served from disk")
+    void getFileRangeHit() throws NoSuchAlgorithmException {
+        byte[] data = randomBytes( 1000 );
+        FileDto fileDto = fileDtoFor( data );
+        stubGetFile( fileDto, data );
+        cachingFileStore.getFile( fileDto, user ).blockLast();
+
+        StepVerifier.create( cachingFileStore.getFileRange( fileDto, new ByteRange( 0L, 9L ), user ) )
+                .assertNext( partial -> assertEquals( "bytes 0-9/1000", partial.contentRange() ) )
+                .verifyComplete();
+        verify( delegateMock, never() ).getFileRange( any(), any(), any() );
+    }
+
+    @Test
+    @DisplayName("deleteFiles deletes from the delegate and the cache")
+    void deleteFilesRemovesCachedFiles() throws NoSuchAlgorithmException {
+        byte[] data = randomBytes( 1000 );
+        FileDto fileDto = fileDtoFor( data );
+        stubGetFile( fileDto, data );
+        doReturn( Mono.empty() ).when( delegateMock ).deleteFiles( any(), any( CloudUser.class ) );
+        cachingFileStore.getFile( fileDto, user ).blockLast();
+
+        cachingFileStore.deleteFiles( Mono.just( List.of( fileDto.getFileId() ) ), user )
+                .as( StepVerifier::create ).verifyComplete();
+        verify( delegateMock ).deleteFiles( any(), any( CloudUser.class ) );
+        assertEquals( 0, cachingFileStore.getCachedBytes() );
+        assertTrue( Files.notExists( cacheRoot.resolve( user.getUserId() + "." + fileDto.getFileId() ) ) );
+    }
+
+    @Test
+    @DisplayName("A miss streams data to the reader before the delegate completes, and caches it")
+    void missStreamsWhileFilling() throws NoSuchAlgorithmException {
+        byte[] data = randomBytes( 1000 );
+        FileDto fileDto = fileDtoFor( data );
+        Sinks.Many<ByteBuffer> body = Sinks.many().unicast().onBackpressureBuffer();
+        doReturn( body.asFlux() ).when( delegateMock ).getFile( fileDto, user );
+
+        StepVerifier.create( cachingFileStore.getFile( fileDto, user ) )
+                .then( () -> body.tryEmitNext( ByteBuffer.wrap( data, 0, 500 ) ) )
+                .assertNext( buffer -> assertEquals( 500, buffer.remaining() ) )
+                .then( () -> {
+                    body.tryEmitNext( ByteBuffer.wrap( data, 500, 500 ) );
+                    body.tryEmitComplete();
+                } )
+                .assertNext( buffer -> assertEquals( 500, buffer.remaining() ) )
+                .verifyComplete();
+        assertEquals( 1000, cachingFileStore.getCachedBytes() );
+        assertArrayEquals( data, concat( cachingFileStore.getFile( fileDto, user ).collectList().block() ) );
+        assertEquals( 1, meterRegistry.counter( "filestore.cache.hits" ).count() );
+    }
+
+    @Test
+    @DisplayName("A fill in flight when its file is deleted is not cached")
+    void deleteDiscardsFillInFlight() throws Exception {
+        byte[] data = randomBytes( 1000 );
+        FileDto fileDto = fileDtoFor( data );
+        Sinks.One<ByteBuffer> body = Sinks.one();
+        doReturn( body.asMono().flux() ).when( delegateMock ).getFile( fileDto, user );
+        doReturn( Mono.empty() ).when( delegateMock ).deleteFiles( any(), any( CloudUser.class ) );
+
+        CompletableFuture<List<ByteBuffer>> read = cachingFileStore.getFile( fileDto, user ).collectList().toFuture();
+        cachingFileStore.deleteFiles( Mono.just( List.of( fileDto.getFileId() ) ), user ).block();
+        body.tryEmitValue( ByteBuffer.wrap( data ) );
+
+        // read before the delete, so the reader still receives the data
+        assertArrayEquals( data, concat( read.get( 5, TimeUnit.SECONDS ) ) );
+        assertEquals( 0, cachingFileStore.getCachedBytes() );
+        assertTrue( Files.notExists( cacheRoot.resolve( user.getUserId() + "." + fileDto.getFileId() ) ) );
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random( size ).nextBytes( data );
+        return data;
+    }
+
+    private static FileDto fileDtoFor(byte[] data) throws NoSuchAlgorithmException {
+        return FileDto.builder().fileId( UUID.randomUUID() )
+                .checksum( Base64.getEncoder().encodeToString( MessageDigest.getInstance( "SHA-1" ).digest( data ) ) )
+                .size( (long) data.length )
+                .build();
+    }
+
+    private static byte[] concat(List<ByteBuffer> buffers) {
+        ByteBuffer joined = ByteBuffer.allocate( buffers.stream().mapToInt( ByteBuffer::remaining ).sum() );
+        buffers.forEach( buffer -> joined.put( buffer.duplicate() ) );
+        return joined.array();
+    }
+}
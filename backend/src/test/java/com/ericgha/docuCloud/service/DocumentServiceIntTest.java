@@ -1,16 +1,20 @@
 package com.ericgha.docuCloud.service;
 
 import com.ericgha.docuCloud.converter.FileViewDtoToFileDto;
+import com.ericgha.docuCloud.dto.ArchiveEntryResult;
 import com.ericgha.docuCloud.dto.CloudUser;
 import com.ericgha.docuCloud.dto.FileDto;
 import com.ericgha.docuCloud.dto.FileViewDto;
 import com.ericgha.docuCloud.dto.TreeAndFileView;
+import com.ericgha.docuCloud.dto.TreeCreateResult;
 import com.ericgha.docuCloud.dto.TreeDto;
 import com.ericgha.docuCloud.exceptions.DeleteFailureException;
 import com.ericgha.docuCloud.exceptions.IllegalObjectTypeException;
 import com.ericgha.docuCloud.exceptions.InsertFailureException;
 import com.ericgha.docuCloud.exceptions.RecordNotFoundException;
+import com.ericgha.docuCloud.exceptions.UploadVerificationException;
 import com.ericgha.docuCloud.repository.FileRepository;
+import com.ericgha.docuCloud.repository.PendingBlobDeleteRepository;
 import com.ericgha.docuCloud.repository.TreeRepository;
 import com.ericgha.docuCloud.repository.testtool.file.FileTestQueries;
 import com.ericgha.docuCloud.repository.testtool.file.RandomFileGenerator;
@@ -18,6 +22,8 @@ import com.ericgha.docuCloud.repository.testtool.file.RandomFileGenerator.FileDt
 import com.ericgha.docuCloud.repository.testtool.tree.TreeTestQueries;
 import com.ericgha.docuCloud.testconainer.EnableMinioTestContainerContextCustomizerFactory.EnableMinioTestContainer;
 import com.ericgha.docuCloud.testconainer.EnablePostgresTestContainerContextCustomizerFactory.EnablePostgresTestContainer;
+import com.ericgha.docuCloud.util.archive.ArchiveDecoder;
+import com.ericgha.docuCloud.util.archive.ZipStreamEncoder;
 import org.jooq.postgres.extensions.types.Ltree;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -34,21 +40,29 @@ import reactor.core.scheduler.Schedulers;
 import reactor.test.StepVerifier;
 import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import static com.ericgha.docuCloud.jooq.enums.ObjectType.*;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @SpringBootTest
@@ -110,6 +124,8 @@ public class DocumentServiceIntTest {
     fetchFirstPageFileVersions           *                   X              -
     fetchNextPage                        *                   X              -
     getFileData                          -                   -              X
+    zip                                  X                   *              X
+    expandArchive                        X                   X              X
     rmTreeObject                         X                   X              X     
     rmVersion                            *                   X              X
     createRoot                           X                   -              -
@@ -215,6 +231,48 @@ public class DocumentServiceIntTest {
     }
 
 
+    @Test
+    @DisplayName("createFile throws UploadVerificationException and rolls back when the checksum does not match the data")
+    void createFileThrowsOnChecksumMismatch(@Autowired TreeRepository treeRepository) {
+        TreeDto fileObj0 = TreeDto.builder().path( Ltree.valueOf( "file0" ) )
+                .objectType( FILE )
+                .build();
+        FileDtoAndData fileAndData0 = randomFileGenerator.generate();
+        FileDtoAndData fileAndData1 = randomFileGenerator.generate();
+        FileDto mismatched = FileDto.builder()
+                .checksum( fileAndData1.fileDto().getChecksum() )
+                .size( fileAndData0.fileDto().getSize() )
+                .build();
+        StepVerifier.create( documentService.createFile( fileObj0, mismatched, fileAndData0.data(), user0 ) )
+                .verifyError( UploadVerificationException.class );
+        treeRepository.ls( fileObj0, user0 )
+                .as( StepVerifier::create )
+                .expectNextCount( 0 )
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("addFileVersion throws UploadVerificationException and rolls back when the data exceeds the declared size")
+    void addFileVersionThrowsOnSizeOverrun(@Autowired FileRepository fileRepository) {
+        TreeDto fileObj0 = TreeDto.builder().path( Ltree.valueOf( "file0" ) )
+                .objectType( FILE )
+                .build();
+        FileDtoAndData fileAndData0 = randomFileGenerator.generate();
+        FileDtoAndData fileAndData1 = randomFileGenerator.generate();
+        TreeDto created = documentService.createFile( fileObj0, fileAndData0.fileDto(), fileAndData0.data(), user0 )
+                .block()
+                .treeDto();
+        FileDto undersized = FileDto.builder()
+                .checksum( fileAndData1.fileDto().getChecksum() )
+                .size( fileAndData1.fileDto().getSize() - 1 )
+                .build();
+        StepVerifier.create( documentService.addFileVersion( created, undersized, fileAndData1.data(), user0 ) )
+                .verifyError( UploadVerificationException.class );
+        StepVerifier.create( fileRepository.countFilesFor( created, user0 ) )
+                .expectNext( 1L )
+                .verifyComplete();
+    }
+
     @Test
     @DisplayName("addFileVersion returns TreeAndFileView on successful PUT")
     void addFileVersionReturnsTreeAndFileView(@Autowired TransactionalOperator txop) {
@@ -233,6 +291,54 @@ public class DocumentServiceIntTest {
                 .verifyComplete();
     }
 
+    @Test
+    @DisplayName("addFileVersion with dedup links the existing file without reading the data")
+    void addFileVersionDedupLinksExistingFile(@Autowired TreeRepository treeRepository) {
+        TreeDto fileObj0 = TreeDto.builder().path( Ltree.valueOf( "file0" ) )
+                .objectType( FILE )
+                .build();
+        TreeDto fileObj1 = TreeDto.builder().path( Ltree.valueOf( "file1" ) )
+                .objectType( FILE )
+                .build();
+        FileDtoAndData fileAndData = randomFileGenerator.generate();
+        TreeAndFileView created = documentService.createFile( fileObj0, fileAndData.fileDto(), fileAndData.data(), user0 )
+                .block();
+        TreeDto fullFileObj1 = treeRepository.create( fileObj1, user0 ).block();
+        Flux<ByteBuffer> unreadable = Flux.error( new IllegalStateException( "data should not be read" ) );
+        StepVerifier.create( documentService.addFileVersion( fullFileObj1, fileAndData.fileDto(), unreadable, true, user0 ) )
+                .assertNext( linked -> {
+                    assertEquals( fullFileObj1.getObjectId(), linked.fileViewDto().getObjectId() );
+                    assertEquals( created.fileViewDto().getFileId(), linked.fileViewDto().getFileId() );
+                } )
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("createFile with dedup stores the data when there is no file with the same content")
+    void createFileDedupStoresNewContent() {
+        TreeDto fileObj0 = TreeDto.builder().path( Ltree.valueOf( "file0" ) )
+                .objectType( FILE )
+                .build();
+        FileDtoAndData fileAndData = randomFileGenerator.generate();
+        TreeAndFileView created = documentService.createFile( fileObj0, fileAndData.fileDto(), fileAndData.data(), true, user0 )
+                .block();
+        StepVerifier.create( s3FileStore.getFile( created.fileViewDto(), user0 ).count() )
+                .assertNext( numBuffers -> assertTrue( numBuffers > 0 ) )
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("linkFileVersion throws RecordNotFoundException when there is no file with the same content")
+    void linkFileVersionThrowsWhenNoMatch(@Autowired TreeRepository treeRepository) {
+        TreeDto fileObj0 = treeRepository.create( TreeDto.builder().path( Ltree.valueOf( "file0" ) )
+                        .objectType( FILE )
+                        .build(), user0 )
+                .block();
+        FileDto unknown = FileDto.builder().checksum( "unknown" ).size( 1L ).build();
+        StepVerifier.create( documentService.linkFileVersion( fileObj0, unknown, user0 ) )
+                .verifyError( RecordNotFoundException.class );
+    }
+
     @Test
     @DisplayName("cp copies a file")
     void cpCopiesAFile(@Autowired TreeRepository treeRepository, @Autowired FileRepository fileRepository) {
@@ -344,6 +450,111 @@ public class DocumentServiceIntTest {
                 .verifyComplete();
     }
 
+    @Test
+    @DisplayName("createAll creates missing parents and reports existing objects")
+    void createAllCreatesParents(@Autowired TreeRepository treeRepository) {
+        documentService.createDir( TreeDto.builder().path( Ltree.valueOf( "dir0" ) ).objectType( DIR ).build(), user0 )
+                .block();
+        List<TreeDto> toCreate = List.of(
+                TreeDto.builder().path( Ltree.valueOf( "dir0" ) ).objectType( DIR ).build(),
+                TreeDto.builder().path( Ltree.valueOf( "dir0.dir1.dir2" ) ).objectType( DIR ).build(),
+                TreeDto.builder().path( Ltree.valueOf( "dir0.dir1.file0" ) ).objectType( FILE ).build() );
+        List<TreeCreateResult> results = documentService.createAll( toCreate, user0 ).collectList().block();
+
+        assertEquals( List.of( "dir0" ), results.stream().filter( result -> !result.created() )
+                .map( result -> result.treeDto().getPathStr() ).toList() );
+        assertEquals( List.of( "dir0.dir1", "dir0.dir1.dir2", "dir0.dir1.file0" ), results.stream()
+                .filter( TreeCreateResult::created )
+                .map( result -> result.treeDto().getPathStr() )
+                .toList() );
+        TreeDto file0 = treeRepository.selectByPaths( List.of( Ltree.valueOf( "dir0.dir1.file0" ) ), user0 )
+                .blockFirst();
+        assertEquals( FILE, file0.getObjectType() );
+    }
+
+    @Test
+    @DisplayName("createAll finds objects stored in the legacy path encoding and creates children under them")
+    void createAllFindsLegacyPaths() {
+        // "/dir€" in the legacy encoding, the current encoding is dirǃǃ20ac
+        documentService.createDir( TreeDto.builder().path( Ltree.valueOf( "dirǃ20ac" ) ).objectType( DIR ).build(), user0 )
+                .block();
+        List<TreeDto> toCreate = List.of(
+                TreeDto.builder().path( Ltree.valueOf( "dirǃǃ20ac" ) ).objectType( DIR ).build(),
+                TreeDto.builder().path( Ltree.valueOf( "dirǃǃ20ac.dir1" ) ).objectType( DIR ).build() );
+        List<TreeCreateResult> results = documentService.createAll( toCreate, user0 ).collectList().block();
+
+        assertEquals( List.of( "dirǃ20ac" ), results.stream().filter( result -> !result.created() )
+                .map( result -> result.treeDto().getPathStr() ).toList() );
+        assertEquals( List.of( "dirǃ20ac.dir1" ), results.stream().filter( TreeCreateResult::created )
+                .map( result -> result.treeDto().getPathStr() ).toList() );
+    }
+
+    @Test
+    @DisplayName("ls and mv find a dir stored in the legacy path encoding by its current path")
+    void lsAndMvFindLegacyPaths(@Autowired TreeRepository treeRepository) {
+        // "/dir€" in the legacy encoding, the current encoding is dirǃǃ20ac
+        documentService.createDir( TreeDto.builder().path( Ltree.valueOf( "dirǃ20ac" ) ).objectType( DIR ).build(), user0 )
+                .block();
+        documentService.createDir( TreeDto.builder().path( Ltree.valueOf( "dirǃ20ac.dir1" ) ).objectType( DIR ).build(), user0 )
+                .block();
+        TreeDto current = TreeDto.builder().path( Ltree.valueOf( "dirǃǃ20ac" ) ).objectType( DIR ).build();
+
+        assertEquals( List.of( "dirǃ20ac", "dirǃ20ac.dir1" ), treeRepository.ls( current, user0 )
+                .map( TreeDto::getPathStr )
+                .collectList()
+                .block() );
+        StepVerifier.create( documentService.mv( current, Ltree.valueOf( "dir2" ), user0 ) )
+                .expectNext( 2L )
+                .verifyComplete();
+        assertEquals( List.of( "dir2", "dir2.dir1" ), treeRepository.ls( TreeDto.builder().path( Ltree.valueOf( "dir2" ) ).build(), user0 )
+                .map( TreeDto::getPathStr )
+                .collectList()
+                .block() );
+    }
+
+    @Test
+    @DisplayName("createAll creates nothing when an object exists with a different objectType")
+    void createAllRollsBackOnTypeConflict(@Autowired TreeRepository treeRepository) {
+        FileDtoAndData fileAndData = randomFileGenerator.generate();
+        TreeDto file0 = TreeDto.builder().path( Ltree.valueOf( "file0" ) ).objectType( FILE ).build();
+        documentService.createFile( file0, fileAndData.fileDto(), fileAndData.data(), user0 ).block();
+        List<TreeDto> toCreate = List.of(
+                TreeDto.builder().path( Ltree.valueOf( "dir0" ) ).objectType( DIR ).build(),
+                TreeDto.builder().path( Ltree.valueOf( "file0.dir1" ) ).objectType( DIR ).build() );
+        StepVerifier.create( documentService.createAll( toCreate, user0 ) )
+                .verifyError( InsertFailureException.class );
+        StepVerifier.create( treeRepository.selectByPaths( List.of( Ltree.valueOf( "dir0" ) ), user0 ) )
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("createAll emits no results when the insert fails")
+    void createAllEmitsNothingOnInsertFailure(@Autowired TreeRepository treeRepository,
+                                              @Autowired FileRepository fileRepository) {
+        documentService.createDir( TreeDto.builder().path( Ltree.valueOf( "dir0" ) ).objectType( DIR ).build(), user0 )
+                .block();
+        TreeRepository treeRepositorySpy = Mockito.spy( treeRepository );
+        Mockito.doReturn( Flux.error( new IllegalStateException( "insert failed" ) ) )
+                .when( treeRepositorySpy ).createAll( any(), any() );
+        DocumentService documentService = new DocumentService( s3FileStore, fileRepository, treeRepositorySpy, jooqTx );
+        List<TreeDto> toCreate = List.of(
+                TreeDto.builder().path( Ltree.valueOf( "dir0" ) ).objectType( DIR ).build(),
+                TreeDto.builder().path( Ltree.valueOf( "dir1" ) ).objectType( DIR ).build() );
+        // the existing dir0 is not emitted before the error
+        StepVerifier.create( documentService.createAll( toCreate, user0 ) )
+                .verifyError( InsertFailureException.class );
+    }
+
+    @Test
+    @DisplayName("createAll throws IllegalArgumentException when a requested FILE is a parent")
+    void createAllThrowsOnFileParent() {
+        List<TreeDto> toCreate = List.of(
+                TreeDto.builder().path( Ltree.valueOf( "file0" ) ).objectType( FILE ).build(),
+                TreeDto.builder().path( Ltree.valueOf( "file0.dir1" ) ).objectType( DIR ).build() );
+        StepVerifier.create( documentService.createAll( toCreate, user0 ) )
+                .verifyError( IllegalArgumentException.class );
+    }
+
     @Test
     @DisplayName("ls of a root")
     void lsOfRoot(@Autowired TreeRepository treeRepository,
@@ -418,6 +629,152 @@ public class DocumentServiceIntTest {
                 .verifyError( RecordNotFoundException.class );
     }
 
+    @Test
+    @DisplayName("zip streams an archive of the dir, its sub dirs and the newest version of each file")
+    void zipStreamsDirArchive() throws IOException {
+        TreeDto dir0 = TreeDto.builder().path( Ltree.valueOf( "dir0" ) ).objectType( DIR ).build();
+        TreeDto dir1 = TreeDto.builder().path( Ltree.valueOf( "dir0.dir1" ) ).objectType( DIR ).build();
+        // "/dir0/file0.txt" encoded by PathStrToEncodedLtree
+        TreeDto file0 = TreeDto.builder().path( Ltree.valueOf( "dir0.file0ǃ2etxt" ) ).objectType( FILE ).build();
+        // not a descendent of dir0
+        TreeDto file1 = TreeDto.builder().path( Ltree.valueOf( "file1" ) ).objectType( FILE ).build();
+        FileDtoAndData oldVersion = randomFileGenerator.generate();
+        FileDtoAndData newVersion = randomFileGenerator.generate();
+        FileDtoAndData otherFile = randomFileGenerator.generate();
+        documentService.createDir( dir0, user0 )
+                .then( documentService.createDir( dir1, user0 ) )
+                .then( documentService.createFile( file0, oldVersion.fileDto(), oldVersion.data(), user0 ) )
+                .flatMap( created -> documentService.addFileVersion( created.treeDto(), newVersion.fileDto(), newVersion.data(), user0 ) )
+                .then( documentService.createFile( file1, otherFile.fileDto(), otherFile.data(), user0 ) )
+                .block();
+
+        List<ByteBuffer> archive = documentService.zip( dir0, Deflater.DEFAULT_COMPRESSION, user0 ).collectList().block();
+        ByteBuffer joined = ByteBuffer.allocate( archive.stream().mapToInt( ByteBuffer::remaining ).sum() );
+        archive.forEach( joined::put );
+        Map<String, Long> entrySizes = new LinkedHashMap<>();
+        try (ZipInputStream zip = new ZipInputStream( new ByteArrayInputStream( joined.array() ) )) {
+            ZipEntry entry;
+            while (( entry = zip.getNextEntry() ) != null) {
+                entrySizes.put( entry.getName(), (long) zip.readAllBytes().length );
+            }
+        }
+        assertEquals( Map.of( "dir0/", 0L, "dir0/dir1/", 0L, "dir0/file0.txt", newVersion.fileDto().getSize() ), entrySizes );
+        assertEquals( List.of( "dir0/", "dir0/dir1/", "dir0/file0.txt" ), List.copyOf( entrySizes.keySet() ) );
+    }
+
+    @Test
+    @DisplayName("zip replaces . and .. labels and unsafe chars in entry names")
+    void zipSanitizesEntryNames() throws IOException {
+        TreeDto dir0 = TreeDto.builder().path( Ltree.valueOf( "dir0" ) ).objectType( DIR ).build();
+        // "/dir0/.." encoded by PathStrToEncodedLtree
+        TreeDto dotDot = TreeDto.builder().path( Ltree.valueOf( "dir0.ǃ2eǃ2e" ) ).objectType( DIR ).build();
+        // "..\\..\\x" in a single label
+        TreeDto file0 = TreeDto.builder().path( Ltree.valueOf( "dir0.ǃ2eǃ2e.ǃ2eǃ2eǃ5cǃ2eǃ2eǃ5cx" ) ).objectType( FILE ).build();
+        FileDtoAndData fileAndData = randomFileGenerator.generate();
+        documentService.createDir( dir0, user0 )
+                .then( documentService.createDir( dotDot, user0 ) )
+                .then( documentService.createFile( file0, fileAndData.fileDto(), fileAndData.data(), user0 ) )
+                .block();
+
+        List<ByteBuffer> archive = documentService.zip( dir0, Deflater.DEFAULT_COMPRESSION, user0 ).collectList().block();
+        ByteBuffer joined = ByteBuffer.allocate( archive.stream().mapToInt( ByteBuffer::remaining ).sum() );
+        archive.forEach( joined::put );
+        List<String> names = new LinkedList<>();
+        try (ZipInputStream zip = new ZipInputStream( new ByteArrayInputStream( joined.array() ) )) {
+            ZipEntry entry;
+            while (( entry = zip.getNextEntry() ) != null) {
+                names.add( entry.getName() );
+            }
+        }
+        assertEquals( List.of( "dir0/", "dir0/__/", "dir0/__/.._.._x" ), names );
+    }
+
+    @Test
+    @DisplayName("zip throws RecordNotFoundException when source is not found")
+    void zipThrowsWhenNoRecordIsReturned() {
+        TreeDto source = TreeDto.builder()
+                .path( Ltree.valueOf( "dir0" ) )
+                .objectType( DIR ).build();
+        documentService.zip( source, Deflater.DEFAULT_COMPRESSION, user0 ).as( StepVerifier::create )
+                .verifyError( RecordNotFoundException.class );
+    }
+
+    @Test
+    @DisplayName("zip throws IllegalObjectTypeException when source is a FILE spoofed as a DIR")
+    void zipThrowsWhenSourceIsAFile() {
+        TreeDto file0 = TreeDto.builder().path( Ltree.valueOf( "file0" ) ).objectType( FILE ).build();
+        TreeDto spoofed = TreeDto.builder().path( Ltree.valueOf( "file0" ) ).objectType( DIR ).build();
+        FileDtoAndData fileAndData = randomFileGenerator.generate();
+        documentService.createFile( file0, fileAndData.fileDto(), fileAndData.data(), user0 )
+                .thenMany( documentService.zip( spoofed, Deflater.DEFAULT_COMPRESSION, user0 ) )
+                .as( StepVerifier::create )
+                .verifyError( IllegalObjectTypeException.class );
+    }
+
+    @Test
+    @DisplayName("expandArchive creates the dirs and files of an archive and reports failed entries")
+    void expandArchiveCreatesTree(@Autowired TreeRepository treeRepository) {
+        FileDtoAndData file0 = randomFileGenerator.generate();
+        FileDtoAndData file1 = randomFileGenerator.generate();
+        Flux<ByteBuffer> archive = ZipStreamEncoder.encode( Flux.just(
+                        ZipStreamEncoder.Entry.dir( "dir0", null ),
+                        new ZipStreamEncoder.Entry( "dir0/file0.txt", null, file0.data() ),
+                        new ZipStreamEncoder.Entry( "../file1", null, file1.data() ),
+                        new ZipStreamEncoder.Entry( "dir1/file1", null, file1.data() ) ),
+                Deflater.DEFAULT_COMPRESSION, 1, 1 );
+
+        List<ArchiveEntryResult> results = documentService.expandArchive( Ltree.valueOf( "" ), archive,
+                ArchiveDecoder.Format.ZIP, user0 ).collectList().block();
+        assertEquals( List.of( "dir0/", "dir0/file0.txt", "../file1", "dir1/file1" ),
+                results.stream().map( ArchiveEntryResult::name ).toList() );
+        assertEquals( "dir0", results.get( 0 ).treeAndFileView().treeDto().getPathStr() );
+        assertEquals( "dir0.file0ǃ2etxt", results.get( 1 ).treeAndFileView().treeDto().getPathStr() );
+        assertEquals( file0.fileDto().getChecksum(), results.get( 1 ).treeAndFileView().fileViewDto().getChecksum() );
+        assertNotNull( results.get( 2 ).error() );
+        assertNull( results.get( 2 ).treeAndFileView() );
+        // parent dir1 created implicitly
+        assertEquals( file1.fileDto().getChecksum(), results.get( 3 ).treeAndFileView().fileViewDto().getChecksum() );
+        treeRepository.ls( TreeDto.builder().path( Ltree.valueOf( "dir1" ) ).build(), user0 )
+                .as( StepVerifier::create )
+                .expectNextCount( 2 )
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("expandArchive adds a version to an existing file and fails a batch with a type conflict")
+    void expandArchiveAddsVersionsAndReportsConflicts(@Autowired FileRepository fileRepository) {
+        FileDtoAndData file0 = randomFileGenerator.generate();
+        TreeDto fileObj0 = documentService.createFile( TreeDto.builder().path( Ltree.valueOf( "file0" ) ).objectType( FILE ).build(),
+                        file0.fileDto(), file0.data(), user0 )
+                .map( TreeAndFileView::treeDto )
+                .block();
+        FileDtoAndData newVersion = randomFileGenerator.generate();
+        Flux<ByteBuffer> addVersion = ZipStreamEncoder.encode( Flux.just(
+                        new ZipStreamEncoder.Entry( "file0", null, newVersion.data() ) ),
+                Deflater.DEFAULT_COMPRESSION, 1, 1 );
+        documentService.expandArchive( Ltree.valueOf( "" ), addVersion, ArchiveDecoder.Format.ZIP, user0 )
+                .as( StepVerifier::create )
+                .assertNext( result -> assertEquals( newVersion.fileDto().getChecksum(),
+                        result.treeAndFileView().fileViewDto().getChecksum() ) )
+                .verifyComplete();
+        fileRepository.lsNewestFilesFor( fileObj0, Integer.MAX_VALUE, user0 )
+                .as( StepVerifier::create )
+                .expectNextCount( 2 )
+                .verifyComplete();
+
+        // file0 exists as a FILE
+        Flux<ByteBuffer> conflict = ZipStreamEncoder.encode( Flux.just(
+                        ZipStreamEncoder.Entry.dir( "file0", null ) ),
+                Deflater.DEFAULT_COMPRESSION, 1, 1 );
+        documentService.expandArchive( Ltree.valueOf( "" ), conflict, ArchiveDecoder.Format.ZIP, user0 )
+                .as( StepVerifier::create )
+                .assertNext( result -> {
+                    assertEquals( "file0/", result.name() );
+                    assertNotNull( result.error() );
+                } )
+                .verifyComplete();
+    }
+
     @Nested
     @DisplayName("File Version tests")
     @EnablePostgresTestContainer
@@ -496,11 +853,15 @@ public class DocumentServiceIntTest {
 
         @Test
         @DisplayName("rmVersion removes expected file and data")
-        void rmVersionRemovesExpected(@Autowired FileTestQueries fileTestQueries) {
+        void rmVersionRemovesExpected(@Autowired FileTestQueries fileTestQueries,
+                                      @Autowired BlobDeleteReaper blobDeleteReaper) {
             FileViewDto toRemove = fileViews.get( 2 );
             Mono<Void> rm = documentService.rmVersion( toRemove, user );
             rm.as( StepVerifier::create )
                     .verifyComplete();
+            blobDeleteReaper.drain().as( StepVerifier::create )
+                    .expectNext( 1L )
+                    .verifyComplete();
             // deleted from fileStore
             Flux<ByteBuffer> fetchData = documentService.getFileData( toRemove, user );
             fetchData.as( StepVerifier::create )
@@ -516,9 +877,13 @@ public class DocumentServiceIntTest {
         @DisplayName("rmTreeObject deletes FileObject from Tree Files from FileView and data from FileStore")
         void rmTreeObjectRemovesExpected(@Autowired FileTestQueries fileTestQueries,
                                          @Autowired TreeTestQueries treeTestQueries,
-                                         @Autowired FileViewDtoToFileDto fileViewToFile) {
+                                         @Autowired FileViewDtoToFileDto fileViewToFile,
+                                         @Autowired BlobDeleteReaper blobDeleteReaper) {
             Mono<Void> rm = documentService.rmTreeObject( file0, false, user );
             rm.as( StepVerifier::create ).verifyComplete();
+            blobDeleteReaper.drain().as( StepVerifier::create )
+                    .expectNext( (long) NUM_VERSIONS )
+                    .verifyComplete();
             assertNull( treeTestQueries.getByObjectId( file0.getObjectId() ) );
             fileTestQueries.fetchRecordsByObjectId( file0.getObjectId() ).as( StepVerifier::create )
                     .expectNextCount( 0 )
@@ -530,16 +895,15 @@ public class DocumentServiceIntTest {
         }
 
         @Test
-        @DisplayName("rmTreeObject rolls back when document service returns exception")
+        @DisplayName("rmTreeObject rolls back when file repository returns exception")
         void rmTreeObjectRollsBack(@Autowired TreeRepository treeRepository,
                                    @Autowired FileRepository fileRepository) {
-            FileStore fileStoreMock = Mockito.mock( FileStore.class );
-            // fileStore throws exception on delete
-            when( fileStoreMock.deleteFiles( any(), any() ) ).thenReturn( Mono.error( new DeleteFailureException() ) );
+            FileRepository fileRepositoryMock = Mockito.mock( FileRepository.class );
+            // fileRepository throws exception on delete, after the delete from tree
+            when( fileRepositoryMock.rmEdgesFromAll( any(), any() ) ).thenReturn( Flux.error( new DeleteFailureException() ) );
             // instantiate a document service using mock
-            DocumentService documentService = new DocumentService( fileStoreMock, fileRepository, treeRepository, jooqTx );
+            DocumentService documentService = new DocumentService( s3FileStore, fileRepositoryMock, treeRepository, jooqTx );
             Mono<Void> rm = documentService.rmTreeObject( file0, false, user );
-            // will fail in terminal step, deleting from fileStore
             rm.as( StepVerifier::create )
                     .verifyError( DeleteFailureException.class );
             // delete from tree rolled back
@@ -547,11 +911,26 @@ public class DocumentServiceIntTest {
                     .as( StepVerifier::create )
                     .expectNext( file0 )
                     .verifyComplete();
-            // delete from fileRepository rolled back
             fileRepository.lsNewestFilesFor( file0, fileViews.size(), user )
                     .as( StepVerifier::create )
                     .expectNextSequence( fileViews )
                     .verifyComplete();
         }
+
+        @Test
+        @DisplayName("rmTreeObject queues deleted versions instead of deleting from the fileStore")
+        void rmTreeObjectQueuesBlobDeletes(@Autowired TreeRepository treeRepository,
+                                           @Autowired FileRepository fileRepository,
+                                           @Autowired PendingBlobDeleteRepository pendingBlobDeleteRepository) {
+            FileStore fileStoreMock = Mockito.mock( FileStore.class );
+            DocumentService documentService = new DocumentService( fileStoreMock, fileRepository, treeRepository, jooqTx );
+            Mono<Void> rm = documentService.rmTreeObject( file0, false, user );
+            rm.as( StepVerifier::create )
+                    .verifyComplete();
+            verify( fileStoreMock, never() ).deleteFiles( any(), any() );
+            pendingBlobDeleteRepository.countPending().as( StepVerifier::create )
+                    .expectNext( (long) NUM_VERSIONS )
+                    .verifyComplete();
+        }
     }
-}
\ No newline at end of file
+}
@@ -2,13 +2,16 @@ package com.ericgha.docuCloud.service;
 
 import com.ericgha.docuCloud.converter.FileViewDtoToFileDto;
 import com.ericgha.docuCloud.dto.CloudUser;
+import com.ericgha.docuCloud.dto.FileViewDto;
 import com.ericgha.docuCloud.dto.TreeAndFileView;
 import com.ericgha.docuCloud.dto.TreeDto;
+import com.ericgha.docuCloud.exceptions.ConcurrencyLimitException;
 import com.ericgha.docuCloud.exceptions.IllegalObjectTypeException;
 import com.ericgha.docuCloud.repository.FileRepository;
 import com.ericgha.docuCloud.repository.TreeRepository;
 import com.ericgha.docuCloud.repository.testtool.file.RandomFileGenerator;
 import com.ericgha.docuCloud.repository.testtool.file.UpdateFailureException;
+import com.ericgha.docuCloud.util.archive.ArchiveDecoder;
 import org.jooq.DSLContext;
 import org.jooq.exception.DataAccessException;
 import org.jooq.postgres.extensions.types.Ltree;
@@ -22,11 +25,19 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit4.SpringRunner;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
+import java.nio.ByteBuffer;
+import java.time.Duration;
 import java.time.OffsetDateTime;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+import java.util.zip.Deflater;
 
 import static com.ericgha.docuCloud.jooq.enums.ObjectType.DIR;
 import static com.ericgha.docuCloud.jooq.enums.ObjectType.FILE;
@@ -172,4 +183,57 @@ public class DocumentServiceTest {
         documentService.mv( treeObj, dest, user0 ).as(StepVerifier::create)
                 .verifyError( UpdateFailureException.class );
     }
+
+    @Test
+    @DisplayName( "zip reads the whole listing before fetching any file" )
+    void zipCollectsListingBeforeFetchingFiles() {
+        TreeDto dir0 = TreeDto.builder().objectId( UUID.randomUUID() )
+                .objectType( DIR )
+                .path( Ltree.valueOf( "dir0" ) )
+                .createdAt( OffsetDateTime.now() )
+                .userId( user0.getUserId() )
+                .build();
+        TreeDto file0 = TreeDto.builder().objectId( UUID.randomUUID() )
+                .objectType( FILE )
+                .path( Ltree.valueOf( "dir0.file0" ) )
+                .createdAt( OffsetDateTime.now() )
+                .userId( user0.getUserId() )
+                .build();
+        FileViewDto fileView = FileViewDto.builder().objectId( file0.getObjectId() )
+                .fileId( UUID.randomUUID() )
+                .userId( user0.getUserId() )
+                .uploadedAt( OffsetDateTime.now() )
+                .build();
+        AtomicBoolean listingComplete = new AtomicBoolean( false );
+        doReturn( Flux.just( new TreeAndFileView( dir0, null ), new TreeAndFileView( file0, fileView ) )
+                .doOnComplete( () -> listingComplete.set( true ) ) )
+                .when( treeRepositoryMock ).lsRecursiveWithNewestFile( any( TreeDto.class ), any( CloudUser.class ) );
+        doReturn( Flux.defer( () -> listingComplete.get() ? Flux.just( ByteBuffer.wrap( new byte[]{1} ) )
+                : Flux.error( new IllegalStateException( "file fetched while the listing was open" ) ) ) )
+                .when( fileStoreMock ).getFile( any( FileViewDto.class ), any( CloudUser.class ) );
+
+        documentService.zip( dir0, Deflater.DEFAULT_COMPRESSION, user0 ).then().as( StepVerifier::create )
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName( "expandArchive rejects archives over the concurrency limit and releases its permit on cancel" )
+    void expandArchiveLimitsConcurrency() {
+        List<Disposable> running = IntStream.range( 0, DocumentService.ARCHIVE_MAX_CONCURRENT_EXPANSIONS )
+                .mapToObj( i -> documentService.expandArchive( Ltree.valueOf( "" ), Flux.never(),
+                        ArchiveDecoder.Format.ZIP, user0 ).subscribe() )
+                .toList();
+        documentService.expandArchive( Ltree.valueOf( "" ), Flux.never(), ArchiveDecoder.Format.ZIP, user0 )
+                .as( StepVerifier::create )
+                .verifyError( ConcurrencyLimitException.class );
+
+        running.get( 0 ).dispose();
+        documentService.expandArchive( Ltree.valueOf( "" ), Flux.never(), ArchiveDecoder.Format.ZIP, user0 )
+                .as( StepVerifier::create )
+                .expectSubscription()
+                .expectNoEvent( Duration.ofMillis( 100 ) )
+                .thenCancel()
+                .verify();
+        running.forEach( Disposable::dispose );
+    }
 }
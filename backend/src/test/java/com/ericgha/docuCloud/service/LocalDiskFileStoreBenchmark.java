@@ -0,0 +1,96 @@
+package com.ericgha.docuCloud.service;
+
+import com.ericgha.docuCloud.configuration.AppConfig;
+import com.ericgha.docuCloud.configuration.AwsConfig;
+import com.ericgha.docuCloud.dto.CloudUser;
+import com.ericgha.docuCloud.dto.FileDto;
+import com.ericgha.docuCloud.repository.BenchmarkSupport;
+import com.ericgha.docuCloud.testconainer.EnableMinioTestContainerContextCustomizerFactory.EnableMinioTestContainer;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import reactor.core.publisher.Flux;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares {@link LocalDiskFileStore} and {@link S3FileStore} (against MinIO) putFile and getFile throughput in MB/s.
+ * Run with {@code ./gradlew benchmark}.
+ */
+@SpringBootTest(classes = {S3FileStore.class, S3AsyncClient.class, AwsConfig.class, AppConfig.class})
+@EnableMinioTestContainer
+@ActiveProfiles(value = {"test", "s3", "dev"})
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@Tag("benchmark")
+class LocalDiskFileStoreBenchmark {
+
+    private static final int FILE_SIZE = 256 * 1024 * 1024;
+    // chunk size of a multipart/form-data upload
+    private static final int CHUNK_SIZE = 8192;
+
+    @Autowired
+    S3FileStore s3FileStore;
+
+    @TempDir
+    Path tempDir;
+
+    private final CloudUser user0 = BenchmarkSupport.BENCHMARK_USER;
+
+    private byte[] data;
+    private String checksum;
+
+    @BeforeAll
+    void createData() throws NoSuchAlgorithmException {
+        data = new byte[FILE_SIZE];
+        new Random( 0 ).nextBytes( data );
+        checksum = Base64.getEncoder().encodeToString( MessageDigest.getInstance( "SHA-1" ).digest( data ) );
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @ValueSource(strings = {"local", "local-mmap", "s3"})
+    @DisplayName("putFile and getFile MB/s")
+    void putGetThroughput(String store) {
+        FileStore fileStore = switch (store) {
+            case "local" -> new LocalDiskFileStore( tempDir.resolve( store ), Long.MAX_VALUE );
+            case "local-mmap" -> new LocalDiskFileStore( tempDir.resolve( store ), 0L );
+            default -> s3FileStore;
+        };
+        fileStore.isReady().block();
+        FileDto fileDto = FileDto.builder().fileId( UUID.randomUUID() )
+                .checksum( checksum )
+                .size( (long) FILE_SIZE )
+                .build();
+        Flux<ByteBuffer> upload = Flux.range( 0, FILE_SIZE / CHUNK_SIZE )
+                .map( i -> ByteBuffer.wrap( data, i * CHUNK_SIZE, CHUNK_SIZE ) );
+
+        long start = System.nanoTime();
+        fileStore.putFile( upload, fileDto, user0 ).block();
+        long putElapsed = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        long numBytes = fileStore.getFile( fileDto, user0 )
+                .map( buffer -> (long) buffer.remaining() )
+                .reduce( 0L, Long::sum )
+                .block();
+        long getElapsed = System.nanoTime() - start;
+        assertEquals( FILE_SIZE, numBytes );
+        System.out.printf( "%-10s putFile %10.1f MB/s  getFile %10.1f MB/s%n", store,
+                FILE_SIZE / 1e6 / ( putElapsed / 1e9 ), FILE_SIZE / 1e6 / ( getElapsed / 1e9 ) );
+    }
+}
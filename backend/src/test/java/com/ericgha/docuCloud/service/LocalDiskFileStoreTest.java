@@ -0,0 +1,203 @@
+package com.ericgha.docuCloud.service;
+
+import com.ericgha.docuCloud.converter.ObjectIdentifierGenerator;
+import com.ericgha.docuCloud.dto.ByteRange;
+import com.ericgha.docuCloud.dto.CloudUser;
+import com.ericgha.docuCloud.dto.FileDto;
+import com.ericgha.docuCloud.dto.PartialFileData;
+import com.ericgha.docuCloud.exceptions.RangeNotSatisfiableException;
+import com.ericgha.docuCloud.exceptions.UploadVerificationException;
+import com.ericgha.docuCloud.util.filestore.UploadVerifier;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LocalDiskFileStoreTest {
+
+    private static final long MMAP_THRESHOLD = 1024 * 1024;
+
+    @TempDir
+    Path tempDir;
+
+    private final CloudUser user = CloudUser.builder()
+            .userId( UUID.fromString( "1234567-89ab-cdef-fedc-ba9876543210" ) )
+            .username( "unitTester" )
+            .realm( "cloud9" ).build();
+
+    Path root;
+    LocalDiskFileStore fileStore;
+
+    @BeforeEach
+    void before() {
+        root = tempDir.resolve( "store" );
+        fileStore = new LocalDiskFileStore( root, MMAP_THRESHOLD );
+        fileStore.isReady().block();
+    }
+
+    @Test
+    @DisplayName("isReady creates the root directory")
+    void isReadyCreatesRoot() {
+        assertTrue( Files.isDirectory( root ) );
+        StepVerifier.create( fileStore.createBucketIfNotExists() )
+                .expectNext( false )
+                .verifyComplete();
+    }
+
+    @ParameterizedTest(name = "{0} bytes")
+    @ValueSource(ints = {0, 1, LocalDiskFileStore.READ_BUFFER_SIZE + 1, 3 * 1024 * 1024 + 7})
+    @DisplayName("getFile returns the bytes stored by putFile, above and below the mmap threshold")
+    void putFileGetFileRoundTrip(int size) throws NoSuchAlgorithmException {
+        byte[] data = randomBytes( size );
+        FileDto fileDto = fileDtoFor( data, sha1Base64( data ) );
+        fileStore.putFile( chunked( data, 8192 ), fileDto, user )
+                .as( StepVerifier::create ).verifyComplete();
+        List<ByteBuffer> found = fileStore.getFile( fileDto, user ).collectList().block();
+        assertArrayEquals( data, concat( found ) );
+        assertTrue( found.stream().allMatch( buffer -> buffer.remaining() <= LocalDiskFileStore.READ_BUFFER_SIZE ) );
+    }
+
+    @Test
+    @DisplayName("putFile stores files under the key generated by ObjectIdentifierGenerator")
+    void putFileUsesObjectKey() throws NoSuchAlgorithmException {
+        byte[] data = randomBytes( 16 );
+        FileDto fileDto = fileDtoFor( data, sha1Base64( data ) );
+        fileStore.putFile( Flux.just( ByteBuffer.wrap( data ) ), fileDto, user ).block();
+        Path expected = root.resolve( ObjectIdentifierGenerator.generate( fileDto.getFileId(), user ).key() );
+        assertTrue( Files.isRegularFile( expected ) );
+    }
+
+    @Test
+    @DisplayName("putFile errors when the verified data does not match its checksum and leaves no file behind")
+    void putFileChecksumMismatch() throws NoSuchAlgorithmException, IOException {
+        byte[] data = randomBytes( 1024 );
+        FileDto fileDto = fileDtoFor( data, sha1Base64( new byte[]{1} ) );
+        fileStore.putFile( UploadVerifier.verify( Flux.just( ByteBuffer.wrap( data ) ), fileDto ), fileDto, user )
+                .as( StepVerifier::create ).verifyError( UploadVerificationException.class );
+        try (Stream<Path> files = Files.list( root )) {
+            assertEquals( 0, files.count() );
+        }
+    }
+
+    @Test
+    @DisplayName("putFile errors on a size mismatch and leaves no file behind")
+    void putFileSizeMismatch() throws NoSuchAlgorithmException, IOException {
+        byte[] data = randomBytes( 1024 );
+        FileDto fileDto = FileDto.builder().fileId( UUID.randomUUID() )
+                .checksum( sha1Base64( data ) )
+                .size( 1023L )
+                .build();
+        fileStore.putFile( Flux.just( ByteBuffer.wrap( data ) ), fileDto, user )
+                .as( StepVerifier::create ).verifyError( UploadVerificationException.class );
+        try (Stream<Path> files = Files.list( root )) {
+            assertEquals( 0, files.count() );
+        }
+    }
+
+    @Test
+    @DisplayName("getFile errors with NoSuchKeyException when the file does not exist")
+    void getFileNoSuchKey() {
+        FileDto fileDto = FileDto.builder().fileId( UUID.randomUUID() ).build();
+        StepVerifier.create( fileStore.getFile( fileDto, user ) )
+                .verifyError( NoSuchKeyException.class );
+    }
+
+    @ParameterizedTest(name = "{0} bytes")
+    @ValueSource(ints = {1000, 2 * 1024 * 1024})
+    @DisplayName("getFileRange returns the requested bytes and content range")
+    void getFileRange(int size) throws NoSuchAlgorithmException {
+        byte[] data = randomBytes( size );
+        FileDto fileDto = fileDtoFor( data, sha1Base64( data ) );
+        fileStore.putFile( Flux.just( ByteBuffer.wrap( data ) ), fileDto, user ).block();
+
+        PartialFileData bounded = fileStore.getFileRange( fileDto, new ByteRange( 10L, 99L ), user ).block();
+        assertEquals( String.format( "bytes 10-99/%d", size ), bounded.contentRange() );
+        assertEquals( 90, bounded.contentLength() );
+        assertArrayEquals( Arrays.copyOfRange( data, 10, 100 ), concat( bounded.data().collectList().block() ) );
+
+        PartialFileData open = fileStore.getFileRange( fileDto, new ByteRange( 500L, null ), user ).block();
+        assertEquals( String.format( "bytes 500-%d/%d", size - 1, size ), open.contentRange() );
+        assertArrayEquals( Arrays.copyOfRange( data, 500, size ), concat( open.data().collectList().block() ) );
+
+        PartialFileData suffix = fileStore.getFileRange( fileDto, new ByteRange( null, 100L ), user ).block();
+        assertEquals( String.format( "bytes %d-%d/%d", size - 100, size - 1, size ), suffix.contentRange() );
+        assertArrayEquals( Arrays.copyOfRange( data, size - 100, size ), concat( suffix.data().collectList().block() ) );
+    }
+
+    @Test
+    @DisplayName("getFileRange errors with RangeNotSatisfiableException when the range starts after the file")
+    void getFileRangeNotSatisfiable() throws NoSuchAlgorithmException {
+        byte[] data = randomBytes( 100 );
+        FileDto fileDto = fileDtoFor( data, sha1Base64( data ) );
+        fileStore.putFile( Flux.just( ByteBuffer.wrap( data ) ), fileDto, user ).block();
+        StepVerifier.create( fileStore.getFileRange( fileDto, new ByteRange( 100L, null ), user ) )
+                .verifyErrorSatisfies( e -> {
+                    assertInstanceOf( RangeNotSatisfiableException.class, e );
+                    assertEquals( "bytes */100", ( (RangeNotSatisfiableException) e ).contentRange() );
+                } );
+    }
+
+    @Test
+    @DisplayName("deleteFiles deletes files and ignores files which do not exist")
+    void deleteFiles() throws NoSuchAlgorithmException {
+        byte[] data = randomBytes( 100 );
+        FileDto fileDto = fileDtoFor( data, sha1Base64( data ) );
+        fileStore.putFile( Flux.just( ByteBuffer.wrap( data ) ), fileDto, user ).block();
+        fileStore.deleteFiles( Mono.just( List.of( fileDto.getFileId(), UUID.randomUUID() ) ), user )
+                .as( StepVerifier::create ).verifyComplete();
+        assertFalse( Files.exists( fileStore.pathOf( fileDto.getFileId(), user ) ) );
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random( size ).nextBytes( data );
+        return data;
+    }
+
+    private static Flux<ByteBuffer> chunked(byte[] data, int chunkSize) {
+        return Flux.range( 0, ( data.length + chunkSize - 1 ) / chunkSize )
+                .map( i -> ByteBuffer.wrap( data, i * chunkSize, Math.min( chunkSize, data.length - i * chunkSize ) ) );
+    }
+
+    private static FileDto fileDtoFor(byte[] data, String checksum) {
+        return FileDto.builder().fileId( UUID.randomUUID() )
+                .checksum( checksum )
+                .size( (long) data.length )
+                .build();
+    }
+
+    private static String sha1Base64(byte[] data) throws NoSuchAlgorithmException {
+        return Base64.getEncoder().encodeToString( MessageDigest.getInstance( "SHA-1" ).digest( data ) );
+    }
+
+    private static byte[] concat(List<ByteBuffer> buffers) {
+        ByteBuffer joined = ByteBuffer.allocate( buffers.stream().mapToInt( ByteBuffer::remaining ).sum() );
+        buffers.forEach( buffer -> joined.put( buffer.duplicate() ) );
+        return joined.array();
+    }
+}
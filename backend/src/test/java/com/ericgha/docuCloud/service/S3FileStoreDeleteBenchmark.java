@@ -0,0 +1,72 @@
+package com.ericgha.docuCloud.service;
+
+import com.ericgha.docuCloud.configuration.AppConfig;
+import com.ericgha.docuCloud.configuration.AwsConfig;
+import com.ericgha.docuCloud.converter.ObjectIdentifierGenerator;
+import com.ericgha.docuCloud.dto.CloudUser;
+import com.ericgha.docuCloud.repository.BenchmarkSupport;
+import com.ericgha.docuCloud.testconainer.EnableMinioTestContainerContextCustomizerFactory.EnableMinioTestContainer;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.Bucket;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Measures {@link S3FileStore#deleteFiles} throughput in keys/second against MinIO.  Run with
+ * {@code ./gradlew benchmark}.
+ */
+@SpringBootTest(classes = {S3FileStore.class, S3AsyncClient.class, AwsConfig.class, AppConfig.class})
+@EnableMinioTestContainer
+@ActiveProfiles(value = {"test", "s3", "dev"})
+@Tag("benchmark")
+class S3FileStoreDeleteBenchmark {
+
+    private static final int PUT_CONCURRENCY = 32;
+
+    @Autowired
+    S3FileStore s3FileStore;
+
+    @Autowired
+    S3AsyncClient s3Client;
+
+    @Autowired
+    Bucket bucket;
+
+    private final CloudUser user0 = BenchmarkSupport.BENCHMARK_USER;
+
+    @ParameterizedTest(name = "{0} keys")
+    @ValueSource(ints = {1_000, 10_000, 50_000})
+    @DisplayName("deleteFiles keys/second")
+    void deleteFilesThroughput(int numKeys) {
+        List<UUID> fileIds = Stream.generate( UUID::randomUUID ).limit( numKeys ).toList();
+        Flux.fromIterable( fileIds )
+                .flatMap( fileId -> Mono.fromFuture( () -> s3Client.putObject( PutObjectRequest.builder()
+                                .bucket( bucket.name() )
+                                .key( ObjectIdentifierGenerator.generate( fileId, user0 ).key() )
+                                .build(),
+                        AsyncRequestBody.fromBytes( new byte[0] ) ) ), PUT_CONCURRENCY )
+                .blockLast();
+        long start = System.nanoTime();
+        s3FileStore.deleteFiles( Mono.just( fileIds ), user0 ).block();
+        long elapsed = System.nanoTime() - start;
+        // bucket should now be empty
+        assertEquals( 0, s3FileStore.listObjects().count().block() );
+        System.out.printf( "deleteFiles n: %7d  %10.3f ms  %10.0f keys/s%n",
+                numKeys, elapsed / 1e6, numKeys / ( elapsed / 1e9 ) );
+    }
+}
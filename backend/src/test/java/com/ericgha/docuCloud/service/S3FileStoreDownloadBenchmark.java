@@ -0,0 +1,89 @@
+package com.ericgha.docuCloud.service;
+
+import com.ericgha.docuCloud.configuration.AppConfig;
+import com.ericgha.docuCloud.configuration.AwsConfig;
+import com.ericgha.docuCloud.configuration.S3TransferSettings;
+import com.ericgha.docuCloud.dto.CloudUser;
+import com.ericgha.docuCloud.dto.FileDto;
+import com.ericgha.docuCloud.repository.BenchmarkSupport;
+import com.ericgha.docuCloud.testconainer.EnableMinioTestContainerContextCustomizerFactory.EnableMinioTestContainer;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import reactor.core.publisher.Flux;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.Bucket;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Measures {@link S3FileStore#getFile} throughput in MB/s against MinIO for a single request download and for ranged
+ * downloads with increasing concurrency.  Run with {@code ./gradlew benchmark}.
+ */
+@SpringBootTest(classes = {S3FileStore.class, S3AsyncClient.class, AwsConfig.class, AppConfig.class})
+@EnableMinioTestContainer
+@ActiveProfiles(value = {"test", "s3", "dev"})
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@Tag("benchmark")
+class S3FileStoreDownloadBenchmark {
+
+    private static final int FILE_SIZE = 512 * 1024 * 1024;
+    private static final int DOWNLOAD_PART_SIZE = 8 * 1024 * 1024;
+
+    @Autowired
+    S3FileStore s3FileStore;
+
+    @Autowired
+    S3AsyncClient s3Client;
+
+    @Autowired
+    Bucket bucket;
+
+    private final CloudUser user0 = BenchmarkSupport.BENCHMARK_USER;
+
+    private FileDto fileDto;
+
+    @BeforeAll
+    void putFile() throws NoSuchAlgorithmException {
+        byte[] data = new byte[FILE_SIZE];
+        new Random( 0 ).nextBytes( data );
+        fileDto = FileDto.builder().fileId( UUID.randomUUID() )
+                .checksum( Base64.getEncoder().encodeToString( MessageDigest.getInstance( "SHA-1" ).digest( data ) ) )
+                .size( (long) FILE_SIZE )
+                .build();
+        s3FileStore.putFile( Flux.just( ByteBuffer.wrap( data ) ), fileDto, user0 ).block();
+    }
+
+    @ParameterizedTest(name = "concurrency {0}")
+    @ValueSource(ints = {0, 1, 2, 4, 8})
+    @DisplayName("getFile MB/s, concurrency 0 is a single request download")
+    void getFileThroughput(int downloadConcurrency) {
+        S3TransferSettings defaults = S3TransferSettings.DEFAULT;
+        S3TransferSettings settings = new S3TransferSettings( defaults.multipartThreshold(), defaults.partSize(),
+                defaults.partConcurrency(), downloadConcurrency == 0 ? Integer.MAX_VALUE : DOWNLOAD_PART_SIZE,
+                Math.max( 1, downloadConcurrency ) );
+        S3FileStore downloadStore = new S3FileStore( s3Client, bucket, settings );
+        long start = System.nanoTime();
+        long numBytes = downloadStore.getFile( fileDto, user0 )
+                .map( buffer -> (long) buffer.remaining() )
+                .reduce( 0L, Long::sum )
+                .block();
+        long elapsed = System.nanoTime() - start;
+        assertEquals( FILE_SIZE, numBytes );
+        System.out.printf( "getFile concurrency: %2d  %10.3f ms  %10.1f MB/s%n",
+                downloadConcurrency, elapsed / 1e6, FILE_SIZE / 1e6 / ( elapsed / 1e9 ) );
+    }
+}
@@ -2,8 +2,11 @@ package com.ericgha.docuCloud.service;
 
 import com.ericgha.docuCloud.configuration.AppConfig;
 import com.ericgha.docuCloud.configuration.AwsConfig;
+import com.ericgha.docuCloud.configuration.S3TransferSettings;
+import com.ericgha.docuCloud.dto.ByteRange;
 import com.ericgha.docuCloud.dto.CloudUser;
 import com.ericgha.docuCloud.dto.FileDto;
+import com.ericgha.docuCloud.exceptions.RangeNotSatisfiableException;
 import com.ericgha.docuCloud.testconainer.EnableMinioTestContainerContextCustomizerFactory.EnableMinioTestContainer;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -18,14 +21,19 @@ import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.model.Bucket;
 import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 
+import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.List;
+import java.util.Random;
 import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
 
 
 @SpringBootTest(classes = {S3FileStore.class, S3AsyncClient.class, AwsConfig.class, AppConfig.class})
@@ -155,4 +163,129 @@ public class S3FileStoreIntTest {
         putMono.then(delMono).thenMany( existsMono ).as(StepVerifier::create)
                 .expectError( NoSuchKeyException.class ).verify();
     }
+
+    @Test
+    @DisplayName( "putFile uploads a file above the multipart threshold in parts which getFile returns" )
+    void putFileMultipartUploadsFile() throws NoSuchAlgorithmException {
+        S3TransferSettings settings = new S3TransferSettings( S3TransferSettings.MIN_PART_SIZE,
+                S3TransferSettings.MIN_PART_SIZE, 2,
+                S3TransferSettings.DEFAULT.downloadPartSize(), S3TransferSettings.DEFAULT.downloadConcurrency() );
+        S3FileStore multipartStore = new S3FileStore( s3Client, bucket, settings );
+        byte[] data = new byte[2 * S3TransferSettings.MIN_PART_SIZE + 1024];
+        new Random( 0 ).nextBytes( data );
+        byte[] digest = MessageDigest.getInstance( "SHA-1" ).digest( data );
+        String checksum = Base64.getEncoder().encodeToString( digest );
+        // many small buffers, as from a multipart/form-data upload
+        Flux<ByteBuffer> dataFlux = Flux.range( 0, data.length / 8192 + 1 )
+                .map( i -> ByteBuffer.wrap( data, i * 8192, Math.min( 8192, data.length - i * 8192 ) ) );
+        FileDto fileDto = FileDto.builder().fileId( UUID.randomUUID() )
+                .checksum( checksum )
+                .size( (long) data.length )
+                .build();
+        var putMono = Mono.defer( () -> multipartStore.putFile( dataFlux, fileDto, user0 ) );
+        var getMono = Mono.defer( () -> multipartStore.getFile( fileDto, user0 )
+                .reduce( new ByteArrayOutputStream(), (out, buffer) -> {
+                    byte[] bytes = new byte[buffer.remaining()];
+                    buffer.get( bytes );
+                    out.writeBytes( bytes );
+                    return out;
+                } ) );
+        StepVerifier.create( putMono.then( getMono ) )
+                .assertNext( out -> assertArrayEquals( data, out.toByteArray() ) )
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName( "getFileRange returns only the bytes of the range and its content range" )
+    void getFileRangeReturnsRange() {
+        byte[] data = new byte[256];
+        new Random( 0 ).nextBytes( data );
+        FileDto fileDto = putRandomFile( data );
+        var rangeMono = s3FileStore.getFileRange( fileDto, new ByteRange( 10L, 19L ), user0 )
+                .flatMap( partial -> partial.data()
+                        .reduce( new ByteArrayOutputStream(), S3FileStoreIntTest::writeTo )
+                        .map( out -> new PartialResult( partial.contentRange(), partial.contentLength(), out.toByteArray() ) ) );
+        StepVerifier.create( rangeMono )
+                .assertNext( result -> {
+                    assertEquals( "bytes 10-19/256", result.contentRange() );
+                    assertEquals( 10, result.contentLength() );
+                    assertArrayEquals( Arrays.copyOfRange( data, 10, 20 ), result.data() );
+                } )
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName( "getFileRange returns the end of the file for a suffix range" )
+    void getFileRangeReturnsSuffix() {
+        byte[] data = new byte[256];
+        new Random( 0 ).nextBytes( data );
+        FileDto fileDto = putRandomFile( data );
+        var rangeMono = s3FileStore.getFileRange( fileDto, new ByteRange( null, 16L ), user0 )
+                .flatMap( partial -> partial.data()
+                        .reduce( new ByteArrayOutputStream(), S3FileStoreIntTest::writeTo ) );
+        StepVerifier.create( rangeMono )
+                .assertNext( out -> assertArrayEquals( Arrays.copyOfRange( data, 240, 256 ), out.toByteArray() ) )
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName( "getFileRange throws a RangeNotSatisfiableException when the range starts after the end of the file" )
+    void getFileRangeThrowsWhenNotSatisfiable() {
+        FileDto fileDto = putRandomFile( new byte[256] );
+        StepVerifier.create( s3FileStore.getFileRange( fileDto, new ByteRange( 256L, null ), user0 ) )
+                .verifyErrorSatisfies( e -> {
+                    assertInstanceOf( RangeNotSatisfiableException.class, e );
+                    assertEquals( "bytes */256", ( (RangeNotSatisfiableException) e ).contentRange() );
+                } );
+    }
+
+    @Test
+    @DisplayName( "getFile downloads a file larger than downloadPartSize in ranges" )
+    void getFileDownloadsInRanges() {
+        S3TransferSettings defaults = S3TransferSettings.DEFAULT;
+        S3FileStore rangedStore = new S3FileStore( s3Client, bucket, new S3TransferSettings(
+                defaults.multipartThreshold(), defaults.partSize(), defaults.partConcurrency(), 1024 * 1024, 3 ) );
+        byte[] data = new byte[10 * 1024 * 1024 + 17];
+        new Random( 0 ).nextBytes( data );
+        FileDto fileDto = putRandomFile( data );
+        StepVerifier.create( rangedStore.getFile( fileDto, user0 )
+                        .reduce( new ByteArrayOutputStream(), S3FileStoreIntTest::writeTo ) )
+                .assertNext( out -> assertArrayEquals( data, out.toByteArray() ) )
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName( "getFile downloads an empty file of unknown size" )
+    void getFileDownloadsEmptyFile() {
+        FileDto fileDto = putRandomFile( new byte[0] );
+        FileDto unknownSize = FileDto.builder().fileId( fileDto.getFileId() ).build();
+        StepVerifier.create( s3FileStore.getFile( unknownSize, user0 )
+                        .reduce( new ByteArrayOutputStream(), S3FileStoreIntTest::writeTo ) )
+                .assertNext( out -> assertEquals( 0, out.size() ) )
+                .verifyComplete();
+    }
+
+    private FileDto putRandomFile(byte[] data) {
+        try {
+            String checksum = Base64.getEncoder().encodeToString( MessageDigest.getInstance( "SHA-1" ).digest( data ) );
+            FileDto fileDto = FileDto.builder().fileId( UUID.randomUUID() )
+                    .checksum( checksum )
+                    .size( (long) data.length )
+                    .build();
+            s3FileStore.putFile( Flux.just( ByteBuffer.wrap( data ) ), fileDto, user0 ).block();
+            return fileDto;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    private static ByteArrayOutputStream writeTo(ByteArrayOutputStream out, ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get( bytes );
+        out.writeBytes( bytes );
+        return out;
+    }
+
+    private record PartialResult(String contentRange, long contentLength, byte[] data) {
+    }
 }
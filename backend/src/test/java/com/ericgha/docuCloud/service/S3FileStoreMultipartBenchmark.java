@@ -0,0 +1,78 @@
+package com.ericgha.docuCloud.service;
+
+import com.ericgha.docuCloud.configuration.AppConfig;
+import com.ericgha.docuCloud.configuration.AwsConfig;
+import com.ericgha.docuCloud.configuration.S3TransferSettings;
+import com.ericgha.docuCloud.dto.CloudUser;
+import com.ericgha.docuCloud.dto.FileDto;
+import com.ericgha.docuCloud.repository.BenchmarkSupport;
+import com.ericgha.docuCloud.testconainer.EnableMinioTestContainerContextCustomizerFactory.EnableMinioTestContainer;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import reactor.core.publisher.Flux;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.Bucket;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Measures {@link S3FileStore#putFile} throughput in MB/s against MinIO for a single request upload and for
+ * multipart uploads with increasing part concurrency.  Run with {@code ./gradlew benchmark}.
+ */
+@SpringBootTest(classes = {S3FileStore.class, S3AsyncClient.class, AwsConfig.class, AppConfig.class})
+@EnableMinioTestContainer
+@ActiveProfiles(value = {"test", "s3", "dev"})
+@Tag("benchmark")
+class S3FileStoreMultipartBenchmark {
+
+    private static final int FILE_SIZE = 256 * 1024 * 1024;
+    private static final int PART_SIZE = 16 * 1024 * 1024;
+    // chunk size of a multipart/form-data upload
+    private static final int CHUNK_SIZE = 8192;
+
+    @Autowired
+    S3AsyncClient s3Client;
+
+    @Autowired
+    Bucket bucket;
+
+    private final CloudUser user0 = BenchmarkSupport.BENCHMARK_USER;
+
+    private static final byte[] DATA = new byte[FILE_SIZE];
+
+    static {
+        new Random( 0 ).nextBytes( DATA );
+    }
+
+    @ParameterizedTest(name = "part concurrency {0}")
+    @ValueSource(ints = {0, 1, 2, 4, 8})
+    @DisplayName("putFile MB/s, part concurrency 0 is a single request upload")
+    void putFileThroughput(int partConcurrency) throws NoSuchAlgorithmException {
+        S3TransferSettings defaults = S3TransferSettings.DEFAULT;
+        S3TransferSettings settings = new S3TransferSettings( partConcurrency == 0 ? Long.MAX_VALUE : PART_SIZE,
+                PART_SIZE, Math.max( 1, partConcurrency ),
+                defaults.downloadPartSize(), defaults.downloadConcurrency() );
+        S3FileStore s3FileStore = new S3FileStore( s3Client, bucket, settings );
+        FileDto fileDto = FileDto.builder().fileId( UUID.randomUUID() )
+                .checksum( Base64.getEncoder().encodeToString( MessageDigest.getInstance( "SHA-1" ).digest( DATA ) ) )
+                .size( (long) FILE_SIZE )
+                .build();
+        Flux<ByteBuffer> data = Flux.range( 0, FILE_SIZE / CHUNK_SIZE )
+                .map( i -> ByteBuffer.wrap( DATA, i * CHUNK_SIZE, CHUNK_SIZE ) );
+        long start = System.nanoTime();
+        s3FileStore.putFile( data, fileDto, user0 ).block();
+        long elapsed = System.nanoTime() - start;
+        System.out.printf( "putFile concurrency: %2d  %10.3f ms  %10.1f MB/s%n",
+                partConcurrency, elapsed / 1e6, FILE_SIZE / 1e6 / ( elapsed / 1e9 ) );
+    }
+}
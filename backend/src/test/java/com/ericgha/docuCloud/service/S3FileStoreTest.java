@@ -1,28 +1,68 @@
 package com.ericgha.docuCloud.service;
 
+import com.ericgha.docuCloud.configuration.S3TransferSettings;
 import com.ericgha.docuCloud.converter.ObjectIdentifierGenerator;
+import com.ericgha.docuCloud.dto.ByteRange;
 import com.ericgha.docuCloud.dto.CloudUser;
+import com.ericgha.docuCloud.dto.FileDto;
+import com.ericgha.docuCloud.dto.PartialFileData;
+import com.ericgha.docuCloud.exceptions.DeleteFailureException;
+import com.ericgha.docuCloud.exceptions.UploadVerificationException;
+import com.ericgha.docuCloud.util.filestore.UploadVerifier;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.test.context.ActiveProfiles;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.async.ResponsePublisher;
+import software.amazon.awssdk.core.async.SdkPublisher;
 import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
 import software.amazon.awssdk.services.s3.model.Bucket;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
 import software.amazon.awssdk.services.s3.model.CreateBucketRequest;
 import software.amazon.awssdk.services.s3.model.CreateBucketResponse;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
 import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
 import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Error;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
 
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
+import java.util.Base64;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
@@ -51,15 +91,244 @@ public class S3FileStoreTest {
     }
 
     @Test
-    @DisplayName("deleteObjects throws IllegalArgumentException when num objects to delete is greater than DELETE_FILES_MAX")
-    void deleteObjectsThrowsIllegalArgumentExceptionWhenTooManyObjects() {
+    @DisplayName("deleteObjects splits more than DELETE_FILES_MAX objects into batches of at most DELETE_FILES_MAX")
+    void deleteObjectsSendsBatchesWhenTooManyObjects() {
+        doReturn( Mono.just( DeleteObjectsResponse.builder().build() ).toFuture() )
+                .when( S3ClientMock ).deleteObjects( any( DeleteObjectsRequest.class ) );
+        List<ObjectIdentifier> toDelete = ObjectIdentifierGenerator.generate(
+                Stream.generate( UUID::randomUUID )
+                        .limit( s3FileStore.getDeleteFilesMax() * 2L + 1 )
+                        .toList(), user );
+        s3FileStore.deleteObjects( Flux.fromIterable( toDelete ) ).as( StepVerifier::create ).verifyComplete();
+        ArgumentCaptor<DeleteObjectsRequest> requests = ArgumentCaptor.forClass( DeleteObjectsRequest.class );
+        verify( S3ClientMock, times( 3 ) ).deleteObjects( requests.capture() );
+        List<ObjectIdentifier> found = requests.getAllValues().stream()
+                .peek( request -> assertTrue( request.delete().objects().size() <= s3FileStore.getDeleteFilesMax() ) )
+                .flatMap( request -> request.delete().objects().stream() )
+                .toList();
+        assertEquals( Set.copyOf( toDelete ), Set.copyOf( found ) );
+    }
+
+    @Test
+    @DisplayName("deleteObjects attempts all batches and then errors when a batch has errors")
+    void deleteObjectsAttemptsAllBatchesWhenBatchFails() {
+        DeleteObjectsResponse errorResponse = DeleteObjectsResponse.builder()
+                .errors( S3Error.builder().key( "key" ).code( "InternalError" ).build() )
+                .build();
+        doReturn( Mono.just( errorResponse ).toFuture() )
+                .doReturn( Mono.just( DeleteObjectsResponse.builder().build() ).toFuture() )
+                .when( S3ClientMock ).deleteObjects( any( DeleteObjectsRequest.class ) );
         List<ObjectIdentifier> toDelete = ObjectIdentifierGenerator.generate(
                 Stream.generate( UUID::randomUUID )
                         .limit( s3FileStore.getDeleteFilesMax() + 1 )
                         .toList(), user );
-        // No request should be sent if num files exceeds DELETE_FILES_MAX
-        verify( S3ClientMock, times( 0 ) )
-                .deleteObjects( any( DeleteObjectsRequest.class ) );
-        s3FileStore.deleteObjects( Mono.just( toDelete ) ).as( StepVerifier::create ).verifyError( IllegalArgumentException.class );
+        s3FileStore.deleteObjects( Flux.fromIterable( toDelete ) ).as( StepVerifier::create )
+                .verifyError( DeleteFailureException.class );
+        verify( S3ClientMock, times( 2 ) ).deleteObjects( any( DeleteObjectsRequest.class ) );
+    }
+
+    @Test
+    @DisplayName("splitParts re-chunks buffers into parts of partSize bytes with a smaller last part")
+    void splitPartsSplitsIntoFixedSizeParts() {
+        byte[] data = new byte[15];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        Flux<ByteBuffer> buffers = Flux.just( ByteBuffer.wrap( data, 0, 3 ),
+                ByteBuffer.wrap( data, 3, 10 ), ByteBuffer.wrap( data, 13, 2 ) );
+        List<byte[]> parts = S3FileStore.splitParts( buffers, 4 )
+                .map( S3FileStoreTest::concat )
+                .collectList().block();
+        assertEquals( List.of( 4, 4, 4, 3 ), parts.stream().map( part -> part.length ).toList() );
+        assertArrayEquals( data, concat( parts.stream().map( ByteBuffer::wrap ).toList() ) );
+    }
+
+    @Test
+    @DisplayName("putFile uploads files at or above the multipart threshold in parts and completes the upload")
+    void putFileUploadsMultipartAboveThreshold() throws NoSuchAlgorithmException {
+        S3TransferSettings settings = new S3TransferSettings( S3TransferSettings.MIN_PART_SIZE,
+                S3TransferSettings.MIN_PART_SIZE, 2,
+                S3TransferSettings.DEFAULT.downloadPartSize(), S3TransferSettings.DEFAULT.downloadConcurrency() );
+        s3FileStore = new S3FileStore( S3ClientMock, bucket, settings );
+        stubMultipartUpload();
+        byte[] data = new byte[2 * S3TransferSettings.MIN_PART_SIZE + 1];
+        FileDto fileDto = fileDtoFor( data, sha1Base64( data ) );
+        s3FileStore.putFile( Flux.just( ByteBuffer.wrap( data ) ), fileDto, user )
+                .as( StepVerifier::create ).verifyComplete();
+        ArgumentCaptor<UploadPartRequest> parts = ArgumentCaptor.forClass( UploadPartRequest.class );
+        verify( S3ClientMock, times( 3 ) ).uploadPart( parts.capture(), any( AsyncRequestBody.class ) );
+        assertEquals( List.of( 1, 2, 3 ), parts.getAllValues().stream().map( UploadPartRequest::partNumber ).sorted().toList() );
+        ArgumentCaptor<CompleteMultipartUploadRequest> complete = ArgumentCaptor.forClass( CompleteMultipartUploadRequest.class );
+        verify( S3ClientMock ).completeMultipartUpload( complete.capture() );
+        assertEquals( List.of( 1, 2, 3 ), complete.getValue().multipartUpload().parts().stream()
+                .map( CompletedPart::partNumber ).toList() );
+        verify( S3ClientMock, never() ).abortMultipartUpload( any( AbortMultipartUploadRequest.class ) );
+        verify( S3ClientMock, never() ).putObject( any( PutObjectRequest.class ), any( AsyncRequestBody.class ) );
+    }
+
+    @Test
+    @DisplayName("putFile aborts a multipart upload when the verified data does not match its checksum")
+    void putFileAbortsMultipartOnChecksumMismatch() throws NoSuchAlgorithmException {
+        S3TransferSettings settings = new S3TransferSettings( S3TransferSettings.MIN_PART_SIZE,
+                S3TransferSettings.MIN_PART_SIZE, 2,
+                S3TransferSettings.DEFAULT.downloadPartSize(), S3TransferSettings.DEFAULT.downloadConcurrency() );
+        s3FileStore = new S3FileStore( S3ClientMock, bucket, settings );
+        stubMultipartUpload();
+        doReturn( Mono.just( AbortMultipartUploadResponse.builder().build() ).toFuture() )
+                .when( S3ClientMock ).abortMultipartUpload( any( AbortMultipartUploadRequest.class ) );
+        byte[] data = new byte[S3TransferSettings.MIN_PART_SIZE + 1];
+        FileDto fileDto = fileDtoFor( data, sha1Base64( new byte[]{1} ) );
+        s3FileStore.putFile( UploadVerifier.verify( Flux.just( ByteBuffer.wrap( data ) ), fileDto ), fileDto, user )
+                .as( StepVerifier::create ).verifyError( UploadVerificationException.class );
+        verify( S3ClientMock ).abortMultipartUpload( any( AbortMultipartUploadRequest.class ) );
+        verify( S3ClientMock, never() ).completeMultipartUpload( any( CompleteMultipartUploadRequest.class ) );
+    }
+
+    @Test
+    @DisplayName("putFile aborts a multipart upload when the size of the data does not match")
+    void putFileAbortsMultipartOnSizeMismatch() throws NoSuchAlgorithmException {
+        S3TransferSettings settings = new S3TransferSettings( S3TransferSettings.MIN_PART_SIZE,
+                S3TransferSettings.MIN_PART_SIZE, 2,
+                S3TransferSettings.DEFAULT.downloadPartSize(), S3TransferSettings.DEFAULT.downloadConcurrency() );
+        s3FileStore = new S3FileStore( S3ClientMock, bucket, settings );
+        stubMultipartUpload();
+        doReturn( Mono.just( AbortMultipartUploadResponse.builder().build() ).toFuture() )
+                .when( S3ClientMock ).abortMultipartUpload( any( AbortMultipartUploadRequest.class ) );
+        byte[] data = new byte[S3TransferSettings.MIN_PART_SIZE + 1];
+        FileDto fileDto = FileDto.builder().fileId( UUID.randomUUID() )
+                .checksum( sha1Base64( data ) )
+                .size( data.length + 1L )
+                .build();
+        s3FileStore.putFile( Flux.just( ByteBuffer.wrap( data ) ), fileDto, user )
+                .as( StepVerifier::create ).verifyError( UploadVerificationException.class );
+        verify( S3ClientMock ).abortMultipartUpload( any( AbortMultipartUploadRequest.class ) );
+        verify( S3ClientMock, never() ).completeMultipartUpload( any( CompleteMultipartUploadRequest.class ) );
+    }
+
+    private void stubMultipartUpload() {
+        doReturn( Mono.just( CreateMultipartUploadResponse.builder().uploadId( "uploadId" ).build() ).toFuture() )
+                .when( S3ClientMock ).createMultipartUpload( any( CreateMultipartUploadRequest.class ) );
+        doAnswer( invocation -> Mono.just( UploadPartResponse.builder()
+                .eTag( "eTag" + invocation.getArgument( 0, UploadPartRequest.class ).partNumber() )
+                .build() ).toFuture() )
+                .when( S3ClientMock ).uploadPart( any( UploadPartRequest.class ), any( AsyncRequestBody.class ) );
+        lenient().doReturn( Mono.just( CompleteMultipartUploadResponse.builder().build() ).toFuture() )
+                .when( S3ClientMock ).completeMultipartUpload( any( CompleteMultipartUploadRequest.class ) );
+    }
+
+    private static FileDto fileDtoFor(byte[] data, String checksum) {
+        return FileDto.builder().fileId( UUID.randomUUID() )
+                .checksum( checksum )
+                .size( (long) data.length )
+                .build();
+    }
+
+    private static String sha1Base64(byte[] data) throws NoSuchAlgorithmException {
+        return Base64.getEncoder().encodeToString( MessageDigest.getInstance( "SHA-1" ).digest( data ) );
+    }
+
+    private static byte[] concat(List<ByteBuffer> buffers) {
+        ByteBuffer joined = ByteBuffer.allocate( buffers.stream().mapToInt( ByteBuffer::remaining ).sum() );
+        buffers.forEach( buffer -> joined.put( buffer.duplicate() ) );
+        return joined.array();
+    }
+
+    @Test
+    @DisplayName("getFile downloads files larger than downloadPartSize in ranges and reassembles them in order")
+    void getFileDownloadsRangesInOrder() {
+        S3TransferSettings defaults = S3TransferSettings.DEFAULT;
+        S3TransferSettings settings = new S3TransferSettings( defaults.multipartThreshold(), defaults.partSize(),
+                defaults.partConcurrency(), 4, 2 );
+        s3FileStore = new S3FileStore( S3ClientMock, bucket, settings );
+        byte[] data = "0123456789".getBytes();
+        doAnswer( invocation -> {
+            String range = invocation.getArgument( 0, GetObjectRequest.class ).range();
+            ByteRange byteRange = ByteRange.parseSingle( range ).orElseThrow();
+            int first = byteRange.first().intValue();
+            int last = Math.min( byteRange.last().intValue(), data.length - 1 );
+            GetObjectResponse response = GetObjectResponse.builder()
+                    .contentRange( String.format( "bytes %d-%d/%d", first, last, data.length ) )
+                    .contentLength( (long) last - first + 1 )
+                    .build();
+            // later ranges respond first
+            Flux<ByteBuffer> body = Flux.just( ByteBuffer.wrap( data, first, last - first + 1 ) )
+                    .delayElements( Duration.ofMillis( 50L - 10L * first / 4 ) );
+            return Mono.just( new ResponsePublisher<>( response, SdkPublisher.adapt( body ) ) ).toFuture();
+        } ).when( S3ClientMock ).getObject( any( GetObjectRequest.class ), any( AsyncResponseTransformer.class ) );
+        FileDto fileDto = FileDto.builder().fileId( UUID.randomUUID() ).build();
+        byte[] found = concat( s3FileStore.getFile( fileDto, user ).collectList().block() );
+        assertArrayEquals( data, found );
+        ArgumentCaptor<GetObjectRequest> requests = ArgumentCaptor.forClass( GetObjectRequest.class );
+        verify( S3ClientMock, times( 3 ) ).getObject( requests.capture(), any( AsyncResponseTransformer.class ) );
+        assertEquals( List.of( "bytes=0-3", "bytes=4-7", "bytes=8-9" ),
+                requests.getAllValues().stream().map( GetObjectRequest::range ).toList() );
+    }
+
+    @Test
+    @DisplayName("getFile fetches at most downloadConcurrency + 1 ranges ahead of a slow subscriber")
+    void getFileBoundsRangesAheadOfSlowSubscriber() {
+        S3TransferSettings defaults = S3TransferSettings.DEFAULT;
+        S3TransferSettings settings = new S3TransferSettings( defaults.multipartThreshold(), defaults.partSize(),
+                defaults.partConcurrency(), 4, 2 );
+        s3FileStore = new S3FileStore( S3ClientMock, bucket, settings );
+        byte[] data = new byte[40];
+        AtomicInteger numRequests = new AtomicInteger();
+        doAnswer( invocation -> {
+            numRequests.incrementAndGet();
+            String range = invocation.getArgument( 0, GetObjectRequest.class ).range();
+            ByteRange byteRange = ByteRange.parseSingle( range ).orElseThrow();
+            int first = byteRange.first().intValue();
+            int last = Math.min( byteRange.last().intValue(), data.length - 1 );
+            GetObjectResponse response = GetObjectResponse.builder()
+                    .contentRange( String.format( "bytes %d-%d/%d", first, last, data.length ) )
+                    .contentLength( (long) last - first + 1 )
+                    .build();
+            Flux<ByteBuffer> body = Flux.just( ByteBuffer.wrap( data, first, last - first + 1 ) );
+            return Mono.just( new ResponsePublisher<>( response, SdkPublisher.adapt( body ) ) ).toFuture();
+        } ).when( S3ClientMock ).getObject( any( GetObjectRequest.class ), any( AsyncResponseTransformer.class ) );
+        FileDto fileDto = FileDto.builder().fileId( UUID.randomUUID() ).size( (long) data.length ).build();
+        // the streamed first range, plus downloadConcurrency + 1 held ranges
+        int maxRequests = 1 + settings.downloadConcurrency() + 1;
+        StepVerifier.create( s3FileStore.getFile( fileDto, user ), 1 )
+                .expectNextCount( 1 )
+                .thenAwait( Duration.ofMillis( 50 ) )
+                .then( () -> assertTrue( numRequests.get() <= maxRequests,
+                        String.format( "%d ranges requested, expected at most %d", numRequests.get(), maxRequests ) ) )
+                .thenRequest( Long.MAX_VALUE )
+                .expectNextCount( 9 )
+                .verifyComplete();
+        assertEquals( 10, numRequests.get() );
+    }
+
+    @ParameterizedTest
+    @DisplayName("totalSizeOf returns the size of the file of a Content-Range")
+    @CsvSource(delimiter = '|', textBlock = """
+                bytes 0-99/1000 | 1000
+                bytes 0-0/1     | 1
+            """)
+    void totalSizeOfReturnsSize(String contentRange, long expected) {
+        assertEquals( expected, S3FileStore.totalSizeOf( contentRange ) );
+    }
+
+    @Test
+    @DisplayName("getFileRange returns the whole file when the response has no Content-Range")
+    void getFileRangeWithoutContentRange() {
+        byte[] data = "0123456789".getBytes();
+        GetObjectResponse response = GetObjectResponse.builder()
+                .contentLength( (long) data.length )
+                .build();
+        doReturn( Mono.just( new ResponsePublisher<>( response, SdkPublisher.adapt( Flux.just( ByteBuffer.wrap( data ) ) ) ) ).toFuture() )
+                .when( S3ClientMock ).getObject( any( GetObjectRequest.class ), any( AsyncResponseTransformer.class ) );
+        FileDto fileDto = FileDto.builder().fileId( UUID.randomUUID() ).build();
+        PartialFileData partial = s3FileStore.getFileRange( fileDto, new ByteRange( 2L, 3L ), user ).block();
+        assertFalse( partial.isPartial() );
+        assertEquals( data.length, partial.contentLength() );
+        assertArrayEquals( data, concat( partial.data().collectList().block() ) );
+    }
+
+    @Test
+    @DisplayName("totalSizeOf throws when the size is unknown")
+    void totalSizeOfThrowsWhenUnknown() {
+        assertThrows( IllegalArgumentException.class, () -> S3FileStore.totalSizeOf( "bytes 0-99/*" ) );
     }
 }
@@ -0,0 +1,186 @@
+package com.ericgha.docuCloud.util.archive;
+
+import com.ericgha.docuCloud.exceptions.MalformedArchiveException;
+import com.ericgha.docuCloud.util.archive.ArchiveDecoder.Entry;
+import com.ericgha.docuCloud.util.archive.ArchiveDecoder.Format;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ArchiveDecoderTest {
+
+    private static final long MAX_ENTRY_BYTES = 50_000;
+
+    @Test
+    @DisplayName("decode reads the entries of a streamed ZIP with data descriptors and computes their SHA-1")
+    void decodeZip() throws NoSuchAlgorithmException {
+        byte[] data0 = randomBytes( 20_000 );
+        byte[] data1 = randomBytes( 0 );
+        Flux<ByteBuffer> zip = ZipStreamEncoder.encode( Flux.just(
+                ZipStreamEncoder.Entry.dir( "dir0", OffsetDateTime.now() ),
+                new ZipStreamEncoder.Entry( "dir0/file0", null, Flux.just( ByteBuffer.wrap( data0 ) ) ),
+                new ZipStreamEncoder.Entry( "file1", null, Flux.just( ByteBuffer.wrap( data1 ) ) ) ),
+                Deflater.DEFAULT_COMPRESSION, 1, 1 );
+
+        List<Entry> entries = ArchiveDecoder.decode( rechunked( zip, 1000 ), Format.ZIP, MAX_ENTRY_BYTES, 4 )
+                .collectList().block();
+        assertEquals( List.of( "dir0/", "dir0/file0", "file1" ), entries.stream().map( Entry::name ).toList() );
+        assertTrue( entries.get( 0 ).isDirectory() );
+        assertEntry( data0, entries.get( 1 ) );
+        assertEntry( data1, entries.get( 2 ) );
+    }
+
+    @Test
+    @DisplayName("decode reads the entries of a TAR and skips links")
+    void decodeTar() throws IOException, NoSuchAlgorithmException {
+        byte[] data0 = randomBytes( 20_000 );
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream( out )) {
+            tar.putArchiveEntry( new TarArchiveEntry( "dir0/" ) );
+            tar.closeArchiveEntry();
+            TarArchiveEntry file0 = new TarArchiveEntry( "dir0/file0" );
+            file0.setSize( data0.length );
+            tar.putArchiveEntry( file0 );
+            tar.write( data0 );
+            tar.closeArchiveEntry();
+            TarArchiveEntry link = new TarArchiveEntry( "link0", TarArchiveEntry.LF_SYMLINK );
+            link.setLinkName( "dir0/file0" );
+            tar.putArchiveEntry( link );
+            tar.closeArchiveEntry();
+        }
+
+        List<Entry> entries = ArchiveDecoder.decode( rechunked( Flux.just( ByteBuffer.wrap( out.toByteArray() ) ), 777 ),
+                Format.TAR, MAX_ENTRY_BYTES, 4 ).collectList().block();
+        assertEquals( List.of( "dir0/", "dir0/file0", "link0" ), entries.stream().map( Entry::name ).toList() );
+        assertTrue( entries.get( 0 ).isDirectory() );
+        assertEntry( data0, entries.get( 1 ) );
+        assertTrue( entries.get( 2 ).isSkipped() );
+    }
+
+    @Test
+    @DisplayName("decode skips entries larger than maxEntryBytes and continues with the next entry")
+    void decodeSkipsLargeEntries() throws NoSuchAlgorithmException {
+        byte[] large = randomBytes( (int) MAX_ENTRY_BYTES + 1 );
+        byte[] small = randomBytes( 100 );
+        Flux<ByteBuffer> zip = ZipStreamEncoder.encode( Flux.just(
+                        new ZipStreamEncoder.Entry( "large", null, Flux.just( ByteBuffer.wrap( large ) ) ),
+                        new ZipStreamEncoder.Entry( "small", null, Flux.just( ByteBuffer.wrap( small ) ) ) ),
+                Deflater.DEFAULT_COMPRESSION, 1, 1 );
+
+        List<Entry> entries = ArchiveDecoder.decode( zip, Format.ZIP, MAX_ENTRY_BYTES, 4 ).collectList().block();
+        assertTrue( entries.get( 0 ).isSkipped() );
+        assertNull( entries.get( 0 ).data() );
+        assertEntry( small, entries.get( 1 ) );
+    }
+
+    @Test
+    @DisplayName("decode errors with MalformedArchiveException once decompressed data, including skipped data, exceeds maxTotalBytes")
+    void decodeFailsOverMaxTotalBytes() {
+        // highly compressible, the large entry is skipped but its data still counts
+        byte[] large = new byte[(int) MAX_ENTRY_BYTES * 3];
+        Flux<ByteBuffer> zip = ZipStreamEncoder.encode( Flux.just(
+                        new ZipStreamEncoder.Entry( "large", null, Flux.just( ByteBuffer.wrap( large ) ) ),
+                        new ZipStreamEncoder.Entry( "small", null, Flux.just( ByteBuffer.wrap( randomBytes( 100 ) ) ) ) ),
+                Deflater.DEFAULT_COMPRESSION, 1, 1 );
+
+        StepVerifier.create( ArchiveDecoder.decode( zip, Format.ZIP, MAX_ENTRY_BYTES, MAX_ENTRY_BYTES * 2, 10, 4 ) )
+                .verifyError( MalformedArchiveException.class );
+    }
+
+    @Test
+    @DisplayName("decode errors with MalformedArchiveException after maxEntries entries")
+    void decodeFailsOverMaxEntries() {
+        Flux<ByteBuffer> zip = ZipStreamEncoder.encode( Flux.range( 0, 3 )
+                        .map( i -> ZipStreamEncoder.Entry.dir( "dir" + i, OffsetDateTime.now() ) ),
+                Deflater.DEFAULT_COMPRESSION, 1, 1 );
+
+        StepVerifier.create( ArchiveDecoder.decode( zip, Format.ZIP, MAX_ENTRY_BYTES, Long.MAX_VALUE, 2, 4 ) )
+                .expectNextCount( 2 )
+                .verifyError( MalformedArchiveException.class );
+    }
+
+    @Test
+    @DisplayName("decode errors with MalformedArchiveException on a truncated archive")
+    void decodeTruncated() {
+        byte[] zip = concat( ZipStreamEncoder.encode( Flux.just(
+                        new ZipStreamEncoder.Entry( "file0", null, Flux.just( ByteBuffer.wrap( randomBytes( 10_000 ) ) ) ) ),
+                Deflater.NO_COMPRESSION, 1, 1 ).collectList().block() );
+        Flux<ByteBuffer> truncated = Flux.just( ByteBuffer.wrap( Arrays.copyOf( zip, 5_000 ) ) );
+        StepVerifier.create( ArchiveDecoder.decode( truncated, Format.ZIP, MAX_ENTRY_BYTES, 4 ) )
+                .verifyError( MalformedArchiveException.class );
+    }
+
+    @Test
+    @DisplayName("decode errors with MalformedArchiveException on a STORED entry with a data descriptor")
+    void decodeStoredWithDataDescriptor() {
+        byte[] zip = concat( ZipStreamEncoder.encode( Flux.just(
+                        new ZipStreamEncoder.Entry( "file0", null, Flux.just( ByteBuffer.wrap( randomBytes( 10_000 ) ) ) ) ),
+                Deflater.NO_COMPRESSION, 1, 1 ).collectList().block() );
+        // compression method of the first local header (little endian), the data descriptor flag stays set
+        zip[8] = 0;
+        zip[9] = 0;
+        StepVerifier.create( ArchiveDecoder.decode( Flux.just( ByteBuffer.wrap( zip ) ), Format.ZIP, MAX_ENTRY_BYTES, 4 ) )
+                .verifyError( MalformedArchiveException.class );
+    }
+
+    @Test
+    @DisplayName("Format is parsed from the Content-Type, ignoring parameters")
+    void formatFromContentType() {
+        assertEquals( Format.ZIP, Format.fromContentType( "application/zip" ) );
+        assertEquals( Format.TAR, Format.fromContentType( "Application/X-Tar; charset=binary" ) );
+        assertThrows( IllegalArgumentException.class, () -> Format.fromContentType( "application/json" ) );
+        assertThrows( IllegalArgumentException.class, () -> Format.fromContentType( null ) );
+    }
+
+    private static void assertEntry(byte[] expected, Entry found) throws NoSuchAlgorithmException {
+        assertFalse( found.isSkipped() );
+        assertEquals( expected.length, found.size() );
+        byte[] foundData = new byte[found.data().remaining()];
+        found.data().duplicate().get( foundData );
+        assertArrayEquals( expected, foundData );
+        assertEquals( Base64.getEncoder().encodeToString( MessageDigest.getInstance( "SHA-1" ).digest( expected ) ),
+                found.checksum() );
+    }
+
+    // splits the stream into chunks of chunkSize, so entries span chunks
+    private static Flux<ByteBuffer> rechunked(Flux<ByteBuffer> data, int chunkSize) {
+        return data.collectList()
+                .map( ArchiveDecoderTest::concat )
+                .flatMapMany( joined -> Flux.range( 0, ( joined.length + chunkSize - 1 ) / chunkSize )
+                        .map( i -> ByteBuffer.wrap( joined, i * chunkSize, Math.min( chunkSize, joined.length - i * chunkSize ) ) ) );
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random( size ).nextBytes( data );
+        return data;
+    }
+
+    private static byte[] concat(List<ByteBuffer> buffers) {
+        ByteBuffer joined = ByteBuffer.allocate( buffers.stream().mapToInt( ByteBuffer::remaining ).sum() );
+        buffers.forEach( buffer -> joined.put( buffer.duplicate() ) );
+        return joined.array();
+    }
+}
@@ -0,0 +1,114 @@
+package com.ericgha.docuCloud.util.archive;
+
+import com.ericgha.docuCloud.util.archive.ZipStreamEncoder.Entry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import reactor.core.publisher.Flux;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ZipStreamEncoderTest {
+
+    private static final OffsetDateTime MODIFIED = OffsetDateTime.of( 2022, 6, 1, 12, 0, 0, 0, ZoneOffset.UTC );
+
+    @ParameterizedTest(name = "level {0}")
+    @ValueSource(ints = {Deflater.NO_COMPRESSION, Deflater.DEFAULT_COMPRESSION, Deflater.BEST_COMPRESSION})
+    @DisplayName("encode produces an archive with the entries, in order, and their data")
+    void encodeRoundTrip(int level) throws IOException {
+        byte[] data0 = randomBytes( 100_000 );
+        byte[] data1 = randomBytes( 10 );
+        List<Entry> entries = List.of(
+                Entry.dir( "dir0", MODIFIED ),
+                new Entry( "dir0/file0", MODIFIED, chunked( data0, 8192, false ) ),
+                new Entry( "dir0/empty", MODIFIED, Flux.empty() ),
+                new Entry( "file1", null, chunked( data1, 3, false ) ) );
+
+        Map<String, byte[]> found = unzip( ZipStreamEncoder.encode( Flux.fromIterable( entries ), level, 2, 4 ) );
+        assertEquals( List.of( "dir0/", "dir0/file0", "dir0/empty", "file1" ), List.copyOf( found.keySet() ) );
+        assertArrayEquals( new byte[0], found.get( "dir0/" ) );
+        assertArrayEquals( data0, found.get( "dir0/file0" ) );
+        assertArrayEquals( new byte[0], found.get( "dir0/empty" ) );
+        assertArrayEquals( data1, found.get( "file1" ) );
+    }
+
+    @Test
+    @DisplayName("encode reads direct ByteBuffers")
+    void encodeDirectBuffers() throws IOException {
+        byte[] data = randomBytes( 20_000 );
+        Flux<Entry> entries = Flux.just( new Entry( "file0", MODIFIED, chunked( data, 4096, true ) ) );
+        assertArrayEquals( data, unzip( ZipStreamEncoder.encode( entries, Deflater.DEFAULT_COMPRESSION, 1, 1 ) )
+                .get( "file0" ) );
+    }
+
+    @Test
+    @DisplayName("encode subscribes to the data of at most concurrency entries at once")
+    void encodeBoundsConcurrency() throws IOException {
+        int concurrency = 3;
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        Flux<Entry> entries = Flux.range( 0, 20 )
+                .map( i -> new Entry( "file" + i, MODIFIED, chunked( randomBytes( 1000 ), 100, false )
+                        // keeps each entry in flight long enough to overlap with the next
+                        .delayElements( Duration.ofMillis( 1 ) )
+                        .doOnSubscribe( s -> maxInFlight.accumulateAndGet( inFlight.incrementAndGet(), Math::max ) )
+                        .doFinally( s -> inFlight.decrementAndGet() ) ) );
+        assertEquals( 20, unzip( ZipStreamEncoder.encode( entries, Deflater.DEFAULT_COMPRESSION, concurrency, 2 ) ).size() );
+        assertTrue( maxInFlight.get() <= concurrency );
+        assertTrue( maxInFlight.get() > 1 );
+    }
+
+    private static Map<String, byte[]> unzip(Flux<ByteBuffer> archive) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (ZipInputStream zip = new ZipInputStream( new ByteArrayInputStream( concat( archive.collectList().block() ) ) )) {
+            ZipEntry entry;
+            while (( entry = zip.getNextEntry() ) != null) {
+                entries.put( entry.getName(), zip.readAllBytes() );
+            }
+        }
+        return entries;
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random( size ).nextBytes( data );
+        return data;
+    }
+
+    private static Flux<ByteBuffer> chunked(byte[] data, int chunkSize, boolean direct) {
+        return Flux.range( 0, ( data.length + chunkSize - 1 ) / chunkSize )
+                .map( i -> {
+                    ByteBuffer chunk = ByteBuffer.wrap( data, i * chunkSize, Math.min( chunkSize, data.length - i * chunkSize ) );
+                    if (!direct) {
+                        return chunk;
+                    }
+                    ByteBuffer directChunk = ByteBuffer.allocateDirect( chunk.remaining() );
+                    directChunk.put( chunk ).flip();
+                    return directChunk;
+                } );
+    }
+
+    private static byte[] concat(List<ByteBuffer> buffers) {
+        ByteBuffer joined = ByteBuffer.allocate( buffers.stream().mapToInt( ByteBuffer::remaining ).sum() );
+        buffers.forEach( buffer -> joined.put( buffer.duplicate() ) );
+        return joined.array();
+    }
+}
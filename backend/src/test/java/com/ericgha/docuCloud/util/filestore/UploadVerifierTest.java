@@ -0,0 +1,112 @@
+package com.ericgha.docuCloud.util.filestore;
+
+import com.ericgha.docuCloud.dto.FileDto;
+import com.ericgha.docuCloud.exceptions.UploadVerificationException;
+import com.ericgha.docuCloud.util.filestore.UploadVerifier.Algorithm;
+import com.ericgha.docuCloud.util.filestore.UploadVerifier.Digests;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class UploadVerifierTest {
+
+    private final byte[] data = randomBytes( 10_000 );
+
+    @Test
+    @DisplayName("verify passes the same buffers through and completes when checksum and size match")
+    void verifyPassesBuffersThrough() throws NoSuchAlgorithmException {
+        List<ByteBuffer> chunks = chunked( data, 1000 );
+        List<ByteBuffer> found = new ArrayList<>();
+        StepVerifier.create( UploadVerifier.verify( Flux.fromIterable( chunks ), fileDtoOf( data, data.length ) ) )
+                .recordWith( () -> found )
+                .expectNextCount( chunks.size() )
+                .verifyComplete();
+        for (int i = 0; i < chunks.size(); i++) {
+            assertSame( chunks.get( i ), found.get( i ) );
+            assertEquals( 0, found.get( i ).position() );
+        }
+    }
+
+    @Test
+    @DisplayName("verify computes SHA-256 alongside SHA-1 in the same pass")
+    void verifyComputesAdditionalDigests() throws NoSuchAlgorithmException {
+        AtomicReference<Digests> digests = new AtomicReference<>();
+        StepVerifier.create( UploadVerifier.verify( Flux.fromIterable( chunked( data, 777 ) ), fileDtoOf( data, data.length ),
+                        Set.of( Algorithm.SHA_256 ), digests::set ) )
+                .expectNextCount( 13 )
+                .verifyComplete();
+        assertEquals( data.length, digests.get().size() );
+        assertEquals( digestOf( "SHA-1", data ), digests.get().get( Algorithm.SHA_1 ) );
+        assertEquals( digestOf( "SHA-256", data ), digests.get().get( Algorithm.SHA_256 ) );
+    }
+
+    @Test
+    @DisplayName("verify errors before completion when the checksum does not match")
+    void verifyErrorsOnChecksumMismatch() throws NoSuchAlgorithmException {
+        FileDto expected = fileDtoOf( randomBytes( data.length + 1 ), data.length );
+        StepVerifier.create( UploadVerifier.verify( Flux.fromIterable( chunked( data, 1000 ) ), expected ) )
+                .expectNextCount( 10 )
+                .verifyError( UploadVerificationException.class );
+    }
+
+    @Test
+    @DisplayName("verify errors before completion when fewer bytes than the declared size are received")
+    void verifyErrorsOnSizeUnderrun() throws NoSuchAlgorithmException {
+        StepVerifier.create( UploadVerifier.verify( Flux.fromIterable( chunked( data, 1000 ) ), fileDtoOf( data, data.length + 1 ) ) )
+                .expectNextCount( 10 )
+                .verifyError( UploadVerificationException.class );
+    }
+
+    @Test
+    @DisplayName("verify errors and cancels the upload as soon as the declared size is exceeded")
+    void verifyCutsOverrunShort() throws NoSuchAlgorithmException {
+        AtomicInteger requested = new AtomicInteger();
+        Flux<ByteBuffer> upload = Flux.fromIterable( chunked( data, 1000 ) )
+                .doOnNext( buffer -> requested.incrementAndGet() );
+        StepVerifier.create( UploadVerifier.verify( upload, fileDtoOf( data, 2500 ) ), 0 )
+                .thenRequest( Long.MAX_VALUE )
+                .expectNextCount( 2 )
+                .verifyError( UploadVerificationException.class );
+        assertEquals( 3, requested.get() );
+    }
+
+    private static FileDto fileDtoOf(byte[] data, long size) throws NoSuchAlgorithmException {
+        return FileDto.builder()
+                .checksum( digestOf( "SHA-1", data ) )
+                .size( size )
+                .build();
+    }
+
+    private static String digestOf(String algorithm, byte[] data) throws NoSuchAlgorithmException {
+        return Base64.getEncoder().encodeToString( MessageDigest.getInstance( algorithm ).digest( data ) );
+    }
+
+    private static List<ByteBuffer> chunked(byte[] data, int chunkSize) {
+        List<ByteBuffer> chunks = new ArrayList<>();
+        for (int i = 0; i < data.length; i += chunkSize) {
+            chunks.add( ByteBuffer.wrap( data, i, Math.min( chunkSize, data.length - i ) ).slice() );
+        }
+        return chunks;
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random( size ).nextBytes( data );
+        return data;
+    }
+}
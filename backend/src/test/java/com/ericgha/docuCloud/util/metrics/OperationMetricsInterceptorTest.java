@@ -0,0 +1,125 @@
+package com.ericgha.docuCloud.util.metrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.framework.ProxyFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class OperationMetricsInterceptorTest {
+
+    // instrumented like a repository
+    public static class FakeRepository {
+
+        public Mono<Long> mvAll() {
+            return Mono.just( 5L );
+        }
+
+        public Mono<Long> countAll() {
+            return Mono.just( 5L );
+        }
+
+        public Flux<String> lsAll() {
+            return Flux.just( "a", "b", "c" );
+        }
+
+        public Flux<String> lsNever() {
+            return Flux.never();
+        }
+
+        public Mono<Void> rmAll() {
+            return Mono.error( new IllegalStateException() );
+        }
+
+        public Mono<Void> putData(Flux<ByteBuffer> data) {
+            return data.then();
+        }
+
+        public Mono<Boolean> isReady() {
+            return Mono.just( true );
+        }
+    }
+
+    private SimpleMeterRegistry registry;
+    private FakeRepository repository;
+
+    @BeforeEach
+    void before() {
+        registry = new SimpleMeterRegistry();
+        ProxyFactory proxyFactory = new ProxyFactory( new FakeRepository() );
+        proxyFactory.setProxyTargetClass( true );
+        proxyFactory.addAdvice( new OperationMetricsInterceptor( "FakeRepository", true, () -> registry ) );
+        repository = (FakeRepository) proxyFactory.getProxy();
+    }
+
+    @Test
+    @DisplayName("An operation is timed per subscription and tagged with its outcome")
+    void timesEachSubscription() {
+        Mono<Long> mv = repository.mvAll();
+        StepVerifier.create( mv ).expectNext( 5L ).verifyComplete();
+        StepVerifier.create( mv ).expectNext( 5L ).verifyComplete();
+        StepVerifier.create( repository.rmAll() ).verifyError( IllegalStateException.class );
+        assertEquals( 2, registry.get( OperationMetrics.OPERATION_TIMER )
+                .tags( OperationMetrics.COMPONENT_TAG, "FakeRepository", OperationMetrics.OPERATION_TAG, "mv",
+                        OperationMetrics.METHOD_TAG, "mvAll", OperationMetrics.OUTCOME_TAG, "success" )
+                .timer().count() );
+        assertEquals( 1, registry.get( OperationMetrics.OPERATION_TIMER )
+                .tags( OperationMetrics.OPERATION_TAG, "rm", OperationMetrics.OUTCOME_TAG, "error" )
+                .timer().count() );
+    }
+
+    @Test
+    @DisplayName("A cancel is tagged cancelled only when nothing was emitted")
+    void tagsCancelAfterElementAsSuccess() {
+        StepVerifier.create( repository.lsAll().take( 1 ) ).expectNext( "a" ).verifyComplete();
+        StepVerifier.create( repository.lsNever() ).thenCancel().verify();
+        assertEquals( 1, registry.get( OperationMetrics.OPERATION_TIMER )
+                .tags( OperationMetrics.METHOD_TAG, "lsAll", OperationMetrics.OUTCOME_TAG, "success" )
+                .timer().count() );
+        assertNull( registry.find( OperationMetrics.OPERATION_TIMER )
+                .tags( OperationMetrics.METHOD_TAG, "lsAll", OperationMetrics.OUTCOME_TAG, "cancelled" ).timer() );
+        assertEquals( 1, registry.get( OperationMetrics.OPERATION_TIMER )
+                .tags( OperationMetrics.METHOD_TAG, "lsNever", OperationMetrics.OUTCOME_TAG, "cancelled" )
+                .timer().count() );
+    }
+
+    @Test
+    @DisplayName("A Mono<Long> of a mutating operation counts as rows affected, otherwise each element is a row")
+    void countsRows() {
+        StepVerifier.create( repository.mvAll() ).expectNextCount( 1 ).verifyComplete();
+        StepVerifier.create( repository.countAll() ).expectNextCount( 1 ).verifyComplete();
+        StepVerifier.create( repository.lsAll() ).expectNextCount( 3 ).verifyComplete();
+        assertEquals( 5, registry.get( OperationMetrics.ROWS_COUNTER ).tags( OperationMetrics.OPERATION_TAG, "mv" )
+                .counter().count() );
+        assertEquals( 1, registry.get( OperationMetrics.ROWS_COUNTER ).tags( OperationMetrics.METHOD_TAG, "countAll" )
+                .counter().count() );
+        assertEquals( 3, registry.get( OperationMetrics.ROWS_COUNTER ).tags( OperationMetrics.OPERATION_TAG, "ls" )
+                .counter().count() );
+    }
+
+    @Test
+    @DisplayName("Bytes of a Flux<ByteBuffer> argument are counted")
+    void countsBytes() {
+        Flux<ByteBuffer> data = Flux.just( ByteBuffer.allocate( 100 ), ByteBuffer.allocate( 23 ) );
+        StepVerifier.create( repository.putData( data ) ).verifyComplete();
+        assertEquals( 123, registry.get( OperationMetrics.BYTES_COUNTER ).tags( OperationMetrics.OPERATION_TAG, "put" )
+                .counter().count() );
+    }
+
+    @Test
+    @DisplayName("Methods which are not operations are not timed")
+    void ignoresOtherMethods() {
+        StepVerifier.create( repository.isReady() ).expectNext( true ).verifyComplete();
+        assertNull( registry.find( OperationMetrics.OPERATION_TIMER ).tags( OperationMetrics.METHOD_TAG, "isReady" ).timer() );
+        assertNull( OperationMetrics.operationOf( "createBucketIfNotExists" ) );
+        assertEquals( "put", OperationMetrics.operationOf( "createFile" ) );
+    }
+}